@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OperationsPerInvocation;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
@@ -76,14 +77,37 @@ public class ResultSetBenchmark extends TransactionWorthy {
         connection.close();
     }
 
+    // ResultSet.next() timer is disabled by default, so this only measures the row counting
     @Benchmark
     @OperationsPerInvocation(10000)
     public void next() throws Exception {
         doSomethingTransactionWorthy();
     }
 
+    // same as next() above, but with the ResultSet.next() timer enabled via the jdbc plugin
+    // property captureResultSetNavigate (the relative conf dir assumes the benchmarks are run from
+    // this module's directory, as described in the README)
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    @Fork(jvmArgsAppend = "-Dglowroot.conf.dir=conf/result-set-navigate-timer")
+    public void nextWithNavigateTimer() throws Exception {
+        doSomethingTransactionWorthy();
+    }
+
+    // baseline for next() above, the difference between the two is the per-row overhead of the
+    // jdbc plugin (plus the amortized cost of the transaction and the query entry)
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    public void nextWithoutTransaction() throws Exception {
+        iterate();
+    }
+
     @Override
     public void doSomethingTransactionWorthy() throws SQLException {
+        iterate();
+    }
+
+    private void iterate() throws SQLException {
         ResultSet resultSet = preparedStatement.executeQuery();
         for (int i = 0; i < 10000; i++) {
             resultSet.next();
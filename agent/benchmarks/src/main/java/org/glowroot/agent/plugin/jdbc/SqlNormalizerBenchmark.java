@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// run with -prof gc to see allocation rate (the NO_LITERALS case should not allocate at all)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SqlNormalizerBenchmark {
+
+    @Param
+    private Sql sql;
+
+    @Benchmark
+    public String normalize() {
+        return SqlNormalizer.normalize(sql.text);
+    }
+
+    public enum Sql {
+
+        NO_LITERALS("select e.id, e.name, d.name from employee e join department d"
+                + " on e.department_id = d.id where e.name = ? and d.name = ?"),
+        LITERALS("select e.id, e.name, d.name from employee e join department d"
+                + " on e.department_id = d.id where e.name = 'john doe' and d.id = 12345"),
+        IN_LIST("select * from employee where id in (1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13,"
+                + " 14, 15, 16, 17, 18, 19, 20) and name <> 'john doe'");
+
+        private final String text;
+
+        private Sql(String text) {
+            this.text = text;
+        }
+    }
+}
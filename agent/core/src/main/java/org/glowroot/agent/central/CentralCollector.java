@@ -33,9 +33,11 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.central.CentralConnection.GrpcCall;
 import org.glowroot.agent.collector.Collector;
+import org.glowroot.agent.live.LiveAggregateRepositoryImpl;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.common.util.AggregateFlushOffsets;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -77,18 +79,29 @@ public class CentralCollector implements Collector {
 
     private final SharedQueryTextLimiter sharedQueryTextLimiter = new SharedQueryTextLimiter();
 
+    // this only delays sending the aggregates, the aggregate interval itself still ends on the
+    // minute boundary
     private volatile int nextAggregateDelayMillis;
 
+    // only enabled when the central collector advertises support (central 0.9.27 and later), and
+    // re-checked after every aggregate stream since in a central cluster, consecutive streams can
+    // land on different central nodes, which may not all be running the same version
+    private volatile boolean sharedTimerNames;
+
     public CentralCollector(Map<String, String> properties, String collectorAddress,
             LiveJvmServiceImpl liveJvmService, LiveWeavingServiceImpl liveWeavingService,
-            LiveTraceRepositoryImpl liveTraceRepository, AgentConfigUpdater agentConfigUpdater)
-            throws Exception {
+            LiveTraceRepositoryImpl liveTraceRepository,
+            LiveAggregateRepositoryImpl liveAggregateRepository,
+            AgentConfigUpdater agentConfigUpdater) throws Exception {
 
         String agentId = properties.get("glowroot.agent.id");
         if (Strings.isNullOrEmpty(agentId)) {
             agentId = InetAddress.getLocalHost().getHostName();
         }
         this.agentId = agentId;
+        // used until the central collector responds with this agent's slot
+        nextAggregateDelayMillis = AggregateFlushOffsets.getOffsetMillis(agentId,
+                AggregateFlushOffsets.MIN_WINDOW_MILLIS);
         this.agentRollupId = Strings.nullToEmpty(properties.get("glowroot.agent.rollup.id"));
         this.collectorAddress = collectorAddress;
 
@@ -104,7 +117,7 @@ public class CentralCollector implements Collector {
                 .withCompression("gzip");
         downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
                 agentConfigUpdater, liveJvmService, liveWeavingService, liveTraceRepository,
-                agentId, inConnectionFailure, sharedQueryTextLimiter);
+                liveAggregateRepository, agentId, inConnectionFailure, sharedQueryTextLimiter);
     }
 
     @Override
@@ -127,6 +140,7 @@ public class CentralCollector implements Collector {
                 // startup logger info messages are never sent to the central collector
                 startupLogger.info("connected to the central collector {}, version {}",
                         collectorAddress, response.getGlowrootCentralVersion());
+                sharedTimerNames = response.getSharedTimerNamesSupported();
                 if (response.hasAgentConfig()) {
                     try {
                         agentConfigUpdater.update(response.getAgentConfig());
@@ -207,8 +221,12 @@ public class CentralCollector implements Collector {
 
         private class AggregateVisitorImpl implements AggregateVisitor {
             private final StreamObserver<AggregateStreamMessage> requestObserver;
-            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver) {
+            private final @Nullable SharedTimerNames sharedTimerNames;
+            private final List<String> newSharedTimerNames = Lists.newArrayList();
+            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver,
+                    @Nullable SharedTimerNames sharedTimerNames) {
                 this.requestObserver = requestObserver;
+                this.sharedTimerNames = sharedTimerNames;
             }
             @Override
             public void visitOverallAggregate(String transactionType,
@@ -227,7 +245,7 @@ public class CentralCollector implements Collector {
                 requestObserver.onNext(AggregateStreamMessage.newBuilder()
                         .setOverallAggregate(OverallAggregate.newBuilder()
                                 .setTransactionType(transactionType)
-                                .setAggregate(overallAggregate))
+                                .setAggregate(replaceTimerNames(overallAggregate)))
                         .build());
             }
             @Override
@@ -244,14 +262,31 @@ public class CentralCollector implements Collector {
                         .setTransactionAggregate(TransactionAggregate.newBuilder()
                                 .setTransactionType(transactionType)
                                 .setTransactionName(transactionName)
-                                .setAggregate(transactionAggregate))
+                                .setAggregate(replaceTimerNames(transactionAggregate)))
                         .build());
             }
+            // sends any new shared timer names prior to returning
+            private Aggregate replaceTimerNames(Aggregate aggregate) {
+                if (sharedTimerNames == null) {
+                    return aggregate;
+                }
+                Aggregate updatedAggregate =
+                        sharedTimerNames.replaceTimerNames(aggregate, newSharedTimerNames);
+                for (String newSharedTimerName : newSharedTimerNames) {
+                    requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                            .setSharedTimerName(newSharedTimerName)
+                            .build());
+                }
+                newSharedTimerNames.clear();
+                return updatedAggregate;
+            }
         }
 
         private final AggregateReader aggregateReader;
         private final List<String> fullTextSha1s = Lists.newArrayList();
 
+        private boolean sentSharedTimerNames;
+
         private CollectAggregatesGrpcCall(AggregateReader aggregateReader) {
             this.aggregateReader = aggregateReader;
         }
@@ -260,15 +295,31 @@ public class CentralCollector implements Collector {
         public void call(StreamObserver<AggregateResponseMessage> responseObserver) {
             final StreamObserver<AggregateStreamMessage> requestObserver =
                     collectorServiceStub.collectAggregateStream(responseObserver);
+            boolean sharedTimerNames;
+            if (sentSharedTimerNames) {
+                // this is a retry, and the previous attempt may have landed on a central node that
+                // does not support shared timer names (older central nodes reject the stream before
+                // storing anything), so fall back to inline timer names until a central node
+                // acknowledges support again
+                CentralCollector.this.sharedTimerNames = false;
+                sharedTimerNames = false;
+            } else {
+                // capture once since the value can change concurrently
+                sharedTimerNames = CentralCollector.this.sharedTimerNames;
+            }
+            sentSharedTimerNames = sharedTimerNames;
             requestObserver.onNext(AggregateStreamMessage.newBuilder()
                     .setStreamHeader(AggregateStreamHeader.newBuilder()
                             .setAgentId(agentId)
-                            .setCaptureTime(aggregateReader.captureTime()))
+                            .setCaptureTime(aggregateReader.captureTime())
+                            .setSharedTimerNames(sharedTimerNames))
                     .build());
             // need to clear in case this is a retry
             fullTextSha1s.clear();
             try {
-                aggregateReader.accept(new AggregateVisitorImpl(requestObserver));
+                // shared timer names are per stream, so need new instance in case this is a retry
+                aggregateReader.accept(new AggregateVisitorImpl(requestObserver,
+                        sharedTimerNames ? new SharedTimerNames() : null));
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 requestObserver.onError(t);
@@ -281,6 +332,7 @@ public class CentralCollector implements Collector {
         public void doWithResponse(AggregateResponseMessage response) {
             // Math.min is just for safety
             nextAggregateDelayMillis = Math.min(response.getNextDelayMillis(), 30000);
+            CentralCollector.this.sharedTimerNames = response.getSharedTimerNamesSupported();
             for (String fullTextSha1 : fullTextSha1s) {
                 sharedQueryTextLimiter.onSuccessfullySentToCentralCollector(fullTextSha1);
             }
@@ -29,12 +29,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.collector.Collector.AgentConfigUpdater;
+import org.glowroot.agent.live.LiveAggregateRepositoryImpl;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
 import org.glowroot.agent.util.RateLimitedLogger;
 import org.glowroot.agent.util.ThreadFactories;
 import org.glowroot.common.live.LiveJvmService.DirectoryDoesNotExistException;
+import org.glowroot.common.live.LiveJvmService.HeapHistogramDiffBaselineExpiredException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInIbmJvmException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInJreException;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
@@ -59,9 +61,11 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeaderResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Hello;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.JstackResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpResponse;
@@ -100,6 +104,7 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
     private final LiveJvmServiceImpl liveJvmService;
     private final LiveWeavingServiceImpl liveWeavingService;
     private final LiveTraceRepositoryImpl liveTraceRepository;
+    private final LiveAggregateRepositoryImpl liveAggregateRepository;
     private final String agentId;
 
     private volatile @Nullable StreamObserver<AgentResponse> currResponseObserver;
@@ -120,7 +125,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
     DownstreamServiceObserver(CentralConnection centralConnection,
             AgentConfigUpdater agentConfigUpdater, LiveJvmServiceImpl liveJvmService,
             LiveWeavingServiceImpl liveWeavingService, LiveTraceRepositoryImpl liveTraceRepository,
-            String agentId, AtomicBoolean inConnectionFailure,
+            LiveAggregateRepositoryImpl liveAggregateRepository, String agentId,
+            AtomicBoolean inConnectionFailure,
             SharedQueryTextLimiter sharedQueryTextLimiter) {
         this.centralConnection = centralConnection;
         downstreamServiceStub = DownstreamServiceGrpc.newStub(centralConnection.getChannel())
@@ -129,6 +135,7 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         this.liveJvmService = liveJvmService;
         this.liveWeavingService = liveWeavingService;
         this.liveTraceRepository = liveTraceRepository;
+        this.liveAggregateRepository = liveAggregateRepository;
         this.agentId = agentId;
         this.inConnectionFailure = inConnectionFailure;
         this.sharedQueryTextLimiter = sharedQueryTextLimiter;
@@ -274,6 +281,9 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             case FULL_TRACE_REQUEST:
                 getFullTraceAndRespond(request, responseObserver);
                 return;
+            case LIVE_AGGREGATES_REQUEST:
+                getLiveAggregatesAndRespond(request, responseObserver);
+                return;
             default:
                 responseObserver.onNext(AgentResponse.newBuilder()
                         .setRequestId(request.getRequestId())
@@ -402,9 +412,27 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private void heapHistogramAndRespond(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
+        HeapHistogramRequest heapHistogramRequest = request.getHeapHistogramRequest();
+        String diffId = heapHistogramRequest.getDiffId();
         HeapHistogram heapHistogram;
         try {
-            heapHistogram = liveJvmService.heapHistogram("");
+            if (diffId.isEmpty()) {
+                heapHistogram = liveJvmService.heapHistogram("");
+            } else if (heapHistogramRequest.getDiffBaseline()) {
+                liveJvmService.heapHistogramDiffBaseline("", diffId);
+                heapHistogram = HeapHistogram.getDefaultInstance();
+            } else {
+                heapHistogram = liveJvmService.heapHistogramDiff("", diffId);
+            }
+        } catch (HeapHistogramDiffBaselineExpiredException e) {
+            logger.debug(e.getMessage(), e);
+            responseObserver.onNext(AgentResponse.newBuilder()
+                    .setRequestId(request.getRequestId())
+                    .setHeapHistogramResponse(HeapHistogramResponse.newBuilder()
+                            .setDiffSupported(true)
+                            .setDiffBaselineExpired(true))
+                    .build());
+            return;
         } catch (UnavailableDueToRunningInJreException e) {
             logger.debug(e.getMessage(), e);
             responseObserver.onNext(AgentResponse.newBuilder()
@@ -429,7 +457,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         responseObserver.onNext(AgentResponse.newBuilder()
                 .setRequestId(request.getRequestId())
                 .setHeapHistogramResponse(HeapHistogramResponse.newBuilder()
-                        .setHeapHistogram(heapHistogram))
+                        .setHeapHistogram(heapHistogram)
+                        .setDiffSupported(!diffId.isEmpty()))
                 .build());
     }
 
@@ -766,6 +795,22 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
                 .build());
     }
 
+    private void getLiveAggregatesAndRespond(CentralRequest request,
+            StreamObserver<AgentResponse> responseObserver) {
+        LiveAggregatesResponse response;
+        try {
+            response = liveAggregateRepository.getLiveAggregates();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            sendExceptionResponse(request, responseObserver);
+            return;
+        }
+        responseObserver.onNext(AgentResponse.newBuilder()
+                .setRequestId(request.getRequestId())
+                .setLiveAggregatesResponse(response)
+                .build());
+    }
+
     private void sendExceptionResponse(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
         responseObserver.onNext(AgentResponse.newBuilder()
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// per aggregate stream dictionary of timer names, so that each timer name is sent only once per
+// stream instead of once per timer per transaction aggregate (grpc compression is per message, so
+// it does not help with names that are repeated across messages)
+class SharedTimerNames {
+
+    private final Map<String, Integer> sharedNameIndexes = Maps.newHashMap();
+
+    // newSharedTimerNames is populated with any timer names that have not been sent yet in this
+    // stream, and these must be sent prior to sending the returned aggregate
+    Aggregate replaceTimerNames(Aggregate aggregate, List<String> newSharedTimerNames) {
+        Aggregate.Builder builder = aggregate.toBuilder();
+        for (int i = 0; i < builder.getMainThreadRootTimerCount(); i++) {
+            builder.setMainThreadRootTimer(i,
+                    replaceTimerNames(builder.getMainThreadRootTimer(i), newSharedTimerNames));
+        }
+        for (int i = 0; i < builder.getAuxThreadRootTimerCount(); i++) {
+            builder.setAuxThreadRootTimer(i,
+                    replaceTimerNames(builder.getAuxThreadRootTimer(i), newSharedTimerNames));
+        }
+        for (int i = 0; i < builder.getAsyncTimerCount(); i++) {
+            builder.setAsyncTimer(i,
+                    replaceTimerNames(builder.getAsyncTimer(i), newSharedTimerNames));
+        }
+        return builder.build();
+    }
+
+    private Aggregate.Timer replaceTimerNames(Aggregate.Timer timer,
+            List<String> newSharedTimerNames) {
+        Aggregate.Timer.Builder builder = timer.toBuilder()
+                .clearName()
+                .setSharedNameIndex(getSharedNameIndex(timer.getName(), newSharedTimerNames));
+        for (int i = 0; i < builder.getChildTimerCount(); i++) {
+            builder.setChildTimer(i,
+                    replaceTimerNames(builder.getChildTimer(i), newSharedTimerNames));
+        }
+        return builder.build();
+    }
+
+    private int getSharedNameIndex(String name, List<String> newSharedTimerNames) {
+        Integer sharedNameIndex = sharedNameIndexes.get(name);
+        if (sharedNameIndex == null) {
+            sharedNameIndex = sharedNameIndexes.size();
+            sharedNameIndexes.put(name, sharedNameIndex);
+            newSharedTimerNames.add(name);
+        }
+        return sharedNameIndex;
+    }
+}
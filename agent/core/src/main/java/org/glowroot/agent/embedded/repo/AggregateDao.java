@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -42,6 +43,7 @@ import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
 import org.glowroot.agent.embedded.util.DataSource.JdbcRowQuery;
 import org.glowroot.agent.embedded.util.ImmutableColumn;
 import org.glowroot.agent.embedded.util.ImmutableIndex;
+import org.glowroot.agent.embedded.util.PartitionedTable;
 import org.glowroot.agent.embedded.util.RowMappers;
 import org.glowroot.agent.embedded.util.Schemas.Column;
 import org.glowroot.agent.embedded.util.Schemas.ColumnType;
@@ -67,10 +69,15 @@ import org.glowroot.common.model.TransactionErrorSummaryCollector.ErrorSummarySo
 import org.glowroot.common.model.TransactionSummaryCollector;
 import org.glowroot.common.model.TransactionSummaryCollector.SummarySortOrder;
 import org.glowroot.common.repo.AggregateRepository;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
+import org.glowroot.common.repo.AggregateRollups.OverviewRollup;
+import org.glowroot.common.repo.AggregateRollups.PercentileRollup;
+import org.glowroot.common.repo.AggregateRollups.ThroughputRollup;
 import org.glowroot.common.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common.repo.MutableAggregate;
 import org.glowroot.common.repo.util.RollupLevelService;
 import org.glowroot.common.repo.util.ThreadStatsCreator;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -154,13 +161,16 @@ public class AggregateDao implements AggregateRepository {
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
 
+    private final ImmutableList<PartitionedTable> overallTables;
+    private final ImmutableList<PartitionedTable> transactionTables;
+
     private final AtomicLongArray lastRollupTimes;
 
     private final Object rollupLock = new Object();
 
     AggregateDao(DataSource dataSource, List<CappedDatabase> rollupCappedDatabases,
             ConfigRepositoryImpl configRepository, TransactionTypeDao transactionTypeDao,
-            FullQueryTextDao fullQueryTextDao) throws Exception {
+            FullQueryTextDao fullQueryTextDao, Clock clock) throws Exception {
         this.dataSource = dataSource;
         this.rollupCappedDatabases = rollupCappedDatabases;
         this.configRepository = configRepository;
@@ -168,24 +178,43 @@ public class AggregateDao implements AggregateRepository {
         this.fullQueryTextDao = fullQueryTextDao;
 
         List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        List<PartitionedTable> overallTables = Lists.newArrayList();
+        List<PartitionedTable> transactionTables = Lists.newArrayList();
         for (int i = 0; i < rollupConfigs.size(); i++) {
+            long partitionMillis =
+                    PartitionedTable.getPartitionMillis(rollupConfigs.get(i).intervalMillis());
             String overallTableName = "aggregate_tt_rollup_" + castUntainted(i);
-            dataSource.syncTable(overallTableName, overallAggregatePointColumns);
-            dataSource.syncIndexes(overallTableName, ImmutableList.<Index>of(
-                    ImmutableIndex.of(overallTableName + "_idx", overallAggregateIndexColumns)));
+            overallTables.add(new PartitionedTable(dataSource, overallTableName,
+                    overallAggregatePointColumns,
+                    ImmutableList.<Index>of(ImmutableIndex.of(overallTableName + "_idx",
+                            overallAggregateIndexColumns)),
+                    partitionMillis, clock.currentTimeMillis()));
             String transactionTableName = "aggregate_tn_rollup_" + castUntainted(i);
-            dataSource.syncTable(transactionTableName, transactionAggregateColumns);
-            dataSource.syncIndexes(transactionTableName, ImmutableList.<Index>of(ImmutableIndex
-                    .of(transactionTableName + "_idx", transactionAggregateIndexColumns)));
+            transactionTables.add(new PartitionedTable(dataSource, transactionTableName,
+                    transactionAggregateColumns,
+                    ImmutableList.<Index>of(ImmutableIndex.of(transactionTableName + "_idx",
+                            transactionAggregateIndexColumns)),
+                    partitionMillis, clock.currentTimeMillis()));
         }
+        this.overallTables = ImmutableList.copyOf(overallTables);
+        this.transactionTables = ImmutableList.copyOf(transactionTables);
 
         // don't need last_rollup_times table like in GaugeValueDao since there is already index
         // on capture_time so these queries are relatively fast
         long[] lastRollupTimes = new long[rollupConfigs.size()];
         lastRollupTimes[0] = 0;
         for (int i = 1; i < lastRollupTimes.length; i++) {
-            lastRollupTimes[i] = dataSource.queryForLong("select ifnull(max(capture_time), 0)"
-                    + " from aggregate_tt_rollup_" + castUntainted(i));
+            // querying partitions individually since h2 doesn't use the capture_time index for
+            // max() over the union view
+            for (String partitionTableName : overallTables.get(i)
+                    .getPartitionTableNamesNewestFirst()) {
+                Long maxCaptureTime = dataSource.queryForOptionalLong(
+                        "select max(capture_time) from " + castUntainted(partitionTableName));
+                if (maxCaptureTime != null) {
+                    lastRollupTimes[i] = maxCaptureTime;
+                    break;
+                }
+            }
         }
         this.lastRollupTimes = new AtomicLongArray(lastRollupTimes);
 
@@ -204,7 +233,9 @@ public class AggregateDao implements AggregateRepository {
                     Aggregate overallAggregate) throws Exception {
                 addToTruncatedQueryTexts(sharedQueryTexts);
                 dataSource.update(new AggregateInsert(transactionType, null, captureTime,
-                        overallAggregate, truncatedQueryTexts, 0, cappedDatabase));
+                        overallAggregate, truncatedQueryTexts,
+                        overallTables.get(0).getPartitionTableName(captureTime),
+                        cappedDatabase));
                 transactionTypeDao.updateLastCaptureTime(transactionType, captureTime);
             }
             @Override
@@ -213,7 +244,9 @@ public class AggregateDao implements AggregateRepository {
                     throws Exception {
                 addToTruncatedQueryTexts(sharedQueryTexts);
                 dataSource.update(new AggregateInsert(transactionType, transactionName, captureTime,
-                        transactionAggregate, truncatedQueryTexts, 0, cappedDatabase));
+                        transactionAggregate, truncatedQueryTexts,
+                        transactionTables.get(0).getPartitionTableName(captureTime),
+                        cappedDatabase));
             }
             private void addToTruncatedQueryTexts(List<String> sharedQueryTexts)
                     throws SQLException {
@@ -302,6 +335,39 @@ public class AggregateDao implements AggregateRepository {
         return dataSource.query(new ThroughputAggregateQuery(query));
     }
 
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamOverviewAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn, AggregateConsumer<OverviewAggregate> consumer)
+            throws Exception {
+        OverviewRollup rollup = new OverviewRollup(rollupCaptureTimeFn, consumer);
+        dataSource.query(new StreamingQuery<OverviewAggregate>(new OverviewAggregateQuery(query),
+                rollup));
+        rollup.finish();
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamPercentileAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<PercentileAggregate> consumer) throws Exception {
+        PercentileRollup rollup = new PercentileRollup(rollupCaptureTimeFn, consumer);
+        dataSource.query(new StreamingQuery<PercentileAggregate>(
+                new PercentileAggregateQuery(query), rollup));
+        rollup.finish();
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamThroughputAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<ThroughputAggregate> consumer) throws Exception {
+        ThroughputRollup rollup = new ThroughputRollup(rollupCaptureTimeFn, consumer);
+        dataSource.query(new StreamingQuery<ThroughputAggregate>(
+                new ThroughputAggregateQuery(query), rollup));
+        rollup.finish();
+    }
+
     @Override
     public @Nullable String readFullQueryText(String agentRollupId, String fullQueryTextSha1)
             throws Exception {
@@ -418,8 +484,8 @@ public class AggregateDao implements AggregateRepository {
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
-        dataSource.deleteBefore("aggregate_tt_rollup_" + castUntainted(rollupLevel), captureTime);
-        dataSource.deleteBefore("aggregate_tn_rollup_" + castUntainted(rollupLevel), captureTime);
+        overallTables.get(rollupLevel).deleteBefore(captureTime);
+        transactionTables.get(rollupLevel).deleteBefore(captureTime);
     }
 
     private void rollup(long lastRollupTime, long curentRollupTime, long fixedIntervalMillis,
@@ -427,10 +493,13 @@ public class AggregateDao implements AggregateRepository {
         List<Long> rollupTimes = dataSource.query(new RollupTimeRowMapper(fromRollupLevel,
                 fixedIntervalMillis, lastRollupTime, curentRollupTime));
         for (Long rollupTime : rollupTimes) {
+            // partition table names need to be obtained outside of the data source lock
             dataSource.query(new RollupOverallAggregates(rollupTime, fixedIntervalMillis,
-                    fromRollupLevel, toRollupLevel));
+                    fromRollupLevel, toRollupLevel,
+                    overallTables.get(toRollupLevel).getPartitionTableName(rollupTime)));
             dataSource.query(new RollupTransactionAggregates(rollupTime, fixedIntervalMillis,
-                    fromRollupLevel, toRollupLevel));
+                    fromRollupLevel, toRollupLevel,
+                    transactionTables.get(toRollupLevel).getPartitionTableName(rollupTime)));
         }
     }
 
@@ -976,20 +1045,57 @@ public class AggregateDao implements AggregateRepository {
         }
     }
 
+    // passes each row to the consumer as it is read instead of collecting the rows into a list
+    private static class StreamingQuery<T> implements JdbcQuery</*@Nullable*/ Void> {
+
+        private final JdbcRowQuery<T> rowQuery;
+        private final AggregateConsumer<T> consumer;
+
+        private StreamingQuery(JdbcRowQuery<T> rowQuery, AggregateConsumer<T> consumer) {
+            this.rowQuery = rowQuery;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return rowQuery.getSql();
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws Exception {
+            rowQuery.bind(preparedStatement);
+        }
+
+        @Override
+        public @Nullable Void processResultSet(ResultSet resultSet) throws Exception {
+            while (resultSet.next()) {
+                consumer.accept(rowQuery.mapRow(resultSet));
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void valueIfDataSourceClosed() {
+            return null;
+        }
+    }
+
     private class RollupOverallAggregates implements JdbcQuery</*@Nullable*/ Void> {
 
         private final long rollupCaptureTime;
         private final long fixedIntervalMillis;
         private final int fromRollupLevel;
         private final int toRollupLevel;
+        private final @Untainted String toTableName;
         private final ScratchBuffer scratchBuffer = new ScratchBuffer();
 
         private RollupOverallAggregates(long rollupCaptureTime, long fixedIntervalMillis,
-                int fromRollupLevel, int toRollupLevel) {
+                int fromRollupLevel, int toRollupLevel, @Untainted String toTableName) {
             this.rollupCaptureTime = rollupCaptureTime;
             this.fixedIntervalMillis = fixedIntervalMillis;
             this.fromRollupLevel = fromRollupLevel;
             this.toRollupLevel = toRollupLevel;
+            this.toTableName = toTableName;
         }
 
         @Override
@@ -1024,7 +1130,7 @@ public class AggregateDao implements AggregateRepository {
                 if (curr == null || !transactionType.equals(curr.transactionType())) {
                     if (curr != null) {
                         dataSource.update(new AggregateInsert(curr.transactionType(), null,
-                                rollupCaptureTime, curr.aggregate(), toRollupLevel,
+                                rollupCaptureTime, curr.aggregate(), toTableName,
                                 cappedDatabase, scratchBuffer));
                     }
                     curr = ImmutableMutableOverallAggregate.of(transactionType,
@@ -1035,7 +1141,7 @@ public class AggregateDao implements AggregateRepository {
             }
             if (curr != null) {
                 dataSource.update(new AggregateInsert(curr.transactionType(), null,
-                        rollupCaptureTime, curr.aggregate(), toRollupLevel, cappedDatabase,
+                        rollupCaptureTime, curr.aggregate(), toTableName, cappedDatabase,
                         scratchBuffer));
             }
             return null;
@@ -1053,13 +1159,15 @@ public class AggregateDao implements AggregateRepository {
         private final long fixedIntervalMillis;
         private final int fromRollupLevel;
         private final int toRollupLevel;
+        private final @Untainted String toTableName;
 
         private RollupTransactionAggregates(long rollupCaptureTime, long fixedIntervalMillis,
-                int fromRollupLevel, int toRollupLevel) {
+                int fromRollupLevel, int toRollupLevel, @Untainted String toTableName) {
             this.rollupCaptureTime = rollupCaptureTime;
             this.fixedIntervalMillis = fixedIntervalMillis;
             this.fromRollupLevel = fromRollupLevel;
             this.toRollupLevel = toRollupLevel;
+            this.toTableName = toTableName;
         }
 
         @Override
@@ -1100,7 +1208,7 @@ public class AggregateDao implements AggregateRepository {
                     if (curr != null) {
                         dataSource.update(new AggregateInsert(curr.transactionType(),
                                 curr.transactionName(), rollupCaptureTime, curr.aggregate(),
-                                toRollupLevel, cappedDatabase, scratchBuffer));
+                                toTableName, cappedDatabase, scratchBuffer));
                     }
                     curr = ImmutableMutableTransactionAggregate.of(transactionType, transactionName,
                             new MutableAggregate(maxAggregateQueriesPerType,
@@ -1110,7 +1218,7 @@ public class AggregateDao implements AggregateRepository {
             }
             if (curr != null) {
                 dataSource.update(new AggregateInsert(curr.transactionType(),
-                        curr.transactionName(), rollupCaptureTime, curr.aggregate(), toRollupLevel,
+                        curr.transactionName(), rollupCaptureTime, curr.aggregate(), toTableName,
                         cappedDatabase, scratchBuffer));
             }
             return null;
@@ -74,15 +74,15 @@ class AggregateInsert implements JdbcUpdate {
     private final @Nullable Double auxThreadTotalAllocatedBytes;
     private final byte[] durationNanosHistogramBytes;
 
-    private final int rollupLevel;
+    private final @Untainted String tableName;
 
     AggregateInsert(String transactionType, @Nullable String transactionName,
             long captureTime, Aggregate aggregate, List<TruncatedQueryText> truncatedQueryTexts,
-            int rollupLevel, CappedDatabase cappedDatabase) throws IOException {
+            @Untainted String tableName, CappedDatabase cappedDatabase) throws IOException {
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.captureTime = captureTime;
-        this.rollupLevel = rollupLevel;
+        this.tableName = tableName;
         totalDurationNanos = aggregate.getTotalDurationNanos();
         transactionCount = aggregate.getTransactionCount();
         errorCount = aggregate.getErrorCount();
@@ -137,12 +137,12 @@ class AggregateInsert implements JdbcUpdate {
     }
 
     AggregateInsert(String transactionType, @Nullable String transactionName,
-            long captureTime, MutableAggregate aggregate, int rollupLevel,
+            long captureTime, MutableAggregate aggregate, @Untainted String tableName,
             CappedDatabase cappedDatabase, ScratchBuffer scratchBuffer) throws IOException {
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.captureTime = captureTime;
-        this.rollupLevel = rollupLevel;
+        this.tableName = tableName;
         totalDurationNanos = aggregate.getTotalDurationNanos();
         transactionCount = aggregate.getTransactionCount();
         errorCount = aggregate.getErrorCount();
@@ -177,14 +177,8 @@ class AggregateInsert implements JdbcUpdate {
     @Override
     public @Untainted String getSql() {
         StringBuilder sb = new StringBuilder();
-        sb.append("merge into aggregate_");
-        if (transactionName != null) {
-            sb.append("tn_");
-        } else {
-            sb.append("tt_");
-        }
-        sb.append("rollup_");
-        sb.append(castUntainted(rollupLevel));
+        sb.append("merge into ");
+        sb.append(tableName);
         sb.append(" (transaction_type,");
         if (transactionName != null) {
             sb.append(" transaction_name,");
@@ -36,6 +36,7 @@ import org.glowroot.agent.embedded.util.DataSource.JdbcRowQuery;
 import org.glowroot.agent.embedded.util.DataSource.JdbcUpdate;
 import org.glowroot.agent.embedded.util.ImmutableColumn;
 import org.glowroot.agent.embedded.util.ImmutableIndex;
+import org.glowroot.agent.embedded.util.PartitionedTable;
 import org.glowroot.agent.embedded.util.Schemas.Column;
 import org.glowroot.agent.embedded.util.Schemas.ColumnType;
 import org.glowroot.agent.embedded.util.Schemas.Index;
@@ -63,6 +64,7 @@ public class GaugeValueDao implements GaugeValueRepository {
     private final DataSource dataSource;
     private final Clock clock;
     private final ImmutableList<RollupConfig> rollupConfigs;
+    private final ImmutableList<PartitionedTable> gaugeValueTables;
 
     // AtomicLongArray used for visibility
     private final AtomicLongArray lastRollupTimes;
@@ -75,21 +77,23 @@ public class GaugeValueDao implements GaugeValueRepository {
         this.clock = clock;
         this.rollupConfigs = ImmutableList.copyOf(RollupConfig.buildRollupConfigs());
 
+        List<PartitionedTable> gaugeValueTables = Lists.newArrayList();
         for (int i = 0; i <= rollupConfigs.size(); i++) {
-            dataSource.syncTable("gauge_value_rollup_" + castUntainted(i), columns);
-            dataSource.syncIndexes("gauge_value_rollup_" + castUntainted(i),
-                    ImmutableList.<Index>of(
-                            ImmutableIndex.of(
-                                    "gauge_value_rollup_" + castUntainted(i) + "_idx",
-                                    ImmutableList.of("gauge_id", "capture_time", "value",
-                                            "weight")),
-                            // this index is used by rollup query
-                            ImmutableIndex.of(
-                                    "gauge_value_rollup_" + castUntainted(i)
-                                            + "_by_capture_time_idx",
-                                    ImmutableList.of("capture_time", "gauge_id", "value",
-                                            "weight"))));
+            @Untainted
+            String tableName = "gauge_value_rollup_" + castUntainted(i);
+            ImmutableList<Index> indexes = ImmutableList.<Index>of(
+                    ImmutableIndex.of(tableName + "_idx",
+                            ImmutableList.of("gauge_id", "capture_time", "value", "weight")),
+                    // this index is used by rollup query
+                    ImmutableIndex.of(tableName + "_by_capture_time_idx",
+                            ImmutableList.of("capture_time", "gauge_id", "value", "weight")));
+            // level 0 (the raw gauge values) expires along with rollup level 1
+            long intervalMillis = rollupConfigs.get(Math.max(i - 1, 0)).intervalMillis();
+            gaugeValueTables.add(new PartitionedTable(dataSource, tableName, columns, indexes,
+                    PartitionedTable.getPartitionMillis(intervalMillis),
+                    clock.currentTimeMillis()));
         }
+        this.gaugeValueTables = ImmutableList.copyOf(gaugeValueTables);
         List<Column> columns = Lists.newArrayList();
         for (int i = 1; i <= rollupConfigs.size(); i++) {
             columns.add(ImmutableColumn.of("last_rollup_" + i + "_time", ColumnType.BIGINT));
@@ -115,7 +119,9 @@ public class GaugeValueDao implements GaugeValueRepository {
         if (gaugeValues.isEmpty()) {
             return;
         }
-        Map<GaugeValue, Long> gaugeValueIdMap = Maps.newLinkedHashMap();
+        PartitionedTable gaugeValueTable = gaugeValueTables.get(0);
+        Map</*@Untainted*/ String, Map<GaugeValue, Long>> gaugeValueIdMaps =
+                Maps.newLinkedHashMap();
         for (GaugeValue gaugeValue : gaugeValues) {
             long gaugeId = gaugeNameDao.updateLastCaptureTime(gaugeValue.getGaugeName(),
                     gaugeValue.getCaptureTime());
@@ -125,9 +131,19 @@ public class GaugeValueDao implements GaugeValueRepository {
                 // option also
                 return;
             }
+            String partitionTableName =
+                    gaugeValueTable.getPartitionTableName(gaugeValue.getCaptureTime());
+            Map<GaugeValue, Long> gaugeValueIdMap = gaugeValueIdMaps.get(partitionTableName);
+            if (gaugeValueIdMap == null) {
+                gaugeValueIdMap = Maps.newLinkedHashMap();
+                gaugeValueIdMaps.put(partitionTableName, gaugeValueIdMap);
+            }
             gaugeValueIdMap.put(gaugeValue, gaugeId);
         }
-        dataSource.batchUpdate(new GaugeValuesBinder(gaugeValueIdMap));
+        for (Entry</*@Untainted*/ String, Map<GaugeValue, Long>> entry : gaugeValueIdMaps
+                .entrySet()) {
+            dataSource.batchUpdate(new GaugeValuesBinder(entry.getKey(), entry.getValue()));
+        }
         synchronized (rollupLock) {
             // clock can never go backwards and future gauge captures will wait until this method
             // completes since ScheduledExecutorService.scheduleAtFixedRate() guarantees that future
@@ -164,7 +180,7 @@ public class GaugeValueDao implements GaugeValueRepository {
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
-        dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel), captureTime);
+        gaugeValueTables.get(rollupLevel).deleteBefore(captureTime);
     }
 
     void reinitAfterDeletingDatabase() throws Exception {
@@ -176,16 +192,37 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private void rollup(long lastRollupTime, long safeRollupTime, long fixedIntervalMillis,
             int toRollupLevel, int fromRollupLevel) throws Exception {
+        PartitionedTable toTable = gaugeValueTables.get(toRollupLevel);
+        long partitionMillis = toTable.getPartitionMillis();
+        // no need to look at partitions prior to the oldest partition of the source table
+        long fromTime = Math.max(lastRollupTime,
+                gaugeValueTables.get(fromRollupLevel).getFirstPartitionStartTime());
         // need ".0" to force double result
         String captureTimeSql = castUntainted(
                 "ceil(capture_time / " + fixedIntervalMillis + ".0) * " + fixedIntervalMillis);
-        dataSource.update("merge into gauge_value_rollup_" + castUntainted(toRollupLevel)
-                + " (gauge_id, capture_time, value, weight) key (gauge_id, capture_time)"
-                + " select gauge_id, " + captureTimeSql + " ceil_capture_time,"
-                + " sum(value * weight) / sum(weight), sum(weight) from gauge_value_rollup_"
-                + castUntainted(fromRollupLevel) + " gp where gp.capture_time > ?"
-                + " and gp.capture_time <= ? group by gp.gauge_id, ceil_capture_time",
-                lastRollupTime, safeRollupTime);
+        // merge into one target partition at a time, partition size is a multiple of the rollup
+        // interval so the rolled up capture times for source rows in
+        // (partitionStart - interval, partitionEnd - interval] all land in that partition
+        for (long partition = fromTime / partitionMillis; partition <= safeRollupTime
+                / partitionMillis; partition++) {
+            long partitionStartTime = partition * partitionMillis;
+            long sourceFrom = Math.max(lastRollupTime, partitionStartTime - fixedIntervalMillis);
+            long sourceTo = Math.min(safeRollupTime,
+                    partitionStartTime + partitionMillis - fixedIntervalMillis);
+            if (sourceFrom >= sourceTo || !dataSource.queryForExists(
+                    "select 1 from gauge_value_rollup_" + castUntainted(fromRollupLevel)
+                            + " where capture_time > ? and capture_time <= ? limit 1",
+                    sourceFrom, sourceTo)) {
+                continue;
+            }
+            dataSource.update("merge into " + toTable.getPartitionTableName(partitionStartTime)
+                    + " (gauge_id, capture_time, value, weight) key (gauge_id, capture_time)"
+                    + " select gauge_id, " + captureTimeSql + " ceil_capture_time,"
+                    + " sum(value * weight) / sum(weight), sum(weight) from gauge_value_rollup_"
+                    + castUntainted(fromRollupLevel) + " gp where gp.capture_time > ?"
+                    + " and gp.capture_time <= ? group by gp.gauge_id, ceil_capture_time",
+                    sourceFrom, sourceTo);
+        }
     }
 
     private static AtomicLongArray initData(ImmutableList<RollupConfig> rollupConfigs,
@@ -210,15 +247,18 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private class GaugeValuesBinder implements JdbcUpdate {
 
+        private final @Untainted String tableName;
         private final Map<GaugeValue, Long> gaugeValueIdMap;
 
-        private GaugeValuesBinder(Map<GaugeValue, Long> gaugeValueIdMap) {
+        private GaugeValuesBinder(@Untainted String tableName,
+                Map<GaugeValue, Long> gaugeValueIdMap) {
+            this.tableName = tableName;
             this.gaugeValueIdMap = gaugeValueIdMap;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "insert into gauge_value_rollup_0 (gauge_id, capture_time, value, weight)"
+            return "insert into " + tableName + " (gauge_id, capture_time, value, weight)"
                     + " values (?, ?, ?, ?)";
         }
 
@@ -33,14 +33,15 @@ class RepoAdminImpl implements RepoAdmin {
     private final GaugeValueDao gaugeValueDao;
     private final GaugeNameDao gaugeNameDao;
     private final TransactionTypeDao transactionTypeDao;
+    private final TraceDao traceDao;
     private final FullQueryTextDao fullQueryTextDao;
     private final TraceAttributeNameDao traceAttributeNameDao;
 
     RepoAdminImpl(DataSource dataSource, List<CappedDatabase> rollupCappedDatabases,
             CappedDatabase traceCappedDatabase, ConfigRepositoryImpl configRepository,
             EnvironmentDao agentDao, GaugeValueDao gaugeValueDao, GaugeNameDao gaugeNameDao,
-            TransactionTypeDao transactionTypeDao, FullQueryTextDao fullQueryTextDao,
-            TraceAttributeNameDao traceAttributeNameDao) {
+            TransactionTypeDao transactionTypeDao, TraceDao traceDao,
+            FullQueryTextDao fullQueryTextDao, TraceAttributeNameDao traceAttributeNameDao) {
         this.dataSource = dataSource;
         this.rollupCappedDatabases = rollupCappedDatabases;
         this.traceCappedDatabase = traceCappedDatabase;
@@ -49,6 +50,7 @@ class RepoAdminImpl implements RepoAdmin {
         this.gaugeValueDao = gaugeValueDao;
         this.gaugeNameDao = gaugeNameDao;
         this.transactionTypeDao = transactionTypeDao;
+        this.traceDao = traceDao;
         this.fullQueryTextDao = fullQueryTextDao;
         this.traceAttributeNameDao = traceAttributeNameDao;
     }
@@ -59,6 +61,7 @@ class RepoAdminImpl implements RepoAdmin {
         dataSource.deleteAll();
         agentDao.reinitAfterDeletingDatabase();
         gaugeValueDao.reinitAfterDeletingDatabase();
+        traceDao.reinitAfterDeletingDatabase();
         gaugeNameDao.invalidateCache();
         transactionTypeDao.invalidateCache();
         fullQueryTextDao.invalidateCache();
@@ -52,6 +52,7 @@ public class SimpleRepoModule {
     private final DataSource dataSource;
     private final ImmutableList<CappedDatabase> rollupCappedDatabases;
     private final CappedDatabase traceCappedDatabase;
+    private final TracePointIndex tracePointIndex;
     private final EnvironmentDao environmentDao;
     private final TransactionTypeDao transactionTypeDao;
     private final AggregateDao aggregateDao;
@@ -84,6 +85,7 @@ public class SimpleRepoModule {
         this.rollupCappedDatabases = ImmutableList.copyOf(rollupCappedDatabases);
         traceCappedDatabase = new CappedDatabase(new File(dataDir, "trace-detail.capped.db"),
                 storageConfig.traceCappedDatabaseSizeMb() * 1024, ticker);
+        tracePointIndex = new TracePointIndex(new File(dataDir, "trace-point-index"), clock);
 
         SchemaVersionDao schemaVersionDao = new SchemaVersionDao(dataSource);
         Integer schemaVersion = schemaVersionDao.getSchemaVersion();
@@ -93,10 +95,10 @@ public class SimpleRepoModule {
         rollupLevelService = new RollupLevelService(configRepository, clock);
         FullQueryTextDao fullQueryTextDao = new FullQueryTextDao(dataSource);
         aggregateDao = new AggregateDao(dataSource, this.rollupCappedDatabases, configRepository,
-                transactionTypeDao, fullQueryTextDao);
+                transactionTypeDao, fullQueryTextDao, clock);
         traceAttributeNameDao = new TraceAttributeNameDao(dataSource);
-        traceDao = new TraceDao(dataSource, traceCappedDatabase, transactionTypeDao,
-                fullQueryTextDao, traceAttributeNameDao);
+        traceDao = new TraceDao(dataSource, traceCappedDatabase, tracePointIndex,
+                transactionTypeDao, fullQueryTextDao, traceAttributeNameDao);
         GaugeNameDao gaugeNameDao = new GaugeNameDao(dataSource);
         gaugeValueDao = new GaugeValueDao(dataSource, gaugeNameDao, clock);
         incidentDao = new IncidentDao(dataSource);
@@ -107,7 +109,7 @@ public class SimpleRepoModule {
 
         repoAdmin = new RepoAdminImpl(dataSource, rollupCappedDatabases, traceCappedDatabase,
                 configRepository, environmentDao, gaugeValueDao, gaugeNameDao, transactionTypeDao,
-                fullQueryTextDao, traceAttributeNameDao);
+                traceDao, fullQueryTextDao, traceAttributeNameDao);
 
         httpClient = new HttpClient(configRepository);
 
@@ -195,6 +197,7 @@ public class SimpleRepoModule {
             cappedDatabase.close();
         }
         traceCappedDatabase.close();
+        tracePointIndex.close();
         dataSource.close();
     }
 }
@@ -31,6 +31,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.checkerframework.checker.tainting.qual.Untainted;
+import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +39,7 @@ import org.glowroot.agent.collector.Collector.TraceReader;
 import org.glowroot.agent.collector.Collector.TraceVisitor;
 import org.glowroot.agent.embedded.repo.TracePointQueryBuilder.ParameterizedSql;
 import org.glowroot.agent.embedded.util.CappedDatabase;
+import org.glowroot.agent.embedded.util.CappedDatabase.MessageCursor;
 import org.glowroot.agent.embedded.util.DataSource;
 import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
 import org.glowroot.agent.embedded.util.DataSource.JdbcRowQuery;
@@ -62,6 +64,7 @@ import org.glowroot.common.repo.ImmutableErrorMessagePoint;
 import org.glowroot.common.repo.ImmutableErrorMessageResult;
 import org.glowroot.common.repo.ImmutableHeaderPlus;
 import org.glowroot.common.repo.TraceRepository;
+import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
@@ -132,15 +135,18 @@ public class TraceDao implements TraceRepository {
 
     private final DataSource dataSource;
     private final CappedDatabase traceCappedDatabase;
+    private final TracePointIndex tracePointIndex;
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
     private final TraceAttributeNameDao traceAttributeNameDao;
 
     TraceDao(DataSource dataSource, CappedDatabase traceCappedDatabase,
-            TransactionTypeDao transactionTypeDao, FullQueryTextDao fullQueryTextDao,
-            TraceAttributeNameDao traceAttributeNameDao) throws Exception {
+            TracePointIndex tracePointIndex, TransactionTypeDao transactionTypeDao,
+            FullQueryTextDao fullQueryTextDao, TraceAttributeNameDao traceAttributeNameDao)
+            throws Exception {
         this.dataSource = dataSource;
         this.traceCappedDatabase = traceCappedDatabase;
+        this.tracePointIndex = tracePointIndex;
         this.traceAttributeNameDao = traceAttributeNameDao;
         this.transactionTypeDao = transactionTypeDao;
         this.fullQueryTextDao = fullQueryTextDao;
@@ -170,6 +176,7 @@ public class TraceDao implements TraceRepository {
         Trace.Header header = trace.getHeader();
 
         dataSource.update(new TraceMerge(trace, traceVisitor.sharedQueryTexts));
+        tracePointIndex.add(trace.getId(), header);
         if (header.getAttributeCount() > 0) {
             if (trace.getUpdate()) {
                 dataSource.update("delete from trace_attribute where trace_id = ?", trace.getId());
@@ -198,6 +205,9 @@ public class TraceDao implements TraceRepository {
 
     @Override
     public long readSlowCount(String agentRollupId, TraceQuery query) throws Exception {
+        if (tracePointIndex.canAnswer(query)) {
+            return tracePointIndex.readCount(TraceKind.SLOW, query);
+        }
         String transactionName = query.transactionName();
         if (transactionName == null) {
             return dataSource.queryForLong(
@@ -214,6 +224,9 @@ public class TraceDao implements TraceRepository {
 
     @Override
     public long readErrorCount(String agentRollupId, TraceQuery query) throws Exception {
+        if (tracePointIndex.canAnswer(query)) {
+            return tracePointIndex.readCount(TraceKind.ERROR, query);
+        }
         String transactionName = query.transactionName();
         if (transactionName == null) {
             return dataSource.queryForLong(
@@ -255,38 +268,57 @@ public class TraceDao implements TraceRepository {
     }
 
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
-    // (never with truncatedText/truncatedEndText/fullTraceSha1) @Override
+    // (never with truncatedText/truncatedEndText/fullTraceSha1)
     @Override
-    public @Nullable Entries readEntriesForExport(String agentRollupId, String agentId,
+    public @Nullable EntriesCursor readEntriesForExport(String agentRollupId, String agentId,
             String traceId) throws Exception {
-        Entries entries = dataSource.query(new EntriesQuery(traceId));
-        if (entries == null) {
+        // only the capped ids are read under the data source lock, the entries themselves are
+        // parsed from the capped database lazily while the export is being written
+        final CappedIds cappedIds = dataSource.query(new EntriesCappedIdsQuery(traceId));
+        if (cappedIds == null) {
             return null;
         }
-        List<Trace.SharedQueryText> sharedQueryTexts = Lists.newArrayList();
-        for (Trace.SharedQueryText sharedQueryText : entries.sharedQueryTexts()) {
-            String fullTextSha1 = sharedQueryText.getFullTextSha1();
-            if (fullTextSha1.isEmpty()) {
-                sharedQueryTexts.add(sharedQueryText);
-            } else {
-                String fullText = fullQueryTextDao.getFullText(fullTextSha1);
-                if (fullText == null) {
-                    sharedQueryTexts.add(Trace.SharedQueryText.newBuilder()
-                            .setFullText(sharedQueryText.getTruncatedText()
-                                    + " ... [full query text has expired] ... "
-                                    + sharedQueryText.getTruncatedEndText())
-                            .build());
-                } else {
-                    sharedQueryTexts.add(Trace.SharedQueryText.newBuilder()
-                            .setFullText(fullText)
-                            .build());
+        Long entriesCappedId = cappedIds.entriesCappedId();
+        if (entriesCappedId == null) {
+            // trace was found but has no entries (and therefore also no queries), returning an
+            // empty cursor (instead of null) so that the caller does not wait for it to be stored
+            return new EmptyEntriesCursor();
+        }
+        final MessageCursor<Trace.Entry> entries =
+                traceCappedDatabase.openMessageCursor(entriesCappedId, Trace.Entry.parser());
+        return new EntriesCursor() {
+            private @Nullable MessageCursor<Trace.SharedQueryText> sharedQueryTexts;
+            @Override
+            public @Nullable Trace.Entry readNextEntry() throws IOException {
+                return entries.readNext();
+            }
+            @Override
+            public @Nullable Trace.SharedQueryText readNextSharedQueryText() throws Exception {
+                if (sharedQueryTexts == null) {
+                    Long sharedQueryTextsCappedId = cappedIds.sharedQueryTextsCappedId();
+                    if (sharedQueryTextsCappedId == null) {
+                        return null;
+                    }
+                    sharedQueryTexts = traceCappedDatabase.openMessageCursor(
+                            sharedQueryTextsCappedId, Trace.SharedQueryText.parser());
+                }
+                Trace.SharedQueryText sharedQueryText = sharedQueryTexts.readNext();
+                if (sharedQueryText == null) {
+                    return null;
                 }
+                return getSharedQueryTextForExport(sharedQueryText);
             }
-        }
-        return ImmutableEntries.builder()
-                .copyFrom(entries)
-                .sharedQueryTexts(sharedQueryTexts)
-                .build();
+            @Override
+            public void close() throws IOException {
+                try {
+                    entries.close();
+                } finally {
+                    if (sharedQueryTexts != null) {
+                        sharedQueryTexts.close();
+                    }
+                }
+            }
+        };
     }
 
     @Override
@@ -313,14 +345,45 @@ public class TraceDao implements TraceRepository {
         return traceCappedDatabase.readMessage(cappedId, Profile.parser());
     }
 
+    private Trace.SharedQueryText getSharedQueryTextForExport(
+            Trace.SharedQueryText sharedQueryText) throws SQLException {
+        String fullTextSha1 = sharedQueryText.getFullTextSha1();
+        if (fullTextSha1.isEmpty()) {
+            return sharedQueryText;
+        }
+        String fullText = fullQueryTextDao.getFullText(fullTextSha1);
+        if (fullText == null) {
+            return Trace.SharedQueryText.newBuilder()
+                    .setFullText(sharedQueryText.getTruncatedText()
+                            + " ... [full query text has expired] ... "
+                            + sharedQueryText.getTruncatedEndText())
+                    .build();
+        } else {
+            return Trace.SharedQueryText.newBuilder()
+                    .setFullText(fullText)
+                    .build();
+        }
+    }
+
+    // trace tables are not partitioned by capture time (see PartitionedTable) since partial traces
+    // are re-stored under the same id with a later capture time
     void deleteBefore(long captureTime) throws Exception {
         traceAttributeNameDao.deleteBefore(captureTime);
         dataSource.deleteBefore("trace", captureTime);
         dataSource.deleteBefore("trace_attribute", captureTime);
+        tracePointIndex.deleteBefore(captureTime);
+    }
+
+    void reinitAfterDeletingDatabase() throws IOException {
+        tracePointIndex.deleteAll();
     }
 
     private Result<TracePoint> readPoints(TraceKind traceKind, TraceQuery query,
             TracePointFilter filter, int limit) throws Exception {
+        if (tracePointIndex.canAnswer(query, filter)) {
+            // one extra record over the limit is returned to identify if the limit was hit
+            return Result.create(tracePointIndex.readPoints(traceKind, query, limit), limit);
+        }
         ParameterizedSql parameterizedSql =
                 new TracePointQueryBuilder(traceKind, query, filter, limit).getParameterizedSql();
         List<TracePoint> points = dataSource.query(new TracePointQuery(parameterizedSql));
@@ -675,6 +738,41 @@ public class TraceDao implements TraceRepository {
         }
     }
 
+    private static class EntriesCappedIdsQuery implements JdbcQuery</*@Nullable*/ CappedIds> {
+
+        private final String traceId;
+
+        private EntriesCappedIdsQuery(String traceId) {
+            this.traceId = traceId;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select entries_capped_id, shared_query_texts_capped_id from trace where id = ?";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setString(1, traceId);
+        }
+
+        @Override
+        public @Nullable CappedIds processResultSet(ResultSet resultSet) throws Exception {
+            if (!resultSet.next()) {
+                return null;
+            }
+            int i = 1;
+            Long entriesCappedId = RowMappers.getLong(resultSet, i++);
+            Long sharedQueryTextsCappedId = RowMappers.getLong(resultSet, i++);
+            return ImmutableCappedIds.of(entriesCappedId, sharedQueryTextsCappedId);
+        }
+
+        @Override
+        public @Nullable CappedIds valueIfDataSourceClosed() {
+            return null;
+        }
+    }
+
     private static class ErrorPointQuery implements JdbcRowQuery<ErrorMessagePoint> {
 
         private final TraceQuery query;
@@ -752,4 +850,29 @@ public class TraceDao implements TraceRepository {
                     .build();
         }
     }
+
+    private static class EmptyEntriesCursor implements EntriesCursor {
+
+        @Override
+        public @Nullable Trace.Entry readNextEntry() {
+            return null;
+        }
+
+        @Override
+        public @Nullable Trace.SharedQueryText readNextSharedQueryText() {
+            return null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface CappedIds {
+        @Nullable
+        Long entriesCappedId();
+        @Nullable
+        Long sharedQueryTextsCappedId();
+    }
 }
@@ -0,0 +1,635 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.common.live.ImmutableTracePoint;
+import org.glowroot.common.live.LiveTraceRepository.TraceKind;
+import org.glowroot.common.live.LiveTraceRepository.TracePoint;
+import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
+import org.glowroot.common.repo.TraceRepository.TraceQuery;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// append-only, memory-mapped index of trace points, so that the trace scatter plot and the slow and
+// error trace counts can be answered by scanning compact fixed-width records instead of querying
+// the trace table in H2 (and contending for the single DataSource lock)
+//
+// records are appended to fixed capacity segment files, and each segment keeps an in-memory summary
+// of its records per capture minute, so that a query only scans the minutes that overlap it
+//
+// queries that filter on headline, error message, user or attributes cannot be answered from this
+// index, and neither can queries that start before this index was created (since traces stored
+// before then are only in H2), see canAnswer()
+class TracePointIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TracePointIndex.class);
+
+    private static final String SEGMENT_FILE_SUFFIX = ".idx";
+    private static final String INDEXED_SINCE_FILE_NAME = "indexed-since";
+
+    private static final int VERSION = 1;
+
+    // version (int) and record count (int)
+    private static final int HEADER_SIZE = 8;
+    private static final int HEADER_RECORD_COUNT_POS = 4;
+
+    // trace ids generated by the agent are 32 hex chars, this leaves room for uuids
+    private static final int TRACE_ID_MAX_LENGTH = 36;
+
+    private static final int CAPTURE_TIME_OFFSET = 0;
+    private static final int DURATION_NANOS_OFFSET = 8;
+    private static final int TRANSACTION_TYPE_OFFSET = 16;
+    private static final int TRANSACTION_NAME_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 32;
+    private static final int TRACE_ID_LENGTH_OFFSET = 33;
+    private static final int TRACE_ID_OFFSET = 34;
+    static final int RECORD_SIZE = TRACE_ID_OFFSET + TRACE_ID_MAX_LENGTH;
+
+    private static final byte SLOW_FLAG = 1;
+    private static final byte ERROR_FLAG = 2;
+    private static final byte PARTIAL_FLAG = 4;
+    // set on a partial trace's record once the trace has been stored again under the same id
+    private static final byte SUPERSEDED_FLAG = 8;
+
+    private final File directory;
+    private final int segmentCapacity;
+
+    private final long indexedSince;
+
+    private final Object lock = new Object();
+
+    // only appended to (and removed from) under lock, but iterated over without lock by readers
+    private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+
+    // records of partial traces, which need to be marked superseded when the trace is stored again
+    @GuardedBy("lock")
+    private final Map<String, RecordRef> partialRecords = Maps.newHashMap();
+
+    @GuardedBy("lock")
+    private long nextSegmentId;
+
+    // records captured before this have been deleted from the trace table
+    private volatile long expiredBefore;
+
+    // set if a trace id cannot be indexed, in which case all reads fall back to H2
+    private volatile boolean disabled;
+
+    TracePointIndex(File directory, Clock clock) throws IOException {
+        this(directory, clock, 50000);
+    }
+
+    @VisibleForTesting
+    TracePointIndex(File directory, Clock clock, int segmentCapacity) throws IOException {
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory: " + directory.getAbsolutePath());
+        }
+        indexedSince = readOrCreateIndexedSince(new File(directory, INDEXED_SINCE_FILE_NAME),
+                clock.currentTimeMillis());
+        List<Long> segmentIds = Lists.newArrayList();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_FILE_SUFFIX)) {
+                    segmentIds.add(Long.parseLong(
+                            name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+        synchronized (lock) {
+            for (Long segmentId : segmentIds) {
+                Segment segment = new Segment(getSegmentFile(segmentId), segmentCapacity);
+                segment.rebuildSummaries();
+                segments.add(segment);
+                rebuildPartialRecords(segment);
+                nextSegmentId = segmentId + 1;
+            }
+            if (segments.isEmpty()) {
+                addNewSegment();
+            }
+        }
+    }
+
+    boolean canAnswer(TraceQuery query, TracePointFilter filter) {
+        return canAnswer(query) && isEmpty(filter);
+    }
+
+    boolean canAnswer(TraceQuery query) {
+        return !disabled && query.from() >= indexedSince;
+    }
+
+    void add(String traceId, Trace.Header header) throws IOException {
+        byte[] traceIdBytes = traceId.getBytes(Charsets.ISO_8859_1);
+        if (traceIdBytes.length > TRACE_ID_MAX_LENGTH || !isAscii(traceId)) {
+            if (!disabled) {
+                logger.warn("trace id cannot be indexed, trace queries will fall back to the"
+                        + " trace table: {}", traceId);
+                disabled = true;
+            }
+            return;
+        }
+        byte flags = 0;
+        if (header.getSlow()) {
+            flags |= SLOW_FLAG;
+        }
+        if (header.hasError()) {
+            flags |= ERROR_FLAG;
+        }
+        if (header.getPartial()) {
+            flags |= PARTIAL_FLAG;
+        }
+        synchronized (lock) {
+            RecordRef partialRecord = partialRecords.remove(traceId);
+            if (partialRecord != null) {
+                partialRecord.segment.markSuperseded(partialRecord.index);
+            }
+            Segment segment = segments.get(segments.size() - 1);
+            if (segment.isFull()) {
+                segment = addNewSegment();
+            }
+            int index = segment.append(header.getCaptureTime(), header.getDurationNanos(),
+                    hash(header.getTransactionType()), hash(header.getTransactionName()), flags,
+                    traceIdBytes);
+            if (header.getPartial()) {
+                partialRecords.put(traceId, new RecordRef(segment, index));
+            }
+        }
+    }
+
+    // returns up to limit + 1 points (or all points if limit is 0) so that the caller can identify
+    // if the limit was exceeded, ordered the same as TracePointQueryBuilder
+    List<TracePoint> readPoints(TraceKind traceKind, TraceQuery query, int limit) {
+        RecordMatcher matcher = new RecordMatcher(traceKind, query);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+        for (Segment segment : segments) {
+            int count = segment.count;
+            for (Block block : segment.getBlocks(count)) {
+                if (!block.overlaps(query.from(), query.to())) {
+                    continue;
+                }
+                for (int i = block.startIndex; i < Math.min(block.endIndex, count); i++) {
+                    if (!matcher.matches(segment, i)) {
+                        continue;
+                    }
+                    long durationNanos = segment.getDurationNanos(i);
+                    if (limit == 0 || candidates.size() <= limit) {
+                        candidates.add(new Candidate(segment, i, durationNanos));
+                    } else if (durationNanos > candidates.peek().durationNanos) {
+                        candidates.poll();
+                        candidates.add(new Candidate(segment, i, durationNanos));
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = Lists.newArrayList(candidates);
+        if (limit == 0) {
+            Collections.sort(sorted);
+        } else {
+            Collections.sort(sorted, Collections.reverseOrder());
+        }
+        List<TracePoint> points = Lists.newArrayList();
+        for (Candidate candidate : sorted) {
+            points.add(candidate.segment.getTracePoint(candidate.index));
+        }
+        return points;
+    }
+
+    long readCount(TraceKind traceKind, TraceQuery query) {
+        RecordMatcher matcher = new RecordMatcher(traceKind, query);
+        long total = 0;
+        for (Segment segment : segments) {
+            int count = segment.count;
+            for (Block block : segment.getBlocks(count)) {
+                if (!block.overlaps(query.from(), query.to())) {
+                    continue;
+                }
+                for (int i = block.startIndex; i < Math.min(block.endIndex, count); i++) {
+                    if (matcher.matches(segment, i)) {
+                        total++;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    void deleteBefore(long captureTime) {
+        expiredBefore = captureTime;
+        synchronized (lock) {
+            // never delete the last segment since that is the one being appended to
+            for (Segment segment : Lists.newArrayList(segments.subList(0, segments.size() - 1))) {
+                if (segment.maxCaptureTime < captureTime) {
+                    segments.remove(segment);
+                    segment.delete();
+                    removePartialRecords(segment);
+                }
+            }
+        }
+    }
+
+    void deleteAll() throws IOException {
+        synchronized (lock) {
+            for (Segment segment : segments) {
+                segment.delete();
+            }
+            segments.clear();
+            partialRecords.clear();
+            addNewSegment();
+        }
+    }
+
+    @OnlyUsedByTests
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    @OnlyUsedByTests
+    int getPartialRecordCount() {
+        synchronized (lock) {
+            return partialRecords.size();
+        }
+    }
+
+    @OnlyUsedByTests
+    void close() throws IOException {
+        synchronized (lock) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private Segment addNewSegment() throws IOException {
+        Segment segment = new Segment(getSegmentFile(nextSegmentId++), segmentCapacity);
+        segments.add(segment);
+        return segment;
+    }
+
+    @GuardedBy("lock")
+    private void rebuildPartialRecords(Segment segment) {
+        for (int i = 0; i < segment.count; i++) {
+            byte flags = segment.getFlags(i);
+            if ((flags & PARTIAL_FLAG) != 0 && (flags & SUPERSEDED_FLAG) == 0) {
+                RecordRef existing =
+                        partialRecords.put(segment.getTraceId(i), new RecordRef(segment, i));
+                if (existing != null) {
+                    // the process must have died in between writing the new record and marking
+                    // the old one as superseded
+                    existing.segment.markSuperseded(existing.index);
+                }
+            }
+        }
+    }
+
+    // partial traces that are never stored again (e.g. the process died before the trace completed)
+    // would otherwise be retained here forever, and the trace being stored again after its segment
+    // is deleted would mark a record in the closed segment
+    @GuardedBy("lock")
+    private void removePartialRecords(Segment segment) {
+        Iterator<RecordRef> i = partialRecords.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().segment == segment) {
+                i.remove();
+            }
+        }
+    }
+
+    private File getSegmentFile(long segmentId) {
+        return new File(directory, segmentId + SEGMENT_FILE_SUFFIX);
+    }
+
+    private static long readOrCreateIndexedSince(File file, long currentTime) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() >= 8) {
+                return raf.readLong();
+            }
+            raf.writeLong(currentTime);
+            return currentTime;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // same conditions as TracePointQueryBuilder uses to decide whether to add criteria
+    private static boolean isEmpty(TracePointFilter filter) {
+        return isEmpty(filter.headlineComparator(), filter.headline())
+                && isEmpty(filter.errorMessageComparator(), filter.errorMessage())
+                && isEmpty(filter.userComparator(), filter.user())
+                && Strings.isNullOrEmpty(filter.attributeName())
+                && isEmpty(filter.attributeValueComparator(), filter.attributeValue());
+    }
+
+    private static boolean isEmpty(@Nullable Object comparator, @Nullable String text) {
+        return comparator == null || Strings.isNullOrEmpty(text);
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // transaction types and names are stored as 64-bit hashes so that records are fixed width
+    // without needing a separate dictionary of ids
+    private static long hash(String str) {
+        return Hashing.murmur3_128().hashString(str, Charsets.UTF_8).asLong();
+    }
+
+    private class RecordMatcher {
+
+        private final byte flag;
+        private final long from;
+        private final long to;
+        private final long transactionTypeHash;
+        private final boolean matchTransactionName;
+        private final long transactionNameHash;
+        private final long expiredBefore;
+
+        private RecordMatcher(TraceKind traceKind, TraceQuery query) {
+            flag = traceKind == TraceKind.SLOW ? SLOW_FLAG : ERROR_FLAG;
+            from = query.from();
+            to = query.to();
+            transactionTypeHash = hash(query.transactionType());
+            String transactionName = query.transactionName();
+            matchTransactionName = transactionName != null;
+            transactionNameHash = transactionName == null ? 0 : hash(transactionName);
+            expiredBefore = TracePointIndex.this.expiredBefore;
+        }
+
+        // capture time lower bound is non-inclusive, same as TracePointQueryBuilder
+        private boolean matches(Segment segment, int index) {
+            long captureTime = segment.getCaptureTime(index);
+            if (captureTime <= from || captureTime > to || captureTime < expiredBefore) {
+                return false;
+            }
+            byte flags = segment.getFlags(index);
+            if ((flags & flag) == 0 || (flags & SUPERSEDED_FLAG) != 0) {
+                return false;
+            }
+            return segment.getTransactionTypeHash(index) == transactionTypeHash
+                    && (!matchTransactionName
+                            || segment.getTransactionNameHash(index) == transactionNameHash);
+        }
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+
+        // written under TracePointIndex.lock after the record itself has been written, and read
+        // first by readers, so that readers only see fully written records
+        private volatile int count;
+
+        // summaries of the completed capture minutes, appended under TracePointIndex.lock
+        private final List<Block> closedBlocks = new CopyOnWriteArrayList<Block>();
+
+        // the current capture minute, only accessed under TracePointIndex.lock
+        private int openBlockStartIndex;
+        private long openBlockMinute = -1;
+        private long openBlockMinCaptureTime = Long.MAX_VALUE;
+        private long openBlockMaxCaptureTime = Long.MIN_VALUE;
+
+        // only accessed under TracePointIndex.lock
+        private long maxCaptureTime = Long.MIN_VALUE;
+
+        private Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            this.capacity = capacity;
+            boolean newFile = !file.exists() || file.length() == 0;
+            raf = new RandomAccessFile(file, "rw");
+            buffer = raf.getChannel().map(MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            if (newFile) {
+                buffer.putInt(0, VERSION);
+                buffer.putInt(HEADER_RECORD_COUNT_POS, 0);
+            } else {
+                count = Math.min(buffer.getInt(HEADER_RECORD_COUNT_POS), capacity);
+            }
+        }
+
+        private boolean isFull() {
+            return count == capacity;
+        }
+
+        private int append(long captureTime, long durationNanos, long transactionTypeHash,
+                long transactionNameHash, byte flags, byte[] traceId) {
+            int index = count;
+            int pos = getPosition(index);
+            buffer.putLong(pos + CAPTURE_TIME_OFFSET, captureTime);
+            buffer.putLong(pos + DURATION_NANOS_OFFSET, durationNanos);
+            buffer.putLong(pos + TRANSACTION_TYPE_OFFSET, transactionTypeHash);
+            buffer.putLong(pos + TRANSACTION_NAME_OFFSET, transactionNameHash);
+            buffer.put(pos + FLAGS_OFFSET, flags);
+            buffer.put(pos + TRACE_ID_LENGTH_OFFSET, (byte) traceId.length);
+            for (int i = 0; i < traceId.length; i++) {
+                buffer.put(pos + TRACE_ID_OFFSET + i, traceId[i]);
+            }
+            updateSummaries(index, captureTime);
+            count = index + 1;
+            buffer.putInt(HEADER_RECORD_COUNT_POS, count);
+            return index;
+        }
+
+        private void rebuildSummaries() {
+            for (int i = 0; i < count; i++) {
+                updateSummaries(i, getCaptureTime(i));
+            }
+        }
+
+        private void updateSummaries(int index, long captureTime) {
+            long minute = MILLISECONDS.toMinutes(captureTime);
+            if (minute != openBlockMinute && index != openBlockStartIndex) {
+                closedBlocks.add(new Block(openBlockStartIndex, index, openBlockMinCaptureTime,
+                        openBlockMaxCaptureTime));
+                openBlockStartIndex = index;
+                openBlockMinCaptureTime = Long.MAX_VALUE;
+                openBlockMaxCaptureTime = Long.MIN_VALUE;
+            }
+            openBlockMinute = minute;
+            openBlockMinCaptureTime = Math.min(openBlockMinCaptureTime, captureTime);
+            openBlockMaxCaptureTime = Math.max(openBlockMaxCaptureTime, captureTime);
+            maxCaptureTime = Math.max(maxCaptureTime, captureTime);
+        }
+
+        // the returned blocks cover records [0, count), the last one is the open block which
+        // (since its summary may be changing concurrently) always has to be scanned
+        private List<Block> getBlocks(int count) {
+            List<Block> blocks = Lists.newArrayList(closedBlocks);
+            int openStartIndex = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).endIndex;
+            if (openStartIndex < count) {
+                blocks.add(new Block(openStartIndex, count, Long.MIN_VALUE, Long.MAX_VALUE));
+            }
+            return blocks;
+        }
+
+        private void markSuperseded(int index) {
+            int pos = getPosition(index) + FLAGS_OFFSET;
+            buffer.put(pos, (byte) (buffer.get(pos) | SUPERSEDED_FLAG));
+        }
+
+        private long getCaptureTime(int index) {
+            return buffer.getLong(getPosition(index) + CAPTURE_TIME_OFFSET);
+        }
+
+        private long getDurationNanos(int index) {
+            return buffer.getLong(getPosition(index) + DURATION_NANOS_OFFSET);
+        }
+
+        private long getTransactionTypeHash(int index) {
+            return buffer.getLong(getPosition(index) + TRANSACTION_TYPE_OFFSET);
+        }
+
+        private long getTransactionNameHash(int index) {
+            return buffer.getLong(getPosition(index) + TRANSACTION_NAME_OFFSET);
+        }
+
+        private byte getFlags(int index) {
+            return buffer.get(getPosition(index) + FLAGS_OFFSET);
+        }
+
+        private String getTraceId(int index) {
+            int pos = getPosition(index);
+            int length = buffer.get(pos + TRACE_ID_LENGTH_OFFSET);
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) buffer.get(pos + TRACE_ID_OFFSET + i);
+            }
+            return new String(chars);
+        }
+
+        private TracePoint getTracePoint(int index) {
+            byte flags = getFlags(index);
+            return ImmutableTracePoint.builder()
+                    .agentId("")
+                    .traceId(getTraceId(index))
+                    .captureTime(getCaptureTime(index))
+                    .durationNanos(getDurationNanos(index))
+                    .partial((flags & PARTIAL_FLAG) != 0)
+                    .error((flags & ERROR_FLAG) != 0)
+                    .build();
+        }
+
+        private void delete() {
+            close();
+            // this can fail on windows since the file is still mapped until the buffer is garbage
+            // collected, in which case it will be deleted on a later restart (since its records
+            // will have expired by then)
+            if (!file.delete()) {
+                logger.debug("could not delete trace point index segment: {}", file);
+            }
+        }
+
+        private void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+
+        private static int getPosition(int index) {
+            return HEADER_SIZE + index * RECORD_SIZE;
+        }
+    }
+
+    private static class Block {
+
+        private final int startIndex;
+        private final int endIndex;
+        private final long minCaptureTime;
+        private final long maxCaptureTime;
+
+        private Block(int startIndex, int endIndex, long minCaptureTime, long maxCaptureTime) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.minCaptureTime = minCaptureTime;
+            this.maxCaptureTime = maxCaptureTime;
+        }
+
+        // capture time lower bound is non-inclusive
+        private boolean overlaps(long from, long to) {
+            return maxCaptureTime > from && minCaptureTime <= to;
+        }
+    }
+
+    private static class RecordRef {
+
+        private final Segment segment;
+        private final int index;
+
+        private RecordRef(Segment segment, int index) {
+            this.segment = segment;
+            this.index = index;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+
+        private final Segment segment;
+        private final int index;
+        private final long durationNanos;
+
+        private Candidate(Segment segment, int index, long durationNanos) {
+            this.segment = segment;
+            this.index = index;
+            this.durationNanos = durationNanos;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return durationNanos < other.durationNanos ? -1
+                    : (durationNanos == other.durationNanos ? 0 : 1);
+        }
+    }
+}
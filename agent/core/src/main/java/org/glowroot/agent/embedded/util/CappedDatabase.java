@@ -16,6 +16,7 @@
 package org.glowroot.agent.embedded.util;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FilterOutputStream;
 import java.io.IOException;
@@ -27,6 +28,7 @@ import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.base.Charsets;
@@ -221,6 +223,31 @@ public class CappedDatabase {
         return messages;
     }
 
+    // unlike readMessages(), this parses one message at a time as the returned cursor is read so
+    // that very large lists of messages (e.g. trace entries for export) are never fully held in
+    // memory
+    //
+    // the returned cursor must be closed, even if it is abandoned before being fully read
+    public <T extends /*@NonNull*/ MessageLite> MessageCursor<T> openMessageCursor(
+            long cappedId, Parser<T> parser) throws IOException {
+        boolean overwritten;
+        boolean inTheFuture;
+        synchronized (lock) {
+            overwritten = out.isOverwritten(cappedId);
+            inTheFuture = cappedId >= out.getCurrIndex();
+        }
+        if (overwritten || inTheFuture) {
+            // see comment in readMessages() regarding inTheFuture
+            return new EmptyMessageCursor<T>();
+        }
+        // it's important to wrap CappedBlockInputStream in a BufferedInputStream to prevent
+        // lots of small reads from the underlying RandomAccessFile
+        final int bufferSize = 32768;
+        InputStream input = newLZFInputStream(
+                new BufferedInputStream(new CappedBlockInputStream(cappedId), bufferSize));
+        return new StreamMessageCursor<T>(cappedId, input, parser);
+    }
+
     @OnlyUsedByTests
     CharSource read(long cappedId) {
         return new CappedBlockCharSource(cappedId);
@@ -363,10 +390,73 @@ public class CappedDatabase {
         }
     }
 
+    public interface MessageCursor<T> extends Closeable {
+        // null return value means there are no more messages
+        @Nullable
+        T readNext() throws IOException;
+    }
+
     private interface Copier {
         void copyTo(OutputStream out) throws IOException;
     }
 
+    private class StreamMessageCursor<T extends /*@NonNull*/ MessageLite>
+            implements MessageCursor<T> {
+
+        private final long cappedId;
+        private final InputStream input;
+        private final SizeLimitBypassingParser<T> parser;
+
+        private boolean closed;
+
+        private StreamMessageCursor(long cappedId, InputStream input, Parser<T> parser) {
+            this.cappedId = cappedId;
+            this.input = input;
+            this.parser = new SizeLimitBypassingParser<T>(parser);
+        }
+
+        @Override
+        public @Nullable T readNext() throws IOException {
+            if (closed) {
+                return null;
+            }
+            T message;
+            try {
+                message = parser.parseDelimitedFrom(input);
+            } catch (IOException e) {
+                close();
+                if (isExpired(cappedId)) {
+                    // the remaining messages would otherwise be silently dropped
+                    throw new IOException("Capped block was overwritten while being read", e);
+                }
+                throw e;
+            }
+            if (message == null) {
+                close();
+            }
+            return message;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                input.close();
+            }
+        }
+    }
+
+    private static class EmptyMessageCursor<T> implements MessageCursor<T> {
+
+        @Override
+        public @Nullable T readNext() {
+            return null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
     @SuppressWarnings("serial")
     private static class CappedBlockRolledOverMidReadException extends IOException {
         public CappedBlockRolledOverMidReadException(String message) {
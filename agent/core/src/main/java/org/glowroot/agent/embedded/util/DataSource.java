@@ -72,6 +72,8 @@ public class DataSource {
             Maps.newConcurrentMap();
     private final Map</*@Untainted*/ String, ImmutableList<Index>> indexes =
             Maps.newConcurrentMap();
+    private final Map</*@Untainted*/ String, /*@Untainted*/ String> views =
+            Maps.newConcurrentMap();
 
     private final LoadingCache</*@Untainted*/ String, PreparedStatement> preparedStatementCache =
             CacheBuilder.newBuilder().weakValues()
@@ -129,6 +131,9 @@ public class DataSource {
             for (Entry</*@Untainted*/ String, ImmutableList<Index>> entry : indexes.entrySet()) {
                 syncIndexes(entry.getKey(), entry.getValue());
             }
+            for (Entry</*@Untainted*/ String, /*@Untainted*/ String> entry : views.entrySet()) {
+                syncView(entry.getKey(), entry.getValue());
+            }
             if (!success) {
                 throw new SQLException("Could not delete file: " + dbFile.getAbsolutePath());
             }
@@ -364,6 +369,37 @@ public class DataSource {
         }
     }
 
+    public void syncView(@Untainted String viewName, @Untainted String selectSql)
+            throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            execute("create or replace view " + viewName + " as " + selectSql);
+            views.put(viewName, selectSql);
+        }
+    }
+
+    public void dropTable(@Untainted String tableName) throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            execute("drop table if exists " + tableName);
+            tables.remove(tableName);
+            indexes.remove(tableName);
+        }
+    }
+
+    public List<String> getTableNames(String prefix) throws SQLException {
+        synchronized (lock) {
+            if (closed) {
+                return ImmutableList.of();
+            }
+            return Schemas.getTableNames(prefix, connection);
+        }
+    }
+
     long getDbFileSize() {
         return dbFile == null ? 0 : dbFile.length();
     }
@@ -375,6 +411,13 @@ public class DataSource {
         }
     }
 
+    // helpful for upgrading schema
+    public boolean viewExists(String viewName) throws SQLException {
+        synchronized (lock) {
+            return !closed && Schemas.viewExists(viewName, connection);
+        }
+    }
+
     // helpful for upgrading schema
     public boolean columnExists(String tableName, String columnName) throws SQLException {
         synchronized (lock) {
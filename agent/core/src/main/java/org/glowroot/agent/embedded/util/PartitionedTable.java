@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.checkerframework.checker.tainting.qual.Untainted;
+
+import org.glowroot.agent.embedded.util.DataSource.JdbcRowQuery;
+import org.glowroot.agent.embedded.util.Schemas.Column;
+import org.glowroot.agent.embedded.util.Schemas.Index;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.glowroot.agent.util.Checkers.castUntainted;
+
+// splits a table with a capture_time column into one table per fixed time window, and maintains a
+// view under the original table name that unions all of the live partitions, so that queries do
+// not need to know about partitions, and so that expiring data is (mostly) just dropping tables
+// instead of large deletes that bloat the h2 file
+//
+// every row in a partition has capture_time in [partition * partitionMillis,
+// (partition + 1) * partitionMillis)
+//
+// partition tables are created lazily on first insert, and must not be requested while holding
+// the data source lock (e.g. from inside JdbcQuery.processResultSet()), since creating a partition
+// acquires the partition lock first and then the data source lock
+public class PartitionedTable {
+
+    private final DataSource dataSource;
+    private final @Untainted String tableName;
+    private final ImmutableList<Column> columns;
+    private final ImmutableList<Index> indexes;
+    private final long partitionMillis;
+
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    private final NavigableSet<Long> partitions = new TreeSet<Long>();
+
+    // index names must be prefixed by the table name, and will be re-prefixed by the partition
+    // table name for each partition
+    public PartitionedTable(DataSource dataSource, @Untainted String tableName,
+            ImmutableList<Column> columns, ImmutableList<Index> indexes, long partitionMillis,
+            long currentTime) throws Exception {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.indexes = indexes;
+        this.partitionMillis = partitionMillis;
+        synchronized (lock) {
+            String prefix = tableName + "_p";
+            for (String partitionTableName : dataSource.getTableNames(prefix)) {
+                String suffix = partitionTableName.substring(prefix.length());
+                Long partition = parsePartition(suffix);
+                if (partition != null) {
+                    partitions.add(partition);
+                }
+            }
+            if (dataSource.tableExists(tableName) && !dataSource.viewExists(tableName)) {
+                upgradeFromNonPartitionedTable();
+            }
+            partitions.add(currentTime / partitionMillis);
+            for (long partition : partitions) {
+                syncPartition(partition);
+            }
+            syncView();
+        }
+    }
+
+    // a partition size that keeps roughly a dozen partitions per table under the default
+    // expirations, and that is always a multiple of the rollup interval so that rolled up capture
+    // times never straddle two partitions
+    public static long getPartitionMillis(long intervalMillis) {
+        long partitionMillis = Math.min(intervalMillis * 360, DAYS.toMillis(7));
+        return Math.max(intervalMillis, partitionMillis - partitionMillis % intervalMillis);
+    }
+
+    public long getPartitionMillis() {
+        return partitionMillis;
+    }
+
+    public @Untainted String getPartitionTableName(long captureTime) throws SQLException {
+        long partition = captureTime / partitionMillis;
+        synchronized (lock) {
+            if (partitions.add(partition)) {
+                syncPartition(partition);
+                syncView();
+            }
+        }
+        return toTableName(partition);
+    }
+
+    // returns Long.MAX_VALUE if there are no partitions
+    public long getFirstPartitionStartTime() {
+        synchronized (lock) {
+            return partitions.isEmpty() ? Long.MAX_VALUE : partitions.first() * partitionMillis;
+        }
+    }
+
+    public List</*@Untainted*/ String> getPartitionTableNamesNewestFirst() {
+        List</*@Untainted*/ String> partitionTableNames = Lists.newArrayList();
+        synchronized (lock) {
+            for (long partition : partitions.descendingSet()) {
+                partitionTableNames.add(toTableName(partition));
+            }
+        }
+        return partitionTableNames;
+    }
+
+    public void deleteBefore(long captureTime) throws SQLException {
+        List<Long> expiredPartitions = Lists.newArrayList();
+        Long straddlingPartition = null;
+        synchronized (lock) {
+            // never drop the newest partition since the view needs at least one table
+            for (long partition : partitions.headSet(partitions.last(), false)) {
+                if ((partition + 1) * partitionMillis <= captureTime) {
+                    expiredPartitions.add(partition);
+                } else {
+                    break;
+                }
+            }
+            if (!expiredPartitions.isEmpty()) {
+                partitions.removeAll(expiredPartitions);
+                // view needs to be updated prior to dropping the underlying tables
+                syncView();
+            }
+            long first = partitions.first();
+            if (first * partitionMillis < captureTime) {
+                straddlingPartition = first;
+            }
+        }
+        for (long partition : expiredPartitions) {
+            dataSource.dropTable(toTableName(partition));
+        }
+        if (straddlingPartition != null) {
+            // only rows in the oldest live partition can still need to be deleted individually
+            dataSource.deleteBefore(toTableName(straddlingPartition), captureTime);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void upgradeFromNonPartitionedTable() throws Exception {
+        List<Long> legacyPartitions = dataSource.query(new JdbcRowQuery<Long>() {
+            @Override
+            public @Untainted String getSql() {
+                return "select distinct capture_time / " + castUntainted(partitionMillis)
+                        + " from " + tableName;
+            }
+            @Override
+            public void bind(PreparedStatement preparedStatement) {}
+            @Override
+            public Long mapRow(ResultSet resultSet) throws SQLException {
+                return resultSet.getLong(1);
+            }
+        });
+        StringBuilder columnList = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(columns.get(i).name());
+        }
+        for (long partition : legacyPartitions) {
+            partitions.add(partition);
+            syncPartition(partition);
+            dataSource.update("insert into " + toTableName(partition) + " ("
+                    + castUntainted(columnList.toString()) + ") select "
+                    + castUntainted(columnList.toString()) + " from " + tableName
+                    + " where capture_time >= ? and capture_time < ?",
+                    partition * partitionMillis, (partition + 1) * partitionMillis);
+        }
+        dataSource.dropTable(tableName);
+    }
+
+    @GuardedBy("lock")
+    private void syncPartition(long partition) throws SQLException {
+        String partitionTableName = toTableName(partition);
+        dataSource.syncTable(partitionTableName, columns);
+        ImmutableList.Builder<Index> partitionIndexes = ImmutableList.builder();
+        for (Index index : indexes) {
+            partitionIndexes.add(ImmutableIndex.of(
+                    partitionTableName + index.name().substring(tableName.length()),
+                    index.columns()));
+        }
+        dataSource.syncIndexes(partitionTableName, partitionIndexes.build());
+    }
+
+    @GuardedBy("lock")
+    private void syncView() throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        for (long partition : partitions) {
+            if (sql.length() > 0) {
+                sql.append(" union all ");
+            }
+            sql.append("select * from ");
+            sql.append(toTableName(partition));
+        }
+        dataSource.syncView(tableName, castUntainted(sql.toString()));
+    }
+
+    private @Untainted String toTableName(long partition) {
+        return tableName + "_p" + castUntainted(partition);
+    }
+
+    private static @Nullable Long parsePartition(String suffix) {
+        try {
+            return Long.parseLong(suffix);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -112,6 +112,45 @@ public class Schemas {
         }
     }
 
+    // useful for upgrades
+    static boolean viewExists(String viewName, Connection connection) throws SQLException {
+        logger.debug("viewExists(): viewName={}", viewName);
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet resultSet =
+                metaData.getTables(null, null, convert(metaData, viewName), new String[] {"VIEW"});
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            return resultSet.next();
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
+    static List<String> getTableNames(String prefix, Connection connection)
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // not using prefix as the metadata search pattern since '_' is a wildcard there
+        ResultSet resultSet = metaData.getTables(null, null, null, new String[] {"TABLE"});
+        ResultSetCloser closer = new ResultSetCloser(resultSet);
+        try {
+            List<String> tableNames = Lists.newArrayList();
+            while (resultSet.next()) {
+                String tableName = checkNotNull(resultSet.getString("TABLE_NAME"))
+                        .toLowerCase(Locale.ENGLISH);
+                if (tableName.startsWith(prefix)) {
+                    tableNames.add(tableName);
+                }
+            }
+            return tableNames;
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
+        } finally {
+            closer.close();
+        }
+    }
+
     // useful for upgrades
     static boolean columnExists(String tableName, String columnName, Connection connection)
             throws SQLException {
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// decides at transaction start whether to capture trace entries, or only timers and aggregates
+//
+// when the jvm is spending more than the configured percentage of wall clock time in gc, trace
+// entries are only captured for transactions that have recently been slow, since those are the
+// ones that are likely to be stored as traces, and the trace entries of all the other transactions
+// are just garbage that adds to the gc pressure
+//
+// transactions that start without entry capture but then turn out to be slow are upgraded to full
+// entry capture by ImmediateTraceStoreWatcher (see Transaction.upgradeToFullEntryCapture())
+class AdaptiveEntryCapture {
+
+    // 0 means disabled (always capture trace entries)
+    private static final int GC_PERCENT_THRESHOLD =
+            Integer.getInteger("glowroot.adaptiveEntryCapture.gcPercent", 0);
+
+    private static final long SAMPLE_INTERVAL_NANOS = SECONDS.toNanos(1);
+    private static final long RECENTLY_SLOW_NANOS = MINUTES.toNanos(5);
+    private static final int RECENTLY_SLOW_LIMIT = 1000;
+
+    private final int gcPercentThreshold;
+    private final List<GarbageCollectorMXBean> gcMXBeans;
+    private final Ticker ticker;
+
+    private final AtomicLong lastSampleTick;
+    private volatile long lastSampleGcMillis;
+    private volatile boolean underPressure;
+
+    // the values are the tick when the transaction was last slow
+    private final ConcurrentMap<String, Long> recentlySlowTransactions = Maps.newConcurrentMap();
+
+    static AdaptiveEntryCapture create(Ticker ticker) {
+        return new AdaptiveEntryCapture(GC_PERCENT_THRESHOLD,
+                ManagementFactory.getGarbageCollectorMXBeans(), ticker);
+    }
+
+    @VisibleForTesting
+    AdaptiveEntryCapture(int gcPercentThreshold, List<GarbageCollectorMXBean> gcMXBeans,
+            Ticker ticker) {
+        this.gcPercentThreshold = gcPercentThreshold;
+        this.gcMXBeans = gcMXBeans;
+        this.ticker = ticker;
+        lastSampleTick = new AtomicLong(ticker.read());
+        lastSampleGcMillis = getTotalGcMillis();
+    }
+
+    boolean shouldCaptureEntries(String transactionType, String transactionName) {
+        if (gcPercentThreshold == 0) {
+            return true;
+        }
+        long currentTick = ticker.read();
+        long sampleTick = lastSampleTick.get();
+        if (currentTick - sampleTick >= SAMPLE_INTERVAL_NANOS
+                && lastSampleTick.compareAndSet(sampleTick, currentTick)) {
+            // only a single thread per interval gets here
+            long gcMillis = getTotalGcMillis();
+            long elapsedMillis = NANOSECONDS.toMillis(currentTick - sampleTick);
+            underPressure =
+                    (gcMillis - lastSampleGcMillis) * 100 >= gcPercentThreshold * elapsedMillis;
+            lastSampleGcMillis = gcMillis;
+        }
+        if (!underPressure) {
+            return true;
+        }
+        // the transaction name at start is not always the final transaction name, in which case
+        // the transaction will just rely on being upgraded if it turns out to be slow
+        Long slowTick = recentlySlowTransactions.get(getKey(transactionType, transactionName));
+        return slowTick != null && currentTick - slowTick < RECENTLY_SLOW_NANOS;
+    }
+
+    void onCompletedTransaction(Transaction transaction, boolean slow) {
+        if (gcPercentThreshold == 0 || !slow) {
+            return;
+        }
+        long currentTick = ticker.read();
+        if (recentlySlowTransactions.size() >= RECENTLY_SLOW_LIMIT) {
+            removeExpired(currentTick);
+            if (recentlySlowTransactions.size() >= RECENTLY_SLOW_LIMIT) {
+                return;
+            }
+        }
+        recentlySlowTransactions.put(
+                getKey(transaction.getTransactionType(), transaction.getTransactionName()),
+                currentTick);
+    }
+
+    private void removeExpired(long currentTick) {
+        Iterator<Entry<String, Long>> i = recentlySlowTransactions.entrySet().iterator();
+        while (i.hasNext()) {
+            if (currentTick - i.next().getValue() >= RECENTLY_SLOW_NANOS) {
+                i.remove();
+            }
+        }
+    }
+
+    private long getTotalGcMillis() {
+        long totalGcMillis = 0;
+        for (GarbageCollectorMXBean gcMXBean : gcMXBeans) {
+            // returns -1 if collection time is undefined for this collector
+            totalGcMillis += Math.max(0, gcMXBean.getCollectionTime());
+        }
+        return totalGcMillis;
+    }
+
+    private static String getKey(String transactionType, String transactionName) {
+        return transactionType + ':' + transactionName;
+    }
+}
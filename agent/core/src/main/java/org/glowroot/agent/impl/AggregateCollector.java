@@ -154,6 +154,25 @@ class AggregateCollector {
 
     Aggregate build(SharedQueryTextCollector sharedQueryTextCollector,
             ScratchBuffer scratchBuffer) {
+        Aggregate.Builder builder = buildSummary(scratchBuffer);
+        if (queries != null) {
+            builder.addAllQueriesByType(queries.toAggregateProto(sharedQueryTextCollector));
+        }
+        if (serviceCalls != null) {
+            builder.addAllServiceCallsByType(serviceCalls.toProto());
+        }
+        if (mainThreadProfile != null) {
+            builder.setMainThreadProfile(mainThreadProfile.toProto());
+        }
+        if (auxThreadProfile != null) {
+            builder.setAuxThreadProfile(auxThreadProfile.toProto());
+        }
+        return builder.build();
+    }
+
+    // this is the cheap subset of the aggregate (no queries, service calls or profiles) that is
+    // sent to the central collector for live aggregate requests
+    Aggregate.Builder buildSummary(ScratchBuffer scratchBuffer) {
         Aggregate.Builder builder = Aggregate.newBuilder()
                 .setTotalDurationNanos(totalDurationNanos)
                 .setTransactionCount(transactionCount)
@@ -169,19 +188,7 @@ class AggregateCollector {
         if (!auxThreadStats.isNA()) {
             builder.setAuxThreadStats(auxThreadStats.toProto());
         }
-        if (queries != null) {
-            builder.addAllQueriesByType(queries.toAggregateProto(sharedQueryTextCollector));
-        }
-        if (serviceCalls != null) {
-            builder.addAllServiceCallsByType(serviceCalls.toProto());
-        }
-        if (mainThreadProfile != null) {
-            builder.setMainThreadProfile(mainThreadProfile.toProto());
-        }
-        if (auxThreadProfile != null) {
-            builder.setAuxThreadProfile(auxThreadProfile.toProto());
-        }
-        return builder.build();
+        return builder;
     }
 
     void mergeOverallSummaryInto(OverallSummaryCollector collector) {
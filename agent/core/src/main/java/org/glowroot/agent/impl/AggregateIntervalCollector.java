@@ -42,6 +42,7 @@ import org.glowroot.common.model.TransactionSummaryCollector;
 import org.glowroot.common.repo.Utils;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse;
 
 public class AggregateIntervalCollector {
 
@@ -168,6 +169,32 @@ public class AggregateIntervalCollector {
         }
     }
 
+    public LiveAggregatesResponse.Interval getLiveAggregates() {
+        LiveAggregatesResponse.Interval.Builder interval = LiveAggregatesResponse.Interval
+                .newBuilder()
+                .setCaptureTime(captureTime)
+                .setLiveCaptureTime(Math.min(captureTime, clock.currentTimeMillis()));
+        synchronized (lock) {
+            ScratchBuffer scratchBuffer = new ScratchBuffer();
+            for (Entry<String, IntervalTypeCollector> e : typeCollectors.entrySet()) {
+                String transactionType = e.getKey();
+                IntervalTypeCollector intervalTypeCollector = e.getValue();
+                interval.addAggregate(LiveAggregatesResponse.LiveAggregate.newBuilder()
+                        .setTransactionType(transactionType)
+                        .setAggregate(intervalTypeCollector.overallAggregateCollector
+                                .buildSummary(scratchBuffer)));
+                for (Entry<String, AggregateCollector> f : intervalTypeCollector
+                        .transactionAggregateCollectors.entrySet()) {
+                    interval.addAggregate(LiveAggregatesResponse.LiveAggregate.newBuilder()
+                            .setTransactionType(transactionType)
+                            .setTransactionName(f.getKey())
+                            .setAggregate(f.getValue().buildSummary(scratchBuffer)));
+                }
+            }
+        }
+        return interval.build();
+    }
+
     public @Nullable String getFullQueryText(String fullQueryTextSha1) {
         synchronized (lock) {
             for (IntervalTypeCollector typeCollector : typeCollectors.values()) {
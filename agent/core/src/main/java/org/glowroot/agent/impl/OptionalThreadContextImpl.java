@@ -147,6 +147,16 @@ public class OptionalThreadContextImpl implements ThreadContextPlus {
                 messageSupplier, timerName);
     }
 
+    @Override
+    public TraceEntry startAggregatedServiceCallEntry(String serviceCallType,
+            String serviceCallText, MessageSupplier messageSupplier, TimerName timerName) {
+        if (threadContext == null) {
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        return threadContext.startAggregatedServiceCallEntry(serviceCallType, serviceCallText,
+                messageSupplier, timerName);
+    }
+
     @Override
     public AsyncTraceEntry startAsyncServiceCallEntry(String serviceCallType,
             String serviceCallText,
@@ -251,6 +261,11 @@ public class OptionalThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    @Override
+    public boolean hasTransactionError() {
+        return threadContext != null && threadContext.hasTransactionError();
+    }
+
     @Override
     public void addErrorEntry(Throwable t) {
         if (threadContext != null) {
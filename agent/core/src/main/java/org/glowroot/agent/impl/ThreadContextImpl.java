@@ -105,6 +105,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private @MonotonicNonNull QueryDataMap serviceCallsForFirstType;
     private @MonotonicNonNull Map<String, QueryDataMap> allServiceCallTypesMap;
 
+    // only accessed by the thread context's thread
+    private @MonotonicNonNull NotCapturedTraceEntry notCapturedTraceEntry;
+
     private final long threadId;
 
     private final boolean limitExceededAuxThreadContext;
@@ -313,9 +316,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
 
     // only called by transaction thread
     private @Nullable QueryData getOrCreateServiceCallDataIfPossible(String serviceCallType,
-            String serviceCallText) {
+            String serviceCallText, boolean aggregated) {
         if (headServiceCallData == null) {
-            if (!transaction.allowAnotherAggregateServiceCall()) {
+            if (!transaction.allowAnotherAggregateServiceCall(aggregated)) {
                 // this only occurs if maxAggregateServiceCallsPerType is set to 0
                 return null;
             }
@@ -331,7 +334,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         QueryData serviceCallData = serviceCallsForCurrentType.get(serviceCallText);
         if (serviceCallData == null) {
-            if (transaction.allowAnotherAggregateServiceCall()) {
+            if (transaction.allowAnotherAggregateServiceCall(aggregated)) {
                 serviceCallData =
                         createServiceCallData(serviceCallType, serviceCallText,
                                 serviceCallsForCurrentType);
@@ -545,6 +548,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
         TimerImpl timer = startTimer(timerName, startTick);
         if (transaction.allowAnotherEntry()) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, null, 0);
+        } else if (!transaction.isCaptureEntries()) {
+            return getNotCapturedTraceEntry();
         } else {
             return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, null, 0);
         }
@@ -564,6 +569,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
         TimerImpl timer = startTimer(timerName, startTick);
         if (transaction.allowAnotherEntry()) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, null, 0);
+        } else if (!transaction.isCaptureEntries()) {
+            return getNotCapturedTraceEntry();
         } else {
             return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, null, 0);
         }
@@ -711,7 +718,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
         QueryData queryData =
-                getOrCreateServiceCallDataIfPossible(serviceCallType, serviceCallText);
+                getOrCreateServiceCallDataIfPossible(serviceCallType, serviceCallText, false);
         if (transaction.allowAnotherEntry()) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, queryData,
                     1);
@@ -721,6 +728,50 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    @Override
+    public TraceEntry startAggregatedServiceCallEntry(String serviceCallType,
+            String serviceCallText, MessageSupplier messageSupplier, TimerName timerName) {
+        if (serviceCallType == null) {
+            logger.error("startAggregatedServiceCallEntry(): argument 'serviceCallType' must be"
+                    + " non-null");
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        if (serviceCallText == null) {
+            logger.error("startAggregatedServiceCallEntry(): argument 'serviceCallText' must be"
+                    + " non-null");
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        if (messageSupplier == null) {
+            logger.error("startAggregatedServiceCallEntry(): argument 'messageSupplier' must be"
+                    + " non-null");
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        if (timerName == null) {
+            logger.error("startAggregatedServiceCallEntry(): argument 'timerName' must be"
+                    + " non-null");
+            return NopTransactionService.TRACE_ENTRY;
+        }
+        long startTick = ticker.read();
+        TimerImpl timer = startTimer(timerName, startTick);
+        QueryData queryData =
+                getOrCreateServiceCallDataIfPossible(serviceCallType, serviceCallText, true);
+        if (queryData != null && !queryData.firstOccurrence()) {
+            // not the first occurrence in this thread context (or the aggregate limit has been
+            // exceeded), so only aggregate
+            return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, queryData,
+                    1, true);
+        }
+        if (transaction.allowAnotherEntry()) {
+            TraceEntryImpl entry = traceEntryComponent.pushEntry(startTick, messageSupplier, timer,
+                    null, queryData, 1);
+            entry.setErrorMessageDefaultsToMessage();
+            return entry;
+        } else {
+            return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, queryData,
+                    1);
+        }
+    }
+
     @Override
     public AsyncTraceEntry startAsyncServiceCallEntry(String serviceCallType,
             String serviceCallText, MessageSupplier messageSupplier, TimerName timerName) {
@@ -747,7 +798,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         TimerImpl syncTimer = startTimer(timerName, startTick);
         AsyncTimerImpl asyncTimer = startAsyncTimer(timerName, startTick);
         QueryData queryData =
-                getOrCreateServiceCallDataIfPossible(serviceCallType, serviceCallText);
+                getOrCreateServiceCallDataIfPossible(serviceCallType, serviceCallText, false);
         if (transaction.allowAnotherEntry()) {
             return startAsyncServiceCallEntry(startTick, messageSupplier, syncTimer, asyncTimer,
                     queryData);
@@ -916,6 +967,15 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    @Override
+    public boolean hasTransactionError() {
+        if (innerTransactionThreadContext == null) {
+            return transaction.hasError();
+        } else {
+            return innerTransactionThreadContext.hasTransactionError();
+        }
+    }
+
     @Override
     public void addErrorEntry(Throwable t) {
         addErrorEntryInternal(null, t);
@@ -1070,6 +1130,14 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    private TraceEntry getNotCapturedTraceEntry() {
+        if (notCapturedTraceEntry == null) {
+            notCapturedTraceEntry = new NotCapturedTraceEntry();
+        }
+        notCapturedTraceEntry.depth++;
+        return notCapturedTraceEntry;
+    }
+
     static int getNormalizedStartIndex(StackTraceElement[] locationStackTrace, String methodName,
             int additionalMethodsToSkip) {
         for (int i = 0; i < locationStackTrace.length; i++) {
@@ -1080,6 +1148,80 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return 0;
     }
 
+    // shared by all sync trace entries of this thread context that are not captured because the
+    // transaction was started without trace entry capture (see AdaptiveEntryCapture), so that no
+    // object is allocated per call while the jvm is under gc pressure
+    //
+    // since it is shared, it does not know its own timer, and instead relies on sync trace entries
+    // being properly nested, so that the timer to end is the current timer (the depth guards
+    // against end*() being called multiple times ending the parent timer), and error entries are
+    // not captured either
+    private class NotCapturedTraceEntry implements TraceEntry {
+
+        private int depth;
+
+        @Override
+        public void end() {
+            endInternal();
+        }
+
+        @Override
+        public void endWithLocationStackTrace(long threshold, TimeUnit unit) {
+            if (threshold < 0) {
+                logger.error(
+                        "endWithLocationStackTrace(): argument 'threshold' must be non-negative");
+            }
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(Throwable t) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(@Nullable String message) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(@Nullable String message, Throwable t) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithInfo(Throwable t) {
+            endInternal();
+        }
+
+        @Override
+        @Deprecated
+        public void endWithStackTrace(long threshold, TimeUnit unit) {
+            if (threshold < 0) {
+                logger.error("endWithStackTrace(): argument 'threshold' must be non-negative");
+            }
+            endInternal();
+        }
+
+        @Override
+        public Timer extend() {
+            return NopTimer.INSTANCE;
+        }
+
+        @Override
+        public @Nullable Object getMessageSupplier() {
+            return null;
+        }
+
+        private void endInternal() {
+            if (depth == 0 || currentTimer == null) {
+                return;
+            }
+            depth--;
+            currentTimer.end(ticker.read());
+        }
+    }
+
     // this does not include the root trace entry
     private class DummyTraceEntryOrQuery extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
@@ -1087,6 +1229,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
         private final @Nullable AsyncTimerImpl asyncTimer;
         private final long startTick;
         private final Object messageSupplier;
+        // when true, errors are not captured as error entries either
+        private final boolean aggregateOnly;
 
         // not volatile, so depends on memory barrier in Transaction for visibility
         private int selfNestingLevel;
@@ -1098,11 +1242,19 @@ public class ThreadContextImpl implements ThreadContextPlus {
         public DummyTraceEntryOrQuery(TimerImpl syncTimer, @Nullable AsyncTimerImpl asyncTimer,
                 long startTick, Object messageSupplier, @Nullable QueryData queryData,
                 long queryExecutionCount) {
+            this(syncTimer, asyncTimer, startTick, messageSupplier, queryData, queryExecutionCount,
+                    false);
+        }
+
+        public DummyTraceEntryOrQuery(TimerImpl syncTimer, @Nullable AsyncTimerImpl asyncTimer,
+                long startTick, Object messageSupplier, @Nullable QueryData queryData,
+                long queryExecutionCount, boolean aggregateOnly) {
             super(queryData);
             this.syncTimer = syncTimer;
             this.asyncTimer = asyncTimer;
             this.startTick = startTick;
             this.messageSupplier = messageSupplier;
+            this.aggregateOnly = aggregateOnly;
             if (queryData != null) {
                 queryData.start(startTick, queryExecutionCount);
             }
@@ -1158,7 +1310,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
             }
             long endTick = ticker.read();
             endInternal(endTick);
-            if (transaction.allowAnotherErrorEntry()) {
+            if (!aggregateOnly && transaction.allowAnotherErrorEntry()) {
                 ErrorMessage errorMessage = ErrorMessage.create(message, t,
                         transaction.getThrowableFrameLimitCounter());
                 // entry won't be nested properly, but at least the error will get captured
@@ -81,6 +81,9 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
     // only used by transaction thread
     private @MonotonicNonNull TimerImpl extendedTimer;
 
+    // only used by transaction thread, see ThreadContext.startAggregatedServiceCallEntry()
+    private boolean errorMessageDefaultsToMessage;
+
     TraceEntryImpl(ThreadContextImpl threadContext, @Nullable TraceEntryImpl parentTraceEntry,
             @Nullable Object messageSupplier, @Nullable QueryData queryData,
             long queryExecutionCount, long startTick, @Nullable TimerImpl syncTimer,
@@ -104,6 +107,10 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         return messageSupplier;
     }
 
+    void setErrorMessageDefaultsToMessage() {
+        errorMessageDefaultsToMessage = true;
+    }
+
     @Nullable
     ErrorMessage getErrorMessage() {
         return errorMessage;
@@ -370,6 +377,10 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
     }
 
     private void endWithErrorInternal(@Nullable String message, @Nullable Throwable t) {
+        if (message == null && t == null && errorMessageDefaultsToMessage
+                && messageSupplier instanceof MessageSupplier) {
+            message = ((ReadableMessage) ((MessageSupplier) messageSupplier).get()).getText();
+        }
         ErrorMessage errorMessage = ErrorMessage.create(message, t,
                 threadContext.getTransaction().getThrowableFrameLimitCounter());
         endInternal(ticker.read(), errorMessage);
@@ -169,9 +169,17 @@ public class Transaction {
     private volatile int extraErrorEntryLimitCounter;
     private volatile int aggregateQueryLimitCounter;
     private volatile int aggregateServiceCallLimitCounter;
+    private volatile int aggregatedServiceCallLimitCounter;
 
     private volatile @Nullable AtomicInteger throwableFrameLimitCounter;
 
+    // false when the transaction was started without trace entry capture (see
+    // AdaptiveEntryCapture), in which case only timers and aggregates are captured until the
+    // transaction is upgraded to full entry capture
+    private volatile boolean captureEntries;
+    // true if any trace entries were not captured because of the above
+    private volatile boolean entriesNotCaptured;
+
     private final ThreadContextImpl mainThreadContext;
 
     @GuardedBy("mainThreadContext")
@@ -206,7 +214,7 @@ public class Transaction {
     Transaction(long startTime, long startTick, String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName, boolean captureThreadStats,
             int maxTraceEntriesPerTransaction, int maxAggregateQueriesPerType,
-            int maxAggregateServiceCallsPerType,
+            int maxAggregateServiceCallsPerType, boolean captureEntries,
             @Nullable ThreadAllocatedBytes threadAllocatedBytes,
             CompletionCallback completionCallback, Ticker ticker,
             TransactionRegistry transactionRegistry, TransactionServiceImpl transactionService,
@@ -219,6 +227,7 @@ public class Transaction {
         this.maxTraceEntriesPerTransaction = maxTraceEntriesPerTransaction;
         this.maxAggregateQueriesPerType = maxAggregateQueriesPerType;
         this.maxAggregateServiceCallsPerType = maxAggregateServiceCallsPerType;
+        this.captureEntries = captureEntries;
         this.completionCallback = completionCallback;
         this.ticker = ticker;
         this.userProfileScheduler = userProfileScheduler;
@@ -431,9 +440,24 @@ public class Transaction {
 
     // this method has side effect of incrementing counter
     boolean allowAnotherEntry() {
+        if (!captureEntries) {
+            entriesNotCaptured = true;
+            return false;
+        }
         return entryLimitCounter++ < maxTraceEntriesPerTransaction;
     }
 
+    public boolean isCaptureEntries() {
+        return captureEntries;
+    }
+
+    // called when a transaction that was started without trace entry capture turns out to be slow,
+    // entries prior to this point are lost, but the trace will still have all entries from here on
+    // (up to the usual limit) along with the full timers, queries and profile
+    public void upgradeToFullEntryCapture() {
+        captureEntries = true;
+    }
+
     // this method has side effect of incrementing counter
     boolean allowAnotherErrorEntry() {
         // use higher entry limit when adding errors, but still need some kind of cap
@@ -451,9 +475,16 @@ public class Transaction {
     }
 
     // this method has side effect of incrementing counter
-    boolean allowAnotherAggregateServiceCall() {
-        return aggregateServiceCallLimitCounter++ < maxAggregateServiceCallsPerType
+    // aggregated service calls (see ThreadContext.startAggregatedServiceCallEntry()) have their own
+    // counter so that high volume events (e.g. log events) cannot use up the limit for other
+    // service calls
+    boolean allowAnotherAggregateServiceCall(boolean aggregated) {
+        int limit = maxAggregateServiceCallsPerType
                 * AdvancedConfig.OVERALL_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER;
+        if (aggregated) {
+            return aggregatedServiceCallLimitCounter++ < limit;
+        }
+        return aggregateServiceCallLimitCounter++ < limit;
     }
 
     public void accept(long captureTick, EntryVisitor entryVisitor) throws Exception {
@@ -604,6 +635,11 @@ public class Transaction {
         }
     }
 
+    // only checks for an error set through setError(), not for an error on the root entry
+    boolean hasError() {
+        return errorMessage != null;
+    }
+
     void setError(@Nullable String message, @Nullable Throwable t) {
         if (this.errorMessage == null) {
             this.errorMessage = ErrorMessage.create(message, t, getThrowableFrameLimitCounter());
@@ -756,6 +792,10 @@ public class Transaction {
         return entryLimitCounter > maxTraceEntriesPerTransaction;
     }
 
+    boolean isEntriesNotCaptured() {
+        return entriesNotCaptured;
+    }
+
     void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo, int limit) {
         if (completed) {
             return;
@@ -42,6 +42,8 @@ public class TransactionServiceImpl implements ConfigListener {
     private final Clock clock;
     private final Ticker ticker;
 
+    private final AdaptiveEntryCapture adaptiveEntryCapture;
+
     private final TransactionCompletionCallback transactionCompletionCallback =
             new TransactionCompletionCallback();
 
@@ -75,6 +77,7 @@ public class TransactionServiceImpl implements ConfigListener {
         this.userProfileScheduler = userProfileScheduler;
         this.clock = clock;
         this.ticker = ticker;
+        adaptiveEntryCapture = AdaptiveEntryCapture.create(ticker);
     }
 
     TraceEntryImpl startTransaction(String transactionType, String transactionName,
@@ -86,7 +89,9 @@ public class TransactionServiceImpl implements ConfigListener {
         Transaction transaction = new Transaction(clock.currentTimeMillis(), startTick,
                 transactionType, transactionName, messageSupplier, timerName, captureThreadStats,
                 maxTraceEntriesPerTransaction, maxAggregateQueriesPerType,
-                maxAggregateServiceCallsPerType, threadAllocatedBytes,
+                maxAggregateServiceCallsPerType,
+                adaptiveEntryCapture.shouldCaptureEntries(transactionType, transactionName),
+                threadAllocatedBytes,
                 transactionCompletionCallback, ticker, transactionRegistry, this, configService,
                 userProfileScheduler, threadContextHolder);
         SelfRemovableEntry transactionEntry = transactionRegistry.addTransaction(transaction);
@@ -126,6 +131,8 @@ public class TransactionServiceImpl implements ConfigListener {
             // (via TransactionCollectorImpl.getPendingCompleteTraces())
             // between removing the trace from the registry and storing it
             transactionCollector.onCompletedTransaction(transaction);
+            adaptiveEntryCapture.onCompletedTransaction(transaction,
+                    transactionCollector.shouldStoreSlow(transaction));
         }
     }
 
@@ -107,6 +107,7 @@ public class AgentModule {
     private final StackTraceCollector stackTraceCollector;
 
     private final ImmediateTraceStoreWatcher immedateTraceStoreWatcher;
+    private final @Nullable ThreadStateSampler threadStateSampler;
 
     private final boolean jvmRetransformClassesSupported;
 
@@ -211,6 +212,8 @@ public class AgentModule {
                         "org.glowroot:type=FileSystem,name=" + name);
             }
         }
+        lazyPlatformMBeanServer.lazyRegisterMBean(weaver.getTelemetry(),
+                "org.glowroot:type=Weaving");
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
                 clock, ticker);
         // using fixed rate to keep gauge collections close to on the second mark
@@ -222,6 +225,16 @@ public class AgentModule {
                 transactionRegistry, transactionCollector, configService, ticker);
         immedateTraceStoreWatcher.scheduleWithFixedDelay(backgroundExecutor,
                 ImmediateTraceStoreWatcher.PERIOD_MILLIS, MILLISECONDS);
+        if (ThreadStateSampler.INTERVAL_MILLIS > 0) {
+            threadStateSampler =
+                    new ThreadStateSampler(ManagementFactory.getThreadMXBean(), ticker);
+            lazyPlatformMBeanServer.lazyRegisterMBean(threadStateSampler,
+                    "org.glowroot:type=ThreadStateSampler");
+            threadStateSampler.scheduleWithFixedDelay(backgroundExecutor,
+                    ThreadStateSampler.INTERVAL_MILLIS, MILLISECONDS);
+        } else {
+            threadStateSampler = null;
+        }
 
         liveTraceRepository = new LiveTraceRepositoryImpl(transactionRegistry, transactionCollector,
                 clock, ticker);
@@ -353,6 +366,9 @@ public class AgentModule {
     @OnlyUsedByTests
     public void close() throws Exception {
         immedateTraceStoreWatcher.cancel();
+        if (threadStateSampler != null) {
+            threadStateSampler.cancel();
+        }
         stackTraceCollector.close();
         gaugeCollector.close();
         lazyPlatformMBeanServer.close();
@@ -57,8 +57,17 @@ class ImmediateTraceStoreWatcher extends ScheduledRunnable {
 
     // look for traces that will exceed the partial store threshold within the next polling interval
     // and schedule partial trace command to run at the appropriate time(s)
+    //
+    // also upgrades transactions that were started without trace entry capture to full entry capture
+    // once they cross the slow threshold, since they are now going to be stored as traces
     @Override
     protected void runInternal() {
+        for (Transaction transaction : transactionRegistry.getTransactions()) {
+            if (!transaction.isCaptureEntries()
+                    && transactionCollector.shouldStoreSlow(transaction)) {
+                transaction.upgradeToFullEntryCapture();
+            }
+        }
         int immediatePartialStoreThresholdSeconds =
                 configService.getAdvancedConfig().immediatePartialStoreThresholdSeconds();
         if (immediatePartialStoreThresholdSeconds == 0) {
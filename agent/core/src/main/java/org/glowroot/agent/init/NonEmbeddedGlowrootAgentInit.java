@@ -110,7 +110,8 @@ public class NonEmbeddedGlowrootAgentInit implements GlowrootAgentInit {
                     centralCollector = new CentralCollector(properties,
                             checkNotNull(collectorAddress), agentModule.getLiveJvmService(),
                             agentModule.getLiveWeavingService(),
-                            agentModule.getLiveTraceRepository(), agentConfigUpdater);
+                            agentModule.getLiveTraceRepository(),
+                            agentModule.getLiveAggregateRepository(), agentConfigUpdater);
                     collector = centralCollector;
                 } else {
                     collector = customCollector;
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
+import org.glowroot.common.util.ScheduledRunnable;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// samples the state of all threads at a fixed rate, without stack traces (which is what makes
+// full thread dumps expensive on jvms with thousands of threads), and exposes the results through
+// an mbean so they can be captured as gauges
+//
+// threads that are waiting on a lock that is owned by another thread (either a monitor or a
+// java.util.concurrent ownable synchronizer) are also recorded as contention edges, which are
+// summarized per lock over each window so that lock convoys show up without taking thread dumps
+class ThreadStateSampler extends ScheduledRunnable implements ThreadStateSamplerMXBean {
+
+    // 0 means disabled
+    static final int INTERVAL_MILLIS =
+            Integer.getInteger("glowroot.threadStateSampler.intervalMillis", 0);
+
+    private static final long WINDOW_NANOS = MINUTES.toNanos(1);
+    private static final int MAX_LOCKS_PER_WINDOW = 1000;
+    private static final int MAX_CONTENDED_LOCKS = 20;
+
+    private final ThreadMXBean threadMXBean;
+    private final Ticker ticker;
+
+    private volatile int runnableThreadCount;
+    private volatile int blockedThreadCount;
+    private volatile int waitingThreadCount;
+    private volatile int timedWaitingThreadCount;
+
+    private volatile double runnableThreadSeconds;
+    private volatile double blockedThreadSeconds;
+    private volatile double waitingThreadSeconds;
+    private volatile double timedWaitingThreadSeconds;
+
+    private volatile List<String> contendedLocks = ImmutableList.of();
+
+    // the rest are only accessed by the sampling thread
+    private long lastSampleTick;
+    private long windowStartTick;
+    private int windowSampleCount;
+    private final Map<String, LockContention> windowLockContentions = Maps.newHashMap();
+
+    ThreadStateSampler(ThreadMXBean threadMXBean, Ticker ticker) {
+        this.threadMXBean = threadMXBean;
+        this.ticker = ticker;
+        lastSampleTick = ticker.read();
+        windowStartTick = lastSampleTick;
+    }
+
+    @Override
+    protected void runInternal() {
+        long currentTick = ticker.read();
+        double elapsedSeconds = (currentTick - lastSampleTick) / (double) SECONDS.toNanos(1);
+        lastSampleTick = currentTick;
+        // max depth 0 so that no stack traces are captured
+        ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0);
+        int runnable = 0;
+        int blocked = 0;
+        int waiting = 0;
+        int timedWaiting = 0;
+        Map<String, Integer> waitersPerLock = Maps.newHashMap();
+        for (ThreadInfo threadInfo : threadInfos) {
+            if (threadInfo == null) {
+                // thread terminated since getAllThreadIds()
+                continue;
+            }
+            switch (threadInfo.getThreadState()) {
+                case RUNNABLE:
+                    runnable++;
+                    break;
+                case BLOCKED:
+                    blocked++;
+                    break;
+                case WAITING:
+                    waiting++;
+                    break;
+                case TIMED_WAITING:
+                    timedWaiting++;
+                    break;
+                default:
+                    break;
+            }
+            String lockName = threadInfo.getLockName();
+            if (lockName != null && threadInfo.getLockOwnerId() != -1) {
+                recordContention(lockName, threadInfo.getLockOwnerName(), waitersPerLock);
+            }
+        }
+        runnableThreadCount = runnable;
+        blockedThreadCount = blocked;
+        waitingThreadCount = waiting;
+        timedWaitingThreadCount = timedWaiting;
+        runnableThreadSeconds += runnable * elapsedSeconds;
+        blockedThreadSeconds += blocked * elapsedSeconds;
+        waitingThreadSeconds += waiting * elapsedSeconds;
+        timedWaitingThreadSeconds += timedWaiting * elapsedSeconds;
+        for (Map.Entry<String, Integer> entry : waitersPerLock.entrySet()) {
+            LockContention lockContention = windowLockContentions.get(entry.getKey());
+            if (lockContention != null) {
+                lockContention.maxWaiters = Math.max(lockContention.maxWaiters, entry.getValue());
+            }
+        }
+        windowSampleCount++;
+        if (currentTick - windowStartTick >= WINDOW_NANOS) {
+            contendedLocks = summarizeWindow();
+            windowLockContentions.clear();
+            windowSampleCount = 0;
+            windowStartTick = currentTick;
+        }
+    }
+
+    @Override
+    public int getRunnableThreadCount() {
+        return runnableThreadCount;
+    }
+
+    @Override
+    public int getBlockedThreadCount() {
+        return blockedThreadCount;
+    }
+
+    @Override
+    public int getWaitingThreadCount() {
+        return waitingThreadCount;
+    }
+
+    @Override
+    public int getTimedWaitingThreadCount() {
+        return timedWaitingThreadCount;
+    }
+
+    @Override
+    public double getRunnableThreadSeconds() {
+        return runnableThreadSeconds;
+    }
+
+    @Override
+    public double getBlockedThreadSeconds() {
+        return blockedThreadSeconds;
+    }
+
+    @Override
+    public double getWaitingThreadSeconds() {
+        return waitingThreadSeconds;
+    }
+
+    @Override
+    public double getTimedWaitingThreadSeconds() {
+        return timedWaitingThreadSeconds;
+    }
+
+    @Override
+    public List<String> getContendedLocks() {
+        return contendedLocks;
+    }
+
+    private void recordContention(String lockName, @Nullable String ownerThreadName,
+            Map<String, Integer> waitersPerLock) {
+        LockContention lockContention = windowLockContentions.get(lockName);
+        if (lockContention == null) {
+            if (windowLockContentions.size() >= MAX_LOCKS_PER_WINDOW) {
+                return;
+            }
+            lockContention = new LockContention(lockName);
+            windowLockContentions.put(lockName, lockContention);
+        }
+        lockContention.waiterSamples++;
+        if (ownerThreadName != null) {
+            lockContention.lastOwnerThreadName = ownerThreadName;
+        }
+        Integer waiters = waitersPerLock.get(lockName);
+        waitersPerLock.put(lockName, waiters == null ? 1 : waiters + 1);
+    }
+
+    private List<String> summarizeWindow() {
+        List<LockContention> sorted = LockContention.orderingByWaiterSamples
+                .greatestOf(windowLockContentions.values(), MAX_CONTENDED_LOCKS);
+        List<String> summaries = Lists.newArrayList();
+        for (LockContention lockContention : sorted) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(lockContention.lockName);
+            sb.append(": ");
+            double averageWaiters = lockContention.waiterSamples / (double) windowSampleCount;
+            sb.append(String.format(Locale.ENGLISH, "%.1f", averageWaiters));
+            sb.append(" waiting threads on average (max ");
+            sb.append(lockContention.maxWaiters);
+            sb.append(")");
+            if (lockContention.lastOwnerThreadName != null) {
+                sb.append(", last owned by ");
+                sb.append(lockContention.lastOwnerThreadName);
+            }
+            summaries.add(sb.toString());
+        }
+        return ImmutableList.copyOf(summaries);
+    }
+
+    private static class LockContention {
+
+        private static final Ordering<LockContention> orderingByWaiterSamples =
+                new Ordering<LockContention>() {
+                    @Override
+                    public int compare(LockContention left, LockContention right) {
+                        return Longs.compare(left.waiterSamples, right.waiterSamples);
+                    }
+                };
+
+        private final String lockName;
+        private @Nullable String lastOwnerThreadName;
+        private long waiterSamples;
+        private int maxWaiters;
+
+        private LockContention(String lockName) {
+            this.lockName = lockName;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.util.List;
+
+public interface ThreadStateSamplerMXBean {
+
+    // number of threads in each state as of the most recent sample
+    int getRunnableThreadCount();
+    int getBlockedThreadCount();
+    int getWaitingThreadCount();
+    int getTimedWaitingThreadCount();
+
+    // cumulative thread-seconds spent in each state, these are meant to be used as counter gauges,
+    // which then give the average number of threads in each state over the gauge interval
+    double getRunnableThreadSeconds();
+    double getBlockedThreadSeconds();
+    double getWaitingThreadSeconds();
+    double getTimedWaitingThreadSeconds();
+
+    // most contended locks over the most recent completed window, most contended first
+    List<String> getContendedLocks();
+}
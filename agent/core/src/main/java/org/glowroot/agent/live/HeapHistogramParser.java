@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+import org.objectweb.asm.Type;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+
+// parses the class histogram text output (same format from both the DiagnosticCommand mbean and
+// the attach api) one line at a time, tokenizing in place so that the only allocations per line
+// are for class names that have not been seen before
+class HeapHistogramParser {
+
+    private final Map<String, ClassInfo> classInfos = Maps.newHashMap();
+
+    private boolean inHeader = true;
+    private boolean done;
+
+    static HeapHistogram parse(String text) throws IOException {
+        HeapHistogramParser parser = new HeapHistogramParser();
+        int start = 0;
+        while (start < text.length() && !parser.done) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            parser.processLine(text, start, end);
+            start = end + 1;
+        }
+        return parser.build();
+    }
+
+    static HeapHistogram parse(BufferedReader reader) throws IOException {
+        HeapHistogramParser parser = new HeapHistogramParser();
+        String line;
+        while (!parser.done && (line = reader.readLine()) != null) {
+            parser.processLine(line, 0, line.length());
+        }
+        return parser.build();
+    }
+
+    // returns only the classes whose bytes or count changed, ordered by bytes growth
+    static HeapHistogram diff(HeapHistogram before, HeapHistogram after) {
+        Map<String, HeapHistogram.ClassInfo> beforeClassInfos = Maps.newHashMap();
+        for (HeapHistogram.ClassInfo classInfo : before.getClassInfoList()) {
+            beforeClassInfos.put(classInfo.getClassName(), classInfo);
+        }
+        List<ClassInfo> diffClassInfos = Lists.newArrayList();
+        for (HeapHistogram.ClassInfo classInfo : after.getClassInfoList()) {
+            HeapHistogram.ClassInfo beforeClassInfo =
+                    beforeClassInfos.remove(classInfo.getClassName());
+            ClassInfo diffClassInfo = new ClassInfo(classInfo.getClassName());
+            diffClassInfo.bytes = classInfo.getBytes();
+            diffClassInfo.count = classInfo.getCount();
+            if (beforeClassInfo != null) {
+                diffClassInfo.bytes -= beforeClassInfo.getBytes();
+                diffClassInfo.count -= beforeClassInfo.getCount();
+            }
+            if (diffClassInfo.bytes != 0 || diffClassInfo.count != 0) {
+                diffClassInfos.add(diffClassInfo);
+            }
+        }
+        for (HeapHistogram.ClassInfo beforeClassInfo : beforeClassInfos.values()) {
+            // classes that have no instances anymore
+            ClassInfo diffClassInfo = new ClassInfo(beforeClassInfo.getClassName());
+            diffClassInfo.bytes = -beforeClassInfo.getBytes();
+            diffClassInfo.count = -beforeClassInfo.getCount();
+            diffClassInfos.add(diffClassInfo);
+        }
+        return build(diffClassInfos);
+    }
+
+    private void processLine(String text, int start, int end) throws IOException {
+        if (inHeader) {
+            // skip over header lines
+            int index = text.indexOf("--------", start);
+            inHeader = index == -1 || index >= end;
+            return;
+        }
+        // e.g. "   1:         12345        1234567  [C"
+        // or "   1:         12345        1234567  java.lang.String (java.base@9)" under java 9
+        int numStart = skipWhitespace(text, start, end);
+        if (numStart == end) {
+            return;
+        }
+        int numEnd = skipNonWhitespace(text, numStart, end);
+        if (text.startsWith("Total", numStart)) {
+            done = true;
+            return;
+        }
+        int countStart = skipWhitespace(text, numEnd, end);
+        int countEnd = skipNonWhitespace(text, countStart, end);
+        int bytesStart = skipWhitespace(text, countEnd, end);
+        int bytesEnd = skipNonWhitespace(text, bytesStart, end);
+        int classNameStart = skipWhitespace(text, bytesEnd, end);
+        int classNameEnd = skipNonWhitespace(text, classNameStart, end);
+        if (classNameStart == classNameEnd) {
+            throw new IOException("Unexpected class histogram line: "
+                    + text.substring(start, end));
+        }
+        char firstChar = text.charAt(classNameStart);
+        if (firstChar == '<') {
+            // skipping PermGen objects
+            return;
+        }
+        String className = text.substring(classNameStart, classNameEnd);
+        if (firstChar == '[') {
+            className = Type.getType(className).getClassName();
+        }
+        ClassInfo classInfo = classInfos.get(className);
+        if (classInfo == null) {
+            classInfo = new ClassInfo(className);
+            classInfos.put(className, classInfo);
+        }
+        classInfo.count += parseLong(text, countStart, countEnd);
+        classInfo.bytes += parseLong(text, bytesStart, bytesEnd);
+    }
+
+    private HeapHistogram build() throws IOException {
+        if (inHeader) {
+            throw new IOException("Unexpected class histogram output");
+        }
+        return build(classInfos.values());
+    }
+
+    private static HeapHistogram build(Collection<ClassInfo> classInfos) {
+        HeapHistogram.Builder builder = HeapHistogram.newBuilder();
+        for (ClassInfo classInfo : ClassInfo.orderingByBytes.sortedCopy(classInfos)) {
+            builder.addClassInfo(HeapHistogram.ClassInfo.newBuilder()
+                    .setClassName(classInfo.className)
+                    .setBytes(classInfo.bytes)
+                    .setCount(classInfo.count));
+        }
+        return builder.build();
+    }
+
+    private static int skipWhitespace(String text, int index, int end) {
+        int i = index;
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipNonWhitespace(String text, int index, int end) {
+        int i = index;
+        while (i < end && !Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long parseLong(String text, int start, int end) throws IOException {
+        if (start == end) {
+            throw new IOException("Unexpected empty number in class histogram");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Unexpected number in class histogram: "
+                        + text.substring(start, end));
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static class ClassInfo {
+
+        private static final Ordering<ClassInfo> orderingByBytes = new Ordering<ClassInfo>() {
+            @Override
+            public int compare(ClassInfo left, ClassInfo right) {
+                return Longs.compare(right.bytes, left.bytes);
+            }
+        };
+
+        private final String className;
+        private long bytes;
+        private long count;
+
+        private ClassInfo(String className) {
+            this.className = className;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.glowroot.common.model.QueryCollector;
 import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.model.TransactionErrorSummaryCollector;
 import org.glowroot.common.model.TransactionSummaryCollector;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse;
 
 public class LiveAggregateRepositoryImpl implements LiveAggregateRepository {
 
@@ -227,6 +228,16 @@ public class LiveAggregateRepositoryImpl implements LiveAggregateRepository {
         return revisedTo;
     }
 
+    // used to answer live aggregate requests from the central collector
+    public LiveAggregatesResponse getLiveAggregates() {
+        LiveAggregatesResponse.Builder response = LiveAggregatesResponse.newBuilder();
+        for (AggregateIntervalCollector intervalCollector : aggregator
+                .getOrderedIntervalCollectorsInRange(0, Long.MAX_VALUE)) {
+            response.addInterval(intervalCollector.getLiveAggregates());
+        }
+        return response.build();
+    }
+
     @Override
     public void clearInMemoryAggregate() {
         aggregator.clearInMemoryAggregate();
@@ -26,7 +26,6 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -47,7 +46,8 @@ import javax.tools.ToolProvider;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -56,8 +56,6 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Closer;
-import com.google.common.primitives.Longs;
-import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,6 +74,7 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanMeta;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ThreadDump;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class LiveJvmServiceImpl implements LiveJvmService {
 
@@ -84,9 +83,15 @@ public class LiveJvmServiceImpl implements LiveJvmService {
     private static final String HOT_SPOT_DIAGNOSTIC_MBEAN_NAME =
             "com.sun.management:type=HotSpotDiagnostic";
 
+    private static final String DIAGNOSTIC_COMMAND_MBEAN_NAME =
+            "com.sun.management:type=DiagnosticCommand";
+
     private static final @Nullable Long PROCESS_ID =
             parseProcessId(ManagementFactory.getRuntimeMXBean().getName());
 
+    // the diff interval chosen in the UI is at most 5 minutes
+    private static final long HEAP_HISTOGRAM_DIFF_BASELINE_EXPIRATION_MINUTES = 10;
+
     private static final ImmutableSet<String> numericAttributeTypes =
             ImmutableSet.of("long", "int", "double", "float", "java.lang.Long", "java.lang.Integer",
                     "java.lang.Double", "java.lang.Float");
@@ -95,6 +100,13 @@ public class LiveJvmServiceImpl implements LiveJvmService {
     private final ThreadDumpService threadDumpService;
     private final Availability threadAllocatedBytesAvailability;
 
+    // only the baseline is kept, so the second histogram of a diff never needs to be sent in full
+    private final Cache<String, HeapHistogram> heapHistogramDiffBaselines =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(HEAP_HISTOGRAM_DIFF_BASELINE_EXPIRATION_MINUTES, MINUTES)
+                    .maximumSize(10)
+                    .build();
+
     public LiveJvmServiceImpl(LazyPlatformMBeanServer lazyPlatformMBeanServer,
             TransactionRegistry transactionRegistry, TransactionCollector transactionCollector,
             Availability threadAllocatedBytesAvailability) {
@@ -193,9 +205,37 @@ public class LiveJvmServiceImpl implements LiveJvmService {
 
     @Override
     public HeapHistogram heapHistogram(String agentId) throws Exception {
+        return takeHeapHistogram();
+    }
+
+    @Override
+    public void heapHistogramDiffBaseline(String agentId, String diffId) throws Exception {
+        heapHistogramDiffBaselines.put(diffId, takeHeapHistogram());
+    }
+
+    @Override
+    public HeapHistogram heapHistogramDiff(String agentId, String diffId) throws Exception {
+        HeapHistogram baseline = heapHistogramDiffBaselines.getIfPresent(diffId);
+        if (baseline == null) {
+            throw new HeapHistogramDiffBaselineExpiredException();
+        }
+        heapHistogramDiffBaselines.invalidate(diffId);
+        return HeapHistogramParser.diff(baseline, takeHeapHistogram());
+    }
+
+    private HeapHistogram takeHeapHistogram() throws Exception {
         if (AppServerDetection.isIbmJvm()) {
             throw new UnavailableDueToRunningInIbmJvmException();
         }
+        ObjectName diagnosticCommandName = ObjectName.getInstance(DIAGNOSTIC_COMMAND_MBEAN_NAME);
+        if (!lazyPlatformMBeanServer.queryNames(diagnosticCommandName, null).isEmpty()) {
+            // DiagnosticCommand mbean is available since java 8 (including in JREs), and is much
+            // cheaper than attaching to this same jvm through the attach api
+            String output = (String) lazyPlatformMBeanServer.invoke(diagnosticCommandName,
+                    "gcClassHistogram", new Object[] {new String[0]},
+                    new String[] {String[].class.getName()});
+            return HeapHistogramParser.parse(checkNotNull(output));
+        }
         if (ToolProvider.getSystemJavaCompiler() == null) {
             throw new UnavailableDueToRunningInJreException();
         }
@@ -218,7 +258,7 @@ public class LiveJvmServiceImpl implements LiveJvmService {
             try {
                 BufferedReader reader =
                         closer.register(new BufferedReader(new InputStreamReader(in)));
-                return process(reader);
+                return HeapHistogramParser.parse(reader);
             } catch (Throwable t) {
                 throw closer.rethrow(t);
             } finally {
@@ -544,50 +584,6 @@ public class LiveJvmServiceImpl implements LiveJvmService {
         return attributeNames;
     }
 
-    private static HeapHistogram process(BufferedReader reader) throws IOException {
-        // skip over header lines
-        String line = reader.readLine();
-        while (line != null && !line.contains("--------")) {
-            line = reader.readLine();
-        }
-        if (line == null) {
-            throw new IOException("Unexpected heapHisto output");
-        }
-        Map<String, ClassInfo> classInfos = Maps.newHashMap();
-        Splitter splitter = Splitter.on(' ').omitEmptyStrings();
-        while ((line = reader.readLine()) != null) {
-            Iterator<String> parts = splitter.split(line).iterator();
-            String num = parts.next();
-            if (num.equals("Total")) {
-                break;
-            }
-            long count = Long.parseLong(parts.next());
-            long bytes = Long.parseLong(parts.next());
-            String className = parts.next();
-            // skipping PermGen objects
-            if (className.charAt(0) != '<') {
-                if (className.charAt(0) == '[') {
-                    className = Type.getType(className).getClassName();
-                }
-                ClassInfo classInfo = classInfos.get(className);
-                if (classInfo == null) {
-                    classInfo = new ClassInfo(className);
-                    classInfos.put(className, classInfo);
-                }
-                classInfo.bytes += bytes;
-                classInfo.count += count;
-            }
-        }
-        HeapHistogram.Builder builder = HeapHistogram.newBuilder();
-        for (ClassInfo classInfo : ClassInfo.orderingByBytes.sortedCopy(classInfos.values())) {
-            builder.addClassInfo(HeapHistogram.ClassInfo.newBuilder()
-                    .setClassName(classInfo.className)
-                    .setBytes(classInfo.bytes)
-                    .setCount(classInfo.count));
-        }
-        return builder.build();
-    }
-
     private static void addNumericAttributes(MBeanAttributeInfo attribute, Object value,
             Set<String> attributeNames) {
         String attributeType = attribute.getType();
@@ -685,24 +681,6 @@ public class LiveJvmServiceImpl implements LiveJvmService {
         return Availability.newBuilder().setAvailable(true).build();
     }
 
-    private static class ClassInfo {
-
-        private static final Ordering<ClassInfo> orderingByBytes = new Ordering<ClassInfo>() {
-            @Override
-            public int compare(ClassInfo left, ClassInfo right) {
-                return Longs.compare(right.bytes, left.bytes);
-            }
-        };
-
-        private final String className;
-        private long bytes;
-        private long count;
-
-        private ClassInfo(String className) {
-            this.className = className;
-        }
-    }
-
     @SuppressWarnings("serial")
     private static class ObjectNameQueryExp implements QueryExp {
 
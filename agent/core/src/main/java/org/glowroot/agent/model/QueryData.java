@@ -55,6 +55,9 @@ public class QueryData {
     private long startTick;
     private int selfNestingLevel;
 
+    // only used by ThreadContextImpl.startAggregatedServiceCallEntry()
+    private boolean occurred;
+
     public QueryData(String queryType, String queryText, @Nullable QueryData nextQueryData,
             @Nullable QueryData limitExceededBucket) {
         this.queryType = queryType;
@@ -85,6 +88,16 @@ public class QueryData {
         }
     }
 
+    // returns true only the first time it is called, and never for the instances that are created
+    // per call once the aggregate limit has been exceeded
+    public boolean firstOccurrence() {
+        if (limitExceededBucket != null || occurred) {
+            return false;
+        }
+        occurred = true;
+        return true;
+    }
+
     public long getTotalDurationNanos() {
         return totalDurationNanos;
     }
@@ -21,11 +21,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.security.CodeSource;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -37,7 +35,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Resources;
 import com.google.common.primitives.Bytes;
 import org.immutables.value.Value;
 import org.objectweb.asm.ClassReader;
@@ -46,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.InstrumentationConfig;
+import org.glowroot.agent.weaving.ClassHeaderCache.ClassHeader;
 import org.glowroot.agent.weaving.ClassLoaders.LazyDefinedClass;
 import org.glowroot.common.util.Styles;
 
@@ -74,8 +72,11 @@ public class AnalyzedWorld {
     // not using the much more convenient (and concurrent) guava CacheBuilder since it uses many
     // additional classes that must then be pre-initialized since this is called from inside
     // ClassFileTransformer.transform() (see PreInitializeClasses)
-    private final Map<ClassLoader, ConcurrentMap<String, AnalyzedClass>> world = Collections
-            .synchronizedMap(new WeakHashMap<ClassLoader, ConcurrentMap<String, AnalyzedClass>>());
+    //
+    // not using a synchronized WeakHashMap either since every class load (and every super type
+    // lookup) goes through this map, so a single lock serializes parallel class loading
+    private final ClassLoaderMap<ConcurrentMap<String, AnalyzedClass>> world =
+            new ClassLoaderMap<ConcurrentMap<String, AnalyzedClass>>();
 
     // the analyzed classes for the bootstrap class loader (null) have to be stored separately since
     // LoadingCache doesn't accept null keys, and using an Optional<ClassLoader> for the key makes
@@ -86,6 +87,8 @@ public class AnalyzedWorld {
     private final ConcurrentMap<String, AnalyzedClass> bootstrapLoaderWorld =
             new ConcurrentHashMap<String, AnalyzedClass>();
 
+    private final ClassHeaderCache classHeaderCache = new ClassHeaderCache();
+
     private final Supplier<List<Advice>> advisors;
     private final ImmutableList<ShimType> shimTypes;
     private final ImmutableList<MixinType> mixinTypes;
@@ -107,7 +110,7 @@ public class AnalyzedWorld {
     }
 
     public void removeClasses(List<Class<?>> classes) {
-        for (Map<String, AnalyzedClass> map : getWorldValues()) {
+        for (Map<String, AnalyzedClass> map : world.values()) {
             for (Class<?> clazz : classes) {
                 map.remove(clazz.getName());
             }
@@ -118,9 +121,7 @@ public class AnalyzedWorld {
     }
 
     public ImmutableList<ClassLoader> getClassLoaders() {
-        synchronized (world) {
-            return ImmutableList.copyOf(world.keySet());
-        }
+        return ImmutableList.copyOf(world.getClassLoaders());
     }
 
     void add(AnalyzedClass analyzedClass, @Nullable ClassLoader loader) {
@@ -312,13 +313,12 @@ public class AnalyzedWorld {
             // org.codehaus.groovy.runtime.callsite.CallSiteClassLoader
             return createAnalyzedClassPlanB(className, loader);
         }
-        byte[] bytes = Resources.toByteArray(url);
+        ClassHeader classHeader = classHeaderCache.read(url);
+        byte[] bytes = classHeader.bytes();
         List<Advice> advisors =
                 mergeInstrumentationAnnotations(this.advisors.get(), bytes, loader, className);
-        ThinClassVisitor accv = new ThinClassVisitor();
-        new ClassReader(bytes).accept(accv, ClassReader.SKIP_FRAMES + ClassReader.SKIP_CODE);
-        ClassAnalyzer classAnalyzer = new ClassAnalyzer(accv.getThinClass(), advisors, shimTypes,
-                mixinTypes, loader, this, null, bytes);
+        ClassAnalyzer classAnalyzer = new ClassAnalyzer(classHeader.thinClass(), advisors,
+                shimTypes, mixinTypes, loader, this, null, bytes);
         classAnalyzer.analyzeMethods();
         return classAnalyzer.getAnalyzedClass();
     }
@@ -386,21 +386,11 @@ public class AnalyzedWorld {
         if (loader == null) {
             return bootstrapLoaderWorld;
         } else {
-            // this synchronization is for atomicity of get/put
-            synchronized (world) {
-                ConcurrentMap<String, AnalyzedClass> map = world.get(loader);
-                if (map == null) {
-                    map = new ConcurrentHashMap<String, AnalyzedClass>();
-                    world.put(loader, map);
-                }
-                return map;
+            ConcurrentMap<String, AnalyzedClass> map = world.get(loader);
+            if (map == null) {
+                map = world.putIfAbsent(loader, new ConcurrentHashMap<String, AnalyzedClass>());
             }
-        }
-    }
-
-    private ImmutableList<ConcurrentMap<String, AnalyzedClass>> getWorldValues() {
-        synchronized (world) {
-            return ImmutableList.copyOf(world.values());
+            return map;
         }
     }
 
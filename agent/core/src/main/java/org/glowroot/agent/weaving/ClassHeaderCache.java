@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.weaving.ThinClassVisitor.ThinClass;
+
+// shared cache of class file bytes and their parsed headers, keyed by jar entry, so that super
+// types which are resolved by many class loaders from the same jar entry (e.g. on every redeploy of
+// an application, or multiple applications sharing a lib directory) are only read and parsed once,
+// instead of once per class loader
+//
+// entries are validated against the jar entry's crc (which comes from the jar's central directory,
+// so does not require reading the entry itself) in case the jar has been replaced in the meantime
+//
+// class files that are not in jars (e.g. in a WEB-INF/classes directory) are not cached since those
+// are the ones most likely to be modified in place during development
+//
+// not using guava CacheBuilder for the LRU bound, since this is called from inside
+// ClassFileTransformer.transform() (see comment in AnalyzedWorld)
+class ClassHeaderCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassHeaderCache.class);
+
+    // bound on the class file bytes retained by this cache, least recently used entries are evicted
+    // once exceeded
+    private static final long MAX_CACHED_BYTES = 4 * 1024 * 1024;
+
+    private final long maxCachedBytes;
+
+    // access ordered, guarded by this
+    private final Map<String, ClassHeader> classHeaders =
+            new LinkedHashMap<String, ClassHeader>(16, 0.75f, true);
+
+    // guarded by this
+    private long cachedBytes;
+
+    ClassHeaderCache() {
+        this(MAX_CACHED_BYTES);
+    }
+
+    @VisibleForTesting
+    ClassHeaderCache(long maxCachedBytes) {
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    ClassHeader read(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return new ClassHeader(readBytes(connection), -1);
+        }
+        JarURLConnection jarConnection = (JarURLConnection) connection;
+        try {
+            return read(url, jarConnection);
+        } finally {
+            if (!jarConnection.getUseCaches()) {
+                // the jar file was opened just for this connection (e.g. when the application
+                // server disables url connection caching), and it is otherwise only closed by the
+                // entry's input stream, which is never opened on a cache hit
+                closeJarFile(jarConnection);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return classHeaders.size();
+    }
+
+    private ClassHeader read(URL url, JarURLConnection connection) throws IOException {
+        // when caching is enabled, this connects using the jar file that is cached by the JDK,
+        // which is the same one that the class loader itself (e.g. URLClassLoader) typically uses
+        JarEntry jarEntry = connection.getJarEntry();
+        long crc = jarEntry == null ? -1 : jarEntry.getCrc();
+        if (crc == -1) {
+            return new ClassHeader(readBytes(connection), -1);
+        }
+        // comparing results of URL.toExternalForm() since using URL.equals() directly performs
+        // name resolution and is a blocking operation (from the javadoc)
+        String key = url.toExternalForm();
+        ClassHeader classHeader = get(key);
+        if (classHeader != null && classHeader.crc == crc) {
+            return classHeader;
+        }
+        classHeader = new ClassHeader(readBytes(connection), crc);
+        put(key, classHeader);
+        return classHeader;
+    }
+
+    private synchronized @Nullable ClassHeader get(String key) {
+        return classHeaders.get(key);
+    }
+
+    private synchronized void put(String key, ClassHeader classHeader) {
+        ClassHeader priorClassHeader = classHeaders.put(key, classHeader);
+        if (priorClassHeader != null) {
+            cachedBytes -= priorClassHeader.bytes.length;
+        }
+        cachedBytes += classHeader.bytes.length;
+        Iterator<ClassHeader> i = classHeaders.values().iterator();
+        while (cachedBytes > maxCachedBytes && i.hasNext()) {
+            cachedBytes -= i.next().bytes.length;
+            i.remove();
+        }
+    }
+
+    private static byte[] readBytes(URLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void closeJarFile(JarURLConnection connection) {
+        try {
+            connection.getJarFile().close();
+        } catch (IOException e) {
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    static class ClassHeader {
+
+        private final byte[] bytes;
+        private final ThinClass thinClass;
+        // -1 if not cached
+        private final long crc;
+
+        private ClassHeader(byte[] bytes, long crc) {
+            this.bytes = bytes;
+            ThinClassVisitor accv = new ThinClassVisitor();
+            new ClassReader(bytes).accept(accv, ClassReader.SKIP_FRAMES + ClassReader.SKIP_CODE);
+            thinClass = accv.getThinClass();
+            this.crc = crc;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        ThinClass thinClass() {
+            return thinClass;
+        }
+    }
+}
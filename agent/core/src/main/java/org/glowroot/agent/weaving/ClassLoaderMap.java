@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+// concurrent map with weak class loader keys, so that parallel class loading (e.g. app servers
+// deploying multiple applications at the same time) does not serialize on a single lock
+//
+// keys are compared by identity, which is the same as WeakHashMap since class loaders do not
+// override equals/hashCode, and entries whose class loader has been collected are expunged on
+// subsequent writes
+//
+// not using guava's MapMaker/CacheBuilder for the same reason as described in AnalyzedWorld
+class ClassLoaderMap<V> {
+
+    private final ConcurrentMap<Key, V> map = new ConcurrentHashMap<Key, V>();
+
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+    @Nullable V get(ClassLoader loader) {
+        return map.get(new Key(loader, null));
+    }
+
+    // returns the value that is in the map after this call, which will be the existing value if
+    // there was one
+    V putIfAbsent(ClassLoader loader, V value) {
+        expungeStaleEntries();
+        V existingValue = map.putIfAbsent(new Key(loader, queue), value);
+        return existingValue == null ? value : existingValue;
+    }
+
+    List<ClassLoader> getClassLoaders() {
+        List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+        for (Key key : map.keySet()) {
+            ClassLoader loader = key.get();
+            if (loader != null) {
+                loaders.add(loader);
+            }
+        }
+        return loaders;
+    }
+
+    Collection<V> values() {
+        return map.values();
+    }
+
+    int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            // cleared keys are only equal to themselves
+            map.remove(ref);
+        }
+    }
+
+    private static class Key extends WeakReference<ClassLoader> {
+
+        // captured up front since it needs to stay the same after the referent has been cleared
+        private final int hashCode;
+
+        private Key(ClassLoader loader, @Nullable ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            hashCode = System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            ClassLoader loader = get();
+            return loader != null && loader == ((Key) obj).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -228,7 +228,6 @@ public class PreInitializeWeavingClasses {
         types.add("com.google.common.collect.UnmodifiableIterator");
         types.add("com.google.common.collect.UnmodifiableListIterator");
         types.add("com.google.common.io.ByteSink");
-        types.add("com.google.common.io.ByteSource");
         types.add("com.google.common.io.ByteStreams");
         types.add("com.google.common.io.ByteStreams$1");
         types.add("com.google.common.io.Closeables");
@@ -242,9 +241,6 @@ public class PreInitializeWeavingClasses {
         types.add("com.google.common.io.Files$FileByteSink");
         types.add("com.google.common.io.FileWriteMode");
         types.add("com.google.common.io.LineProcessor");
-        types.add("com.google.common.io.Resources");
-        types.add("com.google.common.io.Resources$1");
-        types.add("com.google.common.io.Resources$UrlByteSource");
         types.add("com.google.common.primitives.Booleans");
         types.add("com.google.common.primitives.Bytes");
         types.add("com.google.common.primitives.Ints");
@@ -323,6 +319,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$BridgeMethodClassVisitor");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$BridgeMethodClassVisitor"
                 + "$BridgeMethodVisitor");
+        types.add("org.glowroot.agent.weaving.ClassHeaderCache");
+        types.add("org.glowroot.agent.weaving.ClassHeaderCache$ClassHeader");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap$Key");
         types.add("org.glowroot.agent.weaving.ClassLoaders");
         types.add("org.glowroot.agent.weaving.ClassLoaders$LazyDefinedClass");
         types.add("org.glowroot.agent.weaving.ClassNames");
@@ -381,6 +381,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$MethodMetaGroup");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor$CatchHandler");
+        types.add("org.glowroot.agent.weaving.WeavingTelemetry");
+        types.add("org.glowroot.agent.weaving.WeavingTelemetry$ClassLoaderStats");
+        types.add("org.glowroot.agent.weaving.WeavingTelemetry$SlowClass");
+        types.add("org.glowroot.agent.weaving.WeavingTelemetryMXBean");
         types.add("org.glowroot.common.util.Patterns");
         types.add("org.glowroot.wire.api.model.AgentConfigOuterClass$AgentConfig"
                 + "$InstrumentationConfig$CaptureKind");
@@ -491,6 +495,8 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$1");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$1");
         types.add("org.glowroot.agent.weaving.ClassAnalyzer$BridgeMethodClassVisitor$1");
+        types.add("org.glowroot.agent.weaving.ClassHeaderCache$1");
+        types.add("org.glowroot.agent.weaving.ClassLoaderMap$1");
         types.add("org.glowroot.agent.weaving.ImmutableAnalyzedClass$1");
         types.add("org.glowroot.agent.weaving.ImmutableAnalyzedMethod$1");
         types.add("org.glowroot.agent.weaving.ImmutableAnalyzedMethodKey$1");
@@ -508,6 +514,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.Weaver$2");
         types.add("org.glowroot.agent.weaving.Weaver$FelixOsgiHackClassVisitor$1");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$1");
+        types.add("org.glowroot.agent.weaving.WeavingTelemetry$1");
         // this is a special class generated by javac (but not by the eclipse compiler) to handle
         // enum switch statements
         // (see http://stackoverflow.com/questions/1834632/java-enum-and-additional-class-files)
@@ -564,8 +571,8 @@ public class PreInitializeWeavingClasses {
     }
 
     private static void preInitializeLinkedHashMapKeySetAndKeySetIterator() {
-        // Resources.toByteArray(), which is used during weaving (see AnalyzedWorld), calls
-        // java.io.ExpiringCache.get(), which every 300 executions calls
+        // reading .class files from jars, which is done during weaving (see ClassHeaderCache),
+        // calls java.io.ExpiringCache.get(), which every 300 executions calls
         // java.io.ExpiringCache.cleanup() (see stacktrace below)
         //
         // sometimes this leads to a ClassCircularityError, e.g.
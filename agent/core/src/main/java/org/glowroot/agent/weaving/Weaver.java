@@ -88,6 +88,8 @@ public class Weaver {
     private final IterableWithSelfRemovableEntries<ActiveWeaving> activeWeavings =
             new IterableWithSelfRemovableEntries<ActiveWeaving>();
 
+    private final WeavingTelemetry telemetry = new WeavingTelemetry();
+
     public Weaver(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes, AnalyzedWorld analyzedWorld,
             TransactionRegistry transactionRegistry, Ticker ticker, TimerNameCache timerNameCache,
@@ -107,6 +109,10 @@ public class Weaver {
         this.timerName = timerNameCache.getTimerName(OnlyForTheTimerName.class);
     }
 
+    public WeavingTelemetry getTelemetry() {
+        return telemetry;
+    }
+
     public void checkForDeadlockedActiveWeaving() {
         long currTick = ticker.read();
         List<Long> threadIds = Lists.newArrayList();
@@ -131,7 +137,8 @@ public class Weaver {
                 activeWeavings.add(new ActiveWeaving(Thread.currentThread().getId(), startTick));
         try {
             logger.trace("transform(): className={}", className);
-            byte[] transformedBytes = weaveUnderTimer(classBytes, className, codeSource, loader);
+            byte[] transformedBytes =
+                    weaveUnderTimer(classBytes, className, codeSource, loader, startTick);
             if (transformedBytes != null) {
                 logger.debug("transform(): transformed {}", className);
             }
@@ -141,6 +148,7 @@ public class Weaver {
             if (weavingTimer != null) {
                 weavingTimer.stop();
             }
+            telemetry.recordWeave(className, loader, ticker.read() - startTick);
         }
     }
 
@@ -160,7 +168,7 @@ public class Weaver {
     }
 
     private byte /*@Nullable*/ [] weaveUnderTimer(byte[] classBytes, String className,
-            @Nullable CodeSource codeSource, @Nullable ClassLoader loader) {
+            @Nullable CodeSource codeSource, @Nullable ClassLoader loader, long startTick) {
         List<Advice> advisors = analyzedWorld.mergeInstrumentationAnnotations(this.advisors.get(),
                 classBytes, loader, className);
         ThinClassVisitor accv = new ThinClassVisitor();
@@ -179,13 +187,34 @@ public class Weaver {
             cr.accept(new JSRInlinerClassVisitor(cv), ClassReader.EXPAND_FRAMES);
             maybeProcessedBytes = cw.toByteArray();
         }
+        // the ClassAnalyzer constructor is where the super class and interface hierarchies are
+        // resolved (via AnalyzedWorld)
+        long hierarchyStartTick = ticker.read();
         ClassAnalyzer classAnalyzer = new ClassAnalyzer(accv.getThinClass(), advisors, shimTypes,
                 mixinTypes, loader, analyzedWorld, codeSource, classBytes);
+        long hierarchyEndTick = ticker.read();
         classAnalyzer.analyzeMethods();
+        long analysisEndTick = ticker.read();
+        long classAnalysisNanos =
+                hierarchyStartTick - startTick + analysisEndTick - hierarchyEndTick;
+        long hierarchyResolutionNanos = hierarchyEndTick - hierarchyStartTick;
         if (!classAnalyzer.isWeavingRequired()) {
+            telemetry.recordPhases(classAnalysisNanos, hierarchyResolutionNanos, 0);
             analyzedWorld.add(classAnalyzer.getAnalyzedClass(), loader);
             return maybeProcessedBytes;
         }
+        try {
+            return generateBytecode(classBytes, className, loader, maybeProcessedBytes,
+                    classAnalyzer);
+        } finally {
+            telemetry.recordPhases(classAnalysisNanos, hierarchyResolutionNanos,
+                    ticker.read() - analysisEndTick);
+        }
+    }
+
+    private byte /*@Nullable*/ [] generateBytecode(byte[] classBytes, String className,
+            @Nullable ClassLoader loader, byte /*@Nullable*/ [] maybeProcessedBytes,
+            ClassAnalyzer classAnalyzer) {
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
         WeavingClassVisitor cv =
                 new WeavingClassVisitor(cw, loader, classAnalyzer.getAnalyzedClass(),
@@ -73,9 +73,11 @@ public class WeavingClassFileTransformer implements ClassFileTransformer {
     private byte /*@Nullable*/ [] transformInternal(@Nullable ClassLoader loader, String className,
             @Nullable ProtectionDomain protectionDomain, byte[] bytes) {
         if (ignoreClass(className)) {
+            weaver.getTelemetry().incrementIgnoredClassCount();
             return null;
         }
         if (loader == null && !weaveBootstrapClassLoader) {
+            weaver.getTelemetry().incrementIgnoredBootstrapClassCount();
             // can only weave classes in bootstrap class loader if glowroot is in bootstrap class
             // loader, otherwise woven bootstrap classes will generate NoClassDefFoundError since
             // the woven code will not be able to see glowroot classes
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// always-on weaving telemetry, so that it is possible to tell which class loaders and classes make
+// startup and hot deploys slow, exposed via the org.glowroot:type=Weaving mbean
+//
+// recording only touches atomics (and only takes a lock when a class is slower than the current
+// slowest classes), since this is called for every class that is loaded
+public class WeavingTelemetry implements WeavingTelemetryMXBean {
+
+    static final int SLOWEST_CLASSES_LIMIT = 20;
+
+    // exclusive upper bounds of the histogram buckets, the last bucket is unbounded
+    private static final long[] BUCKET_UPPER_BOUNDS_NANOS = {100000, MILLISECONDS.toNanos(1),
+            MILLISECONDS.toNanos(10), MILLISECONDS.toNanos(100), MILLISECONDS.toNanos(1000)};
+    private static final String[] BUCKET_LABELS =
+            {"<0.1 ms", "<1 ms", "<10 ms", "<100 ms", "<1 s", ">=1 s"};
+
+    // keyed by class loader type (not instance) so that hot deploys do not grow this map
+    private final ConcurrentMap<String, ClassLoaderStats> classLoaderStats =
+            new ConcurrentHashMap<String, ClassLoaderStats>();
+
+    private final AtomicLong classAnalysisNanos = new AtomicLong();
+    private final AtomicLong hierarchyResolutionNanos = new AtomicLong();
+    private final AtomicLong bytecodeGenerationNanos = new AtomicLong();
+
+    private final AtomicLong ignoredClassCount = new AtomicLong();
+    private final AtomicLong ignoredBootstrapClassCount = new AtomicLong();
+
+    // min heap, guarded by itself
+    private final PriorityQueue<SlowClass> slowestClasses = new PriorityQueue<SlowClass>();
+    // duration of the fastest of the slowest classes once there are SLOWEST_CLASSES_LIMIT of them,
+    // used to avoid locking for the vast majority of classes
+    private volatile long slowestClassesThresholdNanos;
+
+    void recordWeave(String className, @Nullable ClassLoader loader, long nanos) {
+        String classLoaderType = loader == null ? "bootstrap" : loader.getClass().getName();
+        ClassLoaderStats stats = classLoaderStats.get(classLoaderType);
+        if (stats == null) {
+            stats = new ClassLoaderStats();
+            ClassLoaderStats existing = classLoaderStats.putIfAbsent(classLoaderType, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(nanos);
+        if (nanos > slowestClassesThresholdNanos) {
+            recordSlowClass(className, classLoaderType, nanos);
+        }
+    }
+
+    void recordPhases(long classAnalysisNanos, long hierarchyResolutionNanos,
+            long bytecodeGenerationNanos) {
+        this.classAnalysisNanos.addAndGet(classAnalysisNanos);
+        this.hierarchyResolutionNanos.addAndGet(hierarchyResolutionNanos);
+        if (bytecodeGenerationNanos != 0) {
+            this.bytecodeGenerationNanos.addAndGet(bytecodeGenerationNanos);
+        }
+    }
+
+    void incrementIgnoredClassCount() {
+        ignoredClassCount.getAndIncrement();
+    }
+
+    void incrementIgnoredBootstrapClassCount() {
+        ignoredBootstrapClassCount.getAndIncrement();
+    }
+
+    @Override
+    public long getClassCount() {
+        long classCount = 0;
+        for (ClassLoaderStats stats : classLoaderStats.values()) {
+            classCount += stats.count.get();
+        }
+        return classCount;
+    }
+
+    @Override
+    public double getTotalMillis() {
+        long totalNanos = 0;
+        for (ClassLoaderStats stats : classLoaderStats.values()) {
+            totalNanos += stats.totalNanos.get();
+        }
+        return toMillis(totalNanos);
+    }
+
+    @Override
+    public double getClassAnalysisMillis() {
+        return toMillis(classAnalysisNanos.get());
+    }
+
+    @Override
+    public double getHierarchyResolutionMillis() {
+        return toMillis(hierarchyResolutionNanos.get());
+    }
+
+    @Override
+    public double getBytecodeGenerationMillis() {
+        return toMillis(bytecodeGenerationNanos.get());
+    }
+
+    @Override
+    public long getIgnoredClassCount() {
+        return ignoredClassCount.get();
+    }
+
+    @Override
+    public long getIgnoredBootstrapClassCount() {
+        return ignoredBootstrapClassCount.get();
+    }
+
+    @Override
+    public List<String> getClassLoaderHistograms() {
+        List<String> histograms = new ArrayList<String>();
+        for (Map.Entry<String, ClassLoaderStats> entry : classLoaderStats.entrySet()) {
+            ClassLoaderStats stats = entry.getValue();
+            StringBuilder sb = new StringBuilder();
+            sb.append(entry.getKey());
+            sb.append(": ");
+            sb.append(stats.count.get());
+            sb.append(" classes, ");
+            sb.append(formatMillis(stats.totalNanos.get()));
+            sb.append(" total, ");
+            sb.append(formatMillis(stats.maxNanos.get()));
+            sb.append(" max (");
+            for (int i = 0; i < BUCKET_LABELS.length; i++) {
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                sb.append(BUCKET_LABELS[i]);
+                sb.append(": ");
+                sb.append(stats.bucketCounts.get(i));
+            }
+            sb.append(")");
+            histograms.add(sb.toString());
+        }
+        Collections.sort(histograms);
+        return histograms;
+    }
+
+    @Override
+    public List<String> getSlowestClasses() {
+        List<SlowClass> copy;
+        synchronized (slowestClasses) {
+            copy = new ArrayList<SlowClass>(slowestClasses);
+        }
+        Collections.sort(copy, Collections.reverseOrder());
+        List<String> list = new ArrayList<String>();
+        for (SlowClass slowClass : copy) {
+            list.add(slowClass.className.replace('/', '.') + " (" + slowClass.classLoaderType
+                    + "): " + formatMillis(slowClass.nanos));
+        }
+        return list;
+    }
+
+    private void recordSlowClass(String className, String classLoaderType, long nanos) {
+        synchronized (slowestClasses) {
+            if (slowestClasses.size() == SLOWEST_CLASSES_LIMIT) {
+                SlowClass fastest = slowestClasses.peek();
+                if (fastest != null && nanos <= fastest.nanos) {
+                    return;
+                }
+                slowestClasses.poll();
+            }
+            slowestClasses.add(new SlowClass(className, classLoaderType, nanos));
+            if (slowestClasses.size() == SLOWEST_CLASSES_LIMIT) {
+                SlowClass fastest = slowestClasses.peek();
+                if (fastest != null) {
+                    slowestClassesThresholdNanos = fastest.nanos;
+                }
+            }
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) MILLISECONDS.toNanos(1);
+    }
+
+    private static String formatMillis(long nanos) {
+        // rounding to tenth of a millisecond
+        return NANOSECONDS.toMicros(nanos) / 100 / 10.0 + " ms";
+    }
+
+    private static class ClassLoaderStats {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_LABELS.length);
+
+        private void record(long nanos) {
+            count.getAndIncrement();
+            totalNanos.addAndGet(nanos);
+            long currMaxNanos = maxNanos.get();
+            while (nanos > currMaxNanos && !maxNanos.compareAndSet(currMaxNanos, nanos)) {
+                currMaxNanos = maxNanos.get();
+            }
+            bucketCounts.getAndIncrement(getBucketIndex(nanos));
+        }
+
+        private static int getBucketIndex(long nanos) {
+            for (int i = 0; i < BUCKET_UPPER_BOUNDS_NANOS.length; i++) {
+                if (nanos < BUCKET_UPPER_BOUNDS_NANOS[i]) {
+                    return i;
+                }
+            }
+            return BUCKET_UPPER_BOUNDS_NANOS.length;
+        }
+    }
+
+    private static class SlowClass implements Comparable<SlowClass> {
+
+        private final String className;
+        private final String classLoaderType;
+        private final long nanos;
+
+        private SlowClass(String className, String classLoaderType, long nanos) {
+            this.className = className;
+            this.classLoaderType = classLoaderType;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int compareTo(SlowClass other) {
+            return nanos < other.nanos ? -1 : (nanos == other.nanos ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+
+public interface WeavingTelemetryMXBean {
+
+    // number of classes passed to the weaver (whether or not they ended up needing to be woven)
+    long getClassCount();
+
+    // cumulative, these are meant to be used as counter gauges
+    double getTotalMillis();
+    double getClassAnalysisMillis();
+    double getHierarchyResolutionMillis();
+    double getBytecodeGenerationMillis();
+
+    // classes that never made it to the weaver
+    long getIgnoredClassCount();
+    long getIgnoredBootstrapClassCount();
+
+    // one histogram of weaving time per class loader type
+    List<String> getClassLoaderHistograms();
+
+    // slowest first
+    List<String> getSlowestClasses();
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.AbstractMessage;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TransactionAggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedTimerNamesTest {
+
+    @Test
+    public void shouldReplaceTimerNames() {
+        // given
+        SharedTimerNames sharedTimerNames = new SharedTimerNames();
+        List<String> newSharedTimerNames = Lists.newArrayList();
+        // when
+        Aggregate aggregate1 = sharedTimerNames.replaceTimerNames(createAggregate(0),
+                newSharedTimerNames);
+        List<String> newSharedTimerNames1 = Lists.newArrayList(newSharedTimerNames);
+        newSharedTimerNames.clear();
+        Aggregate aggregate2 = sharedTimerNames.replaceTimerNames(createAggregate(0),
+                newSharedTimerNames);
+        // then
+        assertThat(newSharedTimerNames1).containsExactly("http request", "jdbc query",
+                "jdbc execute", "jdbc get connection", "wait on future");
+        assertThat(newSharedTimerNames).isEmpty();
+        assertThat(aggregate2).isEqualTo(aggregate1);
+        Aggregate.Timer rootTimer = aggregate1.getMainThreadRootTimer(0);
+        assertThat(rootTimer.getName()).isEmpty();
+        assertThat(rootTimer.getSharedNameIndex()).isEqualTo(0);
+        assertThat(rootTimer.getChildTimer(1).getName()).isEmpty();
+        assertThat(rootTimer.getChildTimer(1).getSharedNameIndex()).isEqualTo(2);
+        assertThat(aggregate1.getAsyncTimer(0).getSharedNameIndex()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldReduceBytesOnTheWire() throws IOException {
+        // given
+        List<AggregateStreamMessage> withoutSharedTimerNames = Lists.newArrayList();
+        List<AggregateStreamMessage> withSharedTimerNames = Lists.newArrayList();
+        SharedTimerNames sharedTimerNames = new SharedTimerNames();
+        List<String> newSharedTimerNames = Lists.newArrayList();
+        // when
+        for (int i = 0; i < 200; i++) {
+            Aggregate aggregate = createAggregate(i);
+            withoutSharedTimerNames.add(createMessage(i, aggregate));
+            Aggregate updatedAggregate =
+                    sharedTimerNames.replaceTimerNames(aggregate, newSharedTimerNames);
+            for (String newSharedTimerName : newSharedTimerNames) {
+                withSharedTimerNames.add(AggregateStreamMessage.newBuilder()
+                        .setSharedTimerName(newSharedTimerName)
+                        .build());
+            }
+            newSharedTimerNames.clear();
+            withSharedTimerNames.add(createMessage(i, updatedAggregate));
+        }
+        // then
+        // grpc compression is applied per message
+        long bytesBefore = getGzippedBytes(withoutSharedTimerNames);
+        long bytesAfter = getGzippedBytes(withSharedTimerNames);
+        assertThat(bytesAfter).isLessThan(bytesBefore * 3 / 4);
+    }
+
+    private static AggregateStreamMessage createMessage(int i, Aggregate aggregate) {
+        return AggregateStreamMessage.newBuilder()
+                .setTransactionAggregate(TransactionAggregate.newBuilder()
+                        .setTransactionType("Web")
+                        .setTransactionName("/api/resource" + i)
+                        .setAggregate(aggregate))
+                .build();
+    }
+
+    private static Aggregate createAggregate(int i) {
+        return Aggregate.newBuilder()
+                .setTotalDurationNanos(1000000 + i)
+                .setTransactionCount(10 + i)
+                .addMainThreadRootTimer(Aggregate.Timer.newBuilder()
+                        .setName("http request")
+                        .setTotalNanos(1000000 + i)
+                        .setCount(10 + i)
+                        .addChildTimer(Aggregate.Timer.newBuilder()
+                                .setName("jdbc query")
+                                .setTotalNanos(100000 + i)
+                                .setCount(20 + i))
+                        .addChildTimer(Aggregate.Timer.newBuilder()
+                                .setName("jdbc execute")
+                                .setTotalNanos(200000 + i)
+                                .setCount(30 + i))
+                        .addChildTimer(Aggregate.Timer.newBuilder()
+                                .setName("jdbc get connection")
+                                .setTotalNanos(300000 + i)
+                                .setCount(40 + i)))
+                .addAsyncTimer(Aggregate.Timer.newBuilder()
+                        .setName("wait on future")
+                        .setTotalNanos(400000 + i)
+                        .setCount(50 + i))
+                .build();
+    }
+
+    private static long getGzippedBytes(List<? extends AbstractMessage> messages)
+            throws IOException {
+        long bytes = 0;
+        for (AbstractMessage message : messages) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(baos);
+            message.writeTo(out);
+            out.close();
+            bytes += baos.size();
+        }
+        return bytes;
+    }
+}
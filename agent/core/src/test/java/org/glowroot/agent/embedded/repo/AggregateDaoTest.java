@@ -19,8 +19,10 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.common.base.Function;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -40,8 +42,11 @@ import org.glowroot.common.model.TransactionSummaryCollector;
 import org.glowroot.common.model.TransactionSummaryCollector.SummarySortOrder;
 import org.glowroot.common.model.TransactionSummaryCollector.TransactionSummary;
 import org.glowroot.common.repo.AggregateRepository;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
 import org.glowroot.common.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common.repo.ImmutableRollupConfig;
+import org.glowroot.common.repo.Utils;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -83,7 +88,8 @@ public class AggregateDaoTest {
         aggregateDao = new AggregateDao(
                 dataSource, ImmutableList.<CappedDatabase>of(cappedDatabase, cappedDatabase,
                         cappedDatabase, cappedDatabase),
-                configRepository, mock(TransactionTypeDao.class), mock(FullQueryTextDao.class));
+                configRepository, mock(TransactionTypeDao.class), mock(FullQueryTextDao.class),
+                Clock.systemClock());
     }
 
     @After
@@ -133,6 +139,42 @@ public class AggregateDaoTest {
         assertThat(queryResult.records().get(2).transactionCount()).isEqualTo(2);
     }
 
+    @Test
+    public void shouldStreamRolledUpAggregates() throws Exception {
+        // given
+        populateAggregates();
+        TransactionQuery query = ImmutableTransactionQuery.builder()
+                .transactionType("a type")
+                .from(0)
+                .to(100000)
+                .rollupLevel(0)
+                .build();
+        Function<Long, Long> rollupCaptureTimeFn = new Function<Long, Long>() {
+            @Override
+            public Long apply(Long captureTime) {
+                return Utils.getRollupCaptureTime(captureTime, 15000);
+            }
+        };
+        final List<OverviewAggregate> rolledUpAggregates = Lists.newArrayList();
+
+        // when
+        aggregateDao.streamOverviewAggregates(AGENT_ID, query, rollupCaptureTimeFn,
+                new AggregateConsumer<OverviewAggregate>() {
+                    @Override
+                    public void accept(OverviewAggregate aggregate) {
+                        rolledUpAggregates.add(aggregate);
+                    }
+                });
+
+        // then
+        assertThat(rolledUpAggregates).hasSize(2);
+        assertThat(rolledUpAggregates.get(0).captureTime()).isEqualTo(15000);
+        assertThat(rolledUpAggregates.get(0).transactionCount()).isEqualTo(10);
+        // the final rollup interval uses the capture time of its last aggregate
+        assertThat(rolledUpAggregates.get(1).captureTime()).isEqualTo(20000);
+        assertThat(rolledUpAggregates.get(1).transactionCount()).isEqualTo(10);
+    }
+
     // also used by TransactionCommonServiceTest
     public void populateAggregates() throws Exception {
         aggregateDao.store(new AggregateReader() {
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.embedded.util.CappedDatabase;
 import org.glowroot.agent.embedded.util.DataSource;
+import org.glowroot.common.util.Clock;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Mockito.mock;
@@ -38,7 +39,9 @@ public class TraceDaoPerformanceMain {
         DataSource dataSource = new DataSource();
         CappedDatabase cappedDatabase =
                 new CappedDatabase(new File("glowroot.capped.db"), 1000000, Ticker.systemTicker());
-        TraceDao traceDao = new TraceDao(dataSource, cappedDatabase,
+        TracePointIndex tracePointIndex =
+                new TracePointIndex(new File("trace-point-index"), Clock.systemClock());
+        TraceDao traceDao = new TraceDao(dataSource, cappedDatabase, tracePointIndex,
                 mock(TransactionTypeDao.class), mock(FullQueryTextDao.class),
                 mock(TraceAttributeNameDao.class));
 
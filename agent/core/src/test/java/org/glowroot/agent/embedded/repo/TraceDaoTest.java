@@ -18,6 +18,7 @@ package org.glowroot.agent.embedded.repo;
 import java.io.File;
 
 import com.google.common.base.Ticker;
+import com.google.common.io.Files;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +33,7 @@ import org.glowroot.common.live.StringComparator;
 import org.glowroot.common.model.Result;
 import org.glowroot.common.repo.ImmutableTraceQuery;
 import org.glowroot.common.repo.TraceRepository.TraceQuery;
+import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -49,6 +51,8 @@ public class TraceDaoTest {
     private DataSource dataSource;
     private File cappedFile;
     private CappedDatabase cappedDatabase;
+    private File tracePointIndexDir;
+    private TracePointIndex tracePointIndex;
     private TraceDao traceDao;
 
     @Before
@@ -59,8 +63,11 @@ public class TraceDaoTest {
         }
         cappedFile = File.createTempFile("glowroot-test-", ".capped.db");
         cappedDatabase = new CappedDatabase(cappedFile, 1000000, Ticker.systemTicker());
-        traceDao = new TraceDao(dataSource, cappedDatabase, mock(TransactionTypeDao.class),
-                mock(FullQueryTextDao.class), mock(TraceAttributeNameDao.class));
+        tracePointIndexDir = Files.createTempDir();
+        tracePointIndex = new TracePointIndex(tracePointIndexDir, Clock.systemClock());
+        traceDao = new TraceDao(dataSource, cappedDatabase, tracePointIndex,
+                mock(TransactionTypeDao.class), mock(FullQueryTextDao.class),
+                mock(TraceAttributeNameDao.class));
     }
 
     @After
@@ -68,6 +75,8 @@ public class TraceDaoTest {
         dataSource.close();
         cappedDatabase.close();
         cappedFile.delete();
+        tracePointIndex.close();
+        TracePointIndexTest.deleteRecursively(tracePointIndexDir);
     }
 
     @Test
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.live.ImmutableTracePointFilter;
+import org.glowroot.common.live.LiveTraceRepository.TraceKind;
+import org.glowroot.common.live.LiveTraceRepository.TracePoint;
+import org.glowroot.common.live.StringComparator;
+import org.glowroot.common.repo.ImmutableTraceQuery;
+import org.glowroot.common.repo.TraceRepository.TraceQuery;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TracePointIndexTest {
+
+    private File directory;
+    private Clock clock;
+    private TracePointIndex tracePointIndex;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        directory = Files.createTempDir();
+        clock = mock(Clock.class);
+        tracePointIndex = new TracePointIndex(directory, clock, 3);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        tracePointIndex.close();
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void shouldReadSlowestPoints() throws Exception {
+        // given
+        for (int i = 1; i <= 5; i++) {
+            tracePointIndex.add("trace" + i, createHeader(i, i * 10, false));
+        }
+        // when
+        List<TracePoint> points = tracePointIndex.readPoints(TraceKind.SLOW, query(0, 100), 2);
+        List<TracePoint> allPoints =
+                tracePointIndex.readPoints(TraceKind.SLOW, query(0, 100), 0);
+        // then
+        assertThat(points).hasSize(3);
+        assertThat(points.get(0).traceId()).isEqualTo("trace5");
+        assertThat(points.get(1).traceId()).isEqualTo("trace4");
+        assertThat(points.get(2).traceId()).isEqualTo("trace3");
+        assertThat(points.get(0).captureTime()).isEqualTo(5);
+        assertThat(points.get(0).durationNanos()).isEqualTo(50);
+        assertThat(allPoints).hasSize(5);
+        assertThat(allPoints.get(0).traceId()).isEqualTo("trace1");
+        assertThat(tracePointIndex.getSegmentCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldMatchQuery() throws Exception {
+        // given
+        tracePointIndex.add("trace1", createHeader(10, 100, false));
+        tracePointIndex.add("trace2", createHeader(20, 100, true));
+        tracePointIndex.add("trace3", createHeader(30, 100, false).toBuilder()
+                .setTransactionName("other")
+                .build());
+        tracePointIndex.add("trace4", createHeader(40, 100, false).toBuilder()
+                .setTransactionType("other")
+                .build());
+        // then
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(0, 100))).isEqualTo(3);
+        assertThat(tracePointIndex.readCount(TraceKind.ERROR, query(0, 100))).isEqualTo(1);
+        // capture time lower bound is non-inclusive and upper bound is inclusive
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(10, 30))).isEqualTo(2);
+        TraceQuery query = ImmutableTraceQuery.builder()
+                .copyFrom(query(0, 100))
+                .transactionName("test transaction name")
+                .build();
+        List<TracePoint> points = tracePointIndex.readPoints(TraceKind.SLOW, query, 10);
+        assertThat(points).hasSize(2);
+        assertThat(points.get(0).error() || points.get(1).error()).isTrue();
+    }
+
+    @Test
+    public void shouldSupersedePartialTrace() throws Exception {
+        // given
+        tracePointIndex.add("trace1", createHeader(10, 100, false).toBuilder()
+                .setPartial(true)
+                .build());
+        tracePointIndex.add("trace1", createHeader(20, 200, false));
+        // when
+        List<TracePoint> points = tracePointIndex.readPoints(TraceKind.SLOW, query(0, 100), 10);
+        // then
+        assertThat(points).hasSize(1);
+        assertThat(points.get(0).captureTime()).isEqualTo(20);
+        assertThat(points.get(0).partial()).isFalse();
+    }
+
+    @Test
+    public void shouldReopen() throws Exception {
+        // given
+        for (int i = 1; i <= 7; i++) {
+            tracePointIndex.add("trace" + i, createHeader(MINUTES.toMillis(i), i, false));
+        }
+        tracePointIndex.add("trace8", createHeader(MINUTES.toMillis(8), 8, false).toBuilder()
+                .setPartial(true)
+                .build());
+        tracePointIndex.close();
+        // when
+        when(clock.currentTimeMillis()).thenReturn(MINUTES.toMillis(100));
+        tracePointIndex = new TracePointIndex(directory, clock, 3);
+        tracePointIndex.add("trace8", createHeader(MINUTES.toMillis(9), 9, false));
+        // then
+        assertThat(tracePointIndex.getSegmentCount()).isEqualTo(3);
+        // index was created at time 0 and not re-created on reopen
+        assertThat(tracePointIndex.canAnswer(query(0, MINUTES.toMillis(100)))).isTrue();
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(0, MINUTES.toMillis(100))))
+                .isEqualTo(8);
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW,
+                query(MINUTES.toMillis(2), MINUTES.toMillis(5)))).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldDeleteBefore() throws Exception {
+        // given
+        for (int i = 1; i <= 7; i++) {
+            tracePointIndex.add("trace" + i, createHeader(i, i, false));
+        }
+        // when
+        tracePointIndex.deleteBefore(5);
+        // then
+        assertThat(tracePointIndex.getSegmentCount()).isEqualTo(2);
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(0, 100))).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldDeletePartialRecordsBefore() throws Exception {
+        // given
+        for (int i = 1; i <= 7; i++) {
+            tracePointIndex.add("trace" + i, createHeader(i, i, false).toBuilder()
+                    .setPartial(true)
+                    .build());
+        }
+        // when
+        tracePointIndex.deleteBefore(5);
+        tracePointIndex.add("trace1", createHeader(8, 8, false));
+        // then
+        assertThat(tracePointIndex.getPartialRecordCount()).isEqualTo(4);
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(0, 100))).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldDeleteAll() throws Exception {
+        // given
+        for (int i = 1; i <= 7; i++) {
+            tracePointIndex.add("trace" + i, createHeader(i, i, false));
+        }
+        // when
+        tracePointIndex.deleteAll();
+        // then
+        assertThat(tracePointIndex.getSegmentCount()).isEqualTo(1);
+        assertThat(tracePointIndex.readCount(TraceKind.SLOW, query(0, 100))).isZero();
+    }
+
+    @Test
+    public void shouldNotAnswerQueries() throws Exception {
+        // given
+        when(clock.currentTimeMillis()).thenReturn(1000L);
+        TracePointIndex tracePointIndex = new TracePointIndex(Files.createTempDir(), clock);
+        // then
+        assertThat(tracePointIndex.canAnswer(query(999, 2000))).isFalse();
+        assertThat(tracePointIndex.canAnswer(query(1000, 2000),
+                ImmutableTracePointFilter.builder().build())).isTrue();
+        assertThat(tracePointIndex.canAnswer(query(1000, 2000),
+                ImmutableTracePointFilter.builder()
+                        .headlineComparator(StringComparator.CONTAINS)
+                        .headline("abc")
+                        .build())).isFalse();
+        tracePointIndex.close();
+    }
+
+    static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static TraceQuery query(long from, long to) {
+        return ImmutableTraceQuery.builder()
+                .transactionType("unit test")
+                .from(from)
+                .to(to)
+                .build();
+    }
+
+    private static Trace.Header createHeader(long captureTime, long durationNanos,
+            boolean error) {
+        Trace.Header.Builder header = Trace.Header.newBuilder()
+                .setSlow(true)
+                .setCaptureTime(captureTime)
+                .setDurationNanos(durationNanos)
+                .setTransactionType("unit test")
+                .setTransactionName("test transaction name");
+        if (error) {
+            header.setError(Trace.Error.newBuilder()
+                    .setMessage("test error"));
+        }
+        return header.build();
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2016 the original author or authors.
+ * Copyright 2012-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,10 +18,12 @@ package org.glowroot.agent.embedded.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.List;
 import java.util.Random;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
 import org.junit.After;
 import org.junit.Before;
@@ -29,6 +31,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import org.glowroot.agent.embedded.util.CappedDatabase.MessageCursor;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class CappedDatabaseTest {
@@ -63,6 +68,41 @@ public class CappedDatabaseTest {
         assertThat(text2).isEqualTo(text);
     }
 
+    @Test
+    public void shouldReadMessagesFromCursor() throws Exception {
+        // given
+        List<Trace.Entry> entries = ImmutableList.of(
+                Trace.Entry.newBuilder().setDepth(0).setMessage("a").build(),
+                Trace.Entry.newBuilder().setDepth(1).setMessage("b").build());
+        long cappedId = cappedDatabase.writeMessages(entries, "test");
+        // when
+        MessageCursor<Trace.Entry> cursor =
+                cappedDatabase.openMessageCursor(cappedId, Trace.Entry.parser());
+        // then
+        assertThat(cursor.readNext()).isEqualTo(entries.get(0));
+        assertThat(cursor.readNext()).isEqualTo(entries.get(1));
+        assertThat(cursor.readNext()).isNull();
+        cursor.close();
+    }
+
+    @Test
+    public void shouldNotSilentlyTruncateMessagesFromCursor() throws Exception {
+        // given
+        // delimited message whose length-delimited field claims 32 bytes but only has 2
+        byte[] bytes = new byte[] {5, 0x22, 0x20, 'a', 'b'};
+        long cappedId = cappedDatabase.write(ByteSource.wrap(bytes), "test");
+        MessageCursor<Trace.Entry> cursor =
+                cappedDatabase.openMessageCursor(cappedId, Trace.Entry.parser());
+        // then
+        thrown.expect(IOException.class);
+        // when
+        try {
+            cursor.readNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Test
     public void shouldReadOneByteAtATime() throws Exception {
         // given
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.util;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.embedded.util.Schemas.Column;
+import org.glowroot.agent.embedded.util.Schemas.ColumnType;
+import org.glowroot.agent.embedded.util.Schemas.Index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PartitionedTableTest {
+
+    private static final ImmutableList<Column> columns = ImmutableList.<Column>of(
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("value", ColumnType.BIGINT));
+
+    private static final ImmutableList<Index> indexes = ImmutableList.<Index>of(
+            ImmutableIndex.of("tab_idx", ImmutableList.of("capture_time", "value")));
+
+    private DataSource dataSource;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        dataSource = new DataSource();
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldQueryAcrossPartitions() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, 1000, 0);
+        // when
+        insert(table, 500);
+        insert(table, 1500);
+        insert(table, 2500);
+        // then
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(3);
+        assertThat(dataSource.queryForLong("select count(*) from tab where capture_time > 1000"))
+                .isEqualTo(2);
+        assertThat(table.getPartitionTableNamesNewestFirst()).containsExactly("tab_p2", "tab_p1",
+                "tab_p0");
+    }
+
+    @Test
+    public void shouldDropExpiredPartitions() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, 1000, 0);
+        insert(table, 500);
+        insert(table, 1500);
+        insert(table, 2500);
+        insert(table, 2700);
+        // when
+        table.deleteBefore(2600);
+        // then
+        assertThat(dataSource.tableExists("tab_p0")).isFalse();
+        assertThat(dataSource.tableExists("tab_p1")).isFalse();
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(1);
+        assertThat(table.getPartitionTableNamesNewestFirst()).containsExactly("tab_p2");
+    }
+
+    @Test
+    public void shouldReadExistingPartitions() throws Exception {
+        // given
+        PartitionedTable table = new PartitionedTable(dataSource, "tab", columns, indexes, 1000, 0);
+        insert(table, 500);
+        insert(table, 1500);
+        // when
+        table = new PartitionedTable(dataSource, "tab", columns, indexes, 1000, 0);
+        // then
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(2);
+        assertThat(table.getPartitionTableNamesNewestFirst()).containsExactly("tab_p1", "tab_p0");
+    }
+
+    @Test
+    public void shouldUpgradeFromNonPartitionedTable() throws Exception {
+        // given
+        dataSource.syncTable("tab", columns);
+        dataSource.syncIndexes("tab", indexes);
+        dataSource.update("insert into tab (capture_time, value) values (?, ?)", 500, 1);
+        dataSource.update("insert into tab (capture_time, value) values (?, ?)", 2500, 1);
+        // when
+        PartitionedTable table =
+                new PartitionedTable(dataSource, "tab", columns, indexes, 1000, 3500);
+        // then
+        assertThat(dataSource.viewExists("tab")).isTrue();
+        assertThat(dataSource.queryForLong("select count(*) from tab")).isEqualTo(2);
+        assertThat(table.getPartitionTableNamesNewestFirst()).containsExactly("tab_p3", "tab_p2",
+                "tab_p0");
+    }
+
+    @Test
+    public void shouldCalculatePartitionMillis() {
+        assertThat(PartitionedTable.getPartitionMillis(60000)).isEqualTo(6 * 3600000);
+        assertThat(PartitionedTable.getPartitionMillis(1800000)).isEqualTo(7 * 24 * 3600000);
+        assertThat(PartitionedTable.getPartitionMillis(900000000)).isEqualTo(900000000);
+    }
+
+    private void insert(PartitionedTable table, long captureTime) throws Exception {
+        dataSource.update("insert into " + table.getPartitionTableName(captureTime)
+                + " (capture_time, value) values (?, ?)", captureTime, 1);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveEntryCaptureTest {
+
+    private GarbageCollectorMXBean gcMXBean;
+    private Ticker ticker;
+
+    @Before
+    public void beforeEachTest() {
+        gcMXBean = mock(GarbageCollectorMXBean.class);
+        ticker = mock(Ticker.class);
+    }
+
+    @Test
+    public void shouldAlwaysCaptureWhenDisabled() {
+        // given
+        AdaptiveEntryCapture adaptiveEntryCapture =
+                new AdaptiveEntryCapture(0, ImmutableList.of(gcMXBean), ticker);
+        // when
+        when(gcMXBean.getCollectionTime()).thenReturn(1000L);
+        when(ticker.read()).thenReturn(SECONDS.toNanos(1));
+        // then
+        assertThat(adaptiveEntryCapture.shouldCaptureEntries("Web", "/abc")).isTrue();
+    }
+
+    @Test
+    public void shouldCaptureWhenNotUnderPressure() {
+        // given
+        AdaptiveEntryCapture adaptiveEntryCapture =
+                new AdaptiveEntryCapture(10, ImmutableList.of(gcMXBean), ticker);
+        // when
+        when(gcMXBean.getCollectionTime()).thenReturn(50L);
+        when(ticker.read()).thenReturn(SECONDS.toNanos(1));
+        // then
+        assertThat(adaptiveEntryCapture.shouldCaptureEntries("Web", "/abc")).isTrue();
+    }
+
+    @Test
+    public void shouldOnlyCaptureRecentlySlowWhenUnderPressure() {
+        // given
+        AdaptiveEntryCapture adaptiveEntryCapture =
+                new AdaptiveEntryCapture(10, ImmutableList.of(gcMXBean), ticker);
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTransactionType()).thenReturn("Web");
+        when(transaction.getTransactionName()).thenReturn("/slow");
+        adaptiveEntryCapture.onCompletedTransaction(transaction, true);
+        // when
+        when(gcMXBean.getCollectionTime()).thenReturn(200L);
+        when(ticker.read()).thenReturn(SECONDS.toNanos(1));
+        // then
+        assertThat(adaptiveEntryCapture.shouldCaptureEntries("Web", "/abc")).isFalse();
+        assertThat(adaptiveEntryCapture.shouldCaptureEntries("Web", "/slow")).isTrue();
+    }
+
+    @Test
+    public void shouldRecoverWhenPressureSubsides() {
+        // given
+        AdaptiveEntryCapture adaptiveEntryCapture =
+                new AdaptiveEntryCapture(10, ImmutableList.of(gcMXBean), ticker);
+        when(gcMXBean.getCollectionTime()).thenReturn(200L);
+        when(ticker.read()).thenReturn(SECONDS.toNanos(1));
+        adaptiveEntryCapture.shouldCaptureEntries("Web", "/abc");
+        // when
+        when(gcMXBean.getCollectionTime()).thenReturn(210L);
+        when(ticker.read()).thenReturn(SECONDS.toNanos(2));
+        // then
+        assertThat(adaptiveEntryCapture.shouldCaptureEntries("Web", "/abc")).isTrue();
+    }
+}
@@ -22,15 +22,18 @@ import org.junit.Test;
 import org.glowroot.agent.model.TimerNameImpl;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ThreadContextImplTest {
 
+    private Transaction transaction;
     private ThreadContextImpl threadContext;
 
     private MessageSupplier messageSupplier = mock(MessageSupplier.class);
@@ -39,7 +42,8 @@ public class ThreadContextImplTest {
 
     @Before
     public void beforeEachTest() {
-        Transaction transaction = mock(Transaction.class);
+        transaction = mock(Transaction.class);
+        when(transaction.isCaptureEntries()).thenReturn(true);
         MessageSupplier messageSupplier = mock(MessageSupplier.class);
         TimerNameImpl rootTimerName = mock(TimerNameImpl.class);
         Ticker ticker = mock(Ticker.class);
@@ -71,6 +75,26 @@ public class ThreadContextImplTest {
                 .getClass().getName()).endsWith("$DummyTraceEntryOrQuery");
     }
 
+    @Test
+    public void testStartTraceEntryNotCaptured() {
+        when(transaction.isCaptureEntries()).thenReturn(false);
+
+        TraceEntry traceEntry = threadContext.startTraceEntry(messageSupplier, timerName);
+        assertThat(traceEntry.getClass().getName()).endsWith("$NotCapturedTraceEntry");
+        TraceEntry nestedTraceEntry = threadContext.startTraceEntry(messageSupplier, timerName);
+        // the same instance is returned instead of allocating one per call
+        assertThat(nestedTraceEntry).isSameAs(traceEntry);
+        assertThat(threadContext.getCurrentTimer()).isNotSameAs(threadContext.getRootTimer());
+
+        nestedTraceEntry.end();
+        traceEntry.end();
+        assertThat(threadContext.getCurrentTimer()).isSameAs(threadContext.getRootTimer());
+
+        // ending too many times does not end the root timer
+        traceEntry.end();
+        assertThat(threadContext.getCurrentTimer()).isSameAs(threadContext.getRootTimer());
+    }
+
     @Test
     public void testStartAsyncTraceEntry() {
         assertThat(threadContext.startAsyncTraceEntry(null, timerName))
@@ -143,6 +167,40 @@ public class ThreadContextImplTest {
                         .getClass().getName()).endsWith("$DummyTraceEntryOrQuery");
     }
 
+    @Test
+    public void testStartAggregatedServiceCallEntry() {
+        assertThat(threadContext.startAggregatedServiceCallEntry(null, "text", messageSupplier,
+                timerName)).isEqualTo(NopTransactionService.TRACE_ENTRY);
+        assertThat(threadContext.startAggregatedServiceCallEntry("type", null, messageSupplier,
+                timerName)).isEqualTo(NopTransactionService.TRACE_ENTRY);
+        assertThat(threadContext.startAggregatedServiceCallEntry("type", "text", null, timerName))
+                .isEqualTo(NopTransactionService.TRACE_ENTRY);
+        assertThat(threadContext.startAggregatedServiceCallEntry("type", "text", messageSupplier,
+                null)).isEqualTo(NopTransactionService.TRACE_ENTRY);
+    }
+
+    @Test
+    public void testStartAggregatedServiceCallEntryOnlyCapturesFirstOccurrence() {
+        when(transaction.allowAnotherEntry()).thenReturn(true);
+        when(transaction.allowAnotherAggregateServiceCall(true)).thenReturn(true, false);
+
+        TraceEntry traceEntry = threadContext.startAggregatedServiceCallEntry("type", "text",
+                messageSupplier, timerName);
+        assertThat(traceEntry.getClass().getName()).endsWith(".TraceEntryImpl");
+        traceEntry.end();
+
+        traceEntry = threadContext.startAggregatedServiceCallEntry("type", "text",
+                messageSupplier, timerName);
+        assertThat(traceEntry.getClass().getName()).endsWith("$DummyTraceEntryOrQuery");
+        traceEntry.end();
+
+        // aggregate limit is exceeded, so this is treated the same as a later occurrence
+        traceEntry = threadContext.startAggregatedServiceCallEntry("type", "text2",
+                messageSupplier, timerName);
+        assertThat(traceEntry.getClass().getName()).endsWith("$DummyTraceEntryOrQuery");
+        traceEntry.end();
+    }
+
     @Test
     public void testStartAsyncServiceCallEntry() {
         assertThat(threadContext.startAsyncServiceCallEntry(null, "text", messageSupplier,
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.lang.Thread.State;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ThreadStateSamplerTest {
+
+    @Test
+    public void shouldSampleThreadStatesAndContendedLocks() {
+        // given
+        ThreadMXBean threadMXBean = mock(ThreadMXBean.class);
+        Ticker ticker = mock(Ticker.class);
+        ThreadInfo owner = mockThreadInfo(State.RUNNABLE, null, -1, null);
+        ThreadInfo waiter1 = mockThreadInfo(State.BLOCKED, "java.lang.Object@1234", 1, "owner");
+        ThreadInfo waiter2 = mockThreadInfo(State.BLOCKED, "java.lang.Object@1234", 1, "owner");
+        ThreadInfo sleeper = mockThreadInfo(State.TIMED_WAITING, null, -1, null);
+        when(threadMXBean.getAllThreadIds()).thenReturn(new long[] {1, 2, 3, 4, 5});
+        when(threadMXBean.getThreadInfo(new long[] {1, 2, 3, 4, 5}, 0))
+                .thenReturn(new ThreadInfo[] {owner, waiter1, waiter2, sleeper, null});
+        when(ticker.read()).thenReturn(0L);
+        ThreadStateSampler threadStateSampler = new ThreadStateSampler(threadMXBean, ticker);
+        // when
+        when(ticker.read()).thenReturn(SECONDS.toNanos(30));
+        threadStateSampler.run();
+        when(ticker.read()).thenReturn(SECONDS.toNanos(60));
+        threadStateSampler.run();
+        // then
+        assertThat(threadStateSampler.getRunnableThreadCount()).isEqualTo(1);
+        assertThat(threadStateSampler.getBlockedThreadCount()).isEqualTo(2);
+        assertThat(threadStateSampler.getWaitingThreadCount()).isEqualTo(0);
+        assertThat(threadStateSampler.getTimedWaitingThreadCount()).isEqualTo(1);
+        assertThat(threadStateSampler.getBlockedThreadSeconds()).isEqualTo(120.0);
+        assertThat(threadStateSampler.getContendedLocks()).containsExactly(
+                "java.lang.Object@1234: 2.0 waiting threads on average (max 2),"
+                        + " last owned by owner");
+    }
+
+    @Test
+    public void shouldFormatContendedLocksIndependentOfDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        // decimal comma
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            shouldSampleThreadStatesAndContendedLocks();
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private static ThreadInfo mockThreadInfo(State state, String lockName, long lockOwnerId,
+            String lockOwnerName) {
+        ThreadInfo threadInfo = mock(ThreadInfo.class);
+        when(threadInfo.getThreadState()).thenReturn(state);
+        when(threadInfo.getLockName()).thenReturn(lockName);
+        when(threadInfo.getLockOwnerId()).thenReturn(lockOwnerId);
+        when(threadInfo.getLockOwnerName()).thenReturn(lockOwnerName);
+        return threadInfo;
+    }
+}
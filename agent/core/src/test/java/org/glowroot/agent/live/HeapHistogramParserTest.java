@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapHistogramParserTest {
+
+    private static final String TEXT = "\n"
+            + " num     #instances         #bytes  class name\n"
+            + "----------------------------------------------\n"
+            + "   1:          1000          24000  java.lang.String\n"
+            + "   2:            10          50000  [C\n"
+            + "   3:             5            400  <constMethodKlass>\n"
+            + "   4:            20            320  java.lang.String (java.base@9)\n"
+            + "Total          1035          74720\n";
+
+    @Test
+    public void shouldParseString() throws Exception {
+        assertHistogram(HeapHistogramParser.parse(TEXT));
+    }
+
+    @Test
+    public void shouldParseReader() throws Exception {
+        assertHistogram(HeapHistogramParser.parse(new BufferedReader(new StringReader(TEXT))));
+    }
+
+    @Test
+    public void shouldDiff() throws Exception {
+        // given
+        HeapHistogram before = HeapHistogramParser.parse(TEXT);
+        HeapHistogram after = HeapHistogramParser.parse("\n"
+                + " num     #instances         #bytes  class name\n"
+                + "----------------------------------------------\n"
+                + "   1:          1100          26400  java.lang.String\n"
+                + "   2:             3             48  java.lang.Object\n"
+                + "   3:            20            320  java.lang.String (java.base@9)\n"
+                + "Total          1123          26768\n");
+        // when
+        HeapHistogram diff = HeapHistogramParser.diff(before, after);
+        // then
+        assertThat(diff.getClassInfoCount()).isEqualTo(3);
+        assertThat(diff.getClassInfo(0).getClassName()).isEqualTo("java.lang.String");
+        assertThat(diff.getClassInfo(0).getBytes()).isEqualTo(2400);
+        assertThat(diff.getClassInfo(0).getCount()).isEqualTo(100);
+        assertThat(diff.getClassInfo(1).getClassName()).isEqualTo("java.lang.Object");
+        assertThat(diff.getClassInfo(1).getBytes()).isEqualTo(48);
+        assertThat(diff.getClassInfo(1).getCount()).isEqualTo(3);
+        assertThat(diff.getClassInfo(2).getClassName()).isEqualTo("char[]");
+        assertThat(diff.getClassInfo(2).getBytes()).isEqualTo(-50000);
+        assertThat(diff.getClassInfo(2).getCount()).isEqualTo(-10);
+    }
+
+    @Test
+    public void shouldDiffUnchanged() throws Exception {
+        // given
+        HeapHistogram heapHistogram = HeapHistogramParser.parse(TEXT);
+        // when
+        HeapHistogram diff = HeapHistogramParser.diff(heapHistogram, heapHistogram);
+        // then
+        assertThat(diff.getClassInfoCount()).isEqualTo(0);
+    }
+
+    private static void assertHistogram(HeapHistogram heapHistogram) {
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertThat(heapHistogram.getClassInfo(0).getClassName()).isEqualTo("char[]");
+        assertThat(heapHistogram.getClassInfo(0).getBytes()).isEqualTo(50000);
+        assertThat(heapHistogram.getClassInfo(0).getCount()).isEqualTo(10);
+        assertThat(heapHistogram.getClassInfo(1).getClassName()).isEqualTo("java.lang.String");
+        assertThat(heapHistogram.getClassInfo(1).getBytes()).isEqualTo(24320);
+        assertThat(heapHistogram.getClassInfo(1).getCount()).isEqualTo(1020);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import org.glowroot.agent.weaving.ClassHeaderCache.ClassHeader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassHeaderCacheTest {
+
+    private static final String PATH = "org/glowroot/agent/weaving/ClassHeaderCacheTest.class";
+
+    @Test
+    public void shouldReuseClassHeaderFromSameJarEntry() throws IOException {
+        // given
+        File jarFile = createJarFile("");
+        URL url = new URL("jar:" + jarFile.toURI().toURL().toExternalForm() + "!/" + PATH);
+        ClassHeaderCache classHeaderCache = new ClassHeaderCache();
+        // when
+        ClassHeader classHeader = classHeaderCache.read(url);
+        ClassHeader classHeader2 = classHeaderCache.read(new URL(url.toExternalForm()));
+        // then
+        assertThat(classHeader.thinClass().name()).isEqualTo(PATH.replace(".class", ""));
+        assertThat(classHeader2).isSameAs(classHeader);
+        assertThat(classHeaderCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotCacheClassHeaderFromDirectory() throws IOException {
+        // given
+        URL url = ClassHeaderCacheTest.class.getClassLoader().getResource(PATH);
+        ClassHeaderCache classHeaderCache = new ClassHeaderCache();
+        // when
+        ClassHeader classHeader = classHeaderCache.read(url);
+        ClassHeader classHeader2 = classHeaderCache.read(url);
+        // then
+        assertThat(url.getProtocol()).isEqualTo("file");
+        assertThat(classHeader2).isNotSameAs(classHeader);
+        assertThat(classHeader2.bytes()).isEqualTo(classHeader.bytes());
+        assertThat(classHeaderCache.size()).isZero();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws IOException {
+        // given
+        File jarFile = createJarFile("a/", "b/", "c/");
+        int classFileSize = Resources.toByteArray(Resources.getResource(PATH)).length;
+        ClassHeaderCache classHeaderCache = new ClassHeaderCache(classFileSize * 2);
+        // when
+        ClassHeader a = classHeaderCache.read(jarEntryUrl(jarFile, "a/"));
+        ClassHeader b = classHeaderCache.read(jarEntryUrl(jarFile, "b/"));
+        classHeaderCache.read(jarEntryUrl(jarFile, "a/"));
+        classHeaderCache.read(jarEntryUrl(jarFile, "c/"));
+        // then
+        assertThat(classHeaderCache.size()).isEqualTo(2);
+        assertThat(classHeaderCache.read(jarEntryUrl(jarFile, "a/"))).isSameAs(a);
+        assertThat(classHeaderCache.read(jarEntryUrl(jarFile, "b/"))).isNotSameAs(b);
+    }
+
+    @Test
+    public void shouldCloseJarFileWhenNotUsingCaches() throws IOException {
+        // given
+        final File jarFile = createJarFile("");
+        final List<TrackingJarFile> openedJarFiles = Lists.newArrayList();
+        URLStreamHandler handler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                TrackingJarFile trackingJarFile = new TrackingJarFile(jarFile);
+                openedJarFiles.add(trackingJarFile);
+                return new NonCachingJarURLConnection(u, trackingJarFile);
+            }
+        };
+        URL url = new URL(null, jarEntryUrl(jarFile, "").toExternalForm(), handler);
+        ClassHeaderCache classHeaderCache = new ClassHeaderCache();
+        // when
+        ClassHeader classHeader = classHeaderCache.read(url);
+        ClassHeader classHeader2 = classHeaderCache.read(url);
+        // then
+        assertThat(classHeader2).isSameAs(classHeader);
+        assertThat(openedJarFiles).hasSize(2);
+        for (TrackingJarFile openedJarFile : openedJarFiles) {
+            assertThat(openedJarFile.closed).isTrue();
+        }
+    }
+
+    private static URL jarEntryUrl(File jarFile, String prefix) throws MalformedURLException {
+        return new URL("jar:" + jarFile.toURI().toURL().toExternalForm() + "!/" + prefix + PATH);
+    }
+
+    private static File createJarFile(String... prefixes) throws IOException {
+        File jarFile = File.createTempFile("glowroot-unit-test-", ".jar");
+        jarFile.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            for (String prefix : prefixes) {
+                out.putNextEntry(new JarEntry(prefix + PATH));
+                out.write(Resources.toByteArray(Resources.getResource(PATH)));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return jarFile;
+    }
+
+    private static class TrackingJarFile extends JarFile {
+
+        private volatile boolean closed;
+
+        private TrackingJarFile(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static class NonCachingJarURLConnection extends JarURLConnection {
+
+        private final JarFile jarFile;
+
+        private NonCachingJarURLConnection(URL url, JarFile jarFile) throws IOException {
+            super(url);
+            this.jarFile = jarFile;
+            setUseCaches(false);
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public JarFile getJarFile() {
+            return jarFile;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            // like the JDK implementation, closing the entry's input stream closes the jar file
+            final InputStream in = jarFile.getInputStream(jarFile.getJarEntry(getEntryName()));
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return in.read();
+                }
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in.read(b, off, len);
+                }
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                    jarFile.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassLoaderMapTest {
+
+    @Test
+    public void shouldKeyByClassLoaderIdentity() {
+        // given
+        ClassLoaderMap<String> map = new ClassLoaderMap<String>();
+        ClassLoader loader = new URLClassLoader(new URL[0]);
+        ClassLoader loader2 = new URLClassLoader(new URL[0]);
+        // when
+        String value = map.putIfAbsent(loader, "a");
+        String value2 = map.putIfAbsent(loader, "b");
+        String value3 = map.putIfAbsent(loader2, "c");
+        // then
+        assertThat(value).isEqualTo("a");
+        assertThat(value2).isEqualTo("a");
+        assertThat(value3).isEqualTo("c");
+        assertThat(map.get(loader)).isEqualTo("a");
+        assertThat(map.get(loader2)).isEqualTo("c");
+        assertThat(map.get(new URLClassLoader(new URL[0]))).isNull();
+        assertThat(map.getClassLoaders()).containsOnly(loader, loader2);
+        assertThat(map.values()).containsOnly("a", "c");
+        assertThat(map.size()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeavingTelemetryTest {
+
+    @Test
+    public void shouldRecordPerClassLoaderHistograms() {
+        // given
+        WeavingTelemetry telemetry = new WeavingTelemetry();
+        ClassLoader loader = WeavingTelemetryTest.class.getClassLoader();
+        // when
+        telemetry.recordWeave("a/A", null, MICROSECONDS.toNanos(50));
+        telemetry.recordWeave("b/B", loader, MICROSECONDS.toNanos(500));
+        telemetry.recordWeave("c/C", loader, MILLISECONDS.toNanos(5));
+        telemetry.recordWeave("d/D", loader, MILLISECONDS.toNanos(2000));
+        telemetry.recordPhases(MILLISECONDS.toNanos(1), MILLISECONDS.toNanos(2),
+                MILLISECONDS.toNanos(3));
+        telemetry.incrementIgnoredClassCount();
+        // then
+        assertThat(telemetry.getClassCount()).isEqualTo(4);
+        assertThat(telemetry.getTotalMillis()).isEqualTo(2005.55);
+        assertThat(telemetry.getClassAnalysisMillis()).isEqualTo(1);
+        assertThat(telemetry.getHierarchyResolutionMillis()).isEqualTo(2);
+        assertThat(telemetry.getBytecodeGenerationMillis()).isEqualTo(3);
+        assertThat(telemetry.getIgnoredClassCount()).isEqualTo(1);
+        assertThat(telemetry.getIgnoredBootstrapClassCount()).isEqualTo(0);
+        assertThat(telemetry.getClassLoaderHistograms()).containsExactly(
+                "bootstrap: 1 classes, 0.0 ms total, 0.0 ms max (<0.1 ms: 1, <1 ms: 0,"
+                        + " <10 ms: 0, <100 ms: 0, <1 s: 0, >=1 s: 0)",
+                loader.getClass().getName() + ": 3 classes, 2005.5 ms total, 2000.0 ms max"
+                        + " (<0.1 ms: 0, <1 ms: 1, <10 ms: 1, <100 ms: 0, <1 s: 0, >=1 s: 1)");
+    }
+
+    @Test
+    public void shouldKeepOnlySlowestClasses() {
+        // given
+        WeavingTelemetry telemetry = new WeavingTelemetry();
+        // when
+        for (int i = 1; i <= 100; i++) {
+            telemetry.recordWeave("x/C" + i, null, MILLISECONDS.toNanos(i % 2 == 0 ? i : 100 - i));
+        }
+        // then
+        List<String> slowestClasses = telemetry.getSlowestClasses();
+        assertThat(slowestClasses).hasSize(WeavingTelemetry.SLOWEST_CLASSES_LIMIT);
+        assertThat(slowestClasses.get(0)).isEqualTo("x.C100 (bootstrap): 100.0 ms");
+        assertThat(slowestClasses.get(1)).isEqualTo("x.C1 (bootstrap): 99.0 ms");
+        assertThat(slowestClasses.get(2)).isEqualTo("x.C98 (bootstrap): 98.0 ms");
+    }
+}
@@ -15,6 +15,9 @@
  */
 package org.glowroot.agent.it.harness;
 
+import java.util.List;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 public interface Container {
@@ -34,6 +37,11 @@ public interface Container {
 
     Trace getCollectedPartialTrace() throws Exception;
 
+    // waits for the aggregate of the given transaction to be collected (which depends on the
+    // aggregate interval, see glowroot.internal.rollup.0.intervalMillis)
+    List<Aggregate.ServiceCallsByType> getAggregatedServiceCalls(String transactionType,
+            String transactionName) throws Exception;
+
     // checks no unexpected log messages
     // checks no active traces
     // resets Glowroot back to square one (including re-weaving instrumentation configs if needed)
@@ -162,7 +162,12 @@ class GrpcServerWrapper {
                 final StreamObserver<AggregateResponseMessage> responseObserver) {
             return new StreamObserver<AggregateStreamMessage>() {
                 @Override
-                public void onNext(AggregateStreamMessage value) {}
+                public void onNext(AggregateStreamMessage value) {
+                    if (value.getMessageCase()
+                            == AggregateStreamMessage.MessageCase.TRANSACTION_AGGREGATE) {
+                        collector.collectTransactionAggregate(value.getTransactionAggregate());
+                    }
+                }
                 @Override
                 public void onError(Throwable t) {
                     logger.error(t.getMessage(), t);
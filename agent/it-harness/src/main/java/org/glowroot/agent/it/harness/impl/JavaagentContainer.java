@@ -58,6 +58,7 @@ import org.glowroot.agent.it.harness.grpc.JavaagentServiceGrpc;
 import org.glowroot.agent.it.harness.grpc.JavaagentServiceGrpc.JavaagentServiceBlockingStub;
 import org.glowroot.agent.it.harness.grpc.JavaagentServiceOuterClass.AppUnderTestClassName;
 import org.glowroot.agent.it.harness.grpc.JavaagentServiceOuterClass.Void;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -264,6 +265,14 @@ public class JavaagentContainer implements Container {
         return traceCollector.getPartialTrace(10, SECONDS);
     }
 
+    @Override
+    public List<Aggregate.ServiceCallsByType> getAggregatedServiceCalls(String transactionType,
+            String transactionName) throws InterruptedException {
+        checkNotNull(traceCollector);
+        return traceCollector.getAggregatedServiceCalls(transactionType, transactionName, 30,
+                SECONDS);
+    }
+
     @Override
     public void checkAndReset() throws Exception {
         if (configService == null) {
@@ -275,6 +284,7 @@ public class JavaagentContainer implements Container {
         }
         if (traceCollector != null) {
             traceCollector.checkAndResetLogMessages();
+            traceCollector.clearAggregates();
         }
     }
 
@@ -17,6 +17,7 @@ package org.glowroot.agent.it.harness.impl;
 
 import java.io.File;
 import java.net.ServerSocket;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
@@ -35,6 +36,7 @@ import org.glowroot.agent.it.harness.ConfigService;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.TempDirs;
 import org.glowroot.agent.weaving.IsolatedWeavingClassLoader;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -163,6 +165,14 @@ public class LocalContainer implements Container {
         return traceCollector.getPartialTrace(10, SECONDS);
     }
 
+    @Override
+    public List<Aggregate.ServiceCallsByType> getAggregatedServiceCalls(String transactionType,
+            String transactionName) throws InterruptedException {
+        checkNotNull(traceCollector);
+        return traceCollector.getAggregatedServiceCalls(transactionType, transactionName, 30,
+                SECONDS);
+    }
+
     @Override
     public void checkAndReset() throws Exception {
         if (configService == null) {
@@ -174,6 +184,7 @@ public class LocalContainer implements Container {
         }
         if (traceCollector != null) {
             traceCollector.checkAndResetLogMessages();
+            traceCollector.clearAggregates();
         }
     }
 
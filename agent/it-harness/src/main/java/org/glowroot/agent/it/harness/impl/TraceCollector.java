@@ -16,6 +16,7 @@
 package org.glowroot.agent.it.harness.impl;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
@@ -23,9 +24,12 @@ import javax.annotation.Nullable;
 import com.google.common.base.Joiner;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.immutables.value.Value;
 
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TransactionAggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -37,6 +41,9 @@ class TraceCollector {
     private final List<ExpectedLogMessage> expectedMessages = Lists.newCopyOnWriteArrayList();
     private final List<LogEvent> unexpectedMessages = Lists.newCopyOnWriteArrayList();
 
+    private final List<TransactionAggregate> transactionAggregates =
+            Lists.newCopyOnWriteArrayList();
+
     Trace getCompletedTrace(int timeout, TimeUnit unit) throws InterruptedException {
         Stopwatch stopwatch = Stopwatch.createStarted();
         while (stopwatch.elapsed(unit) < timeout) {
@@ -87,6 +94,32 @@ class TraceCollector {
         trace = null;
     }
 
+    // service calls are merged across all collected aggregates for the transaction, since the
+    // transaction may span more than one aggregate interval
+    List<Aggregate.ServiceCallsByType> getAggregatedServiceCalls(String transactionType,
+            String transactionName, int timeout, TimeUnit unit) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (stopwatch.elapsed(unit) < timeout) {
+            List<TransactionAggregate> matching = Lists.newArrayList();
+            for (TransactionAggregate transactionAggregate : transactionAggregates) {
+                if (transactionAggregate.getTransactionType().equals(transactionType)
+                        && transactionAggregate.getTransactionName().equals(transactionName)) {
+                    matching.add(transactionAggregate);
+                }
+            }
+            if (!matching.isEmpty()) {
+                return mergeServiceCalls(matching);
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("No aggregate was collected for transaction type: "
+                + transactionType + ", transaction name: " + transactionName);
+    }
+
+    void clearAggregates() {
+        transactionAggregates.clear();
+    }
+
     void addExpectedLogMessage(String loggerName, String partialMessage) {
         expectedMessages.add(ImmutableExpectedLogMessage.of(loggerName, partialMessage));
     }
@@ -119,6 +152,10 @@ class TraceCollector {
         }
     }
 
+    public void collectTransactionAggregate(TransactionAggregate transactionAggregate) {
+        transactionAggregates.add(transactionAggregate);
+    }
+
     public void log(LogEvent logEvent) {
         if (isExpected(logEvent)) {
             return;
@@ -148,6 +185,47 @@ class TraceCollector {
         return false;
     }
 
+    private static List<Aggregate.ServiceCallsByType> mergeServiceCalls(
+            List<TransactionAggregate> transactionAggregates) {
+        Map<String, Map<String, Aggregate.ServiceCall.Builder>> serviceCalls =
+                Maps.newLinkedHashMap();
+        for (TransactionAggregate transactionAggregate : transactionAggregates) {
+            for (Aggregate.ServiceCallsByType serviceCallsByType : transactionAggregate
+                    .getAggregate().getServiceCallsByTypeList()) {
+                Map<String, Aggregate.ServiceCall.Builder> serviceCallsForType =
+                        serviceCalls.get(serviceCallsByType.getType());
+                if (serviceCallsForType == null) {
+                    serviceCallsForType = Maps.newLinkedHashMap();
+                    serviceCalls.put(serviceCallsByType.getType(), serviceCallsForType);
+                }
+                for (Aggregate.ServiceCall serviceCall : serviceCallsByType
+                        .getServiceCallList()) {
+                    Aggregate.ServiceCall.Builder builder =
+                            serviceCallsForType.get(serviceCall.getText());
+                    if (builder == null) {
+                        serviceCallsForType.put(serviceCall.getText(), serviceCall.toBuilder());
+                    } else {
+                        builder.setTotalDurationNanos(builder.getTotalDurationNanos()
+                                + serviceCall.getTotalDurationNanos());
+                        builder.setExecutionCount(
+                                builder.getExecutionCount() + serviceCall.getExecutionCount());
+                    }
+                }
+            }
+        }
+        List<Aggregate.ServiceCallsByType> serviceCallsByTypes = Lists.newArrayList();
+        for (Map.Entry<String, Map<String, Aggregate.ServiceCall.Builder>> entry : serviceCalls
+                .entrySet()) {
+            Aggregate.ServiceCallsByType.Builder builder =
+                    Aggregate.ServiceCallsByType.newBuilder().setType(entry.getKey());
+            for (Aggregate.ServiceCall.Builder serviceCall : entry.getValue().values()) {
+                builder.addServiceCall(serviceCall);
+            }
+            serviceCallsByTypes.add(builder.build());
+        }
+        return serviceCallsByTypes;
+    }
+
     @Value.Immutable
     @Value.Style(allParameters = true)
     interface ExpectedLogMessage {
@@ -69,6 +69,23 @@ public interface ThreadContext {
     AsyncTraceEntry startAsyncServiceCallEntry(String type, String text,
             MessageSupplier messageSupplier, TimerName timerName);
 
+    /**
+     * Same as {@link #startServiceCallEntry(String, String, MessageSupplier, TimerName)}, except
+     * that a trace entry is only captured for the first occurrence of the given type and text in
+     * the current thread context. Subsequent occurrences are still counted and timed in the
+     * service call aggregates, but do not capture trace entries (or error entries), so the
+     * {@code messageSupplier} is never called for them.
+     * 
+     * If the captured trace entry is ended with {@link TraceEntry#endWithError(String)} and a
+     * {@code null} message, the text of the {@code messageSupplier} message is used as the error
+     * message, so that callers do not need to build the message eagerly for every occurrence.
+     * 
+     * This is intended for high volume events where aggregate counts are more useful than the
+     * individual trace entries, e.g. repeated log messages.
+     */
+    TraceEntry startAggregatedServiceCallEntry(String type, String text,
+            MessageSupplier messageSupplier, TimerName timerName);
+
     /**
      * Starts a timer for the specified timer name. If a timer is already running for the specified
      * timer name, it will keep an internal counter of the number of starts, and it will only end
@@ -262,6 +279,18 @@ public interface ThreadContext {
      */
     void setTransactionError(@Nullable String message, @Nullable Throwable t);
 
+    /**
+     * Returns {@code true} if {@code setTransactionError} has already been called within the
+     * current transaction, in which case subsequent calls to {@code setTransactionError} are
+     * ignored.
+     * 
+     * E.g., this method is called from the logger plugin when aggregating log events, to avoid
+     * formatting an error message that would be ignored anyways.
+     * 
+     * If there is no current transaction then this method returns {@code false}.
+     */
+    boolean hasTransactionError();
+
     /**
      * Adds a trace entry with the specified error message and total time of zero. It does not set
      * the error attribute on the transaction, which must be done with {@link #setTransactionError}
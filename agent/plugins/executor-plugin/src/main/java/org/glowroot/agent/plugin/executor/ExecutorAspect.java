@@ -388,6 +388,27 @@ public class ExecutorAspect {
         }
     }
 
+    @Pointcut(className = "java.util.concurrent.CompletableFuture", methodName = "join",
+            methodParameterTypes = {}, timerName = "wait on future",
+            suppressibleUsingKey = "wait-on-future")
+    public static class CompletableFutureJoinAdvice {
+        private static final TimerName timerName =
+                Agent.getTimerName(CompletableFutureJoinAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Future<?> future) {
+            // same as Future.get(), don't capture if already done
+            return !future.isDone();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
     // ========== debug ==========
 
     // KEEP THIS CODE IT IS VERY USEFUL
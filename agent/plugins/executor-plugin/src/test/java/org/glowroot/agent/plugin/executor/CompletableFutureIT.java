@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.StandardSystemProperty;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.Containers;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletableFutureIT {
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        String javaVersion = StandardSystemProperty.JAVA_VERSION.value();
+        // CompletableFuture was introduced in java 8
+        Assume.assumeFalse(javaVersion.startsWith("1.6") || javaVersion.startsWith("1.7"));
+        // tests only work with javaagent container because they need to weave bootstrap classes
+        // that implement Executor and Future
+        container = Containers.createJavaagent();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureJoin() throws Exception {
+        // when
+        Trace trace = container.execute(DoJoin.class);
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getMainThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getMainThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("wait on future");
+        assertThat(header.getMainThreadRootTimer().getChildTimer(0).getCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer(0).getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer(0).getCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer(0).getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer(0).getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        assertThat(entries.get(0).getMessage()).isEqualTo("auxiliary thread");
+        assertThat(entries.get(1).getDepth()).isEqualTo(1);
+        assertThat(entries.get(1).getMessage())
+                .isEqualTo("trace entry marker / CreateTraceEntry");
+    }
+
+    @Test
+    public void shouldNotCaptureJoinWhenAlreadyDone() throws Exception {
+        // when
+        Trace trace = container.execute(DoJoinAlreadyDone.class);
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getMainThreadRootTimer().getChildTimerCount()).isZero();
+        assertThat(header.getAuxThreadRootTimerCount()).isZero();
+        assertThat(trace.getEntryList()).isEmpty();
+    }
+
+    public static class DoJoin implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = Executors.newCachedThreadPool();
+            CompletableFuture<Void> future = CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            }, executor);
+            future.join();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoJoinAlreadyDone implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture.completedFuture("done").join();
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
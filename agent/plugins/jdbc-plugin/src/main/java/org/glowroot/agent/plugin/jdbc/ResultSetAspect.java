@@ -19,6 +19,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.Logger;
@@ -41,6 +42,8 @@ public class ResultSetAspect {
     private static final Logger logger = Agent.getLogger(ResultSetAspect.class);
     private static final ConfigService configService = Agent.getConfigService("jdbc");
 
+    // rows are counted even when the timer is disabled (which is the default), since counting only
+    // touches the StatementMirror (see StatementMirror.incrementCurrRow())
     @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {},
             nestingGroup = "jdbc")
     public static class NextAdvice {
@@ -48,11 +51,15 @@ public class ResultSetAspect {
                 configService.getBooleanProperty("captureResultSetNavigate");
         @IsEnabled
         public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
-            return timerEnabled.value() && isEnabledCommon(resultSet);
+            return isEnabledCommon(resultSet);
         }
         @OnBefore
-        public static Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
-            return onBeforeCommon(resultSet);
+        public static @Nullable Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
+            if (timerEnabled.value()) {
+                return onBeforeCommon(resultSet);
+            } else {
+                return null;
+            }
         }
         @OnReturn
         public static void onReturn(@BindReturn boolean currentRowValid,
@@ -63,25 +70,23 @@ public class ResultSetAspect {
                 // bizarre concurrent mis-usage of ResultSet
                 return;
             }
-            QueryEntry lastQueryEntry = mirror.getLastQueryEntry();
-            if (lastQueryEntry == null) {
-                // tracing must be disabled (e.g. exceeded trace entry limit)
-                return;
-            }
             if (currentRowValid) {
                 // ResultSet.getRow() is sometimes not super duper fast due to ResultSet
                 // wrapping and other checks, so this optimizes the common case
-                lastQueryEntry.incrementCurrRow();
+                mirror.incrementCurrRow();
             } else {
-                lastQueryEntry.rowNavigationAttempted();
+                mirror.rowNavigationAttempted();
             }
         }
         @OnAfter
-        public static void onAfter(@BindTraveler Timer timer) {
-            timer.stop();
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
         }
     }
 
+    // same as NextAdvice above, the current row is tracked even when the timer is disabled
     @Pointcut(className = "java.sql.ResultSet",
             methodName = "previous|relative|absolute|first|last", methodParameterTypes = "..",
             nestingGroup = "jdbc")
@@ -90,11 +95,15 @@ public class ResultSetAspect {
                 configService.getBooleanProperty("captureResultSetNavigate");
         @IsEnabled
         public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
-            return timerEnabled.value() && isEnabledCommon(resultSet);
+            return isEnabledCommon(resultSet);
         }
         @OnBefore
-        public static Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
-            return onBeforeCommon(resultSet);
+        public static @Nullable Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
+            if (timerEnabled.value()) {
+                return onBeforeCommon(resultSet);
+            } else {
+                return null;
+            }
         }
         @OnReturn
         public static void onReturn(@BindReceiver HasStatementMirror resultSet) {
@@ -105,19 +114,16 @@ public class ResultSetAspect {
                     // bizarre concurrent mis-usage of ResultSet
                     return;
                 }
-                QueryEntry lastQueryEntry = mirror.getLastQueryEntry();
-                if (lastQueryEntry == null) {
-                    // tracing must be disabled (e.g. exceeded trace entry limit)
-                    return;
-                }
-                lastQueryEntry.setCurrRow(((ResultSet) resultSet).getRow());
+                mirror.setCurrRow(((ResultSet) resultSet).getRow());
             } catch (SQLException e) {
                 logger.warn(e.getMessage(), e);
             }
         }
         @OnAfter
-        public static void onAfter(@BindTraveler Timer timer) {
-            timer.stop();
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
         }
     }
 
@@ -159,6 +165,23 @@ public class ResultSetAspect {
         }
     }
 
+    @Pointcut(className = "java.sql.ResultSet", methodName = "close", methodParameterTypes = {},
+            nestingGroup = "jdbc")
+    public static class CloseAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
+            return resultSet.glowroot$hasStatementMirror();
+        }
+        @OnBefore
+        public static void onBefore(@BindReceiver HasStatementMirror resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror != null) {
+                // this should always be true since just checked hasStatementMirror() above
+                mirror.flushRowNavigation();
+            }
+        }
+    }
+
     private static boolean isEnabledCommon(HasStatementMirror resultSet) {
         StatementMirror mirror = resultSet.glowroot$getStatementMirror();
         return mirror != null && mirror.getLastQueryEntry() != null;
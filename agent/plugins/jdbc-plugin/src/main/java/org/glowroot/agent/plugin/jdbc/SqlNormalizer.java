@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import javax.annotation.Nullable;
+
+// single pass normalization of sql with inlined literals (replacing string and numeric literals
+// with ? and collapsing in lists of literals down to a single ?), so that executions of the same
+// statement with different literals are aggregated under the same query text
+//
+// this is not a sql parser, it only needs to be good enough to collapse query cardinality, and it
+// intentionally does not allocate anything when there is nothing to normalize
+class SqlNormalizer {
+
+    private SqlNormalizer() {}
+
+    // returns the same String instance if there were no literals to normalize
+    static String normalize(String sql) {
+        // lazy instantiated on first literal
+        StringBuilder sb = null;
+        // index into sql of the first char that has not been copied to sb yet
+        int copiedUpTo = 0;
+        // paren depth of the innermost in list that is currently open, or -1 if not in an in list
+        int inListDepth = -1;
+        int depth = 0;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // postgresql escape string constant, e.g. E'it\'s'
+                boolean escapeString = isEscapeStringPrefix(sql, i);
+                int end = skipStringLiteral(sql, i + 1, escapeString);
+                sb = replaceWithPlaceholder(sb, sql, copiedUpTo, escapeString ? i - 1 : i,
+                        inListDepth == depth);
+                copiedUpTo = end;
+                i = end;
+            } else if (isDigit(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                int end = skipNumericLiteral(sql, i + 1);
+                sb = replaceWithPlaceholder(sb, sql, copiedUpTo, i, inListDepth == depth);
+                copiedUpTo = end;
+                i = end;
+            } else if (c == '"' || c == '`') {
+                // quoted identifier
+                i = skipUntil(sql, i + 1, c);
+            } else if (c == '[' && isBracketQuotedIdentifier(sql, i)) {
+                // sql server quoted identifier
+                i = skipUntil(sql, i + 1, ']');
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                i = skipUntil(sql, i + 2, '\n');
+            } else if (c == '#' && isMySqlComment(sql, i)) {
+                i = skipUntil(sql, i + 1, '\n');
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+            } else if (c == '(') {
+                if (isPrecededByIn(sql, i)) {
+                    // only the innermost in list is tracked, which is sufficient since an in list
+                    // that contains a nested in list is a subquery (not a list of literals)
+                    inListDepth = depth + 1;
+                }
+                depth++;
+                i++;
+            } else if (c == ')') {
+                if (depth == inListDepth) {
+                    inListDepth = -1;
+                }
+                depth--;
+                i++;
+            } else {
+                i++;
+            }
+        }
+        if (sb == null) {
+            return sql;
+        }
+        sb.append(sql, copiedUpTo, length);
+        return sb.toString();
+    }
+
+    private static StringBuilder replaceWithPlaceholder(@Nullable StringBuilder sb, String sql,
+            int copiedUpTo, int literalStart, boolean inList) {
+        if (sb == null) {
+            sb = new StringBuilder(sql.length());
+        }
+        sb.append(sql, copiedUpTo, literalStart);
+        if (inList && endsWithPlaceholderAndComma(sb)) {
+            // collapse "?, ?" down to "?"
+            int len = sb.length();
+            while (sb.charAt(len - 1) != ',') {
+                len--;
+            }
+            sb.setLength(len - 1);
+        } else {
+            sb.append('?');
+        }
+        return sb;
+    }
+
+    private static boolean endsWithPlaceholderAndComma(StringBuilder sb) {
+        int i = sb.length() - 1;
+        while (i >= 0 && Character.isWhitespace(sb.charAt(i))) {
+            i--;
+        }
+        if (i < 0 || sb.charAt(i) != ',') {
+            return false;
+        }
+        i--;
+        while (i >= 0 && Character.isWhitespace(sb.charAt(i))) {
+            i--;
+        }
+        return i >= 0 && sb.charAt(i) == '?';
+    }
+
+    // returns index after the closing quote ('' is an escaped quote, and so is \' inside of an
+    // escape string constant)
+    private static int skipStringLiteral(String sql, int from, boolean escapeString) {
+        int length = sql.length();
+        int i = from;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && escapeString) {
+                i += 2;
+            } else if (c == '\'') {
+                if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        // unterminated (e.g. truncated) string literal
+        return length;
+    }
+
+    // returns index after the end of the numeric literal, which covers decimals, exponents and
+    // hex literals (e.g. 1.5, 1e-10, 0x1F)
+    private static int skipNumericLiteral(String sql, int from) {
+        int length = sql.length();
+        int i = from;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (isIdentifierPart(c) || c == '.') {
+                i++;
+            } else if ((c == '+' || c == '-') && isExponent(sql.charAt(i - 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    // returns index after the terminating char
+    private static int skipUntil(String sql, int from, char terminator) {
+        int end = sql.indexOf(terminator, from);
+        return end == -1 ? sql.length() : end + 1;
+    }
+
+    private static boolean isPrecededByIn(String sql, int openParenIndex) {
+        int i = openParenIndex - 1;
+        while (i >= 0 && Character.isWhitespace(sql.charAt(i))) {
+            i--;
+        }
+        if (i < 1) {
+            return false;
+        }
+        char n = sql.charAt(i);
+        char in = sql.charAt(i - 1);
+        return (n == 'n' || n == 'N') && (in == 'i' || in == 'I')
+                && (i == 1 || !isIdentifierPart(sql.charAt(i - 2)));
+    }
+
+    private static boolean isEscapeStringPrefix(String sql, int quoteIndex) {
+        if (quoteIndex == 0) {
+            return false;
+        }
+        char e = sql.charAt(quoteIndex - 1);
+        return (e == 'e' || e == 'E')
+                && (quoteIndex == 1 || !isIdentifierPart(sql.charAt(quoteIndex - 2)));
+    }
+
+    // brackets that follow an identifier are postgresql array subscripts (e.g. arr[1]) or array
+    // constructors (e.g. array[1, 2]), not quoted identifiers
+    private static boolean isBracketQuotedIdentifier(String sql, int openBracketIndex) {
+        if (openBracketIndex == 0) {
+            return true;
+        }
+        char c = sql.charAt(openBracketIndex - 1);
+        return !isIdentifierPart(c) && c != ']' && c != ')';
+    }
+
+    // # followed directly by a letter, underscore or # is a sql server temporary table name (e.g.
+    // #temp or ##global) and not a mysql comment
+    private static boolean isMySqlComment(String sql, int hashIndex) {
+        if (hashIndex + 1 == sql.length()) {
+            return true;
+        }
+        char c = sql.charAt(hashIndex + 1);
+        return !Character.isLetter(c) && c != '_' && c != '#';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isExponent(char c) {
+        return c == 'e' || c == 'E';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -45,6 +45,7 @@ import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.ByteArrayParameter
 import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.StreamingParameterValue;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier2;
+import org.glowroot.agent.plugin.jdbc.message.NormalizedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.PreparedStatementMessageSupplier;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -61,6 +62,8 @@ public class StatementAspect {
             configService.getBooleanProperty("captureBindParameters");
     private static final BooleanProperty captureStatementClose =
             configService.getBooleanProperty("captureStatementClose");
+    private static final BooleanProperty normalizeSqlLiterals =
+            configService.getBooleanProperty("normalizeSqlLiterals");
 
     // ===================== Mixin =====================
 
@@ -295,8 +298,7 @@ public class StatementAspect {
                 // this shouldn't happen since just checked hasGlowrootStatementMirror() above
                 return null;
             }
-            QueryEntry query = context.startQueryEntry(QUERY_TYPE, sql,
-                    QueryMessageSupplier.create("jdbc execution: "), timerName);
+            QueryEntry query = startStatementQueryEntry(context, sql, timerName);
             mirror.setLastQuery(query);
             return query;
         }
@@ -566,14 +568,29 @@ public class StatementAspect {
                 }
                 concatenated = sb.toString();
             }
-            QueryEntry queryEntry = context.startQueryEntry(QUERY_TYPE, concatenated,
-                    QueryMessageSupplier.create("jdbc execution: "), timerName);
+            QueryEntry queryEntry = startStatementQueryEntry(context, concatenated, timerName);
             mirror.setLastQuery(queryEntry);
             mirror.clearBatch();
             return queryEntry;
         }
     }
 
+    // prepared statements are not normalized since their literals are (almost always) already
+    // passed as bind parameters
+    private static QueryEntry startStatementQueryEntry(ThreadContext context, String sql,
+            TimerName timerName) {
+        if (normalizeSqlLiterals.value()) {
+            String normalizedSql = SqlNormalizer.normalize(sql);
+            // normalize() returns the same instance when there is nothing to normalize
+            if (normalizedSql != sql) {
+                return context.startQueryEntry(QUERY_TYPE, normalizedSql,
+                        new NormalizedStatementMessageSupplier(sql), timerName);
+            }
+        }
+        return context.startQueryEntry(QUERY_TYPE, sql,
+                QueryMessageSupplier.create("jdbc execution: "), timerName);
+    }
+
     // ================== Additional ResultSet Tracking ==================
 
     @Pointcut(className = "java.sql.Statement", methodName = "getResultSet|getGeneratedKeys",
@@ -30,6 +30,9 @@ import org.glowroot.agent.plugin.api.QueryEntry;
 // this class must be public since it is referenced from bytecode inside other packages via @Mixin
 public class StatementMirror {
 
+    // flush row navigation every 1024 rows (must be a power of 2 minus 1)
+    private static final long FLUSH_INTERVAL_MASK = 1023;
+
     // this field is not used by PreparedStatementMirror subclass
     //
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
@@ -40,6 +43,17 @@ public class StatementMirror {
     // while that thread is adding batches into the statement and executing it
     private @Nullable QueryEntry lastQueryEntry;
 
+    // the current row of the last query's result set is tracked here in a primitive field and only
+    // flushed to lastQueryEntry when the end of the result set is reached, when the result set or
+    // statement is closed, when the statement is executed again, and every 1024 rows in
+    // between (in case the result set is abandoned without being closed), so that the common case
+    // of ResultSet.next() does not touch the QueryEntry for every row
+    //
+    // same as in QueryEntryBase, -1 means no navigation has been attempted, and 0 means navigation
+    // has been attempted but there were 0 rows
+    private long currRow = -1;
+    private long flushedRow = -1;
+
     void addBatch(String sql) {
         // synchronization isn't an issue here as this method is called only by
         // the monitored thread
@@ -67,10 +81,51 @@ public class StatementMirror {
     }
 
     void setLastQuery(QueryEntry lastQueryEntry) {
+        flushRowNavigation();
         this.lastQueryEntry = lastQueryEntry;
+        currRow = -1;
+        flushedRow = -1;
     }
 
     void clearLastQuery() {
+        flushRowNavigation();
         lastQueryEntry = null;
+        currRow = -1;
+        flushedRow = -1;
+    }
+
+    void incrementCurrRow() {
+        if (currRow == -1) {
+            currRow = 1;
+        } else {
+            currRow++;
+        }
+        if ((currRow & FLUSH_INTERVAL_MASK) == 0) {
+            flushRowNavigation();
+        }
+    }
+
+    void rowNavigationAttempted() {
+        if (currRow == -1) {
+            currRow = 0;
+        }
+        flushRowNavigation();
+    }
+
+    void setCurrRow(long row) {
+        currRow = row;
+        flushRowNavigation();
+    }
+
+    void flushRowNavigation() {
+        if (currRow == flushedRow || lastQueryEntry == null) {
+            return;
+        }
+        if (currRow == 0) {
+            lastQueryEntry.rowNavigationAttempted();
+        } else {
+            lastQueryEntry.setCurrRow(currRow);
+        }
+        flushedRow = currRow;
     }
 }
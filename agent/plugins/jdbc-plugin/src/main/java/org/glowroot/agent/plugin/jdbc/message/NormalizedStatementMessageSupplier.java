@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.glowroot.agent.plugin.api.QueryMessage;
+import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+
+// the query text is the normalized sql (which is what is aggregated), so the original sql is only
+// retained here, for display in the trace entry
+public class NormalizedStatementMessageSupplier extends QueryMessageSupplier {
+
+    private final String originalSql;
+
+    public NormalizedStatementMessageSupplier(String originalSql) {
+        this.originalSql = originalSql;
+    }
+
+    @Override
+    public QueryMessage get() {
+        return QueryMessage.create("jdbc execution: ", "",
+                ImmutableMap.of("Original sql", originalSql));
+    }
+}
@@ -157,6 +157,9 @@ public class JdbcPluginIT {
 
     @Test
     public void testWithResultSetNavigateTimerUnderSeparateTraceEntry() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResultSetNavigate",
+                true);
         // when
         Trace trace = container.execute(IterateOverResultsUnderSeparateTraceEntry.class);
         // then
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+
+    @Test
+    public void shouldReturnSameInstanceWhenNothingToNormalize() {
+        String sql = "select * from employee where name = ? and t1.col2 = t2.col2";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldReplaceStringLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from employee where name = 'john''s'"))
+                .isEqualTo("select * from employee where name = ?");
+        assertThat(SqlNormalizer.normalize("select * from employee where name = 'trunc"))
+                .isEqualTo("select * from employee where name = ?");
+    }
+
+    @Test
+    public void shouldReplaceEscapeStringLiterals() {
+        assertThat(SqlNormalizer.normalize(
+                "select * from employee where name = E'john\\'s' and title = e'a\\\\' and x = 1"))
+                        .isEqualTo("select * from employee where name = ? and title = ? and x = ?");
+        // not an escape string prefix
+        assertThat(SqlNormalizer.normalize("select * from employee where name ='john'"))
+                .isEqualTo("select * from employee where name =?");
+        // backslash is not an escape char in a standard string literal
+        assertThat(SqlNormalizer.normalize("select * from t1 where path = 'c:\\' and id = 1"))
+                .isEqualTo("select * from t1 where path = ? and id = ?");
+    }
+
+    @Test
+    public void shouldReplaceNumericLiterals() {
+        assertThat(SqlNormalizer.normalize(
+                "select * from t1 where id = 123 and x > 1.5e-10 and y < 0x1F and z = -7"))
+                        .isEqualTo("select * from t1 where id = ? and x > ? and y < ? and z = -?");
+    }
+
+    @Test
+    public void shouldNotReplaceInsideIdentifiersOrComments() {
+        assertThat(SqlNormalizer.normalize(
+                "select \"col 'a' 1\", `b2` from t3 -- 'x' 1\n where a = 1 /* 'y' 2 */"))
+                        .isEqualTo("select \"col 'a' 1\", `b2` from t3 -- 'x' 1\n where a = ?"
+                                + " /* 'y' 2 */");
+    }
+
+    @Test
+    public void shouldNotReplaceInsideMySqlComments() {
+        assertThat(SqlNormalizer.normalize("select * from t1 # it's 'x' 1\n where a = 1 #2"))
+                .isEqualTo("select * from t1 # it's 'x' 1\n where a = ? #2");
+        // sql server temporary tables are not comments
+        assertThat(SqlNormalizer.normalize("select * from #temp, ##global where a = 1"))
+                .isEqualTo("select * from #temp, ##global where a = ?");
+    }
+
+    @Test
+    public void shouldNotReplaceInsideBracketQuotedIdentifiers() {
+        assertThat(SqlNormalizer.normalize("select [col 'a' 1], t1.[b2] from [t 3] where a = 1"))
+                .isEqualTo("select [col 'a' 1], t1.[b2] from [t 3] where a = ?");
+        // postgresql array subscripts and constructors are not quoted identifiers
+        assertThat(SqlNormalizer.normalize("select arr[1] from t1 where a = array[2, 3]"))
+                .isEqualTo("select arr[?] from t1 where a = array[?, ?]");
+    }
+
+    @Test
+    public void shouldCollapseInLists() {
+        assertThat(SqlNormalizer.normalize(
+                "select * from employee where id in (1, 2, 3) and name IN('a','b')"))
+                        .isEqualTo("select * from employee where id in (?) and name IN(?)");
+    }
+
+    @Test
+    public void shouldNotCollapseOutsideOfInLists() {
+        assertThat(SqlNormalizer.normalize(
+                "insert into employee (id, name, salary) values (1, 'john', 100)"))
+                        .isEqualTo("insert into employee (id, name, salary) values (?, ?, ?)");
+        assertThat(SqlNormalizer.normalize(
+                "select * from employee where id in (select id from x where y in (1, 2)) and z = 3"
+                        + " and coalesce(a, 4, 5) = 6"))
+                                .isEqualTo("select * from employee where id in (select id from x"
+                                        + " where y in (?)) and z = ? and coalesce(a, ?, ?) = ?");
+    }
+}
@@ -39,6 +39,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class StatementIT {
 
+    private static final String PLUGIN_ID = "jdbc";
+
     private static Container container;
 
     @BeforeClass
@@ -76,6 +78,33 @@ public class StatementIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testStatementWithNormalizedLiterals() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "normalizeSqlLiterals", true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatementWithLiterals.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEmpty();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee where name in (?)");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc execution: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 2 rows");
+        assertThat(entry.getDetailEntryList()).hasSize(1);
+        assertThat(entry.getDetailEntry(0).getName()).isEqualTo("Original sql");
+        assertThat(entry.getDetailEntry(0).getValue(0).getString())
+                .isEqualTo("select * from employee where name in ('john doe', 'jane doe')");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testStatementQuery() throws Exception {
         // when
@@ -297,6 +326,33 @@ public class StatementIT {
         }
     }
 
+    public static class ExecuteStatementWithLiterals implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(
+                        "select * from employee where name in ('john doe', 'jane doe')");
+                ResultSet rs = statement.getResultSet();
+                while (rs.next()) {
+                    rs.getString(1);
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
     public static class ExecuteStatementQueryAndIterateOverResults
             implements AppUnderTest, TransactionMarker {
         private Connection connection;
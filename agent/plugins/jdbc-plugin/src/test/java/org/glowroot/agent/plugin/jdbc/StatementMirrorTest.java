@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.Timer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatementMirrorTest {
+
+    @Test
+    public void shouldNotFlushBeforeFlushInterval() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        // when
+        for (int i = 0; i < 1023; i++) {
+            mirror.incrementCurrRow();
+        }
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(-1);
+        assertThat(queryEntry.updateCount).isZero();
+    }
+
+    @Test
+    public void shouldFlushAtFlushInterval() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        // when
+        for (int i = 0; i < 1024; i++) {
+            mirror.incrementCurrRow();
+        }
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(1024);
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+        // and when
+        for (int i = 0; i < 1024; i++) {
+            mirror.incrementCurrRow();
+        }
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(2048);
+        assertThat(queryEntry.updateCount).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldFlushAtEndOfResults() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        // when
+        for (int i = 0; i < 3; i++) {
+            mirror.incrementCurrRow();
+        }
+        mirror.rowNavigationAttempted();
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(3);
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushEmptyResults() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        // when
+        mirror.rowNavigationAttempted();
+        // then
+        assertThat(queryEntry.rowNavigationAttempted).isTrue();
+        assertThat(queryEntry.currRow).isEqualTo(-1);
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushOnClose() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        for (int i = 0; i < 5; i++) {
+            mirror.incrementCurrRow();
+        }
+        // when (ResultSet.close())
+        mirror.flushRowNavigation();
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(5);
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+        // and when flushed again with no more rows
+        mirror.flushRowNavigation();
+        // then
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushOnSetLastQuery() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry1 = new RecordingQueryEntry();
+        RecordingQueryEntry queryEntry2 = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry1);
+        for (int i = 0; i < 5; i++) {
+            mirror.incrementCurrRow();
+        }
+        // when
+        mirror.setLastQuery(queryEntry2);
+        mirror.incrementCurrRow();
+        mirror.rowNavigationAttempted();
+        // then
+        assertThat(queryEntry1.currRow).isEqualTo(5);
+        assertThat(queryEntry1.updateCount).isEqualTo(1);
+        assertThat(queryEntry2.currRow).isEqualTo(1);
+        assertThat(queryEntry2.updateCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushOnClearLastQuery() {
+        // given
+        StatementMirror mirror = new StatementMirror();
+        RecordingQueryEntry queryEntry = new RecordingQueryEntry();
+        mirror.setLastQuery(queryEntry);
+        for (int i = 0; i < 5; i++) {
+            mirror.incrementCurrRow();
+        }
+        // when (Statement.close())
+        mirror.clearLastQuery();
+        mirror.incrementCurrRow();
+        mirror.flushRowNavigation();
+        // then
+        assertThat(queryEntry.currRow).isEqualTo(5);
+        assertThat(queryEntry.updateCount).isEqualTo(1);
+        assertThat(mirror.getLastQueryEntry()).isNull();
+    }
+
+    private static class RecordingQueryEntry implements QueryEntry {
+
+        private boolean rowNavigationAttempted;
+        private long currRow = -1;
+        private int updateCount;
+
+        @Override
+        public void rowNavigationAttempted() {
+            rowNavigationAttempted = true;
+            updateCount++;
+        }
+
+        @Override
+        public void incrementCurrRow() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCurrRow(long row) {
+            currRow = row;
+            updateCount++;
+        }
+
+        @Override
+        public void end() {}
+
+        @Override
+        public void endWithLocationStackTrace(long threshold, TimeUnit unit) {}
+
+        @Override
+        @Deprecated
+        public void endWithStackTrace(long threshold, TimeUnit unit) {}
+
+        @Override
+        public void endWithError(Throwable t) {}
+
+        @Override
+        public void endWithError(@Nullable String message) {}
+
+        @Override
+        public void endWithError(@Nullable String message, Throwable t) {}
+
+        @Override
+        public void endWithInfo(Throwable t) {}
+
+        @Override
+        public Timer extend() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getMessageSupplier() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
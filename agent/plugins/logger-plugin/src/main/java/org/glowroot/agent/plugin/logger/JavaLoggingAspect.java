@@ -65,9 +65,12 @@ public class JavaLoggingAspect {
             // cannot check Logger.getFilter().isLoggable(LogRecord) because the Filter object
             // could be stateful and might alter its state (e.g.
             // com.sun.mail.util.logging.DurationFilter)
-            String formattedMessage = nullToEmpty(formatter.formatMessage(record));
             int lvl = level.intValue();
             Throwable t = record.getThrown();
+            if (LoggerPlugin.aggregateLogEvents()) {
+                return onBeforeAggregated(context, record, level, t);
+            }
+            String formattedMessage = nullToEmpty(formatter.formatMessage(record));
             if (LoggerPlugin.markTraceAsError(lvl >= Level.SEVERE.intValue(),
                     lvl >= Level.WARNING.intValue(), t != null)) {
                 context.setTransactionError(formattedMessage, t);
@@ -98,6 +101,25 @@ public class JavaLoggingAspect {
             }
         }
 
+        private static LogAdviceTraveler onBeforeAggregated(ThreadContext context,
+                LogRecord record, Level level, @Nullable Throwable t) {
+            int lvl = level.intValue();
+            // the message is only formatted if it will not be ignored
+            if (LoggerPlugin.markTraceAsError(lvl >= Level.SEVERE.intValue(),
+                    lvl >= Level.WARNING.intValue(), t != null)
+                    && !context.hasTransactionError()) {
+                context.setTransactionError(nullToEmpty(formatter.formatMessage(record)), t);
+            }
+            // the level name is lower cased by LoggerPlugin.startAggregatedEntry() (only when the
+            // text is not already cached) and by the message supplier
+            TraceEntry traceEntry = LoggerPlugin.startAggregatedEntry(context, level.getName(),
+                    record.getLoggerName(), record.getMessage(),
+                    new DeferredLogMessageSupplier(level, record), timerName);
+            // formatted message is null since it is only needed (and already available through
+            // the message supplier) if the trace entry is captured
+            return new LogAdviceTraveler(traceEntry, lvl, null, t);
+        }
+
         private static String nullToEmpty(@Nullable String s) {
             return s == null ? "" : s;
         }
@@ -107,11 +129,11 @@ public class JavaLoggingAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final @Nullable String formattedMessage;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                @Nullable String formattedMessage, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
             this.formattedMessage = formattedMessage;
@@ -145,4 +167,23 @@ public class JavaLoggingAspect {
                     LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
         }
     }
+
+    private static class DeferredLogMessageSupplier extends MessageSupplier {
+
+        private final Level level;
+        private final LogRecord record;
+
+        private DeferredLogMessageSupplier(Level level, LogRecord record) {
+            this.level = level;
+            this.record = record;
+        }
+
+        @Override
+        public Message get() {
+            String formattedMessage = LogAdvice.formatter.formatMessage(record);
+            return Message.create("log {}: {} - {}", level.getName().toLowerCase(),
+                    LoggerPlugin.getAbbreviatedLoggerName(record.getLoggerName()),
+                    formattedMessage == null ? "" : formattedMessage);
+        }
+    }
 }
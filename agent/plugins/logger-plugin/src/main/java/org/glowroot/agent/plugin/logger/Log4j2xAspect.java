@@ -25,6 +25,7 @@ import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.Mixin;
 import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
@@ -57,10 +58,21 @@ public class Log4j2xAspect {
 
     @Shim("org.apache.logging.log4j.message.Message")
     public interface Message {
+
         @Nullable
         String getFormattedMessage();
+
+        @Nullable
+        String getFormat();
     }
 
+    // reusable messages (log4j2 garbage-free mode) are mutated by subsequent log events on the same
+    // thread, so their formatting cannot be deferred
+    @Mixin("org.apache.logging.log4j.message.ReusableMessage")
+    public static class ReusableMessageImpl implements ReusableMessageMixin {}
+
+    public interface ReusableMessageMixin {}
+
     @Pointcut(className = "org.apache.logging.log4j.spi.ExtendedLogger", methodName = "logMessage",
             methodParameterTypes = {"java.lang.String", "org.apache.logging.log4j.Level",
                     "org.apache.logging.log4j.Marker", "org.apache.logging.log4j.message.Message",
@@ -76,9 +88,12 @@ public class Log4j2xAspect {
                 @BindParameter @Nullable Level level,
                 @SuppressWarnings("unused") @BindParameter @Nullable Object marker,
                 @BindParameter @Nullable Message message, @BindParameter @Nullable Throwable t) {
+            int lvl = level == null ? 0 : level.intLevel();
+            if (LoggerPlugin.aggregateLogEvents()) {
+                return onBeforeAggregated(context, logger, lvl, message, t);
+            }
             String formattedMessage =
                     message == null ? "" : nullToEmpty(message.getFormattedMessage());
-            int lvl = level == null ? 0 : level.intLevel();
             if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)) {
                 context.setTransactionError(formattedMessage, t);
             }
@@ -111,6 +126,31 @@ public class Log4j2xAspect {
             }
         }
 
+        private static LogAdviceTraveler onBeforeAggregated(ThreadContext context,
+                Logger logger, int lvl, @Nullable Message message, @Nullable Throwable t) {
+            // the message is only formatted if it will not be ignored
+            if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)
+                    && !context.hasTransactionError()) {
+                String formattedMessage =
+                        message == null ? "" : nullToEmpty(message.getFormattedMessage());
+                context.setTransactionError(formattedMessage, t);
+            }
+            MessageSupplier messageSupplier;
+            if (message instanceof ReusableMessageMixin) {
+                messageSupplier = MessageSupplier.create("log {}: {} - {}", getLevelStr(lvl),
+                        logger.getName(), nullToEmpty(message.getFormattedMessage()));
+            } else {
+                messageSupplier = new DeferredLogMessageSupplier(getLevelStr(lvl),
+                        logger.getName(), message);
+            }
+            TraceEntry traceEntry = LoggerPlugin.startAggregatedEntry(context, getLevelStr(lvl),
+                    logger.getName(), message == null ? null : message.getFormat(),
+                    messageSupplier, timerName);
+            // formatted message is null since it is only needed (and already available through
+            // the message supplier) if the trace entry is captured
+            return new LogAdviceTraveler(traceEntry, lvl, null, t);
+        }
+
         private static String nullToEmpty(@Nullable String s) {
             return s == null ? "" : s;
         }
@@ -143,15 +183,36 @@ public class Log4j2xAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final @Nullable String formattedMessage;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                @Nullable String formattedMessage, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
             this.formattedMessage = formattedMessage;
             this.throwable = throwable;
         }
     }
+
+    private static class DeferredLogMessageSupplier extends MessageSupplier {
+
+        private final String level;
+        private final @Nullable String loggerName;
+        private final @Nullable Message message;
+
+        private DeferredLogMessageSupplier(String level, @Nullable String loggerName,
+                @Nullable Message message) {
+            this.level = level;
+            this.loggerName = loggerName;
+            this.message = message;
+        }
+
+        @Override
+        public org.glowroot.agent.plugin.api.Message get() {
+            String formattedMessage = message == null ? null : message.getFormattedMessage();
+            return org.glowroot.agent.plugin.api.Message.create("log {}: {} - {}", level,
+                    loggerName, formattedMessage == null ? "" : formattedMessage);
+        }
+    }
 }
@@ -100,8 +100,23 @@ public class Log4jAspect {
         public static TraceEntry onBefore(ThreadContext context, @BindReceiver Logger logger,
                 @BindParameter @Nullable String fqcn, @BindParameter @Nullable Level level,
                 @BindParameter @Nullable Object message, @BindParameter @Nullable Throwable t) {
-            String messageText = String.valueOf(message);
             int lvl = level == null ? 0 : level.toInt();
+            if (LoggerPlugin.aggregateLogEvents()) {
+                // the message is only rendered if it will not be ignored
+                if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)
+                        && !context.hasTransactionError()) {
+                    context.setTransactionError(String.valueOf(message), t);
+                }
+                String loggerName = logger.getName();
+                // log4j 1.x has no message parameters, so the message itself is the template
+                // (unless it is a non-string object, in which case rendering is deferred)
+                String messageTemplate = message instanceof String ? (String) message
+                        : message == null ? null : message.getClass().getName();
+                return LoggerPlugin.startAggregatedEntry(context,
+                        LogMessageSupplier.getLevelStr(lvl), loggerName, messageTemplate,
+                        new DeferredLogMessageSupplier(lvl, loggerName, message), timerName);
+            }
+            String messageText = String.valueOf(message);
             if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
                 context.setTransactionError(messageText, t);
             }
@@ -123,7 +138,10 @@ public class Log4jAspect {
                     traceEntry.endWithInfo(t);
                 }
             } else if (lvl >= WARN_INT) {
-                traceEntry.endWithError(String.valueOf(message));
+                // in aggregate mode, not passing message since it is already available through
+                // the trace entry message supplier (if the trace entry is captured)
+                traceEntry.endWithError(
+                        LoggerPlugin.aggregateLogEvents() ? null : String.valueOf(message));
             } else {
                 traceEntry.end();
             }
@@ -148,7 +166,7 @@ public class Log4jAspect {
                     LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
         }
 
-        private static String getLevelStr(int lvl) {
+        static String getLevelStr(int lvl) {
             switch (lvl) {
                 case ALL_INT:
                     return "all";
@@ -169,4 +187,24 @@ public class Log4jAspect {
             }
         }
     }
+
+    private static class DeferredLogMessageSupplier extends MessageSupplier {
+
+        private final int level;
+        private final @Nullable String loggerName;
+        private final @Nullable Object message;
+
+        private DeferredLogMessageSupplier(int level, @Nullable String loggerName,
+                @Nullable Object message) {
+            this.level = level;
+            this.loggerName = loggerName;
+            this.message = message;
+        }
+
+        @Override
+        public Message get() {
+            return Message.create("log {}: {} - {}", LogMessageSupplier.getLevelStr(level),
+                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), String.valueOf(message));
+        }
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+// caches the aggregated log event text per (level, logger name, message template), so that repeated
+// log events look up the same text instance instead of concatenating a new string on every call
+//
+// the number of cached texts is bounded since message templates are not necessarily constants (e.g.
+// when the message is built using string concatenation), in which case the text is built each time
+class LogEventTexts {
+
+    private static final int MAX_CACHED_TEXTS = 10000;
+
+    // level -> logger name -> message template -> text
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, String>>>
+            texts = createMap();
+
+    private final AtomicInteger cachedTextCount = new AtomicInteger();
+
+    String get(String level, @Nullable String loggerName, @Nullable String messageTemplate) {
+        // null logger name and null message template result in the same text as "null" and ""
+        String loggerNameKey = loggerName == null ? "null" : loggerName;
+        String messageTemplateKey = messageTemplate == null ? "" : messageTemplate;
+        ConcurrentMap<String, String> textsForLogger =
+                getOrCreate(getOrCreate(texts, level), loggerNameKey);
+        String text = textsForLogger.get(messageTemplateKey);
+        if (text != null) {
+            return text;
+        }
+        text = level.toLowerCase(Locale.ENGLISH) + " " + loggerNameKey + " - "
+                + messageTemplateKey;
+        if (cachedTextCount.get() >= MAX_CACHED_TEXTS) {
+            return text;
+        }
+        String existingText = textsForLogger.putIfAbsent(messageTemplateKey, text);
+        if (existingText != null) {
+            return existingText;
+        }
+        cachedTextCount.incrementAndGet();
+        return text;
+    }
+
+    private static <V> ConcurrentMap<String, V> getOrCreate(
+            ConcurrentMap<String, ConcurrentMap<String, V>> map, String key) {
+        ConcurrentMap<String, V> value = map.get(key);
+        if (value == null) {
+            value = createMap();
+            ConcurrentMap<String, V> existingValue = map.putIfAbsent(key, value);
+            if (existingValue != null) {
+                value = existingValue;
+            }
+        }
+        return value;
+    }
+
+    private static <V> ConcurrentMap<String, V> createMap() {
+        return new ConcurrentHashMap<String, V>();
+    }
+}
@@ -52,6 +52,9 @@ public class LogbackAspect {
         @Nullable
         Level glowroot$getLevel();
 
+        @Nullable
+        String getMessage();
+
         @Nullable
         String getFormattedMessage();
 
@@ -87,7 +90,6 @@ public class LogbackAspect {
             if (loggingEvent == null) {
                 return null;
             }
-            String formattedMessage = nullToEmpty(loggingEvent.getFormattedMessage());
             Level level = loggingEvent.glowroot$getLevel();
             int lvl = level == null ? 0 : level.toInt();
             Object throwableProxy = loggingEvent.glowroot$getThrowableProxy();
@@ -97,6 +99,10 @@ public class LogbackAspect {
                 // and it is only used for logging exceptions over the wire
                 t = ((ThrowableProxy) throwableProxy).getThrowable();
             }
+            if (LoggerPlugin.aggregateLogEvents()) {
+                return onBeforeAggregated(context, loggingEvent, lvl, t);
+            }
+            String formattedMessage = nullToEmpty(loggingEvent.getFormattedMessage());
             if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
                 context.setTransactionError(formattedMessage, t);
             }
@@ -127,6 +133,22 @@ public class LogbackAspect {
             }
         }
 
+        private static LogAdviceTraveler onBeforeAggregated(ThreadContext context,
+                ILoggingEvent loggingEvent, int lvl, @Nullable Throwable t) {
+            // the message is only formatted if it will not be ignored
+            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)
+                    && !context.hasTransactionError()) {
+                context.setTransactionError(nullToEmpty(loggingEvent.getFormattedMessage()), t);
+            }
+            String loggerName = loggingEvent.getLoggerName();
+            TraceEntry traceEntry = LoggerPlugin.startAggregatedEntry(context,
+                    LogMessageSupplier.getLevelStr(lvl), loggerName, loggingEvent.getMessage(),
+                    new DeferredLogMessageSupplier(lvl, loggerName, loggingEvent), timerName);
+            // formatted message is null since it is only needed (and already available through
+            // the message supplier) if the trace entry is captured
+            return new LogAdviceTraveler(traceEntry, lvl, null, t);
+        }
+
         private static String nullToEmpty(@Nullable String s) {
             return s == null ? "" : s;
         }
@@ -184,11 +206,11 @@ public class LogbackAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final @Nullable String formattedMessage;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                @Nullable String formattedMessage, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
             this.formattedMessage = formattedMessage;
@@ -214,7 +236,7 @@ public class LogbackAspect {
                     LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
         }
 
-        private static String getLevelStr(int lvl) {
+        static String getLevelStr(int lvl) {
             switch (lvl) {
                 case ALL_INT:
                     return "all";
@@ -235,4 +257,26 @@ public class LogbackAspect {
             }
         }
     }
+
+    private static class DeferredLogMessageSupplier extends MessageSupplier {
+
+        private final int level;
+        private final @Nullable String loggerName;
+        private final ILoggingEvent loggingEvent;
+
+        private DeferredLogMessageSupplier(int level, @Nullable String loggerName,
+                ILoggingEvent loggingEvent) {
+            this.level = level;
+            this.loggerName = loggerName;
+            this.loggingEvent = loggingEvent;
+        }
+
+        @Override
+        public Message get() {
+            String formattedMessage = loggingEvent.getFormattedMessage();
+            return Message.create("log {}: {} - {}", LogMessageSupplier.getLevelStr(level),
+                    LoggerPlugin.getAbbreviatedLoggerName(loggerName),
+                    formattedMessage == null ? "" : formattedMessage);
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,11 +18,19 @@ package org.glowroot.agent.plugin.logger;
 import javax.annotation.Nullable;
 
 import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 
 class LoggerPlugin {
 
+    // this service call type is dedicated to aggregated log events, and is shown separately from
+    // the other service call types in the UI (see TransactionJsonService)
+    private static final String AGGREGATED_LOG_EVENT_TYPE = "Log events";
+
     private static final ConfigService configService = Agent.getConfigService("logger");
 
     private static final BooleanProperty traceErrorOnWarningWithThrowable =
@@ -33,11 +41,15 @@ class LoggerPlugin {
             configService.getBooleanProperty("traceErrorOnErrorWithThrowable");
     private static final BooleanProperty traceErrorOnErrorWithoutThrowable =
             configService.getBooleanProperty("traceErrorOnErrorWithoutThrowable");
+    private static final BooleanProperty aggregateLogEvents =
+            configService.getBooleanProperty("aggregateLogEvents");
 
     // TODO expose targetLength as plugin property
     private static final LoggerNameAbbreviator loggerNameAbbreviator =
             new LoggerNameAbbreviator(36);
 
+    private static final LogEventTexts logEventTexts = new LogEventTexts();
+
     private LoggerPlugin() {}
 
     static boolean markTraceAsError(boolean isErrorOrHigher, boolean isWarnOrHigher,
@@ -53,6 +65,21 @@ class LoggerPlugin {
         return false;
     }
 
+    static boolean aggregateLogEvents() {
+        return aggregateLogEvents.value();
+    }
+
+    // log events are aggregated per (level, logger, message template) under a dedicated service
+    // call type in the transaction aggregates, and only the first occurrence of each within a
+    // thread context is captured as a trace entry, so the message supplier (which does the
+    // formatting) is only called for that one
+    static TraceEntry startAggregatedEntry(ThreadContext context, String level,
+            @Nullable String loggerName, @Nullable String messageTemplate,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return context.startAggregatedServiceCallEntry(AGGREGATED_LOG_EVENT_TYPE,
+                logEventTexts.get(level, loggerName, messageTemplate), messageSupplier, timerName);
+    }
+
     static String getAbbreviatedLoggerName(@Nullable String loggerName) {
         if (loggerName == null) {
             return "null";
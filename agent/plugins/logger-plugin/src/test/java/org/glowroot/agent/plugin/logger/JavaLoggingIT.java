@@ -15,7 +15,10 @@
  */
 package org.glowroot.agent.plugin.logger;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -30,9 +33,11 @@ import org.glowroot.agent.it.harness.AppUnderTest;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class JavaLoggingIT {
 
@@ -413,6 +418,51 @@ public class JavaLoggingIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogAggregated() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "aggregateLogEvents", true);
+
+        // when
+        Trace trace = container.execute(ShouldLogRepeatedly.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log warning: o.g.a.p.l.JavaLoggingIT$ShouldLogRepeatedly - def_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log severe: o.g.a.p.l.JavaLoggingIT$ShouldLogRepeatedly - efg_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        assertThat(i.hasNext()).isFalse();
+
+        // log events are aggregated under their own service call type, per message template
+        String loggerName = ShouldLogRepeatedly.class.getName();
+        assertThat(getLogEventCounts(ShouldLogRepeatedly.class)).containsOnly(
+                entry("warning " + loggerName + " - def_1 {0}", 100L),
+                entry("severe " + loggerName + " - efg_1 {0}", 100L));
+    }
+
+    private static Map<String, Long> getLogEventCounts(Class<?> appUnderTestClass)
+            throws Exception {
+        List<Aggregate.ServiceCallsByType> serviceCalls = container.getAggregatedServiceCalls(
+                "Test harness", "trace marker / " + appUnderTestClass.getSimpleName());
+        assertThat(serviceCalls).hasSize(1);
+        assertThat(serviceCalls.get(0).getType()).isEqualTo("Log events");
+        Map<String, Long> logEventCounts = new HashMap<String, Long>();
+        for (Aggregate.ServiceCall serviceCall : serviceCalls.get(0).getServiceCallList()) {
+            logEventCounts.put(serviceCall.getText(), serviceCall.getExecutionCount());
+        }
+        return logEventCounts;
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = Logger.getLogger(ShouldLog.class.getName());
         @Override
@@ -607,4 +657,20 @@ public class JavaLoggingIT {
             logger.log(new LogRecord(Level.SEVERE, "efg__"));
         }
     }
+
+    public static class ShouldLogRepeatedly implements AppUnderTest, TransactionMarker {
+        private static final Logger logger =
+                Logger.getLogger(ShouldLogRepeatedly.class.getName());
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 100; i++) {
+                logger.log(Level.WARNING, "def_1 {0}", i);
+                logger.log(Level.SEVERE, "efg_1 {0}", i);
+            }
+        }
+    }
 }
@@ -15,10 +15,14 @@
  */
 package org.glowroot.agent.plugin.logger;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -28,9 +32,11 @@ import org.glowroot.agent.it.harness.AppUnderTest;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class Log4j2xIT {
 
@@ -267,6 +273,53 @@ public class Log4j2xIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogAggregated() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "aggregateLogEvents", true);
+
+        // when
+        Trace trace = container.execute(ShouldLogRepeatedly.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        // reusable (garbage-free) message
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log warn: " + ShouldLogRepeatedly.logger.getName() + " - def_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        // non-reusable message
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo(
+                "log error: " + ShouldLogRepeatedly.logger.getName() + " - efg_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        assertThat(i.hasNext()).isFalse();
+
+        // log events are aggregated under their own service call type, per message template
+        String loggerName = ShouldLogRepeatedly.logger.getName();
+        assertThat(getLogEventCounts(ShouldLogRepeatedly.class)).containsOnly(
+                entry("warn " + loggerName + " - def_1 {}", 100L),
+                entry("error " + loggerName + " - efg_1 {}", 100L));
+    }
+
+    private static Map<String, Long> getLogEventCounts(Class<?> appUnderTestClass)
+            throws Exception {
+        List<Aggregate.ServiceCallsByType> serviceCalls = container.getAggregatedServiceCalls(
+                "Test harness", "trace marker / " + appUnderTestClass.getSimpleName());
+        assertThat(serviceCalls).hasSize(1);
+        assertThat(serviceCalls.get(0).getType()).isEqualTo("Log events");
+        Map<String, Long> logEventCounts = new HashMap<String, Long>();
+        for (Aggregate.ServiceCall serviceCall : serviceCalls.get(0).getServiceCallList()) {
+            logEventCounts.put(serviceCall.getText(), serviceCall.getExecutionCount());
+        }
+        return logEventCounts;
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = LogManager.getLogger(ShouldLog.class);
         @Override
@@ -399,4 +452,19 @@ public class Log4j2xIT {
                     new Object[] {"e", "f", "g", new IllegalStateException("567")});
         }
     }
+
+    public static class ShouldLogRepeatedly implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = LogManager.getLogger(ShouldLogRepeatedly.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 100; i++) {
+                logger.warn("def_1 {}", i);
+                logger.error(new ParameterizedMessage("efg_1 {}", i));
+            }
+        }
+    }
 }
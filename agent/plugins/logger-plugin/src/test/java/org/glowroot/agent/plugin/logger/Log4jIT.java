@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,7 +15,10 @@
  */
 package org.glowroot.agent.plugin.logger;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -28,9 +31,11 @@ import org.glowroot.agent.it.harness.AppUnderTest;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class Log4jIT {
 
@@ -491,6 +496,51 @@ public class Log4jIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogAggregated() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "aggregateLogEvents", true);
+
+        // when
+        Trace trace = container.execute(ShouldLogRepeatedly.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log warn: o.g.a.p.l.Log4jIT$ShouldLogRepeatedly - def_1");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log error: o.g.a.p.l.Log4jIT$ShouldLogRepeatedly - efg_1");
+        assertThat(entry.getError().getMessage()).isEqualTo("567");
+
+        assertThat(i.hasNext()).isFalse();
+
+        // log events are aggregated under their own service call type, per message template
+        String loggerName = ShouldLogRepeatedly.class.getName();
+        assertThat(getLogEventCounts(ShouldLogRepeatedly.class)).containsOnly(
+                entry("warn " + loggerName + " - def_1", 100L),
+                entry("error " + loggerName + " - efg_1", 100L));
+    }
+
+    private static Map<String, Long> getLogEventCounts(Class<?> appUnderTestClass)
+            throws Exception {
+        List<Aggregate.ServiceCallsByType> serviceCalls = container.getAggregatedServiceCalls(
+                "Test harness", "trace marker / " + appUnderTestClass.getSimpleName());
+        assertThat(serviceCalls).hasSize(1);
+        assertThat(serviceCalls.get(0).getType()).isEqualTo("Log events");
+        Map<String, Long> logEventCounts = new HashMap<String, Long>();
+        for (Aggregate.ServiceCall serviceCall : serviceCalls.get(0).getServiceCallList()) {
+            logEventCounts.put(serviceCall.getText(), serviceCall.getExecutionCount());
+        }
+        return logEventCounts;
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = Logger.getLogger(ShouldLog.class);
         @Override
@@ -730,4 +780,20 @@ public class Log4jIT {
             logger.l7dlog(Level.FATAL, "fgh____null", new Object[] {"f_", "g_", "h_"}, null);
         }
     }
+
+    public static class ShouldLogRepeatedly implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = Logger.getLogger(ShouldLogRepeatedly.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            // log4j 1.x has no message parameters, so the message itself is the template
+            for (int i = 0; i < 100; i++) {
+                logger.warn("def_1");
+                logger.error("efg_1", new IllegalStateException("567"));
+            }
+        }
+    }
 }
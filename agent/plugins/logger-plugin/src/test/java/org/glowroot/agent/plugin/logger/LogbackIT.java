@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,7 +15,10 @@
  */
 package org.glowroot.agent.plugin.logger;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -29,9 +32,11 @@ import org.glowroot.agent.it.harness.AppUnderTest;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.Containers;
 import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class LogbackIT {
 
@@ -312,6 +317,54 @@ public class LogbackIT {
         }
     }
 
+    @Test
+    public void testLogAggregated() throws Exception {
+        // aggregation is not supported for logback 0.9.15 and prior
+        Assume.assumeFalse(OLD_LOGBACK);
+
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "aggregateLogEvents", true);
+
+        // when
+        Trace trace = container.execute(ShouldLogRepeatedly.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log warn: o.g.a.p.l.LogbackIT$ShouldLogRepeatedly - def_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .isEqualTo("log error: o.g.a.p.l.LogbackIT$ShouldLogRepeatedly - efg_1 0");
+        assertThat(entry.getError().getMessage()).isEqualTo(entry.getMessage());
+
+        assertThat(i.hasNext()).isFalse();
+
+        // log events are aggregated under their own service call type, per message template
+        String loggerName = ShouldLogRepeatedly.class.getName();
+        assertThat(getLogEventCounts(ShouldLogRepeatedly.class)).containsOnly(
+                entry("warn " + loggerName + " - def_1 {}", 100L),
+                entry("error " + loggerName + " - efg_1 {}", 100L));
+    }
+
+    private static Map<String, Long> getLogEventCounts(Class<?> appUnderTestClass)
+            throws Exception {
+        List<Aggregate.ServiceCallsByType> serviceCalls = container.getAggregatedServiceCalls(
+                "Test harness", "trace marker / " + appUnderTestClass.getSimpleName());
+        assertThat(serviceCalls).hasSize(1);
+        assertThat(serviceCalls.get(0).getType()).isEqualTo("Log events");
+        Map<String, Long> logEventCounts = new HashMap<String, Long>();
+        for (Aggregate.ServiceCall serviceCall : serviceCalls.get(0).getServiceCallList()) {
+            logEventCounts.put(serviceCall.getText(), serviceCall.getExecutionCount());
+        }
+        return logEventCounts;
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = LoggerFactory.getLogger(ShouldLog.class);
         @Override
@@ -444,4 +497,19 @@ public class LogbackIT {
                     new Object[] {"e", "f", "g", new IllegalStateException("567")});
         }
     }
+
+    public static class ShouldLogRepeatedly implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = LoggerFactory.getLogger(ShouldLogRepeatedly.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            for (int i = 0; i < 100; i++) {
+                logger.warn("def_1 {}", i);
+                logger.error("efg_1 {}", i);
+            }
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.ui.sandbox;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// hits the json endpoints of a running glowroot ui (e.g. UiSandboxMain) from many concurrent
+// "dashboard users" and reports latency percentiles for each endpoint
+//
+// e.g. -Dglowroot.loadtest.baseUrl=http://localhost:4000 -Dglowroot.loadtest.users=50
+//
+// requests are sent using HttpURLConnection, which only speaks HTTP/1.1 (one request at a time per
+// keep-alive connection), so this does not measure the HTTP/2 path of the ui server (negotiated via
+// ALPN when the ui is served over https), i.e. it does not exercise stream multiplexing, header
+// compression or the HTTP/2 frame codec, and the results with an https base url are for HTTP/1.1
+// over TLS
+public class UiLoadTestMain {
+
+    private static final String BASE_URL =
+            System.getProperty("glowroot.loadtest.baseUrl", "http://localhost:4000");
+    private static final int USERS = Integer.getInteger("glowroot.loadtest.users", 20);
+    private static final int WARMUP_SECONDS =
+            Integer.getInteger("glowroot.loadtest.warmupSeconds", 10);
+    private static final int DURATION_SECONDS =
+            Integer.getInteger("glowroot.loadtest.durationSeconds", 60);
+
+    private static final List<String> DEFAULT_PATHS = ImmutableList.of(
+            "/backend/transaction/average?agent-rollup-id=&transaction-type=Sandbox&from=0&to=%d",
+            "/backend/transaction/percentiles?agent-rollup-id=&transaction-type=Sandbox&from=0"
+                    + "&to=%d&percentile=50&percentile=95&percentile=99",
+            "/backend/transaction/throughput?agent-rollup-id=&transaction-type=Sandbox&from=0"
+                    + "&to=%d",
+            "/backend/transaction/summaries?agent-rollup-id=&transaction-type=Sandbox&from=0"
+                    + "&to=%d&sort-order=total-time&limit=10",
+            "/backend/jvm/gauges?agent-rollup-id=&from=0&to=%d"
+                    + "&gauge-name=java.lang:type=Memory:HeapMemoryUsage.used");
+
+    private UiLoadTestMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> paths;
+        String pathsProperty = System.getProperty("glowroot.loadtest.paths");
+        if (pathsProperty == null) {
+            paths = DEFAULT_PATHS;
+        } else {
+            paths = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(pathsProperty);
+        }
+        System.out.println("note: requests are sent over HTTP/1.1 only (the HTTP/2 path of the ui"
+                + " server is not measured)");
+        System.out.println("warming up for " + WARMUP_SECONDS + " seconds ...");
+        run(paths, WARMUP_SECONDS);
+        System.out.println("running " + USERS + " users for " + DURATION_SECONDS
+                + " seconds ...");
+        List<Recorder> recorders = run(paths, DURATION_SECONDS);
+        System.out.println();
+        System.out.println(String.format("%8s %8s %8s %8s %8s %8s  %s", "count", "errors",
+                "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)", "path"));
+        for (int i = 0; i < paths.size(); i++) {
+            Recorder recorder = recorders.get(i);
+            long[] sorted = recorder.getSortedNanos();
+            System.out.println(String.format("%8d %8d %8.1f %8.1f %8.1f %8.1f  %s",
+                    sorted.length, recorder.errors.get(), percentileMillis(sorted, 50),
+                    percentileMillis(sorted, 95), percentileMillis(sorted, 99),
+                    percentileMillis(sorted, 100), paths.get(i)));
+        }
+    }
+
+    private static List<Recorder> run(final List<String> paths, int durationSeconds)
+            throws Exception {
+        final List<Recorder> recorders = Lists.newArrayList();
+        for (int i = 0; i < paths.size(); i++) {
+            recorders.add(new Recorder());
+        }
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final long durationNanos = SECONDS.toNanos(durationSeconds);
+        ExecutorService executor = Executors.newFixedThreadPool(USERS);
+        for (int i = 0; i < USERS; i++) {
+            final int user = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // each user starts on a different path to spread out the initial load
+                    int next = user;
+                    while (stopwatch.elapsed(NANOSECONDS) < durationNanos) {
+                        int index = next++ % paths.size();
+                        recorders.get(index).execute(paths.get(index));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(durationSeconds + 60, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
+        return recorders;
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(sortedNanos.length * percentile / 100) - 1;
+        long nanos = sortedNanos[Math.max(index, 0)];
+        return nanos / (double) MILLISECONDS.toNanos(1);
+    }
+
+    private static class Recorder {
+
+        private final List<Long> nanos = Lists.newArrayList();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        private void execute(String path) {
+            // "to" is filled in with the current time so that the requests are not identical
+            String url = BASE_URL + String.format(path, System.currentTimeMillis());
+            long startTick = System.nanoTime();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+                int responseCode = connection.getResponseCode();
+                InputStream in = responseCode < 400 ? connection.getInputStream()
+                        : connection.getErrorStream();
+                if (in != null) {
+                    // fully consume the response so the connection can be re-used (keep-alive)
+                    ByteStreams.exhaust(in);
+                    in.close();
+                }
+                if (responseCode != 200) {
+                    errors.getAndIncrement();
+                    return;
+                }
+            } catch (Exception e) {
+                errors.getAndIncrement();
+                return;
+            }
+            long durationNanos = System.nanoTime() - startTick;
+            synchronized (nanos) {
+                nanos.add(durationNanos);
+            }
+        }
+
+        private long[] getSortedNanos() {
+            long[] sorted;
+            synchronized (nanos) {
+                sorted = new long[nanos.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = nanos.get(i);
+                }
+            }
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import org.glowroot.common.util.AggregateFlushOffsets;
+import org.glowroot.common.util.Clock;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// assigns each agent a sticky aggregate flush slot (see AggregateFlushOffsets), least loaded first,
+// instead of relying on the agent id hash, which clusters agents into the same slots
+//
+// an agent keeps its slot as long as the slot is still within the window (the window only grows
+// with the number of agents, so existing slots stay valid as agents are added), and the slot is
+// released once the agent has not sent aggregates for a few minutes
+//
+// slots are assigned per central node, since an agent sends its aggregates to a single central
+// node (at least until it reconnects)
+//
+// aggregates are received once per agent per minute, so synchronizing here is not a bottleneck
+class AggregateFlushSlots {
+
+    private static final long EXPIRE_AFTER_MILLIS = MINUTES.toMillis(5);
+
+    private static final int MAX_SLOT_COUNT =
+            AggregateFlushOffsets.MAX_WINDOW_MILLIS / AggregateFlushOffsets.SLOT_MILLIS;
+
+    private final IngestionLoadStats ingestionLoadStats;
+    private final Clock clock;
+
+    private final Map<String, Assignment> assignments = Maps.newHashMap();
+    private final int[] agentCounts = new int[MAX_SLOT_COUNT];
+
+    private long lastExpireCheckMillis;
+
+    AggregateFlushSlots(IngestionLoadStats ingestionLoadStats, Clock clock) {
+        this.ingestionLoadStats = ingestionLoadStats;
+        this.clock = clock;
+    }
+
+    synchronized int getOffsetMillis(String agentId) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        expireIfNeeded(currentTimeMillis);
+        Assignment assignment = assignments.get(agentId);
+        int agentCount = Math.max(assignments.size() + (assignment == null ? 1 : 0),
+                ingestionLoadStats.getLastMinuteAggregateCount());
+        int slotCount = getSlotCount(AggregateFlushOffsets.getWindowMillis(agentCount));
+        if (assignment != null && assignment.slot < slotCount) {
+            assignment.lastSeenMillis = currentTimeMillis;
+            return assignment.slot * AggregateFlushOffsets.SLOT_MILLIS;
+        }
+        if (assignment != null) {
+            // the window has shrunk (agents have gone away) and the slot is no longer within it
+            agentCounts[assignment.slot]--;
+        }
+        int slot = getLeastLoadedSlot(agentId, slotCount);
+        agentCounts[slot]++;
+        assignments.put(agentId, new Assignment(slot, currentTimeMillis));
+        return slot * AggregateFlushOffsets.SLOT_MILLIS;
+    }
+
+    // the slot is chosen by the number of agents already assigned to it, and then (for agents that
+    // have not been assigned a slot by this central node, e.g. prior to a restart) by the number of
+    // aggregates received during its second of the last minute, preferring the slot that the agent
+    // is already using (derived from its agent id) so it does not move unnecessarily
+    private int getLeastLoadedSlot(String agentId, int slotCount) {
+        long[] lastMinuteAggregatesPerSecond =
+                ingestionLoadStats.getLastMinuteAggregatesPerSecond();
+        int currentSlot = AggregateFlushOffsets.getOffsetMillis(agentId,
+                AggregateFlushOffsets.MIN_WINDOW_MILLIS) / AggregateFlushOffsets.SLOT_MILLIS;
+        int bestSlot = currentSlot < slotCount ? currentSlot : 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (isLessLoaded(slot, bestSlot, lastMinuteAggregatesPerSecond)) {
+                bestSlot = slot;
+            }
+        }
+        return bestSlot;
+    }
+
+    private boolean isLessLoaded(int slot, int otherSlot, long[] lastMinuteAggregatesPerSecond) {
+        if (agentCounts[slot] != agentCounts[otherSlot]) {
+            return agentCounts[slot] < agentCounts[otherSlot];
+        }
+        long aggregateCount = lastMinuteAggregatesPerSecond[getSecond(slot)];
+        long otherAggregateCount = lastMinuteAggregatesPerSecond[getSecond(otherSlot)];
+        return aggregateCount < otherAggregateCount;
+    }
+
+    private void expireIfNeeded(long currentTimeMillis) {
+        if (currentTimeMillis - lastExpireCheckMillis < MINUTES.toMillis(1)) {
+            return;
+        }
+        Iterator<Assignment> i = assignments.values().iterator();
+        while (i.hasNext()) {
+            Assignment assignment = i.next();
+            if (currentTimeMillis - assignment.lastSeenMillis > EXPIRE_AFTER_MILLIS) {
+                agentCounts[assignment.slot]--;
+                i.remove();
+            }
+        }
+        lastExpireCheckMillis = currentTimeMillis;
+    }
+
+    private static int getSlotCount(int windowMillis) {
+        return Math.max(windowMillis / AggregateFlushOffsets.SLOT_MILLIS, 1);
+    }
+
+    private static int getSecond(int slot) {
+        return (slot * AggregateFlushOffsets.SLOT_MILLIS / 1000) % 60;
+    }
+
+    private static class Assignment {
+
+        private final int slot;
+        private long lastSeenMillis;
+
+        private Assignment(int slot, long lastSeenMillis) {
+            this.slot = slot;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+    }
+}
@@ -16,11 +16,16 @@
 package org.glowroot.central;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,11 +33,13 @@ import org.glowroot.agent.api.Instrumentation;
 import org.glowroot.central.repo.ConfigRepositoryImpl;
 import org.glowroot.central.repo.HeartbeatDao;
 import org.glowroot.common.repo.util.AlertingService;
+import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.HeartbeatCondition;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -40,12 +47,22 @@ class CentralAlertingService {
 
     private static final Logger logger = LoggerFactory.getLogger(CentralAlertingService.class);
 
+    // alert checks are mostly waiting on cassandra reads, so they are run in parallel
+    private static final int ALERT_CHECKING_THREADS = 8;
+
     private final ConfigRepositoryImpl configRepository;
     private final HeartbeatDao heartbeatDao;
     private final AlertingService alertingService;
 
     private final ExecutorService alertCheckingExecutor;
 
+    // checks of the same alert for the same agent rollup are never run concurrently (or out of
+    // order), since reading, opening and resolving the incident is not atomic, so a check that is
+    // requested while another check of the same alert is still running is deferred until the
+    // running check completes, and multiple deferred checks are coalesced into the latest one
+    private final ConcurrentMap<AlertCheckKey, AlertCheckState> alertCheckStates =
+            Maps.newConcurrentMap();
+
     private final Stopwatch stopwatch = Stopwatch.createStarted();
 
     private volatile boolean closed;
@@ -55,16 +72,16 @@ class CentralAlertingService {
         this.configRepository = configRepository;
         this.heartbeatDao = heartbeatDao;
         this.alertingService = alertingService;
-        alertCheckingExecutor = Executors.newSingleThreadExecutor();
+        alertCheckingExecutor = Executors.newFixedThreadPool(ALERT_CHECKING_THREADS);
     }
 
     void close() throws InterruptedException {
         closed = true;
-        // shutdownNow() is needed here to send interrupt to alert checking thread
+        // shutdownNow() is needed here to send interrupt to alert checking threads
         alertCheckingExecutor.shutdownNow();
         if (!alertCheckingExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException(
-                    "Timed out waiting for alert checking thread to terminate");
+                    "Timed out waiting for alert checking threads to terminate");
         }
     }
 
@@ -139,18 +156,64 @@ class CentralAlertingService {
         if (closed) {
             return;
         }
+        for (AlertConfig alertConfig : alertConfigs) {
+            AlertCheckKey key = ImmutableAlertCheckKey.of(agentRollupId, alertConfig);
+            while (true) {
+                AlertCheckState state =
+                        alertCheckStates.computeIfAbsent(key, k -> new AlertCheckState());
+                synchronized (state) {
+                    if (state.removed) {
+                        // lost race with the completion of the last check, which removed the state
+                        continue;
+                    }
+                    if (state.running) {
+                        if (state.pendingEndTime == null || endTime > state.pendingEndTime) {
+                            state.pendingEndTime = endTime;
+                            state.pendingAgentRollupDisplay = agentRollupDisplay;
+                        }
+                    } else {
+                        state.running = true;
+                        executeAlertCheck(key, state, agentRollupDisplay, endTime);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private void executeAlertCheck(AlertCheckKey key, AlertCheckState state,
+            String agentRollupDisplay, long endTime) {
         alertCheckingExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                for (AlertConfig alertConfig : alertConfigs) {
-                    try {
-                        checkAlert(agentRollupId, agentRollupDisplay, endTime, alertConfig);
-                    } catch (InterruptedException e) {
-                        // probably shutdown requested (see close method above)
-                        logger.debug(e.getMessage(), e);
-                        return;
-                    } catch (Throwable t) {
-                        logger.error("{} - {}", agentRollupDisplay, t.getMessage(), t);
+                try {
+                    checkAlert(key.agentRollupId(), agentRollupDisplay, endTime,
+                            key.alertConfig());
+                } catch (InterruptedException e) {
+                    // probably shutdown requested (see close method above)
+                    logger.debug(e.getMessage(), e);
+                } catch (Throwable t) {
+                    logger.error("{} - {}", agentRollupDisplay, t.getMessage(), t);
+                }
+                synchronized (state) {
+                    Long pendingEndTime = state.pendingEndTime;
+                    if (pendingEndTime == null || closed) {
+                        state.running = false;
+                        state.removed = true;
+                        alertCheckStates.remove(key, state);
+                    } else {
+                        String pendingAgentRollupDisplay = state.pendingAgentRollupDisplay;
+                        state.pendingEndTime = null;
+                        state.pendingAgentRollupDisplay = null;
+                        if (pendingEndTime > endTime) {
+                            executeAlertCheck(key, state, checkNotNull(pendingAgentRollupDisplay),
+                                    pendingEndTime);
+                        } else {
+                            // never evaluate an older end time after a newer one
+                            state.running = false;
+                            state.removed = true;
+                            alertCheckStates.remove(key, state);
+                        }
                     }
                 }
             }
@@ -215,4 +278,19 @@ class CentralAlertingService {
         return alertCondition.getValCase() == AlertCondition.ValCase.METRIC_CONDITION
                 && alertCondition.getMetricCondition().getMetric().startsWith("gauge:");
     }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface AlertCheckKey {
+        String agentRollupId();
+        AlertConfig alertConfig();
+    }
+
+    // guarded by itself
+    private static class AlertCheckState {
+        private boolean running;
+        private boolean removed;
+        private @Nullable Long pendingEndTime;
+        private @Nullable String pendingAgentRollupDisplay;
+    }
 }
@@ -60,7 +60,6 @@ import org.glowroot.central.repo.ConfigRepositoryImpl.AgentConfigListener;
 import org.glowroot.central.repo.SchemaUpgrade;
 import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.Session;
-import org.glowroot.common.live.LiveAggregateRepository.LiveAggregateRepositoryNop;
 import org.glowroot.common.repo.RepoAdmin;
 import org.glowroot.common.repo.util.AlertingService;
 import org.glowroot.common.repo.util.HttpClient;
@@ -90,6 +89,7 @@ public class CentralModule {
     private final SyntheticMonitorService syntheticMonitorService;
     private final GrpcServer grpcServer;
     private final UpdateAgentConfigIfNeededService updateAgentConfigIfNeededService;
+    private final LiveAggregateRepositoryImpl liveAggregateRepository;
     private final UiModule uiModule;
 
     public static CentralModule create() throws Exception {
@@ -110,6 +110,7 @@ public class CentralModule {
         SyntheticMonitorService syntheticMonitorService = null;
         GrpcServer grpcServer = null;
         UpdateAgentConfigIfNeededService updateAgentConfigIfNeededService = null;
+        LiveAggregateRepositoryImpl liveAggregateRepository = null;
         UiModule uiModule = null;
         try {
             // init logger as early as possible
@@ -148,7 +149,8 @@ public class CentralModule {
                 centralConfig = getCentralConfiguration(centralDir);
             }
             CentralRepoModule repos = new CentralRepoModule(clusterManager, session,
-                    keyspaceMetadata, centralConfig.cassandraSymmetricEncryptionKey(), clock);
+                    keyspaceMetadata, centralConfig.cassandraSymmetricEncryptionKey(),
+                    centralConfig.cassandraAggregateBundle(), clock);
 
             if (initialSchemaVersion == null) {
                 schemaUpgrade.updateSchemaVersionToCurent();
@@ -170,7 +172,12 @@ public class CentralModule {
             grpcServer = new GrpcServer(centralConfig.grpcBindAddress(), centralConfig.grpcPort(),
                     repos.getAgentRollupDao(), repos.getAgentConfigDao(), repos.getAggregateDao(),
                     repos.getGaugeValueDao(), repos.getEnvironmentDao(), repos.getHeartbeatDao(),
-                    repos.getTraceDao(), centralAlertingService, clusterManager, clock, version);
+                    repos.getTraceDao(), centralAlertingService,
+                    new IngestionGovernor(centralConfig.grpcMaxBytesPerSecondPerAgent(),
+                            centralConfig.grpcMaxMessagesPerSecondPerAgent(),
+                            centralConfig.grpcMaxBytesPerSecondPerAgentRollup(),
+                            centralConfig.grpcMaxMessagesPerSecondPerAgentRollup()),
+                    clusterManager, clock, version);
             DownstreamServiceImpl downstreamService = grpcServer.getDownstreamService();
             updateAgentConfigIfNeededService = new UpdateAgentConfigIfNeededService(
                     repos.getAgentRollupDao(), repos.getAgentConfigDao(), downstreamService, clock);
@@ -191,6 +198,9 @@ public class CentralModule {
                     repos.getConfigRepository(), repos.getIncidentDao(), alertingService,
                     repos.getSyntheticResultDao(), ticker, clock);
 
+            liveAggregateRepository = new LiveAggregateRepositoryImpl(downstreamService,
+                    repos.getAgentRollupDao(), repos.getConfigRepository(), clock);
+
             ClusterManager clusterManagerEffectivelyFinal = clusterManager;
             uiModule = new CreateUiModuleBuilder()
                     .central(true)
@@ -219,7 +229,7 @@ public class CentralModule {
                     .rollupLevelService(rollupLevelService)
                     .liveTraceRepository(new LiveTraceRepositoryImpl(downstreamService,
                             repos.getAgentRollupDao()))
-                    .liveAggregateRepository(new LiveAggregateRepositoryNop())
+                    .liveAggregateRepository(liveAggregateRepository)
                     .liveWeavingService(new LiveWeavingServiceImpl(downstreamService))
                     .sessionMapFactory(new SessionMapFactory() {
                         @Override
@@ -227,6 +237,7 @@ public class CentralModule {
                             return clusterManagerEffectivelyFinal.createReplicatedMap("sessionMap");
                         }
                     })
+                    .layoutGeneration(repos.getLayoutGeneration())
                     .httpClient(httpClient)
                     .numWorkerThreads(50)
                     .version(version)
@@ -243,6 +254,9 @@ public class CentralModule {
             if (uiModule != null) {
                 uiModule.close();
             }
+            if (liveAggregateRepository != null) {
+                liveAggregateRepository.close();
+            }
             if (updateAgentConfigIfNeededService != null) {
                 updateAgentConfigIfNeededService.close();
             }
@@ -280,6 +294,7 @@ public class CentralModule {
         this.syntheticMonitorService = syntheticMonitorService;
         this.grpcServer = grpcServer;
         this.updateAgentConfigIfNeededService = updateAgentConfigIfNeededService;
+        this.liveAggregateRepository = liveAggregateRepository;
         this.uiModule = uiModule;
     }
 
@@ -294,6 +309,7 @@ public class CentralModule {
         try {
             // close down external inputs first (ui and grpc)
             uiModule.close();
+            liveAggregateRepository.close();
             // updateAgentConfigIfNeededService depends on grpc downstream, so must be shutdown
             // before grpc
             updateAgentConfigIfNeededService.close();
@@ -345,7 +361,8 @@ public class CentralModule {
             }
             startupLogger.info("creating glowroot central schema ...");
             new CentralRepoModule(ClusterManager.create(), session, keyspaceMetadata,
-                    centralConfig.cassandraSymmetricEncryptionKey(), Clock.systemClock());
+                    centralConfig.cassandraSymmetricEncryptionKey(),
+                    centralConfig.cassandraAggregateBundle(), Clock.systemClock());
             schemaUpgrade.updateSchemaVersionToCurent();
         } finally {
             if (session != null) {
@@ -407,7 +424,8 @@ public class CentralModule {
             }
             CentralRepoModule repos =
                     new CentralRepoModule(ClusterManager.create(), session, keyspaceMetadata,
-                            centralConfig.cassandraSymmetricEncryptionKey(), Clock.systemClock());
+                            centralConfig.cassandraSymmetricEncryptionKey(),
+                            centralConfig.cassandraAggregateBundle(), Clock.systemClock());
             if (initialSchemaVersion == null) {
                 schemaUpgrade.updateSchemaVersionToCurent();
                 startupLogger.info("glowroot central schema created");
@@ -520,6 +538,10 @@ public class CentralModule {
             ConsistencyLevel consistencyLevel = ConsistencyLevel.valueOf(cassandraConsistencyLevel);
             builder.cassandraConsistencyLevel(consistencyLevel);
         }
+        String cassandraAggregateBundleText = props.getProperty("cassandra.aggregateBundle");
+        if (!Strings.isNullOrEmpty(cassandraAggregateBundleText)) {
+            builder.cassandraAggregateBundle(Boolean.parseBoolean(cassandraAggregateBundleText));
+        }
         String cassandraSymmetricEncryptionKey =
                 props.getProperty("cassandra.symmetricEncryptionKey");
         if (!Strings.isNullOrEmpty(cassandraSymmetricEncryptionKey)) {
@@ -545,6 +567,30 @@ public class CentralModule {
         if (!Strings.isNullOrEmpty(grpcPortText)) {
             builder.grpcPort(Integer.parseInt(grpcPortText));
         }
+        String grpcMaxBytesPerSecondPerAgentText =
+                props.getProperty("grpc.maxBytesPerSecondPerAgent");
+        if (!Strings.isNullOrEmpty(grpcMaxBytesPerSecondPerAgentText)) {
+            builder.grpcMaxBytesPerSecondPerAgent(
+                    Integer.parseInt(grpcMaxBytesPerSecondPerAgentText));
+        }
+        String grpcMaxMessagesPerSecondPerAgentText =
+                props.getProperty("grpc.maxMessagesPerSecondPerAgent");
+        if (!Strings.isNullOrEmpty(grpcMaxMessagesPerSecondPerAgentText)) {
+            builder.grpcMaxMessagesPerSecondPerAgent(
+                    Integer.parseInt(grpcMaxMessagesPerSecondPerAgentText));
+        }
+        String grpcMaxBytesPerSecondPerAgentRollupText =
+                props.getProperty("grpc.maxBytesPerSecondPerAgentRollup");
+        if (!Strings.isNullOrEmpty(grpcMaxBytesPerSecondPerAgentRollupText)) {
+            builder.grpcMaxBytesPerSecondPerAgentRollup(
+                    Integer.parseInt(grpcMaxBytesPerSecondPerAgentRollupText));
+        }
+        String grpcMaxMessagesPerSecondPerAgentRollupText =
+                props.getProperty("grpc.maxMessagesPerSecondPerAgentRollup");
+        if (!Strings.isNullOrEmpty(grpcMaxMessagesPerSecondPerAgentRollupText)) {
+            builder.grpcMaxMessagesPerSecondPerAgentRollup(
+                    Integer.parseInt(grpcMaxMessagesPerSecondPerAgentRollupText));
+        }
         String uiBindAddress = props.getProperty("ui.bindAddress");
         if (!Strings.isNullOrEmpty(uiBindAddress)) {
             builder.uiBindAddress(uiBindAddress);
@@ -736,6 +782,11 @@ public class CentralModule {
             return ConsistencyLevel.QUORUM;
         }
 
+        @Value.Default
+        boolean cassandraAggregateBundle() {
+            return false;
+        }
+
         @Value.Default
         String cassandraSymmetricEncryptionKey() {
             return "";
@@ -751,6 +802,30 @@ public class CentralModule {
             return 8181;
         }
 
+        // 0 means no limit
+        @Value.Default
+        int grpcMaxBytesPerSecondPerAgent() {
+            return 0;
+        }
+
+        // 0 means no limit
+        @Value.Default
+        int grpcMaxMessagesPerSecondPerAgent() {
+            return 0;
+        }
+
+        // 0 means no limit
+        @Value.Default
+        int grpcMaxBytesPerSecondPerAgentRollup() {
+            return 0;
+        }
+
+        // 0 means no limit
+        @Value.Default
+        int grpcMaxMessagesPerSecondPerAgentRollup() {
+            return 0;
+        }
+
         @Value.Default
         String uiBindAddress() {
             return "0.0.0.0";
@@ -19,7 +19,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
@@ -40,7 +39,7 @@ import org.glowroot.central.repo.GaugeValueDao;
 import org.glowroot.central.repo.HeartbeatDao;
 import org.glowroot.central.repo.SchemaUpgrade;
 import org.glowroot.central.repo.TraceDao;
-import org.glowroot.common.util.Clock;
+import org.glowroot.central.util.RateLimiter;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
@@ -75,6 +74,13 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private static final Logger logger = LoggerFactory.getLogger(CollectorServiceImpl.class);
 
+    // agents cap the next delay at 30 seconds
+    //
+    // this back off only reaches the agent through the aggregate response (AggregateResponseMessage
+    // .next_delay_millis), the trace response is an empty message, so traces are not throttled at
+    // the agent, instead traces that are over budget are shed here (see isOverBudget())
+    private static final int BACK_OFF_DELAY_MILLIS = 30000;
+
     private final AgentRollupDao agentRollupDao;
     private final AgentConfigDao agentConfigDao;
     private final EnvironmentDao environmentDao;
@@ -83,16 +89,19 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     private final HeartbeatDao heartbeatDao;
     private final TraceDao traceDao;
     private final CentralAlertingService centralAlertingService;
-    private final Clock clock;
+    private final IngestionGovernor ingestionGovernor;
+    private final IngestionLoadStats ingestionLoadStats;
+    private final AggregateFlushSlots aggregateFlushSlots;
     private final String version;
 
-    private volatile long currentMinute;
-    private final AtomicInteger nextDelay = new AtomicInteger();
+    private final RateLimiter<String> overBudgetLoggingRateLimiter = new RateLimiter<>(10000);
 
     CollectorServiceImpl(AgentRollupDao agentRollupDao, AgentConfigDao agentConfigDao,
             EnvironmentDao environmentDao, AggregateDao aggregateDao, GaugeValueDao gaugeValueDao,
             HeartbeatDao heartbeatDao, TraceDao traceDao,
-            CentralAlertingService centralAlertingService, Clock clock, String version) {
+            CentralAlertingService centralAlertingService, IngestionGovernor ingestionGovernor,
+            IngestionLoadStats ingestionLoadStats, AggregateFlushSlots aggregateFlushSlots,
+            String version) {
         this.agentRollupDao = agentRollupDao;
         this.agentConfigDao = agentConfigDao;
         this.environmentDao = environmentDao;
@@ -101,7 +110,9 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         this.heartbeatDao = heartbeatDao;
         this.traceDao = traceDao;
         this.centralAlertingService = centralAlertingService;
-        this.clock = clock;
+        this.ingestionGovernor = ingestionGovernor;
+        this.ingestionLoadStats = ingestionLoadStats;
+        this.aggregateFlushSlots = aggregateFlushSlots;
         this.version = version;
     }
 
@@ -130,7 +141,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         logger.info("agent connected: {}, version {}", getDisplayForLogging(agentId),
                 request.getEnvironment().getJavaInfo().getGlowrootAgentVersion());
         InitResponse.Builder response = InitResponse.newBuilder()
-                .setGlowrootCentralVersion(version);
+                .setGlowrootCentralVersion(version)
+                .setSharedTimerNamesSupported(true);
         if (!updatedAgentConfig.equals(request.getAgentConfig())) {
             response.setAgentConfig(updatedAgentConfig);
         }
@@ -163,7 +175,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             }
         }
         throttledCollectAggregates(request.getAgentId(), request.getCaptureTime(),
-                sharedQueryTexts, request.getAggregatesByTypeList(), responseObserver);
+                sharedQueryTexts, request.getAggregatesByTypeList(), request.getSerializedSize(),
+                1, responseObserver);
     }
 
     @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Gauges",
@@ -186,6 +199,13 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     public void collectTrace(OldTraceMessage request,
             StreamObserver<EmptyMessage> responseObserver) {
         String agentId = request.getAgentId();
+        if (isOverBudget(agentId, request.getSerializedSize(), 1)) {
+            // shed the trace, no point in calling onError since that will cause the agent to retry
+            // (and there is no way to tell the agent to back off sending traces)
+            responseObserver.onNext(EmptyMessage.getDefaultInstance());
+            responseObserver.onCompleted();
+            return;
+        }
         try {
             traceDao.store(agentId, request.getTrace());
         } catch (Throwable t) {
@@ -227,11 +247,17 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private void throttledCollectAggregates(String agentId, long captureTime,
             List<Aggregate.SharedQueryText> sharedQueryTexts,
-            List<OldAggregatesByType> aggregatesByTypeList,
+            List<OldAggregatesByType> aggregatesByTypeList, int bytes, int messages,
             StreamObserver<AggregateResponseMessage> responseObserver) {
+        // aggregates are never shed (they back the charts and the alerts), but are downgraded by
+        // dropping profiles (typically the bulk of their size) and the agent is told to back off
+        ingestionLoadStats.recordAggregates(bytes);
+        boolean overBudget = isOverBudget(agentId, bytes, messages);
         if (!aggregatesByTypeList.isEmpty()) {
             try {
-                aggregateDao.store(agentId, captureTime, aggregatesByTypeList, sharedQueryTexts);
+                aggregateDao.store(agentId, captureTime,
+                        overBudget ? withoutProfiles(aggregatesByTypeList) : aggregatesByTypeList,
+                        sharedQueryTexts);
             } catch (Throwable t) {
                 logger.error("{} - {}", getDisplayForLogging(agentId), t.getMessage(), t);
                 responseObserver.onError(t);
@@ -249,7 +275,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         centralAlertingService.checkForDeletedAlerts(agentId, agentDisplay);
         centralAlertingService.checkAggregateAlertsAsync(agentId, agentDisplay, captureTime);
         responseObserver.onNext(AggregateResponseMessage.newBuilder()
-                .setNextDelayMillis(getNextDelayMillis())
+                .setNextDelayMillis(overBudget ? BACK_OFF_DELAY_MILLIS : getNextDelayMillis(agentId))
+                .setSharedTimerNamesSupported(true)
                 .build());
         responseObserver.onCompleted();
     }
@@ -290,15 +317,32 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         responseObserver.onCompleted();
     }
 
-    private int getNextDelayMillis() {
-        long currentishTimeMillis = clock.currentTimeMillis() + 10000;
-        if (currentishTimeMillis > currentMinute) {
-            // race condition here is ok, at worst results in resetting nextDelay multiple times
-            nextDelay.set(0);
-            currentMinute = (long) Math.ceil(currentishTimeMillis / 60000.0) * 60000;
+    private boolean isOverBudget(String agentId, int bytes, int messages) {
+        if (!ingestionGovernor.isEnabled()) {
+            return false;
         }
-        // spread out aggregate collections 100 milliseconds a part, rolling over at 10 seconds
-        return nextDelay.getAndAdd(100) % 10000;
+        boolean overBudget;
+        try {
+            overBudget = !ingestionGovernor.tryAcquire(agentRollupDao.readAgentRollupIds(agentId),
+                    bytes, messages);
+        } catch (Exception e) {
+            // fail open
+            logger.error("{} - {}", getDisplayForLogging(agentId), e.getMessage(), e);
+            return false;
+        }
+        if (overBudget && overBudgetLoggingRateLimiter.tryAcquire(agentId)) {
+            logger.warn("{} - ingestion budget exceeded, shedding traces and dropping profiles from"
+                    + " aggregates (this warning will be logged at most once a day per agent)",
+                    getDisplayForLogging(agentId));
+        }
+        return overBudget;
+    }
+
+    private int getNextDelayMillis(String agentId) {
+        // the slot is assigned by this central node (least loaded first, and then sticky), and the
+        // window grows with the number of agents reporting to this central node, so that larger
+        // fleets are spread out further
+        return aggregateFlushSlots.getOffsetMillis(agentId);
     }
 
     private String getDisplayForLogging(String agentRollupId) {
@@ -351,6 +395,29 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         }
     }
 
+    private static List<OldAggregatesByType> withoutProfiles(
+            List<OldAggregatesByType> aggregatesByTypeList) {
+        List<OldAggregatesByType> downgraded = Lists.newArrayList();
+        for (OldAggregatesByType aggregatesByType : aggregatesByTypeList) {
+            OldAggregatesByType.Builder builder = aggregatesByType.toBuilder()
+                    .setOverallAggregate(withoutProfiles(aggregatesByType.getOverallAggregate()));
+            for (int i = 0; i < builder.getTransactionAggregateCount(); i++) {
+                OldTransactionAggregate transactionAggregate = builder.getTransactionAggregate(i);
+                builder.setTransactionAggregate(i, transactionAggregate.toBuilder()
+                        .setAggregate(withoutProfiles(transactionAggregate.getAggregate())));
+            }
+            downgraded.add(builder.build());
+        }
+        return downgraded;
+    }
+
+    private static Aggregate withoutProfiles(Aggregate aggregate) {
+        return aggregate.toBuilder()
+                .clearMainThreadProfile()
+                .clearAuxThreadProfile()
+                .build();
+    }
+
     @VisibleForTesting
     static String trimSpacesAroundAgentRollupIdSeparator(String agentRollupId) {
         return agentRollupId.replaceAll(" */ *", "/").trim();
@@ -361,7 +428,10 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         private final StreamObserver<AggregateResponseMessage> responseObserver;
         private @MonotonicNonNull AggregateStreamHeader streamHeader;
         private List<Aggregate.SharedQueryText> sharedQueryTexts = Lists.newArrayList();
+        private List<String> sharedTimerNames = Lists.newArrayList();
         private Map<String, OldAggregatesByType.Builder> aggregatesByTypeMap = Maps.newHashMap();
+        private int bytes;
+        private int messages;
 
         private AggregateStreamObserver(StreamObserver<AggregateResponseMessage> responseObserver) {
             this.responseObserver = responseObserver;
@@ -369,6 +439,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
         @Override
         public void onNext(AggregateStreamMessage value) {
+            bytes += value.getSerializedSize();
+            messages++;
             switch (value.getMessageCase()) {
                 case STREAM_HEADER:
                     streamHeader = value.getStreamHeader();
@@ -376,12 +448,16 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 case SHARED_QUERY_TEXT:
                     sharedQueryTexts.add(value.getSharedQueryText());
                     break;
+                case SHARED_TIMER_NAME:
+                    sharedTimerNames.add(value.getSharedTimerName());
+                    break;
                 case OVERALL_AGGREGATE:
                     OverallAggregate overallAggregate = value.getOverallAggregate();
                     String transactionType = overallAggregate.getTransactionType();
                     aggregatesByTypeMap.put(transactionType, OldAggregatesByType.newBuilder()
                             .setTransactionType(transactionType)
-                            .setOverallAggregate(overallAggregate.getAggregate()));
+                            .setOverallAggregate(
+                                    resolveTimerNames(overallAggregate.getAggregate())));
                     break;
                 case TRANSACTION_AGGREGATE:
                     TransactionAggregate transactionAggregate = value.getTransactionAggregate();
@@ -389,7 +465,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                             aggregatesByTypeMap.get(transactionAggregate.getTransactionType()));
                     builder.addTransactionAggregate(OldTransactionAggregate.newBuilder()
                             .setTransactionName(transactionAggregate.getTransactionName())
-                            .setAggregate(transactionAggregate.getAggregate())
+                            .setAggregate(resolveTimerNames(transactionAggregate.getAggregate()))
                             .build());
                     break;
                 default:
@@ -417,7 +493,36 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 aggregatesByTypeList.add(aggregatesByType.build());
             }
             throttledCollectAggregates(streamHeader.getAgentId(), streamHeader.getCaptureTime(),
-                    sharedQueryTexts, aggregatesByTypeList, responseObserver);
+                    sharedQueryTexts, aggregatesByTypeList, bytes, messages, responseObserver);
+        }
+
+        private Aggregate resolveTimerNames(Aggregate aggregate) {
+            if (!checkNotNull(streamHeader).getSharedTimerNames()) {
+                return aggregate;
+            }
+            Aggregate.Builder builder = aggregate.toBuilder();
+            for (int i = 0; i < builder.getMainThreadRootTimerCount(); i++) {
+                builder.setMainThreadRootTimer(i,
+                        resolveTimerNames(builder.getMainThreadRootTimer(i)));
+            }
+            for (int i = 0; i < builder.getAuxThreadRootTimerCount(); i++) {
+                builder.setAuxThreadRootTimer(i,
+                        resolveTimerNames(builder.getAuxThreadRootTimer(i)));
+            }
+            for (int i = 0; i < builder.getAsyncTimerCount(); i++) {
+                builder.setAsyncTimer(i, resolveTimerNames(builder.getAsyncTimer(i)));
+            }
+            return builder.build();
+        }
+
+        private Aggregate.Timer resolveTimerNames(Aggregate.Timer timer) {
+            Aggregate.Timer.Builder builder = timer.toBuilder()
+                    .setName(sharedTimerNames.get(timer.getSharedNameIndex()))
+                    .clearSharedNameIndex();
+            for (int i = 0; i < builder.getChildTimerCount(); i++) {
+                builder.setChildTimer(i, resolveTimerNames(builder.getChildTimer(i)));
+            }
+            return builder.build();
         }
     }
 
@@ -432,6 +537,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         private @MonotonicNonNull Profile auxThreadProfile;
         private Trace. /*@MonotonicNonNull*/ Header header;
         private @MonotonicNonNull TraceStreamCounts streamCounts;
+        private int bytes;
+        private int messages;
 
         private TraceStreamObserver(StreamObserver<EmptyMessage> responseObserver) {
             this.responseObserver = responseObserver;
@@ -439,6 +546,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
         @Override
         public void onNext(TraceStreamMessage value) {
+            bytes += value.getSerializedSize();
+            messages++;
             switch (value.getMessageCase()) {
                 case STREAM_HEADER:
                     streamHeader = value.getStreamHeader();
@@ -485,6 +594,13 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         @Override
         public void onCompleted() {
             checkNotNull(streamHeader);
+            if (isOverBudget(streamHeader.getAgentId(), bytes, messages)) {
+                // shed the trace, no point in calling onError since that will cause the agent to
+                // retry (and there is no way to tell the agent to back off sending traces)
+                responseObserver.onNext(EmptyMessage.getDefaultInstance());
+                responseObserver.onCompleted();
+                return;
+            }
             if (trace == null) {
                 // this is for 0.9.13 and later agents
                 checkNotNull(streamCounts);
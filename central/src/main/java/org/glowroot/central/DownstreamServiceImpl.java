@@ -45,6 +45,7 @@ import org.glowroot.common.live.ImmutableEntries;
 import org.glowroot.common.live.LiveJvmService.AgentNotConnectedException;
 import org.glowroot.common.live.LiveJvmService.AgentUnsupportedOperationException;
 import org.glowroot.common.live.LiveJvmService.DirectoryDoesNotExistException;
+import org.glowroot.common.live.LiveJvmService.HeapHistogramDiffBaselineExpiredException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInIbmJvmException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInJreException;
 import org.glowroot.common.live.LiveTraceRepository.Entries;
@@ -78,6 +79,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramResp
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HelloAck;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.JstackRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.JstackResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest.MBeanDumpKind;
@@ -107,6 +110,8 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
 
     private static final Logger logger = LoggerFactory.getLogger(DownstreamServiceImpl.class);
 
+    private static final int LIVE_AGGREGATES_TIMEOUT_SECONDS = 2;
+
     private final AgentRollupDao agentRollupDao;
 
     private final DistributedExecutionMap<String, ConnectedAgent> connectedAgents;
@@ -204,8 +209,26 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
     }
 
     HeapHistogram heapHistogram(String agentId) throws Exception {
+        return heapHistogram(agentId, HeapHistogramRequest.getDefaultInstance());
+    }
+
+    void heapHistogramDiffBaseline(String agentId, String diffId) throws Exception {
+        heapHistogram(agentId, HeapHistogramRequest.newBuilder()
+                .setDiffId(diffId)
+                .setDiffBaseline(true)
+                .build());
+    }
+
+    HeapHistogram heapHistogramDiff(String agentId, String diffId) throws Exception {
+        return heapHistogram(agentId, HeapHistogramRequest.newBuilder()
+                .setDiffId(diffId)
+                .build());
+    }
+
+    private HeapHistogram heapHistogram(String agentId, HeapHistogramRequest request)
+            throws Exception {
         AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
-                .setHeapHistogramRequest(HeapHistogramRequest.newBuilder())
+                .setHeapHistogramRequest(request)
                 .build());
         HeapHistogramResponse response = responseWrapper.getHeapHistogramResponse();
         if (response.getUnavailableDueToRunningInJre()) {
@@ -214,6 +237,13 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         if (response.getUnavailableDueToRunningInIbmJvm()) {
             throw new UnavailableDueToRunningInIbmJvmException();
         }
+        if (!request.getDiffId().isEmpty() && !response.getDiffSupported()) {
+            // agent prior to 0.9.27 ignores diff_id and returns the full histogram
+            throw new AgentUnsupportedOperationException();
+        }
+        if (response.getDiffBaselineExpired()) {
+            throw new HeapHistogramDiffBaselineExpiredException();
+        }
         return response.getHeapHistogram();
     }
 
@@ -391,6 +421,13 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         }
     }
 
+    LiveAggregatesResponse getLiveAggregates(String agentId) throws Exception {
+        AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
+                .setLiveAggregatesRequest(LiveAggregatesRequest.getDefaultInstance())
+                .build());
+        return responseWrapper.getLiveAggregatesResponse();
+    }
+
     private AgentResponse runOnCluster(String agentId, CentralRequest centralRequest)
             throws Exception {
         // retry up to 5 seconds on shutting-down response to give agent time to reconnect to
@@ -526,10 +563,10 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                         .shuttingDown(true)
                         .build();
             }
+            CentralRequest request = CentralRequest.newBuilder(requestWithoutRequestId)
+                    .setRequestId(nextRequestId.getAndIncrement())
+                    .build();
             try {
-                CentralRequest request = CentralRequest.newBuilder(requestWithoutRequestId)
-                        .setRequestId(nextRequestId.getAndIncrement())
-                        .build();
                 ResponseHolder responseHolder = new ResponseHolder();
                 responseHolders.put(request.getRequestId(), responseHolder);
                 // synchronization required since individual StreamObservers are not thread-safe
@@ -539,6 +576,11 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                 int timeoutSeconds = 60;
                 if (request.getMessageCase() == CentralRequest.MessageCase.HEAP_DUMP_REQUEST) {
                     timeoutSeconds = 180;
+                } else if (request
+                        .getMessageCase() == CentralRequest.MessageCase.LIVE_AGGREGATES_REQUEST) {
+                    // live aggregates are read while serving ui requests (and the ui falls back to
+                    // stored aggregates), so don't hold up ui threads waiting on a slow agent
+                    timeoutSeconds = LIVE_AGGREGATES_TIMEOUT_SECONDS;
                 }
                 // timeout is in case agent never responds
                 // passing AgentResponse.getDefaultInstance() is just dummy (non-null) value
@@ -553,6 +595,9 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                         .interrupted(true)
                         .build();
             } catch (TimeoutException e) {
+                // so that a late response is dropped instead of waiting in onNext() for the other
+                // side of the exchange
+                responseHolders.invalidate(request.getRequestId());
                 return ImmutableAgentResult.builder()
                         .timeout(true)
                         .build();
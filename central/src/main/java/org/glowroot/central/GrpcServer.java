@@ -16,8 +16,12 @@
 package org.glowroot.central;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import io.grpc.Server;
 import io.grpc.netty.NettyServerBuilder;
 import org.slf4j.Logger;
@@ -37,9 +41,14 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 class GrpcServer {
 
+    private static final Logger logger = LoggerFactory.getLogger(GrpcServer.class);
+
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
+    private static final String INGESTION_LOAD_STATS_OBJECT_NAME =
+            "org.glowroot.central:type=IngestionLoadStats";
+
     private final DownstreamServiceImpl downstreamService;
 
     private final Server server;
@@ -47,14 +56,23 @@ class GrpcServer {
     GrpcServer(String bindAddress, int port, AgentRollupDao agentRollupDao,
             AgentConfigDao agentConfigDao, AggregateDao aggregateDao, GaugeValueDao gaugeValueDao,
             EnvironmentDao environmentDao, HeartbeatDao heartbeatDao, TraceDao traceDao,
-            CentralAlertingService centralAlertingService, ClusterManager clusterManager,
-            Clock clock, String version) throws IOException {
+            CentralAlertingService centralAlertingService, IngestionGovernor ingestionGovernor,
+            ClusterManager clusterManager, Clock clock, String version) throws IOException {
 
         downstreamService = new DownstreamServiceImpl(agentRollupDao, clusterManager);
 
+        IngestionLoadStats ingestionLoadStats = new IngestionLoadStats(clock);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(ingestionLoadStats,
+                    new ObjectName(INGESTION_LOAD_STATS_OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn(e.getMessage(), e);
+        }
+
         CollectorServiceImpl collectorService = new CollectorServiceImpl(agentRollupDao,
                 agentConfigDao, environmentDao, aggregateDao, gaugeValueDao, heartbeatDao, traceDao,
-                centralAlertingService, clock, version);
+                centralAlertingService, ingestionGovernor, ingestionLoadStats,
+                new AggregateFlushSlots(ingestionLoadStats, clock), version);
 
         server = NettyServerBuilder.forAddress(new InetSocketAddress(bindAddress, port))
                 .addService(collectorService.bindService())
@@ -87,5 +105,11 @@ class GrpcServer {
         if (!server.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Timed out waiting for grpc server to terminate");
         }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(new ObjectName(INGESTION_LOAD_STATS_OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn(e.getMessage(), e);
+        }
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// token bucket ingestion budgets (bytes per second and messages per second) per agent and per
+// agent rollup, so that a single misbehaving agent (e.g. instrumentation explosion producing huge
+// aggregates or a flood of traces) cannot saturate cassandra for the whole cluster
+//
+// budgets are only checked, never waited on, so grpc threads are never blocked by the governor
+class IngestionGovernor {
+
+    private final @Nullable LoadingCache<String, Budget> agentBudgets;
+    private final @Nullable LoadingCache<String, Budget> agentRollupBudgets;
+
+    IngestionGovernor(int maxBytesPerSecondPerAgent, int maxMessagesPerSecondPerAgent,
+            int maxBytesPerSecondPerAgentRollup, int maxMessagesPerSecondPerAgentRollup) {
+        agentBudgets = createBudgets(maxBytesPerSecondPerAgent, maxMessagesPerSecondPerAgent);
+        agentRollupBudgets =
+                createBudgets(maxBytesPerSecondPerAgentRollup, maxMessagesPerSecondPerAgentRollup);
+    }
+
+    boolean isEnabled() {
+        return agentBudgets != null || agentRollupBudgets != null;
+    }
+
+    // agentRollupIds is the result of AgentRollupDao.readAgentRollupIds(), so index 0 is the agent
+    // itself and the remaining are its parent agent rollups
+    //
+    // all of the budgets are checked before any of them are acquired, so that a message rejected
+    // by one budget does not use up any of the others
+    //
+    // each budget has its own lock, so agents only contend on the agent rollup budgets they share,
+    // and the locks are always taken in the same order (the agent, then its agent rollups from the
+    // nearest to the top level), which cannot deadlock since agent rollups form a tree
+    boolean tryAcquire(List<String> agentRollupIds, int bytes, int messages)
+            throws ExecutionException {
+        List<Budget> budgets = Lists.newArrayList();
+        if (agentBudgets != null) {
+            budgets.add(agentBudgets.get(agentRollupIds.get(0)));
+        }
+        if (agentRollupBudgets != null) {
+            for (int i = 1; i < agentRollupIds.size(); i++) {
+                budgets.add(agentRollupBudgets.get(agentRollupIds.get(i)));
+            }
+        }
+        if (budgets.isEmpty()) {
+            return true;
+        }
+        int locked = 0;
+        try {
+            for (Budget budget : budgets) {
+                budget.lock.lock();
+                locked++;
+            }
+            long nowNanos = System.nanoTime();
+            for (Budget budget : budgets) {
+                if (!budget.canAcquire(nowNanos)) {
+                    return false;
+                }
+            }
+            for (Budget budget : budgets) {
+                budget.acquire(bytes, messages, nowNanos);
+            }
+            return true;
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                budgets.get(i).lock.unlock();
+            }
+        }
+    }
+
+    private static @Nullable LoadingCache<String, Budget> createBudgets(int maxBytesPerSecond,
+            int maxMessagesPerSecond) {
+        if (maxBytesPerSecond <= 0 && maxMessagesPerSecond <= 0) {
+            return null;
+        }
+        return CacheBuilder.newBuilder()
+                .expireAfterAccess(1, HOURS)
+                .build(new CacheLoader<String, Budget>() {
+                    @Override
+                    public Budget load(String agentRollupId) {
+                        return new Budget(maxBytesPerSecond, maxMessagesPerSecond);
+                    }
+                });
+    }
+
+    @VisibleForTesting
+    static class Budget {
+
+        private final Lock lock = new ReentrantLock();
+
+        private final @Nullable TokenBucket bytesBucket;
+        private final @Nullable TokenBucket messagesBucket;
+
+        Budget(int maxBytesPerSecond, int maxMessagesPerSecond) {
+            long nowNanos = System.nanoTime();
+            bytesBucket =
+                    maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, nowNanos) : null;
+            messagesBucket =
+                    maxMessagesPerSecond > 0 ? new TokenBucket(maxMessagesPerSecond, nowNanos)
+                            : null;
+        }
+
+        private boolean canAcquire(long nowNanos) {
+            return (bytesBucket == null || bytesBucket.canAcquire(nowNanos))
+                    && (messagesBucket == null || messagesBucket.canAcquire(nowNanos));
+        }
+
+        private void acquire(int bytes, int messages, long nowNanos) {
+            if (bytesBucket != null) {
+                bytesBucket.acquire(Math.max(bytes, 1), nowNanos);
+            }
+            if (messagesBucket != null) {
+                messagesBucket.acquire(Math.max(messages, 1), nowNanos);
+            }
+        }
+    }
+
+    // same semantics as RateLimiter.tryAcquire(), i.e. succeeds whenever no permits are currently
+    // owed, and then borrows the requested permits against the future, which is what allows a
+    // single message that is larger than the per second budget through, while throttling what
+    // follows it (up to one second of unused permits are stored for bursts)
+    //
+    // but split into check and acquire, since RateLimiter cannot check without acquiring (and
+    // cannot give back permits), and a message is only acquired once it passes all of its budgets
+    private static class TokenBucket {
+
+        private final double nanosPerPermit;
+        private final double maxStoredPermits;
+
+        private double storedPermits;
+        private long nextFreeNanos;
+
+        private TokenBucket(int permitsPerSecond, long nowNanos) {
+            nanosPerPermit = SECONDS.toNanos(1) / (double) permitsPerSecond;
+            maxStoredPermits = permitsPerSecond;
+            nextFreeNanos = nowNanos;
+        }
+
+        private boolean canAcquire(long nowNanos) {
+            return nextFreeNanos - nowNanos <= 0;
+        }
+
+        private void acquire(int permits, long nowNanos) {
+            if (nowNanos - nextFreeNanos > 0) {
+                storedPermits = Math.min(maxStoredPermits,
+                        storedPermits + (nowNanos - nextFreeNanos) / nanosPerPermit);
+                nextFreeNanos = nowNanos;
+            }
+            double storedPermitsToSpend = Math.min(permits, storedPermits);
+            storedPermits -= storedPermitsToSpend;
+            nextFreeNanos += (long) ((permits - storedPermitsToSpend) * nanosPerPermit);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import org.glowroot.common.util.Clock;
+
+// per second (of the minute) histograms of aggregate ingestion on this central node, for verifying
+// how well the aggregate flushes from the agents are spread out over the minute
+//
+// aggregates are received once per agent per minute, so synchronizing here is not a bottleneck
+class IngestionLoadStats implements IngestionLoadStatsMXBean {
+
+    private final Clock clock;
+
+    private long currMinute;
+    private long[] currCounts = new long[60];
+    private long[] currBytes = new long[60];
+
+    private long[] lastCounts = new long[60];
+    private long[] lastBytes = new long[60];
+
+    IngestionLoadStats(Clock clock) {
+        this.clock = clock;
+    }
+
+    synchronized void recordAggregates(int bytes) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        rolloverIfNeeded(currentTimeMillis);
+        int second = (int) ((currentTimeMillis / 1000) % 60);
+        currCounts[second]++;
+        currBytes[second] += bytes;
+    }
+
+    // this is the number of agents that sent aggregates to this central node during the last
+    // minute
+    synchronized int getLastMinuteAggregateCount() {
+        rolloverIfNeeded(clock.currentTimeMillis());
+        long total = 0;
+        for (long count : lastCounts) {
+            total += count;
+        }
+        return (int) total;
+    }
+
+    @Override
+    public synchronized long[] getLastMinuteAggregatesPerSecond() {
+        rolloverIfNeeded(clock.currentTimeMillis());
+        return lastCounts.clone();
+    }
+
+    @Override
+    public synchronized long[] getLastMinuteAggregateBytesPerSecond() {
+        rolloverIfNeeded(clock.currentTimeMillis());
+        return lastBytes.clone();
+    }
+
+    @Override
+    public synchronized long getLastMinutePeakAggregatesPerSecond() {
+        rolloverIfNeeded(clock.currentTimeMillis());
+        long peak = 0;
+        for (long count : lastCounts) {
+            peak = Math.max(peak, count);
+        }
+        return peak;
+    }
+
+    private void rolloverIfNeeded(long currentTimeMillis) {
+        long minute = currentTimeMillis / 60000;
+        if (minute == currMinute) {
+            return;
+        }
+        if (minute == currMinute + 1) {
+            lastCounts = currCounts;
+            lastBytes = currBytes;
+        } else {
+            // nothing was received during the last minute
+            lastCounts = new long[60];
+            lastBytes = new long[60];
+        }
+        currCounts = new long[60];
+        currBytes = new long[60];
+        currMinute = minute;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.central.repo.AgentRollupDao;
+import org.glowroot.common.live.ImmutableOverviewAggregate;
+import org.glowroot.common.live.ImmutablePercentileAggregate;
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository;
+import org.glowroot.common.live.LiveJvmService.AgentNotConnectedException;
+import org.glowroot.common.live.LiveJvmService.AgentUnsupportedOperationException;
+import org.glowroot.common.model.OverallErrorSummaryCollector;
+import org.glowroot.common.model.OverallSummaryCollector;
+import org.glowroot.common.model.ProfileCollector;
+import org.glowroot.common.model.QueryCollector;
+import org.glowroot.common.model.ServiceCallCollector;
+import org.glowroot.common.model.TransactionErrorSummaryCollector;
+import org.glowroot.common.model.TransactionSummaryCollector;
+import org.glowroot.common.repo.ConfigRepository;
+import org.glowroot.common.util.AggregateFlushOffsets;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse.Interval;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.LiveAggregatesResponse.LiveAggregate;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// fetches the aggregates that are still in memory on a connected agent (i.e. have not been flushed
+// to central yet), so that the transaction charts and summaries are not behind by up to a full
+// aggregation interval
+//
+// only the cheap parts of the aggregates are sent (no queries, service calls or profiles), and the
+// response is cached per agent for a few seconds so that many dashboard viewers (and the several
+// requests that a single page load makes) share a single round trip to the agent
+//
+// queries whose range ends before any interval that can still be unflushed never touch the agent,
+// and otherwise the round trip is made asynchronously (single flight per agent) and ui requests
+// only wait briefly for it, so a slow or disconnected agent does not stall ui requests (the round
+// trip also has its own short timeout, see DownstreamServiceImpl, and the response is cached
+// whenever it arrives)
+//
+// agent rollups are not supported (their live data is left to the next rollup)
+class LiveAggregateRepositoryImpl implements LiveAggregateRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveAggregateRepositoryImpl.class);
+
+    private static final long MAX_WAIT_MILLIS = 200;
+
+    private final DownstreamServiceImpl downstreamService;
+    private final AgentRollupDao agentRollupDao;
+    private final ConfigRepository configRepository;
+    private final Clock clock;
+
+    private final ExecutorService liveAggregatesExecutor;
+
+    // the cached future is created (and the round trip started) under the cache's per key lock,
+    // so concurrent requests for the same agent share a single round trip
+    private final Cache<String, CompletableFuture<LiveAggregatesResponse>> liveAggregatesCache =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(5, SECONDS)
+                    .maximumSize(10000)
+                    .build();
+
+    LiveAggregateRepositoryImpl(DownstreamServiceImpl downstreamService,
+            AgentRollupDao agentRollupDao, ConfigRepository configRepository, Clock clock) {
+        this.downstreamService = downstreamService;
+        this.agentRollupDao = agentRollupDao;
+        this.configRepository = configRepository;
+        this.clock = clock;
+        liveAggregatesExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Live-Aggregates-%d")
+                .build());
+    }
+
+    void close() {
+        liveAggregatesExecutor.shutdownNow();
+    }
+
+    @Override
+    public long mergeInOverallSummary(String agentId, OverallQuery query,
+            OverallSummaryCollector collector) {
+        long revisedTo = query.to();
+        for (Interval interval : getIntervals(agentId, query.from(), query.to())) {
+            Aggregate aggregate = getAggregate(interval, query.transactionType(), null);
+            if (aggregate != null) {
+                collector.mergeSummary(aggregate.getTotalDurationNanos(),
+                        aggregate.getTransactionCount(), 0);
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return revisedTo;
+    }
+
+    @Override
+    public long mergeInTransactionSummaries(String agentId, OverallQuery query,
+            TransactionSummaryCollector collector) {
+        long revisedTo = query.to();
+        for (Interval interval : getIntervals(agentId, query.from(), query.to())) {
+            for (LiveAggregate liveAggregate : interval.getAggregateList()) {
+                if (isTransactionAggregate(liveAggregate, query.transactionType())) {
+                    Aggregate aggregate = liveAggregate.getAggregate();
+                    collector.collect(liveAggregate.getTransactionName(),
+                            aggregate.getTotalDurationNanos(), aggregate.getTransactionCount(), 0);
+                }
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return revisedTo;
+    }
+
+    @Override
+    public long mergeInOverallErrorSummary(String agentId, OverallQuery query,
+            OverallErrorSummaryCollector collector) {
+        long revisedTo = query.to();
+        for (Interval interval : getIntervals(agentId, query.from(), query.to())) {
+            Aggregate aggregate = getAggregate(interval, query.transactionType(), null);
+            if (aggregate != null) {
+                collector.mergeErrorSummary(aggregate.getErrorCount(),
+                        aggregate.getTransactionCount(), 0);
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return revisedTo;
+    }
+
+    @Override
+    public long mergeInTransactionErrorSummaries(String agentId, OverallQuery query,
+            TransactionErrorSummaryCollector collector) {
+        long revisedTo = query.to();
+        for (Interval interval : getIntervals(agentId, query.from(), query.to())) {
+            for (LiveAggregate liveAggregate : interval.getAggregateList()) {
+                if (isTransactionAggregate(liveAggregate, query.transactionType())) {
+                    Aggregate aggregate = liveAggregate.getAggregate();
+                    if (aggregate.getErrorCount() != 0) {
+                        collector.collect(liveAggregate.getTransactionName(),
+                                aggregate.getErrorCount(), aggregate.getTransactionCount(), 0);
+                    }
+                }
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return revisedTo;
+    }
+
+    @Override
+    public @Nullable LiveResult<OverviewAggregate> getOverviewAggregates(String agentId,
+            TransactionQuery query) {
+        List<Interval> intervals = getIntervals(agentId, query.from(), query.to());
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        List<OverviewAggregate> overviewAggregates = Lists.newArrayList();
+        long revisedTo = query.to();
+        for (Interval interval : intervals) {
+            Aggregate aggregate =
+                    getAggregate(interval, query.transactionType(), query.transactionName());
+            if (aggregate != null) {
+                ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
+                        .captureTime(interval.getLiveCaptureTime())
+                        .totalDurationNanos(aggregate.getTotalDurationNanos())
+                        .transactionCount(aggregate.getTransactionCount())
+                        .asyncTransactions(aggregate.getAsyncTransactions())
+                        .mainThreadRootTimers(aggregate.getMainThreadRootTimerList())
+                        .auxThreadRootTimers(aggregate.getAuxThreadRootTimerList())
+                        .asyncTimers(aggregate.getAsyncTimerList());
+                if (aggregate.hasMainThreadStats()) {
+                    builder.mainThreadStats(aggregate.getMainThreadStats());
+                }
+                if (aggregate.hasAuxThreadStats()) {
+                    builder.auxThreadStats(aggregate.getAuxThreadStats());
+                }
+                overviewAggregates.add(builder.build());
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return new LiveResult<>(overviewAggregates, revisedTo);
+    }
+
+    @Override
+    public @Nullable LiveResult<PercentileAggregate> getPercentileAggregates(String agentId,
+            TransactionQuery query) {
+        List<Interval> intervals = getIntervals(agentId, query.from(), query.to());
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        List<PercentileAggregate> percentileAggregates = Lists.newArrayList();
+        long revisedTo = query.to();
+        for (Interval interval : intervals) {
+            Aggregate aggregate =
+                    getAggregate(interval, query.transactionType(), query.transactionName());
+            if (aggregate != null) {
+                percentileAggregates.add(ImmutablePercentileAggregate.builder()
+                        .captureTime(interval.getLiveCaptureTime())
+                        .totalDurationNanos(aggregate.getTotalDurationNanos())
+                        .transactionCount(aggregate.getTransactionCount())
+                        .durationNanosHistogram(aggregate.getDurationNanosHistogram())
+                        .build());
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return new LiveResult<>(percentileAggregates, revisedTo);
+    }
+
+    @Override
+    public @Nullable LiveResult<ThroughputAggregate> getThroughputAggregates(String agentId,
+            TransactionQuery query) {
+        List<Interval> intervals = getIntervals(agentId, query.from(), query.to());
+        if (intervals.isEmpty()) {
+            return null;
+        }
+        List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
+        long revisedTo = query.to();
+        for (Interval interval : intervals) {
+            Aggregate aggregate =
+                    getAggregate(interval, query.transactionType(), query.transactionName());
+            if (aggregate != null) {
+                throughputAggregates.add(ImmutableThroughputAggregate.builder()
+                        .captureTime(interval.getLiveCaptureTime())
+                        .transactionCount(aggregate.getTransactionCount())
+                        .errorCount(aggregate.getErrorCount())
+                        .build());
+            }
+            revisedTo = Math.min(revisedTo, interval.getCaptureTime() - 1);
+        }
+        return new LiveResult<>(throughputAggregates, revisedTo);
+    }
+
+    @Override
+    public @Nullable String getFullQueryText(String agentRollupId, String fullQueryTextSha1) {
+        return null;
+    }
+
+    @Override
+    public long mergeInQueries(String agentId, TransactionQuery query, QueryCollector collector) {
+        return query.to();
+    }
+
+    @Override
+    public long mergeInServiceCalls(String agentId, TransactionQuery query,
+            ServiceCallCollector collector) {
+        return query.to();
+    }
+
+    @Override
+    public long mergeInMainThreadProfiles(String agentId, TransactionQuery query,
+            ProfileCollector collector) {
+        return query.to();
+    }
+
+    @Override
+    public long mergeInAuxThreadProfiles(String agentId, TransactionQuery query,
+            ProfileCollector collector) {
+        return query.to();
+    }
+
+    @Override
+    public void clearInMemoryAggregate() {}
+
+    private List<Interval> getIntervals(String agentId, long from, long to) {
+        if (to <= getLastFlushedCaptureTime()) {
+            return ImmutableList.of();
+        }
+        LiveAggregatesResponse response = getLiveAggregates(agentId);
+        List<Interval> intervals = Lists.newArrayList();
+        for (Interval interval : response.getIntervalList()) {
+            long captureTime = interval.getCaptureTime();
+            if (captureTime > from && captureTime <= to) {
+                intervals.add(interval);
+            }
+        }
+        return intervals;
+    }
+
+    // capture times up to this are already flushed to central (the agent flushes each interval
+    // within AggregateFlushOffsets.MAX_WINDOW_MILLIS after it ends, and an extra interval is
+    // allowed for retries), so the range up to this cannot include any live interval
+    private long getLastFlushedCaptureTime() {
+        long intervalMillis = configRepository.getRollupConfigs().get(0).intervalMillis();
+        return clock.currentTimeMillis() - 2 * intervalMillis
+                - AggregateFlushOffsets.MAX_WINDOW_MILLIS;
+    }
+
+    private LiveAggregatesResponse getLiveAggregates(String agentId) {
+        CompletableFuture<LiveAggregatesResponse> future;
+        try {
+            future = liveAggregatesCache.get(agentId,
+                    () -> CompletableFuture.supplyAsync(() -> readLiveAggregates(agentId),
+                            liveAggregatesExecutor));
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.debug(e.getMessage(), e);
+            return LiveAggregatesResponse.getDefaultInstance();
+        }
+        try {
+            return future.get(MAX_WAIT_MILLIS, MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the response will still be cached when it arrives, for subsequent requests
+            logger.debug(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn(e.getMessage(), e);
+        }
+        return LiveAggregatesResponse.getDefaultInstance();
+    }
+
+    private LiveAggregatesResponse readLiveAggregates(String agentId) {
+        try {
+            if (!agentRollupDao.isAgent(agentId)) {
+                return LiveAggregatesResponse.getDefaultInstance();
+            }
+            return downstreamService.getLiveAggregates(agentId);
+        } catch (AgentNotConnectedException | AgentUnsupportedOperationException e) {
+            // agent is not connected, or is older than this feature
+            logger.debug(e.getMessage(), e);
+        } catch (TimeoutException e) {
+            logger.debug(e.getMessage(), e);
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        return LiveAggregatesResponse.getDefaultInstance();
+    }
+
+    private static @Nullable Aggregate getAggregate(Interval interval, String transactionType,
+            @Nullable String transactionName) {
+        String name = transactionName == null ? "" : transactionName;
+        for (LiveAggregate liveAggregate : interval.getAggregateList()) {
+            if (liveAggregate.getTransactionType().equals(transactionType)
+                    && liveAggregate.getTransactionName().equals(name)) {
+                return liveAggregate.getAggregate();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTransactionAggregate(LiveAggregate liveAggregate,
+            String transactionType) {
+        return liveAggregate.getTransactionType().equals(transactionType)
+                && !liveAggregate.getTransactionName().isEmpty();
+    }
+}
@@ -65,6 +65,16 @@ class LiveJvmServiceImpl implements LiveJvmService {
         return downstreamService.heapHistogram(agentId);
     }
 
+    @Override
+    public void heapHistogramDiffBaseline(String agentId, String diffId) throws Exception {
+        downstreamService.heapHistogramDiffBaseline(agentId, diffId);
+    }
+
+    @Override
+    public HeapHistogram heapHistogramDiff(String agentId, String diffId) throws Exception {
+        return downstreamService.heapHistogramDiff(agentId, diffId);
+    }
+
     @Override
     public void gc(String agentId) throws Exception {
         downstreamService.gc(agentId);
@@ -15,10 +15,13 @@
  */
 package org.glowroot.central;
 
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
@@ -39,6 +42,9 @@ class RollupService implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(RollupService.class);
 
+    private static final String GAUGE_VALUE_ROLLUP_STATS_OBJECT_NAME =
+            "org.glowroot.central:type=GaugeValueRollupStats";
+
     private final AgentRollupDao agentRollupDao;
     private final AggregateDao aggregateDao;
     private final GaugeValueDao gaugeValueDao;
@@ -59,6 +65,13 @@ class RollupService implements Runnable {
         this.syntheticResultDao = syntheticResultDao;
         this.centralAlertingService = centralAlertingService;
         this.clock = clock;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    gaugeValueDao.getRollupStats(),
+                    new ObjectName(GAUGE_VALUE_ROLLUP_STATS_OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn(e.getMessage(), e);
+        }
         executor = Executors.newSingleThreadExecutor();
         executor.execute(castInitialized(this));
     }
@@ -86,6 +99,12 @@ class RollupService implements Runnable {
         if (!executor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Timed out waiting for rollup thread to terminate");
         }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(new ObjectName(GAUGE_VALUE_ROLLUP_STATS_OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn(e.getMessage(), e);
+        }
     }
 
     @Instrumentation.Transaction(transactionType = "Background",
@@ -65,8 +65,12 @@ public class AgentConfigDao {
 
     private final Cache<String, Optional<AgentConfig>> agentConfigCache;
 
-    AgentConfigDao(Session session, ClusterManager clusterManager) throws Exception {
+    private final LayoutGenerationImpl layoutGeneration;
+
+    AgentConfigDao(Session session, ClusterManager clusterManager,
+            LayoutGenerationImpl layoutGeneration) throws Exception {
         this.session = session;
+        this.layoutGeneration = layoutGeneration;
 
         session.execute("create table if not exists agent_config (agent_rollup_id"
                 + " varchar, config blob, config_update boolean, config_update_token uuid,"
@@ -150,7 +154,8 @@ public class AgentConfigDao {
             boundStatement.setBool(i++, false);
             boundStatement.setToNull(i++);
             session.execute(boundStatement);
-            agentConfigCache.invalidate(agentId);
+            agentConfigCache.invalidateAndWait(agentId);
+            layoutGeneration.invalidate();
         }
         if (agentRollupId != null) {
             List<String> agentRollupIds = AgentRollupDao.getAgentRollupIds(agentRollupId);
@@ -177,7 +182,8 @@ public class AgentConfigDao {
                 boundStatement.setBool(i++, false);
                 boundStatement.setToNull(i++);
                 session.execute(boundStatement);
-                agentConfigCache.invalidate(loopAgentRollupId);
+                agentConfigCache.invalidateAndWait(loopAgentRollupId);
+                layoutGeneration.invalidate();
             }
         }
         return updatedAgentConfig;
@@ -207,7 +213,8 @@ public class AgentConfigDao {
             row = checkNotNull(results.one());
             boolean applied = row.getBool("[applied]");
             if (applied) {
-                agentConfigCache.invalidate(agentRollupId);
+                agentConfigCache.invalidateAndWait(agentRollupId);
+                layoutGeneration.invalidate();
                 return;
             }
             Thread.sleep(200);
@@ -29,6 +29,7 @@ import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
@@ -67,6 +68,7 @@ public class AgentRollupDao implements AgentRollupRepository {
 
     private final PreparedStatement readPS;
     private final PreparedStatement readParentIdPS;
+    private final PreparedStatement readParentIdAndAgentPS;
     private final PreparedStatement insertPS;
     private final PreparedStatement insertLastCaptureTimePS;
 
@@ -80,8 +82,12 @@ public class AgentRollupDao implements AgentRollupRepository {
     private final Cache<String, Optional<String>> agentRollupIdCache;
     private final Cache<String, Optional<AgentRollupConfig>> agentRollupConfigCache;
 
-    AgentRollupDao(Session session, ClusterManager clusterManager) throws Exception {
+    private final LayoutGenerationImpl layoutGeneration;
+
+    AgentRollupDao(Session session, ClusterManager clusterManager,
+            LayoutGenerationImpl layoutGeneration) throws Exception {
         this.session = session;
+        this.layoutGeneration = layoutGeneration;
 
         session.execute("create table if not exists agent_rollup (one int,"
                 + " agent_rollup_id varchar, parent_agent_rollup_id varchar, display varchar,"
@@ -98,6 +104,8 @@ public class AgentRollupDao implements AgentRollupRepository {
                 + " display, agent, last_capture_time from agent_rollup where one = 1");
         readParentIdPS = session.prepare("select parent_agent_rollup_id from agent_rollup where"
                 + " one = 1 and agent_rollup_id = ?");
+        readParentIdAndAgentPS = session.prepare("select parent_agent_rollup_id, agent from"
+                + " agent_rollup where one = 1 and agent_rollup_id = ?");
         insertPS = session.prepare("insert into agent_rollup (one, agent_rollup_id,"
                 + " parent_agent_rollup_id, agent) values (1, ?, ?, ?)");
         // it would be nice to use "update ... if not exists" here, which would eliminate the need
@@ -251,7 +259,8 @@ public class AgentRollupDao implements AgentRollupRepository {
         row = checkNotNull(results.one());
         boolean applied = row.getBool("[applied]");
         if (applied) {
-            agentRollupConfigCache.invalidate(agentRollupConfig.id());
+            agentRollupConfigCache.invalidateAndWait(agentRollupConfig.id());
+            layoutGeneration.invalidate();
         } else {
             throw new OptimisticLockException();
         }
@@ -261,19 +270,31 @@ public class AgentRollupDao implements AgentRollupRepository {
         BoundStatement boundStatement = deletePS.bind();
         boundStatement.setString(0, agentRollupId);
         session.execute(boundStatement);
+        layoutGeneration.invalidate();
     }
 
     private void insert(String agentRollupId, @Nullable String parentAgentRollupId, boolean agent)
             throws Exception {
-        BoundStatement boundStatement = insertPS.bind();
+        // this is called on every collectInit(), so skip the write and the (synchronous) cache
+        // invalidations when the row is already up to date
+        BoundStatement boundStatement = readParentIdAndAgentPS.bind();
+        boundStatement.setString(0, agentRollupId);
+        Row row = session.execute(boundStatement).one();
+        if (row != null && !row.isNull(1)
+                && Objects.equal(row.getString(0), parentAgentRollupId)
+                && row.getBool(1) == agent) {
+            return;
+        }
+        boundStatement = insertPS.bind();
         int i = 0;
         boundStatement.setString(i++, agentRollupId);
         boundStatement.setString(i++, parentAgentRollupId);
         boundStatement.setBool(i++, agent);
         session.execute(boundStatement);
 
-        agentRollupIdCache.invalidate(agentRollupId);
-        agentRollupConfigCache.invalidate(agentRollupId);
+        agentRollupIdCache.invalidateAndWait(agentRollupId);
+        agentRollupConfigCache.invalidateAndWait(agentRollupId);
+        layoutGeneration.invalidate();
     }
 
     private AgentRollup createAgentRollup(AgentRollupRecord agentRollupRecord,
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.protobuf.AbstractMessage;
+
+import org.glowroot.central.util.Messages;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// the parts of an inbound aggregate whose storage layout is the same as their wire layout, encoded
+// once per aggregate so that the same bytes are bound to both the individual aggregate tables and
+// the aggregate bundle table (the cassandra driver treats bound blob values as read-only, so the
+// buffers are shared via duplicate() instead of being copied)
+//
+// this removes the repeated encoding, but not the decode and single re-encode, which would need a
+// storage view of the wire messages, i.e. parallel proto messages that declare these sub-messages
+// as bytes fields with the same field numbers (wire compatible), parsed through a custom grpc
+// marshaller using an aliasing CodedInputStream, so that the bytes fields are slices of the inbound
+// buffer, that is not done since
+// * the aggregate is still needed fully parsed (for the other aggregate tables and for the alerts)
+// * only the duration histogram and the profiles have the same storage layout as wire layout, the
+//   timers are stored length delimited (see Messages.toByteBuffer()) while the wire layout of a
+//   repeated field is tagged, so they would need re-framing anyway
+// * the inbound buffer would have to outlive every execution attempt of the cassandra statements
+//   (including retries and speculative executions)
+//
+// TraceDao does the same for the trace attributes, which are bound to the slow point and error
+// point tables of each agent rollup
+class AggregateBlobs {
+
+    private final @Nullable ByteBuffer mainThreadRootTimers;
+    private final @Nullable ByteBuffer auxThreadRootTimers;
+    private final @Nullable ByteBuffer asyncTimers;
+    private final ByteBuffer durationNanosHistogram;
+    private final @Nullable ByteBuffer mainThreadProfile;
+    private final @Nullable ByteBuffer auxThreadProfile;
+
+    AggregateBlobs(Aggregate aggregate) throws IOException {
+        mainThreadRootTimers = toByteBuffer(aggregate.getMainThreadRootTimerList());
+        auxThreadRootTimers = toByteBuffer(aggregate.getAuxThreadRootTimerList());
+        asyncTimers = toByteBuffer(aggregate.getAsyncTimerList());
+        durationNanosHistogram = toByteBuffer(aggregate.getDurationNanosHistogram());
+        mainThreadProfile = aggregate.hasMainThreadProfile()
+                ? toByteBuffer(aggregate.getMainThreadProfile()) : null;
+        auxThreadProfile = aggregate.hasAuxThreadProfile()
+                ? toByteBuffer(aggregate.getAuxThreadProfile()) : null;
+    }
+
+    // null if there are no main thread root timers
+    @Nullable
+    ByteBuffer mainThreadRootTimers() {
+        return duplicate(mainThreadRootTimers);
+    }
+
+    // null if there are no aux thread root timers
+    @Nullable
+    ByteBuffer auxThreadRootTimers() {
+        return duplicate(auxThreadRootTimers);
+    }
+
+    // null if there are no async timers
+    @Nullable
+    ByteBuffer asyncTimers() {
+        return duplicate(asyncTimers);
+    }
+
+    ByteBuffer durationNanosHistogram() {
+        return durationNanosHistogram.duplicate();
+    }
+
+    // null if there is no main thread profile
+    @Nullable
+    ByteBuffer mainThreadProfile() {
+        return duplicate(mainThreadProfile);
+    }
+
+    // null if there is no aux thread profile
+    @Nullable
+    ByteBuffer auxThreadProfile() {
+        return duplicate(auxThreadProfile);
+    }
+
+    private static @Nullable ByteBuffer toByteBuffer(List<? extends AbstractMessage> messages)
+            throws IOException {
+        return messages.isEmpty() ? null : Messages.toByteBuffer(messages);
+    }
+
+    private static ByteBuffer toByteBuffer(AbstractMessage message) {
+        return ByteBuffer.wrap(message.toByteArray());
+    }
+
+    private static @Nullable ByteBuffer duplicate(@Nullable ByteBuffer byteBuffer) {
+        return byteBuffer == null ? null : byteBuffer.duplicate();
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.AbstractMessage;
+
+import org.glowroot.central.util.Messages;
+import org.glowroot.central.util.MoreFutures;
+import org.glowroot.central.util.Session;
+import org.glowroot.common.live.ImmutableOverviewAggregate;
+import org.glowroot.common.live.ImmutablePercentileAggregate;
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.TransactionQuery;
+import org.glowroot.common.model.ProfileCollector;
+import org.glowroot.common.model.QueryCollector;
+import org.glowroot.common.model.ServiceCallCollector;
+import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// optional consolidated "aggregate bundle" tables, which store all of the parts of a
+// transaction-minute (overview, histogram, throughput, queries, service calls and profiles) in a
+// single wide row, so that each transaction page reads a single partition at rollup level 0 (which
+// is what is used for the default time ranges), and only the columns that the page needs
+//
+// the individual aggregate tables are still written, since they are used for summaries, rollups
+// and for reading data that was captured before the bundle was enabled
+class AggregateBundleDao {
+
+    private static final String LCS = "compaction = { 'class' : 'LeveledCompactionStrategy' }";
+
+    // bundle is only stored at rollup level 0
+    private static final int ROLLUP_LEVEL = 0;
+
+    private final Session session;
+    private final boolean enabled;
+
+    private final PreparedStatement insertOverallPS;
+    private final PreparedStatement insertTransactionPS;
+
+    // prepared statement per part, each only selecting the columns needed for that part, so that
+    // the (potentially large) blobs of the other parts are not transferred or decoded
+    private final Map<Part, PreparedStatement> readOverallPS;
+    private final Map<Part, PreparedStatement> readTransactionPS;
+
+    private final PreparedStatement insertSincePS;
+    private final PreparedStatement readSincePS;
+
+    // agent ids that have been marked in aggregate_bundle_since (by this central node)
+    private final ConcurrentMap<String, Boolean> markedAgentIds = Maps.newConcurrentMap();
+
+    // absence is only cached briefly, since the agent could start sending data at any time
+    private final Cache<String, Optional<Long>> sinceCache =
+            CacheBuilder.newBuilder().expireAfterWrite(1, MINUTES).build();
+
+    AggregateBundleDao(Session session, ConfigRepositoryImpl configRepository, boolean enabled)
+            throws Exception {
+        this.session = session;
+        this.enabled = enabled;
+
+        int expirationHours =
+                configRepository.getCentralStorageConfig().rollupExpirationHours().get(ROLLUP_LEVEL);
+        session.createTableWithTWCS(createTableQuery(false), expirationHours);
+        session.createTableWithTWCS(createTableQuery(true), expirationHours);
+        session.execute(createSinceTableQuery());
+
+        insertOverallPS = session.prepare(insertPS(false));
+        insertTransactionPS = session.prepare(insertPS(true));
+        Map<Part, PreparedStatement> readOverallMap = Maps.newEnumMap(Part.class);
+        Map<Part, PreparedStatement> readTransactionMap = Maps.newEnumMap(Part.class);
+        for (Part part : Part.values()) {
+            readOverallMap.put(part, session.prepare(readPS(part, false)));
+            readTransactionMap.put(part, session.prepare(readPS(part, true)));
+        }
+        readOverallPS = ImmutableMap.copyOf(readOverallMap);
+        readTransactionPS = ImmutableMap.copyOf(readTransactionMap);
+
+        insertSincePS = session.prepare(
+                "insert into aggregate_bundle_since (agent_rollup, since) values (?, ?)");
+        readSincePS =
+                session.prepare("select since from aggregate_bundle_since where agent_rollup = ?");
+
+        if (!enabled) {
+            // bundle is not complete for any agent once it has been disabled, even if it is
+            // re-enabled later on
+            clearSince();
+        }
+    }
+
+    List<Future<?>> store(String agentId, String transactionType, @Nullable String transactionName,
+            long captureTime, Aggregate aggregate, AggregateBlobs blobs,
+            List<Aggregate.SharedQueryText> sharedQueryTexts, int adjustedTTL) throws Exception {
+        if (!enabled) {
+            return ImmutableList.of();
+        }
+        markSince(agentId, captureTime);
+        BoundStatement boundStatement =
+                transactionName == null ? insertOverallPS.bind() : insertTransactionPS.bind();
+        int i = 0;
+        boundStatement.setString(i++, agentId);
+        boundStatement.setString(i++, transactionType);
+        if (transactionName != null) {
+            boundStatement.setString(i++, transactionName);
+        }
+        boundStatement.setTimestamp(i++, new Date(captureTime));
+        boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
+        boundStatement.setLong(i++, aggregate.getTransactionCount());
+        boundStatement.setLong(i++, aggregate.getErrorCount());
+        boundStatement.setBool(i++, aggregate.getAsyncTransactions());
+        setOrNull(boundStatement, i++, blobs.mainThreadRootTimers());
+        setOrNull(boundStatement, i++, blobs.auxThreadRootTimers());
+        setOrNull(boundStatement, i++, blobs.asyncTimers());
+        setOrNull(boundStatement, i++, aggregate.hasMainThreadStats()
+                ? aggregate.getMainThreadStats() : null);
+        setOrNull(boundStatement, i++, aggregate.hasAuxThreadStats()
+                ? aggregate.getAuxThreadStats() : null);
+        boundStatement.setBytes(i++, blobs.durationNanosHistogram());
+        // shared query texts are re-indexed so that the row only contains the shared query texts
+        // that it references
+        List<Aggregate.SharedQueryText> rowSharedQueryTexts = Lists.newArrayList();
+        List<Aggregate.QueriesByType> rowQueriesByType = Lists.newArrayList();
+        Map<Integer, Integer> sharedQueryTextIndexes = Maps.newHashMap();
+        for (Aggregate.QueriesByType queriesByType : aggregate.getQueriesByTypeList()) {
+            Aggregate.QueriesByType.Builder rowQueriesByTypeBuilder =
+                    queriesByType.toBuilder().clearQuery();
+            for (Aggregate.Query query : queriesByType.getQueryList()) {
+                int sharedQueryTextIndex = query.getSharedQueryTextIndex();
+                Integer rowSharedQueryTextIndex = sharedQueryTextIndexes.get(sharedQueryTextIndex);
+                if (rowSharedQueryTextIndex == null) {
+                    rowSharedQueryTextIndex = rowSharedQueryTexts.size();
+                    rowSharedQueryTexts.add(sharedQueryTexts.get(sharedQueryTextIndex));
+                    sharedQueryTextIndexes.put(sharedQueryTextIndex, rowSharedQueryTextIndex);
+                }
+                rowQueriesByTypeBuilder.addQuery(query.toBuilder()
+                        .setSharedQueryTextIndex(rowSharedQueryTextIndex));
+            }
+            rowQueriesByType.add(rowQueriesByTypeBuilder.build());
+        }
+        setDelimitedOrNull(boundStatement, i++, rowSharedQueryTexts);
+        setDelimitedOrNull(boundStatement, i++, rowQueriesByType);
+        setDelimitedOrNull(boundStatement, i++, aggregate.getServiceCallsByTypeList());
+        setOrNull(boundStatement, i++, blobs.mainThreadProfile());
+        setOrNull(boundStatement, i++, blobs.auxThreadProfile());
+        boundStatement.setInt(i++, adjustedTTL);
+        return ImmutableList.of(session.executeAsync(boundStatement));
+    }
+
+    // the bundle can only be used once it has been (continuously) populated for the entire query
+    // range, which is never the case for agent rollups (since the bundle is only stored for agents)
+    boolean canRead(String agentRollupId, TransactionQuery query) throws Exception {
+        if (!enabled || query.rollupLevel() != ROLLUP_LEVEL) {
+            return false;
+        }
+        Optional<Long> since = sinceCache.getIfPresent(agentRollupId);
+        if (since == null) {
+            BoundStatement boundStatement = readSincePS.bind();
+            boundStatement.setString(0, agentRollupId);
+            Row row = session.execute(boundStatement).one();
+            Date sinceDate = row == null ? null : row.getTimestamp(0);
+            since = sinceDate == null ? Optional.empty() : Optional.of(sinceDate.getTime());
+            sinceCache.put(agentRollupId, since);
+        }
+        return since.isPresent() && query.from() >= since.get();
+    }
+
+    // query.from() is INCLUSIVE
+    List<OverviewAggregate> readOverviewAggregates(String agentRollupId, TransactionQuery query)
+            throws Exception {
+        List<OverviewAggregate> overviewAggregates = Lists.newArrayList();
+        for (Row row : executeQuery(agentRollupId, query, Part.OVERVIEW)) {
+            int i = 0;
+            ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
+                    .captureTime(checkNotNull(row.getTimestamp(i++)).getTime())
+                    .totalDurationNanos(row.getDouble(i++))
+                    .transactionCount(row.getLong(i++))
+                    .asyncTransactions(row.getBool(i++))
+                    .addAllMainThreadRootTimers(
+                            Messages.parseDelimitedFrom(row.getBytes(i++), Aggregate.Timer.parser()))
+                    .addAllAuxThreadRootTimers(
+                            Messages.parseDelimitedFrom(row.getBytes(i++), Aggregate.Timer.parser()))
+                    .addAllAsyncTimers(Messages.parseDelimitedFrom(row.getBytes(i++),
+                            Aggregate.Timer.parser()));
+            ByteBuffer mainThreadStatsBytes = row.getBytes(i++);
+            if (mainThreadStatsBytes != null) {
+                builder.mainThreadStats(Aggregate.ThreadStats.parseFrom(mainThreadStatsBytes));
+            }
+            ByteBuffer auxThreadStatsBytes = row.getBytes(i++);
+            if (auxThreadStatsBytes != null) {
+                builder.auxThreadStats(Aggregate.ThreadStats.parseFrom(auxThreadStatsBytes));
+            }
+            overviewAggregates.add(builder.build());
+        }
+        return overviewAggregates;
+    }
+
+    // query.from() is INCLUSIVE
+    List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
+            TransactionQuery query) throws Exception {
+        List<PercentileAggregate> percentileAggregates = Lists.newArrayList();
+        for (Row row : executeQuery(agentRollupId, query, Part.HISTOGRAM)) {
+            int i = 0;
+            percentileAggregates.add(ImmutablePercentileAggregate.builder()
+                    .captureTime(checkNotNull(row.getTimestamp(i++)).getTime())
+                    .totalDurationNanos(row.getDouble(i++))
+                    .transactionCount(row.getLong(i++))
+                    .durationNanosHistogram(
+                            Aggregate.Histogram.parseFrom(checkNotNull(row.getBytes(i++))))
+                    .build());
+        }
+        return percentileAggregates;
+    }
+
+    // query.from() is INCLUSIVE
+    List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
+            TransactionQuery query) throws Exception {
+        List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
+        for (Row row : executeQuery(agentRollupId, query, Part.THROUGHPUT)) {
+            int i = 0;
+            throughputAggregates.add(ImmutableThroughputAggregate.builder()
+                    .captureTime(checkNotNull(row.getTimestamp(i++)).getTime())
+                    .transactionCount(row.getLong(i++))
+                    .errorCount(row.getLong(i++))
+                    .build());
+        }
+        return throughputAggregates;
+    }
+
+    // query.from() is non-inclusive
+    void mergeQueriesInto(String agentRollupId, TransactionQuery query, QueryCollector collector)
+            throws Exception {
+        for (Row row : executeQuery(agentRollupId, query, Part.QUERIES)) {
+            int i = 0;
+            long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
+            List<Aggregate.SharedQueryText> sharedQueryTexts = Messages
+                    .parseDelimitedFrom(row.getBytes(i++), Aggregate.SharedQueryText.parser());
+            List<Aggregate.QueriesByType> queriesByTypeList = Messages
+                    .parseDelimitedFrom(row.getBytes(i++), Aggregate.QueriesByType.parser());
+            for (Aggregate.QueriesByType queriesByType : queriesByTypeList) {
+                for (Aggregate.Query aggQuery : queriesByType.getQueryList()) {
+                    Aggregate.SharedQueryText sharedQueryText =
+                            sharedQueryTexts.get(aggQuery.getSharedQueryTextIndex());
+                    String fullTextSha1 = sharedQueryText.getFullTextSha1();
+                    String truncatedText = fullTextSha1.isEmpty() ? sharedQueryText.getFullText()
+                            : sharedQueryText.getTruncatedText();
+                    collector.mergeQuery(queriesByType.getType(), truncatedText,
+                            Strings.emptyToNull(fullTextSha1), aggQuery.getTotalDurationNanos(),
+                            aggQuery.getExecutionCount(), aggQuery.hasTotalRows(),
+                            aggQuery.getTotalRows().getValue());
+                }
+            }
+            collector.updateLastCaptureTime(captureTime);
+        }
+    }
+
+    // query.from() is non-inclusive
+    void mergeServiceCallsInto(String agentRollupId, TransactionQuery query,
+            ServiceCallCollector collector) throws Exception {
+        for (Row row : executeQuery(agentRollupId, query, Part.SERVICE_CALLS)) {
+            int i = 0;
+            long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
+            List<Aggregate.ServiceCallsByType> serviceCallsByTypeList = Messages
+                    .parseDelimitedFrom(row.getBytes(i++), Aggregate.ServiceCallsByType.parser());
+            for (Aggregate.ServiceCallsByType serviceCallsByType : serviceCallsByTypeList) {
+                for (Aggregate.ServiceCall serviceCall : serviceCallsByType.getServiceCallList()) {
+                    collector.mergeServiceCall(serviceCallsByType.getType(), serviceCall.getText(),
+                            serviceCall.getTotalDurationNanos(), serviceCall.getExecutionCount());
+                }
+            }
+            collector.updateLastCaptureTime(captureTime);
+        }
+    }
+
+    // query.from() is non-inclusive
+    void mergeMainThreadProfilesInto(String agentRollupId, TransactionQuery query,
+            ProfileCollector collector) throws Exception {
+        mergeProfilesInto(agentRollupId, query, Part.MAIN_THREAD_PROFILE, collector);
+    }
+
+    // query.from() is non-inclusive
+    void mergeAuxThreadProfilesInto(String agentRollupId, TransactionQuery query,
+            ProfileCollector collector) throws Exception {
+        mergeProfilesInto(agentRollupId, query, Part.AUX_THREAD_PROFILE, collector);
+    }
+
+    @OnlyUsedByTests
+    void truncateAll() throws Exception {
+        session.execute("truncate " + getTableName(false));
+        session.execute("truncate " + getTableName(true));
+        session.execute("truncate aggregate_bundle_since");
+        markedAgentIds.clear();
+        sinceCache.invalidateAll();
+    }
+
+    // this runs on every start while the bundle is disabled, so it only deletes rows when there
+    // are any (and deletes them individually, since truncate fails when any replica is down and
+    // creates a snapshot each time)
+    private void clearSince() throws Exception {
+        ResultSet results = session.execute("select agent_rollup from aggregate_bundle_since");
+        if (results.isExhausted()) {
+            return;
+        }
+        PreparedStatement deleteSincePS =
+                session.prepare("delete from aggregate_bundle_since where agent_rollup = ?");
+        List<Future<?>> futures = Lists.newArrayList();
+        for (Row row : results) {
+            BoundStatement boundStatement = deleteSincePS.bind();
+            boundStatement.setString(0, checkNotNull(row.getString(0)));
+            futures.add(session.executeAsync(boundStatement));
+        }
+        MoreFutures.waitForAll(futures);
+    }
+
+    private void markSince(String agentId, long captureTime) throws Exception {
+        if (markedAgentIds.containsKey(agentId)) {
+            return;
+        }
+        BoundStatement boundStatement = readSincePS.bind();
+        boundStatement.setString(0, agentId);
+        if (session.execute(boundStatement).one() == null) {
+            // not using "insert ... if not exists" since the worst case of a concurrent insert
+            // from another central node is a slightly later "since", which is still correct
+            boundStatement = insertSincePS.bind();
+            boundStatement.setString(0, agentId);
+            boundStatement.setTimestamp(1, new Date(captureTime));
+            // intentionally not async, since this needs to be in place before the bundle is read
+            session.execute(boundStatement);
+        }
+        markedAgentIds.put(agentId, true);
+    }
+
+    private void mergeProfilesInto(String agentRollupId, TransactionQuery query, Part part,
+            ProfileCollector collector) throws Exception {
+        for (Row row : executeQuery(agentRollupId, query, part)) {
+            ByteBuffer bytes = row.getBytes(1);
+            if (bytes == null) {
+                continue;
+            }
+            collector.mergeProfile(Profile.parseFrom(bytes));
+            collector.updateLastCaptureTime(checkNotNull(row.getTimestamp(0)).getTime());
+        }
+    }
+
+    private ResultSet executeQuery(String agentRollupId, TransactionQuery query, Part part)
+            throws Exception {
+        String transactionName = query.transactionName();
+        BoundStatement boundStatement = transactionName == null
+                ? checkNotNull(readOverallPS.get(part)).bind()
+                : checkNotNull(readTransactionPS.get(part)).bind();
+        int i = 0;
+        boundStatement.setString(i++, agentRollupId);
+        boundStatement.setString(i++, query.transactionType());
+        if (transactionName != null) {
+            boundStatement.setString(i++, transactionName);
+        }
+        boundStatement.setTimestamp(i++, new Date(query.from()));
+        boundStatement.setTimestamp(i++, new Date(query.to()));
+        return session.execute(boundStatement);
+    }
+
+    private static void setDelimitedOrNull(BoundStatement boundStatement, int i,
+            List<? extends AbstractMessage> messages) throws Exception {
+        if (messages.isEmpty()) {
+            boundStatement.setToNull(i);
+        } else {
+            boundStatement.setBytes(i, Messages.toByteBuffer(messages));
+        }
+    }
+
+    private static void setOrNull(BoundStatement boundStatement, int i,
+            @Nullable AbstractMessage message) {
+        if (message == null) {
+            boundStatement.setToNull(i);
+        } else {
+            boundStatement.setBytes(i, toByteBuffer(message));
+        }
+    }
+
+    private static void setOrNull(BoundStatement boundStatement, int i,
+            @Nullable ByteBuffer bytes) {
+        if (bytes == null) {
+            boundStatement.setToNull(i);
+        } else {
+            boundStatement.setBytes(i, bytes);
+        }
+    }
+
+    static String createTableQuery(boolean transaction) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("create table if not exists ");
+        sb.append(getTableName(transaction));
+        sb.append(" (agent_rollup varchar, transaction_type varchar");
+        if (transaction) {
+            sb.append(", transaction_name varchar");
+        }
+        sb.append(", capture_time timestamp");
+        for (Column column : Column.values()) {
+            sb.append(", ");
+            sb.append(column.name);
+            sb.append(" ");
+            sb.append(column.type);
+        }
+        sb.append(", primary key ((agent_rollup, transaction_type");
+        if (transaction) {
+            sb.append(", transaction_name");
+        }
+        sb.append("), capture_time))");
+        return sb.toString();
+    }
+
+    static String createSinceTableQuery() {
+        return "create table if not exists aggregate_bundle_since (agent_rollup varchar,"
+                + " since timestamp, primary key (agent_rollup)) with " + LCS;
+    }
+
+    static String getTableName(boolean transaction) {
+        return transaction ? "aggregate_tn_bundle_rollup_" + ROLLUP_LEVEL
+                : "aggregate_tt_bundle_rollup_" + ROLLUP_LEVEL;
+    }
+
+    private static String insertPS(boolean transaction) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("insert into ");
+        sb.append(getTableName(transaction));
+        sb.append(" (agent_rollup, transaction_type");
+        if (transaction) {
+            sb.append(", transaction_name");
+        }
+        sb.append(", capture_time");
+        for (Column column : Column.values()) {
+            sb.append(", ");
+            sb.append(column.name);
+        }
+        sb.append(") values (?, ?, ?");
+        if (transaction) {
+            sb.append(", ?");
+        }
+        sb.append(Strings.repeat(", ?", Column.values().length));
+        sb.append(") using TTL ?");
+        return sb.toString();
+    }
+
+    private static String readPS(Part part, boolean transaction) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select capture_time");
+        for (Column column : part.columns) {
+            sb.append(", ");
+            sb.append(column.name);
+        }
+        sb.append(" from ");
+        sb.append(getTableName(transaction));
+        sb.append(" where agent_rollup = ? and transaction_type = ?");
+        if (transaction) {
+            sb.append(" and transaction_name = ?");
+        }
+        sb.append(" and capture_time >");
+        if (part.fromInclusive) {
+            sb.append("=");
+        }
+        sb.append(" ? and capture_time <= ?");
+        return sb.toString();
+    }
+
+    private static ByteBuffer toByteBuffer(AbstractMessage message) {
+        return ByteBuffer.wrap(message.toByteArray());
+    }
+
+    // order matters since it is used for the insert statement
+    private enum Column {
+
+        TOTAL_DURATION_NANOS("total_duration_nanos", "double"),
+        TRANSACTION_COUNT("transaction_count", "bigint"),
+        ERROR_COUNT("error_count", "bigint"),
+        ASYNC_TRANSACTIONS("async_transactions", "boolean"),
+        MAIN_THREAD_ROOT_TIMERS("main_thread_root_timers", "blob"),
+        AUX_THREAD_ROOT_TIMERS("aux_thread_root_timers", "blob"),
+        ASYNC_ROOT_TIMERS("async_root_timers", "blob"),
+        MAIN_THREAD_STATS("main_thread_stats", "blob"),
+        AUX_THREAD_STATS("aux_thread_stats", "blob"),
+        DURATION_NANOS_HISTOGRAM("duration_nanos_histogram", "blob"),
+        SHARED_QUERY_TEXTS("shared_query_texts", "blob"),
+        QUERIES("queries", "blob"),
+        SERVICE_CALLS("service_calls", "blob"),
+        MAIN_THREAD_PROFILE("main_thread_profile", "blob"),
+        AUX_THREAD_PROFILE("aux_thread_profile", "blob");
+
+        private final String name;
+        private final String type;
+
+        private Column(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    // the parts that are read independently, matching the individual aggregate tables (including
+    // whether query.from() is inclusive)
+    private enum Part {
+
+        OVERVIEW(true, Column.TOTAL_DURATION_NANOS, Column.TRANSACTION_COUNT,
+                Column.ASYNC_TRANSACTIONS, Column.MAIN_THREAD_ROOT_TIMERS,
+                Column.AUX_THREAD_ROOT_TIMERS, Column.ASYNC_ROOT_TIMERS, Column.MAIN_THREAD_STATS,
+                Column.AUX_THREAD_STATS),
+        HISTOGRAM(true, Column.TOTAL_DURATION_NANOS, Column.TRANSACTION_COUNT,
+                Column.DURATION_NANOS_HISTOGRAM),
+        THROUGHPUT(true, Column.TRANSACTION_COUNT, Column.ERROR_COUNT),
+        QUERIES(false, Column.SHARED_QUERY_TEXTS, Column.QUERIES),
+        SERVICE_CALLS(false, Column.SERVICE_CALLS),
+        MAIN_THREAD_PROFILE(false, Column.MAIN_THREAD_PROFILE),
+        AUX_THREAD_PROFILE(false, Column.AUX_THREAD_PROFILE);
+
+        private final boolean fromInclusive;
+        private final ImmutableList<Column> columns;
+
+        private Part(boolean fromInclusive, Column... columns) {
+            this.fromInclusive = fromInclusive;
+            this.columns = ImmutableList.copyOf(columns);
+        }
+    }
+}
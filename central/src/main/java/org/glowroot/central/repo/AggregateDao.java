@@ -15,7 +15,6 @@
  */
 package org.glowroot.central.repo;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Date;
@@ -35,6 +34,7 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
@@ -80,6 +80,10 @@ import org.glowroot.common.model.TransactionErrorSummaryCollector.ErrorSummarySo
 import org.glowroot.common.model.TransactionSummaryCollector;
 import org.glowroot.common.model.TransactionSummaryCollector.SummarySortOrder;
 import org.glowroot.common.repo.AggregateRepository;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
+import org.glowroot.common.repo.AggregateRollups.OverviewRollup;
+import org.glowroot.common.repo.AggregateRollups.PercentileRollup;
+import org.glowroot.common.repo.AggregateRollups.ThroughputRollup;
 import org.glowroot.common.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common.repo.MutableAggregate;
 import org.glowroot.common.repo.MutableThreadStats;
@@ -208,6 +212,7 @@ public class AggregateDao implements AggregateRepository {
     private final AgentRollupDao agentRollupDao;
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
+    private final AggregateBundleDao aggregateBundleDao;
     private final ConfigRepositoryImpl configRepository;
     private final Clock clock;
 
@@ -238,11 +243,13 @@ public class AggregateDao implements AggregateRepository {
 
     AggregateDao(Session session, AgentRollupDao agentRollupDao,
             TransactionTypeDao transactionTypeDao, FullQueryTextDao fullQueryTextDao,
-            ConfigRepositoryImpl configRepository, Clock clock) throws Exception {
+            AggregateBundleDao aggregateBundleDao, ConfigRepositoryImpl configRepository,
+            Clock clock) throws Exception {
         this.session = session;
         this.agentRollupDao = agentRollupDao;
         this.transactionTypeDao = transactionTypeDao;
         this.fullQueryTextDao = fullQueryTextDao;
+        this.aggregateBundleDao = aggregateBundleDao;
         this.configRepository = configRepository;
         this.clock = clock;
 
@@ -577,8 +584,32 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public List<OverviewAggregate> readOverviewAggregates(String agentRollupId,
             TransactionQuery query) throws Exception {
-        ResultSet results = executeQuery(agentRollupId, query, overviewTable);
         List<OverviewAggregate> overviewAggregates = Lists.newArrayList();
+        readOverviewAggregates(agentRollupId, query, overviewAggregates::add);
+        return overviewAggregates;
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamOverviewAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn, AggregateConsumer<OverviewAggregate> consumer)
+            throws Exception {
+        OverviewRollup rollup = new OverviewRollup(rollupCaptureTimeFn, consumer);
+        readOverviewAggregates(agentRollupId, query, rollup);
+        rollup.finish();
+    }
+
+    private void readOverviewAggregates(String agentRollupId, TransactionQuery query,
+            AggregateConsumer<OverviewAggregate> consumer) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            for (OverviewAggregate aggregate : aggregateBundleDao
+                    .readOverviewAggregates(agentRollupId, query)) {
+                consumer.accept(aggregate);
+            }
+            return;
+        }
+        // the driver fetches the rows a page at a time as they are iterated
+        ResultSet results = executeQuery(agentRollupId, query, overviewTable);
         for (Row row : results) {
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
@@ -619,17 +650,40 @@ public class AggregateDao implements AggregateRepository {
             if (auxThreadStats != null) {
                 builder.auxThreadStats(auxThreadStats);
             }
-            overviewAggregates.add(builder.build());
+            consumer.accept(builder.build());
         }
-        return overviewAggregates;
     }
 
     // query.from() is INCLUSIVE
     @Override
     public List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
             TransactionQuery query) throws Exception {
-        ResultSet results = executeQuery(agentRollupId, query, histogramTable);
         List<PercentileAggregate> percentileAggregates = Lists.newArrayList();
+        readPercentileAggregates(agentRollupId, query, percentileAggregates::add);
+        return percentileAggregates;
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamPercentileAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<PercentileAggregate> consumer) throws Exception {
+        PercentileRollup rollup = new PercentileRollup(rollupCaptureTimeFn, consumer);
+        readPercentileAggregates(agentRollupId, query, rollup);
+        rollup.finish();
+    }
+
+    private void readPercentileAggregates(String agentRollupId, TransactionQuery query,
+            AggregateConsumer<PercentileAggregate> consumer) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            for (PercentileAggregate aggregate : aggregateBundleDao
+                    .readPercentileAggregates(agentRollupId, query)) {
+                consumer.accept(aggregate);
+            }
+            return;
+        }
+        // the driver fetches the rows a page at a time as they are iterated
+        ResultSet results = executeQuery(agentRollupId, query, histogramTable);
         for (Row row : results) {
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
@@ -637,35 +691,57 @@ public class AggregateDao implements AggregateRepository {
             long transactionCount = row.getLong(i++);
             ByteBuffer bytes = checkNotNull(row.getBytes(i++));
             Aggregate.Histogram durationNanosHistogram = Aggregate.Histogram.parseFrom(bytes);
-            percentileAggregates.add(ImmutablePercentileAggregate.builder()
+            consumer.accept(ImmutablePercentileAggregate.builder()
                     .captureTime(captureTime)
                     .totalDurationNanos(totalDurationNanos)
                     .transactionCount(transactionCount)
                     .durationNanosHistogram(durationNanosHistogram)
                     .build());
         }
-        return percentileAggregates;
     }
 
     // query.from() is INCLUSIVE
     @Override
     public List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
             TransactionQuery query) throws Exception {
-        ResultSet results = executeQuery(agentRollupId, query, throughputTable);
         List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
+        readThroughputAggregates(agentRollupId, query, throughputAggregates::add);
+        return throughputAggregates;
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public void streamThroughputAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<ThroughputAggregate> consumer) throws Exception {
+        ThroughputRollup rollup = new ThroughputRollup(rollupCaptureTimeFn, consumer);
+        readThroughputAggregates(agentRollupId, query, rollup);
+        rollup.finish();
+    }
+
+    private void readThroughputAggregates(String agentRollupId, TransactionQuery query,
+            AggregateConsumer<ThroughputAggregate> consumer) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            for (ThroughputAggregate aggregate : aggregateBundleDao
+                    .readThroughputAggregates(agentRollupId, query)) {
+                consumer.accept(aggregate);
+            }
+            return;
+        }
+        // the driver fetches the rows a page at a time as they are iterated
+        ResultSet results = executeQuery(agentRollupId, query, throughputTable);
         for (Row row : results) {
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
             long transactionCount = row.getLong(i++);
             boolean hasErrorCount = !row.isNull(i);
             long errorCount = row.getLong(i++);
-            throughputAggregates.add(ImmutableThroughputAggregate.builder()
+            consumer.accept(ImmutableThroughputAggregate.builder()
                     .captureTime(captureTime)
                     .transactionCount(transactionCount)
                     .errorCount(hasErrorCount ? errorCount : null)
                     .build());
         }
-        return throughputAggregates;
     }
 
     @Override
@@ -678,6 +754,10 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public void mergeQueriesInto(String agentRollupId, TransactionQuery query,
             QueryCollector collector) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            aggregateBundleDao.mergeQueriesInto(agentRollupId, query, collector);
+            return;
+        }
         ResultSet results = executeQuery(agentRollupId, query, queryTable);
         long captureTime = Long.MIN_VALUE;
         for (Row row : results) {
@@ -701,6 +781,10 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public void mergeServiceCallsInto(String agentRollupId, TransactionQuery query,
             ServiceCallCollector collector) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            aggregateBundleDao.mergeServiceCallsInto(agentRollupId, query, collector);
+            return;
+        }
         ResultSet results = executeQuery(agentRollupId, query, serviceCallTable);
         long captureTime = Long.MIN_VALUE;
         for (Row row : results) {
@@ -720,6 +804,10 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public void mergeMainThreadProfilesInto(String agentRollupId, TransactionQuery query,
             ProfileCollector collector) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            aggregateBundleDao.mergeMainThreadProfilesInto(agentRollupId, query, collector);
+            return;
+        }
         mergeProfilesInto(agentRollupId, query, mainThreadProfileTable, collector);
     }
 
@@ -727,6 +815,10 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public void mergeAuxThreadProfilesInto(String agentRollupId, TransactionQuery query,
             ProfileCollector collector) throws Exception {
+        if (aggregateBundleDao.canRead(agentRollupId, query)) {
+            aggregateBundleDao.mergeAuxThreadProfilesInto(agentRollupId, query, collector);
+            return;
+        }
         mergeProfilesInto(agentRollupId, query, auxThreadProfileTable, collector);
     }
 
@@ -794,6 +886,7 @@ public class AggregateDao implements AggregateRepository {
             session.execute("truncate aggregate_needs_rollup_" + i);
         }
         session.execute("truncate aggregate_needs_rollup_from_child");
+        aggregateBundleDao.truncateAll();
     }
 
     @Instrumentation.Transaction(transactionType = "Background",
@@ -1554,6 +1647,7 @@ public class AggregateDao implements AggregateRepository {
 
         final int rollupLevel = 0;
 
+        AggregateBlobs blobs = new AggregateBlobs(aggregate);
         List<Future<?>> futures = Lists.newArrayList();
         BoundStatement boundStatement = getInsertOverallPS(summaryTable, rollupLevel).bind();
         int i = 0;
@@ -1582,7 +1676,7 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setString(i++, agentRollupId);
         boundStatement.setString(i++, transactionType);
         boundStatement.setTimestamp(i++, new Date(captureTime));
-        bindAggregate(boundStatement, aggregate, i++, adjustedTTL);
+        bindAggregate(boundStatement, aggregate, blobs, i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
         boundStatement = getInsertOverallPS(histogramTable, rollupLevel).bind();
@@ -1592,7 +1686,7 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setTimestamp(i++, new Date(captureTime));
         boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
         boundStatement.setLong(i++, aggregate.getTransactionCount());
-        boundStatement.setBytes(i++, toByteBuffer(aggregate.getDurationNanosHistogram()));
+        boundStatement.setBytes(i++, blobs.durationNanosHistogram());
         boundStatement.setInt(i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
@@ -1606,25 +1700,25 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setInt(i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
-        if (aggregate.hasMainThreadProfile()) {
-            Profile profile = aggregate.getMainThreadProfile();
+        ByteBuffer mainThreadProfile = blobs.mainThreadProfile();
+        if (mainThreadProfile != null) {
             boundStatement = getInsertOverallPS(mainThreadProfileTable, rollupLevel).bind();
             i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, transactionType);
             boundStatement.setTimestamp(i++, new Date(captureTime));
-            boundStatement.setBytes(i++, toByteBuffer(profile));
+            boundStatement.setBytes(i++, mainThreadProfile);
             boundStatement.setInt(i++, adjustedTTL);
             futures.add(session.executeAsync(boundStatement));
         }
-        if (aggregate.hasAuxThreadProfile()) {
-            Profile profile = aggregate.getAuxThreadProfile();
+        ByteBuffer auxThreadProfile = blobs.auxThreadProfile();
+        if (auxThreadProfile != null) {
             boundStatement = getInsertOverallPS(auxThreadProfileTable, rollupLevel).bind();
             i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, transactionType);
             boundStatement.setTimestamp(i++, new Date(captureTime));
-            boundStatement.setBytes(i++, toByteBuffer(profile));
+            boundStatement.setBytes(i++, auxThreadProfile);
             boundStatement.setInt(i++, adjustedTTL);
             futures.add(session.executeAsync(boundStatement));
         }
@@ -1632,6 +1726,8 @@ public class AggregateDao implements AggregateRepository {
                 rollupLevel, agentRollupId, transactionType, null, captureTime, adjustedTTL));
         futures.addAll(insertServiceCalls(aggregate.getServiceCallsByTypeList(), rollupLevel,
                 agentRollupId, transactionType, null, captureTime, adjustedTTL));
+        futures.addAll(aggregateBundleDao.store(agentRollupId, transactionType, null, captureTime,
+                aggregate, blobs, sharedQueryTexts, adjustedTTL));
         return futures;
     }
 
@@ -1641,6 +1737,7 @@ public class AggregateDao implements AggregateRepository {
 
         final int rollupLevel = 0;
 
+        AggregateBlobs blobs = new AggregateBlobs(aggregate);
         List<Future<?>> futures = Lists.newArrayList();
         BoundStatement boundStatement = getInsertTransactionPS(overviewTable, rollupLevel).bind();
         int i = 0;
@@ -1648,7 +1745,7 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setString(i++, transactionType);
         boundStatement.setString(i++, transactionName);
         boundStatement.setTimestamp(i++, new Date(captureTime));
-        bindAggregate(boundStatement, aggregate, i++, adjustedTTL);
+        bindAggregate(boundStatement, aggregate, blobs, i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
         boundStatement = getInsertTransactionPS(histogramTable, rollupLevel).bind();
@@ -1659,7 +1756,7 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setTimestamp(i++, new Date(captureTime));
         boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
         boundStatement.setLong(i++, aggregate.getTransactionCount());
-        boundStatement.setBytes(i++, toByteBuffer(aggregate.getDurationNanosHistogram()));
+        boundStatement.setBytes(i++, blobs.durationNanosHistogram());
         boundStatement.setInt(i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
@@ -1674,27 +1771,27 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setInt(i++, adjustedTTL);
         futures.add(session.executeAsync(boundStatement));
 
-        if (aggregate.hasMainThreadProfile()) {
-            Profile profile = aggregate.getMainThreadProfile();
+        ByteBuffer mainThreadProfile = blobs.mainThreadProfile();
+        if (mainThreadProfile != null) {
             boundStatement = getInsertTransactionPS(mainThreadProfileTable, rollupLevel).bind();
             i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, transactionType);
             boundStatement.setString(i++, transactionName);
             boundStatement.setTimestamp(i++, new Date(captureTime));
-            boundStatement.setBytes(i++, toByteBuffer(profile));
+            boundStatement.setBytes(i++, mainThreadProfile);
             boundStatement.setInt(i++, adjustedTTL);
             futures.add(session.executeAsync(boundStatement));
         }
-        if (aggregate.hasAuxThreadProfile()) {
-            Profile profile = aggregate.getAuxThreadProfile();
+        ByteBuffer auxThreadProfile = blobs.auxThreadProfile();
+        if (auxThreadProfile != null) {
             boundStatement = getInsertTransactionPS(auxThreadProfileTable, rollupLevel).bind();
             i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, transactionType);
             boundStatement.setString(i++, transactionName);
             boundStatement.setTimestamp(i++, new Date(captureTime));
-            boundStatement.setBytes(i++, toByteBuffer(profile));
+            boundStatement.setBytes(i++, auxThreadProfile);
             boundStatement.setInt(i++, adjustedTTL);
             futures.add(session.executeAsync(boundStatement));
         }
@@ -1703,6 +1800,8 @@ public class AggregateDao implements AggregateRepository {
                         agentRollupId, transactionType, transactionName, captureTime, adjustedTTL));
         futures.addAll(insertServiceCalls(aggregate.getServiceCallsByTypeList(), rollupLevel,
                 agentRollupId, transactionType, transactionName, captureTime, adjustedTTL));
+        futures.addAll(aggregateBundleDao.store(agentRollupId, transactionType, transactionName,
+                captureTime, aggregate, blobs, sharedQueryTexts, adjustedTTL));
         return futures;
     }
 
@@ -1865,27 +1964,27 @@ public class AggregateDao implements AggregateRepository {
         return checkNotNull(insertTransactionPS.get(table)).get(rollupLevel);
     }
 
-    private void bindAggregate(BoundStatement boundStatement, Aggregate aggregate, int startIndex,
-            int adjustedTTL) throws IOException {
+    private void bindAggregate(BoundStatement boundStatement, Aggregate aggregate,
+            AggregateBlobs blobs, int startIndex, int adjustedTTL) {
         int i = startIndex;
         boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
         boundStatement.setLong(i++, aggregate.getTransactionCount());
         boundStatement.setBool(i++, aggregate.getAsyncTransactions());
-        List<Aggregate.Timer> mainThreadRootTimers = aggregate.getMainThreadRootTimerList();
-        if (!mainThreadRootTimers.isEmpty()) {
-            boundStatement.setBytes(i++, Messages.toByteBuffer(mainThreadRootTimers));
+        ByteBuffer mainThreadRootTimers = blobs.mainThreadRootTimers();
+        if (mainThreadRootTimers != null) {
+            boundStatement.setBytes(i++, mainThreadRootTimers);
         } else {
             boundStatement.setToNull(i++);
         }
-        List<Aggregate.Timer> auxThreadRootTimers = aggregate.getAuxThreadRootTimerList();
-        if (!auxThreadRootTimers.isEmpty()) {
-            boundStatement.setBytes(i++, Messages.toByteBuffer(auxThreadRootTimers));
+        ByteBuffer auxThreadRootTimers = blobs.auxThreadRootTimers();
+        if (auxThreadRootTimers != null) {
+            boundStatement.setBytes(i++, auxThreadRootTimers);
         } else {
             boundStatement.setToNull(i++);
         }
-        List<Aggregate.Timer> asyncTimers = aggregate.getAsyncTimerList();
-        if (!asyncTimers.isEmpty()) {
-            boundStatement.setBytes(i++, Messages.toByteBuffer(asyncTimers));
+        ByteBuffer asyncTimers = blobs.asyncTimers();
+        if (asyncTimers != null) {
+            boundStatement.setBytes(i++, asyncTimers);
         } else {
             boundStatement.setToNull(i++);
         }
@@ -57,10 +57,14 @@ class CentralConfigDao {
 
     private final Cache<String, Optional<Object>> centralConfigCache;
 
+    private final LayoutGenerationImpl layoutGeneration;
+
     private final Map<String, Class<?>> keyTypes = Maps.newConcurrentMap();
 
-    CentralConfigDao(Session session, ClusterManager clusterManager) throws Exception {
+    CentralConfigDao(Session session, ClusterManager clusterManager,
+            LayoutGenerationImpl layoutGeneration) throws Exception {
         this.session = session;
+        this.layoutGeneration = layoutGeneration;
 
         session.execute("create table if not exists central_config (key varchar,"
                 + " value varchar, primary key (key)) " + WITH_LCS);
@@ -103,7 +107,8 @@ class CentralConfigDao {
         row = checkNotNull(results.one());
         boolean applied = row.getBool("[applied]");
         if (applied) {
-            centralConfigCache.invalidate(key);
+            centralConfigCache.invalidateAndWait(key);
+            layoutGeneration.invalidate();
         } else {
             throw new OptimisticLockException();
         }
@@ -124,7 +129,8 @@ class CentralConfigDao {
         Row row = checkNotNull(results.one());
         boolean applied = row.getBool("[applied]");
         if (applied) {
-            centralConfigCache.invalidate(key);
+            centralConfigCache.invalidateAndWait(key);
+            layoutGeneration.invalidate();
         } else {
             throw new OptimisticLockException();
         }
@@ -45,25 +45,32 @@ public class CentralRepoModule {
     private final EnvironmentDao environmentDao;
     private final HeartbeatDao heartbeatDao;
     private final IncidentDao incidentDao;
+    private final LayoutGenerationImpl layoutGeneration;
 
     public CentralRepoModule(ClusterManager clusterManager, Session session,
-            KeyspaceMetadata keyspaceMetadata, String cassandraSymmetricEncryptionKey, Clock clock)
-            throws Exception {
-        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
-        agentRollupDao = new AgentRollupDao(session, clusterManager);
-        agentConfigDao = new AgentConfigDao(session, clusterManager);
-        userDao = new UserDao(session, keyspaceMetadata, clusterManager);
-        roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
+            KeyspaceMetadata keyspaceMetadata, String cassandraSymmetricEncryptionKey,
+            boolean cassandraAggregateBundle, Clock clock) throws Exception {
+        layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        CentralConfigDao centralConfigDao =
+                new CentralConfigDao(session, clusterManager, layoutGeneration);
+        agentRollupDao = new AgentRollupDao(session, clusterManager, layoutGeneration);
+        agentConfigDao = new AgentConfigDao(session, clusterManager, layoutGeneration);
+        userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
         configRepository = new ConfigRepositoryImpl(agentRollupDao, agentConfigDao,
                 centralConfigDao, userDao, roleDao, cassandraSymmetricEncryptionKey);
-        transactionTypeDao = new TransactionTypeDao(session, configRepository, clusterManager);
-        FullQueryTextDao fullQueryTextDao = new FullQueryTextDao(session, configRepository);
+        transactionTypeDao = new TransactionTypeDao(session, configRepository, clusterManager,
+                layoutGeneration);
+        FullQueryTextDao fullQueryTextDao =
+                new FullQueryTextDao(session, configRepository, clusterManager);
+        AggregateBundleDao aggregateBundleDao =
+                new AggregateBundleDao(session, configRepository, cassandraAggregateBundle);
         aggregateDao = new AggregateDao(session, agentRollupDao, transactionTypeDao,
-                fullQueryTextDao, configRepository, clock);
-        traceAttributeNameDao =
-                new TraceAttributeNameDao(session, configRepository, clusterManager);
+                fullQueryTextDao, aggregateBundleDao, configRepository, clock);
+        traceAttributeNameDao = new TraceAttributeNameDao(session, configRepository,
+                clusterManager, layoutGeneration);
         traceDao = new TraceDao(session, agentRollupDao, transactionTypeDao, fullQueryTextDao,
-                traceAttributeNameDao, configRepository, clock);
+                traceAttributeNameDao, configRepository, clusterManager, clock);
         gaugeValueDao =
                 new GaugeValueDao(session, agentRollupDao, configRepository, clusterManager, clock);
         syntheticResultDao = new SyntheticResultDao(session, configRepository, clock);
@@ -137,4 +144,8 @@ public class CentralRepoModule {
     public IncidentDao getIncidentDao() {
         return incidentDao;
     }
+
+    public LayoutGenerationImpl getLayoutGeneration() {
+        return layoutGeneration;
+    }
 }
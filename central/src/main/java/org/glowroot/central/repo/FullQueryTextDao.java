@@ -15,7 +15,9 @@
  */
 package org.glowroot.central.repo;
 
+import java.io.Serializable;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
@@ -25,6 +27,7 @@ import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.FutureCallback;
@@ -35,6 +38,9 @@ import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.Cache.CacheLoader;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.RateLimiter;
 import org.glowroot.central.util.Session;
@@ -50,6 +56,12 @@ class FullQueryTextDao {
 
     private static final Logger logger = LoggerFactory.getLogger(FullQueryTextDao.class);
 
+    // full query texts above this are not retained in the cache, which (in cluster mode) is only
+    // bounded by number of entries
+    private static final int MAX_CACHED_FULL_TEXT_LENGTH = 10000;
+
+    private static final long MAX_CACHED_TOTAL_FULL_TEXT_LENGTH = 4 * 1024 * 1024;
+
     private final Session session;
     private final ConfigRepositoryImpl configRepository;
 
@@ -62,7 +74,15 @@ class FullQueryTextDao {
 
     private final RateLimiter<FullQueryTextKey> rateLimiter = new RateLimiter<>(10000);
 
-    FullQueryTextDao(Session session, ConfigRepositoryImpl configRepository) throws Exception {
+    // keyed by sha1, this tracks the full query texts whose TTL has been refreshed recently (on
+    // behalf of any agent rollup), so that other agent rollups sharing the same full query text
+    // only need to store their check record
+    private final RateLimiter<String> fullTextTtlRateLimiter = new RateLimiter<>(10000);
+
+    private final Cache<FullQueryTextKey, Optional<String>> fullTextCache;
+
+    FullQueryTextDao(Session session, ConfigRepositoryImpl configRepository,
+            ClusterManager clusterManager) throws Exception {
         this.session = session;
         this.configRepository = configRepository;
 
@@ -85,25 +105,18 @@ class FullQueryTextDao {
                 "select full_query_text from full_query_text where full_query_text_sha1 = ?");
         readTtlPS = session.prepare(
                 "select TTL(full_query_text) from full_query_text where full_query_text_sha1 = ?");
+
+        // full query texts can be large, so the cache is bounded by total text length (and by
+        // number of entries in cluster mode, see MAX_CACHED_FULL_TEXT_LENGTH)
+        fullTextCache = clusterManager.createWeightLimitedCache("fullQueryTextCache", 1000,
+                MAX_CACHED_TOTAL_FULL_TEXT_LENGTH, new FullTextWeigher(),
+                new FullTextCacheLoader());
     }
 
     @Nullable
     String getFullText(String agentRollupId, String fullTextSha1) throws Exception {
-        BoundStatement boundStatement = readCheckPS.bind();
-        boundStatement.setString(0, agentRollupId);
-        boundStatement.setString(1, fullTextSha1);
-        ResultSet results = session.execute(boundStatement);
-        if (results.isExhausted()) {
-            return null;
-        }
-        boundStatement = readPS.bind();
-        boundStatement.setString(0, fullTextSha1);
-        results = session.execute(boundStatement);
-        Row row = results.one();
-        if (row == null) {
-            return null;
-        }
-        return row.getString(0);
+        FullQueryTextKey key = ImmutableFullQueryTextKey.of(agentRollupId, fullTextSha1);
+        return fullTextCache.get(key).orElse(null);
     }
 
     List<Future<?>> store(String agentRollupId, String fullTextSha1, String fullText)
@@ -112,6 +125,9 @@ class FullQueryTextDao {
         if (!rateLimiter.tryAcquire(rateLimiterKey)) {
             return ImmutableList.of();
         }
+        if (!fullTextTtlRateLimiter.tryAcquire(fullTextSha1)) {
+            return ImmutableList.of(storeCheckOnly(rateLimiterKey));
+        }
         return ImmutableList.of(storeInternal(rateLimiterKey, fullText));
     }
 
@@ -120,6 +136,9 @@ class FullQueryTextDao {
         if (!rateLimiter.tryAcquire(rateLimiterKey)) {
             return ImmutableList.of();
         }
+        if (!fullTextTtlRateLimiter.tryAcquire(fullTextSha1)) {
+            return ImmutableList.of(storeCheckOnly(rateLimiterKey));
+        }
         ListenableFuture<ResultSet> future;
         try {
             BoundStatement boundStatement = readPS.bind();
@@ -127,6 +146,7 @@ class FullQueryTextDao {
             future = session.executeAsync(boundStatement);
         } catch (Exception e) {
             rateLimiter.invalidate(rateLimiterKey);
+            fullTextTtlRateLimiter.invalidate(fullTextSha1);
             throw e;
         }
         CompletableFuture</*@Nullable*/ Void> chainedFuture = new CompletableFuture<>();
@@ -162,8 +182,10 @@ class FullQueryTextDao {
                 chainedFuture.completeExceptionally(t);
             }
         }, MoreExecutors.directExecutor());
-        CompletableFuture<?> chainedFuture2 = MoreFutures.onFailure(chainedFuture,
-                () -> rateLimiter.invalidate(rateLimiterKey));
+        CompletableFuture<?> chainedFuture2 = MoreFutures.onFailure(chainedFuture, () -> {
+            rateLimiter.invalidate(rateLimiterKey);
+            fullTextTtlRateLimiter.invalidate(fullTextSha1);
+        });
         return ImmutableList.of(chainedFuture2);
     }
 
@@ -172,17 +194,39 @@ class FullQueryTextDao {
         if (!rateLimiter.tryAcquire(rateLimiterKey)) {
             return ImmutableList.of();
         }
+        return ImmutableList.of(storeCheckOnly(rateLimiterKey));
+    }
+
+    private CompletableFuture<?> storeCheckOnly(FullQueryTextKey rateLimiterKey)
+            throws Exception {
         try {
             ListenableFuture<?> future = storeCheckInternal(rateLimiterKey);
-            CompletableFuture<?> chainedFuture =
-                    MoreFutures.onFailure(future, () -> rateLimiter.invalidate(rateLimiterKey));
-            return ImmutableList.of(chainedFuture);
+            return MoreFutures.onFailure(future, () -> rateLimiter.invalidate(rateLimiterKey));
         } catch (Exception e) {
             rateLimiter.invalidate(rateLimiterKey);
             throw e;
         }
     }
 
+    private @Nullable String readFullText(String agentRollupId, String fullTextSha1)
+            throws Exception {
+        BoundStatement boundStatement = readCheckPS.bind();
+        boundStatement.setString(0, agentRollupId);
+        boundStatement.setString(1, fullTextSha1);
+        ResultSet results = session.execute(boundStatement);
+        if (results.isExhausted()) {
+            return null;
+        }
+        boundStatement = readPS.bind();
+        boundStatement.setString(0, fullTextSha1);
+        results = session.execute(boundStatement);
+        Row row = results.one();
+        if (row == null) {
+            return null;
+        }
+        return row.getString(0);
+    }
+
     private CompletableFuture<?> storeInternal(FullQueryTextKey rateLimiterKey, String fullText)
             throws Exception {
         ListenableFuture<?> future = storeCheckInternal(rateLimiterKey);
@@ -243,7 +287,9 @@ class FullQueryTextDao {
                 }
             }
         }, MoreExecutors.directExecutor());
-        return CompletableFuture.allOf(MoreFutures.toCompletableFuture(future), chainedFuture);
+        CompletableFuture<?> chainedFuture2 = MoreFutures.onFailure(chainedFuture,
+                () -> fullTextTtlRateLimiter.invalidate(rateLimiterKey.fullTextSha1()));
+        return CompletableFuture.allOf(MoreFutures.toCompletableFuture(future), chainedFuture2);
     }
 
     private ListenableFuture<?> storeCheckInternal(FullQueryTextKey rateLimiterKey)
@@ -268,9 +314,29 @@ class FullQueryTextDao {
         return Ints.saturatedCast(ttl);
     }
 
+    private class FullTextCacheLoader implements CacheLoader<FullQueryTextKey, Optional<String>> {
+        @Override
+        public Optional<String> load(FullQueryTextKey key) throws Exception {
+            return Optional.ofNullable(readFullText(key.agentRollupId(), key.fullTextSha1()));
+        }
+        @Override
+        public boolean shouldCache(FullQueryTextKey key, Optional<String> fullText) {
+            // not caching absence since the full query text (or its check record) may be stored
+            // after this
+            return fullText.isPresent() && fullText.get().length() <= MAX_CACHED_FULL_TEXT_LENGTH;
+        }
+    }
+
+    private static class FullTextWeigher implements Weigher<FullQueryTextKey, Optional<String>> {
+        @Override
+        public int weigh(FullQueryTextKey key, Optional<String> value) {
+            return value.isPresent() ? value.get().length() : 0;
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
-    interface FullQueryTextKey {
+    interface FullQueryTextKey extends Serializable {
         String agentRollupId();
         String fullTextSha1();
     }
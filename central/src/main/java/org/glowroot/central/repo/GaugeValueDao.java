@@ -18,6 +18,7 @@ package org.glowroot.central.repo;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -31,7 +32,10 @@ import com.datastax.driver.core.Row;
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.primitives.Ints;
@@ -67,6 +71,9 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private static final String LCS = "compaction = { 'class' : 'LeveledCompactionStrategy' }";
 
+    // this is to keep the "in" clause of the multi-partition read from children reasonable
+    private static final int MAX_GAUGE_NAMES_PER_CHILD_READ = 100;
+
     private final Session session;
     private final AgentRollupDao agentRollupDao;
     private final ConfigRepositoryImpl configRepository;
@@ -78,7 +85,7 @@ public class GaugeValueDao implements GaugeValueRepository {
     private final ImmutableList<PreparedStatement> insertValuePS;
     private final ImmutableList<PreparedStatement> readValuePS;
     private final ImmutableList<PreparedStatement> readValueForRollupPS;
-    private final PreparedStatement readValueForRollupFromChildPS;
+    private final PreparedStatement readValuesForRollupFromChildPS;
 
     private final List<PreparedStatement> insertNeedsRollup;
     private final List<PreparedStatement> readNeedsRollup;
@@ -88,6 +95,8 @@ public class GaugeValueDao implements GaugeValueRepository {
     private final PreparedStatement readNeedsRollupFromChild;
     private final PreparedStatement deleteNeedsRollupFromChild;
 
+    private final GaugeValueRollupStats rollupStats;
+
     GaugeValueDao(Session session, AgentRollupDao agentRollupDao,
             ConfigRepositoryImpl configRepository, ClusterManager clusterManager, Clock clock)
             throws Exception {
@@ -125,8 +134,10 @@ public class GaugeValueDao implements GaugeValueRepository {
         this.insertValuePS = ImmutableList.copyOf(insertValuePS);
         this.readValuePS = ImmutableList.copyOf(readValuePS);
         this.readValueForRollupPS = ImmutableList.copyOf(readValueForRollupPS);
-        this.readValueForRollupFromChildPS = session.prepare("select value, weight from"
-                + " gauge_value_rollup_1 where agent_rollup = ? and gauge_name = ?"
+        // gauge_name is the last component of the partition key, so "in" is supported all the
+        // way back to cassandra 2.1
+        this.readValuesForRollupFromChildPS = session.prepare("select gauge_name, value, weight"
+                + " from gauge_value_rollup_1 where agent_rollup = ? and gauge_name in ?"
                 + " and capture_time = ?");
 
         // since rollup operations are idempotent, any records resurrected after gc_grace_seconds
@@ -171,6 +182,8 @@ public class GaugeValueDao implements GaugeValueRepository {
                 + " where agent_rollup = ?");
         deleteNeedsRollupFromChild = session.prepare("delete from gauge_needs_rollup_from_child"
                 + " where agent_rollup = ? and capture_time = ? and uniqueness = ?");
+
+        rollupStats = new GaugeValueRollupStats(count, clock);
     }
 
     public void store(String agentId, List<GaugeValue> gaugeValues) throws Exception {
@@ -223,6 +236,10 @@ public class GaugeValueDao implements GaugeValueRepository {
         MoreFutures.waitForAll(futures);
     }
 
+    public GaugeValueRollupStats getRollupStats() {
+        return rollupStats;
+    }
+
     @Override
     public List<Gauge> getGauges(String agentRollupId) throws Exception {
         List<Gauge> gauges = Lists.newArrayList();
@@ -280,11 +297,10 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private SetMultimap<Long, String> getRollupCaptureTimes(List<GaugeValue> gaugeValues) {
         SetMultimap<Long, String> rollupCaptureTimes = HashMultimap.create();
-        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        long intervalMillis = configRepository.getRollupConfigs().get(0).intervalMillis();
         for (GaugeValue gaugeValue : gaugeValues) {
             String gaugeName = gaugeValue.getGaugeName();
             long captureTime = gaugeValue.getCaptureTime();
-            long intervalMillis = rollupConfigs.get(0).intervalMillis();
             long rollupCaptureTime = Utils.getRollupCaptureTime(captureTime, intervalMillis);
             rollupCaptureTimes.put(rollupCaptureTime, gaugeName);
         }
@@ -302,16 +318,8 @@ public class GaugeValueDao implements GaugeValueRepository {
         for (NeedsRollupFromChildren needsRollupFromChildren : needsRollupFromChildrenList) {
             long captureTime = needsRollupFromChildren.getCaptureTime();
             int adjustedTTL = AggregateDao.getAdjustedTTL(ttl, captureTime, clock);
-            List<ListenableFuture<ResultSet>> futures = Lists.newArrayList();
-            for (Entry<String, Collection<String>> entry : needsRollupFromChildren.getKeys().asMap()
-                    .entrySet()) {
-                String gaugeName = entry.getKey();
-                Collection<String> childAgentRollups = entry.getValue();
-                futures.add(rollupOneFromChildren(rollupLevel, agentRollupId, gaugeName,
-                        ImmutableList.copyOf(childAgentRollups), captureTime, adjustedTTL));
-            }
-            // wait for above async work to ensure rollup complete before proceeding
-            MoreFutures.waitForAll(futures);
+            rollupFromChildren(rollupLevel, agentRollupId, needsRollupFromChildren.getKeys(),
+                    captureTime, adjustedTTL);
 
             int needsRollupAdjustedTTL =
                     AggregateDao.getNeedsRollupAdjustedTTL(adjustedTTL, rollupConfigs);
@@ -333,6 +341,7 @@ public class GaugeValueDao implements GaugeValueRepository {
                     needsRollupFromChildren.getUniquenessKeysForDeletion(),
                     nextRollupIntervalMillis, insertNeedsRollup.get(rollupLevel),
                     deleteNeedsRollupFromChild, needsRollupAdjustedTTL, session);
+            rollupStats.recordRollup(rollupLevel, captureTime);
         }
     }
 
@@ -391,55 +400,62 @@ public class GaugeValueDao implements GaugeValueRepository {
                     gaugeNames, needsRollup.getUniquenessKeysForDeletion(),
                     nextRollupIntervalMillis, insertNeedsRollup, deleteNeedsRollup,
                     needsRollupAdjustedTTL, session);
+            rollupStats.recordRollup(rollupLevel, captureTime);
         }
     }
 
-    private ListenableFuture<ResultSet> rollupOneFromChildren(int rollupLevel, String agentRollupId,
-            String gaugeName, List<String> childAgentRollups, long captureTime, int adjustedTTL)
-            throws Exception {
-        List<ListenableFuture<ResultSet>> futures = Lists.newArrayList();
-        for (String childAgentRollup : childAgentRollups) {
-            BoundStatement boundStatement = readValueForRollupFromChildPS.bind();
-            int i = 0;
-            boundStatement.setString(i++, childAgentRollup);
-            boundStatement.setString(i++, gaugeName);
-            boundStatement.setTimestamp(i++, new Date(captureTime));
-            futures.add(session.executeAsync(boundStatement));
+    // reads the child rows with one multi-partition read per child (instead of one read per child
+    // per gauge), and merges them before writing the rolled up rows
+    //
+    // the writes are bounded by the per-thread concurrency limit in Session
+    private void rollupFromChildren(int rollupLevel, String agentRollupId,
+            Multimap<String, String> childAgentRollupsByGaugeName, long captureTime,
+            int adjustedTTL) throws Exception {
+        Multimap<String, String> gaugeNamesByChildAgentRollup = Multimaps
+                .invertFrom(childAgentRollupsByGaugeName, HashMultimap.<String, String>create());
+        List<ListenableFuture<ResultSet>> readFutures = Lists.newArrayList();
+        for (Entry<String, Collection<String>> entry : gaugeNamesByChildAgentRollup.asMap()
+                .entrySet()) {
+            for (List<String> gaugeNames : Iterables.partition(entry.getValue(),
+                    MAX_GAUGE_NAMES_PER_CHILD_READ)) {
+                BoundStatement boundStatement = readValuesForRollupFromChildPS.bind();
+                int i = 0;
+                boundStatement.setString(i++, entry.getKey());
+                boundStatement.setList(i++, gaugeNames);
+                boundStatement.setTimestamp(i++, new Date(captureTime));
+                readFutures.add(session.executeAsync(boundStatement));
+            }
         }
-        return Futures.transformAsync(
-                Futures.allAsList(futures),
-                new AsyncFunction<List<ResultSet>, ResultSet>() {
-                    @Override
-                    public ListenableFuture<ResultSet> apply(@Nullable List<ResultSet> results)
-                            throws Exception {
-                        checkNotNull(results);
-                        List<Row> rows = Lists.newArrayList();
-                        for (int i = 0; i < results.size(); i++) {
-                            Row row = results.get(i).one();
-                            if (row == null) {
-                                // this is unexpected since TTL for "needs rollup" records is
-                                // shorter than TTL for data
-                                logger.warn(
-                                        "no gauge value table records found for agentRollupId={},"
-                                                + " gaugeName={}, captureTime={}, level={}",
-                                        childAgentRollups.get(i), gaugeName, captureTime,
-                                        rollupLevel);
-                            } else {
-                                rows.add(row);
-                            }
-                        }
-                        if (rows.isEmpty()) {
-                            // warning(s) already logged above
-                            return Futures.immediateFuture(DummyResultSet.INSTANCE);
-                        }
-                        return rollupOneFromRows(rollupLevel, agentRollupId, gaugeName, captureTime,
-                                adjustedTTL, rows);
-                    }
-                },
-                // direct executor will run above AsyncFunction inside cassandra driver thread that
-                // completes the last future, which is ok since the AsyncFunction itself only kicks
-                // off more async work, and should be relatively lightweight itself
-                MoreExecutors.directExecutor());
+        MoreFutures.waitForAll(readFutures);
+        Map<String, MutableGaugeValue> gaugeValues = Maps.newHashMap();
+        for (ListenableFuture<ResultSet> readFuture : readFutures) {
+            for (Row row : readFuture.get()) {
+                String gaugeName = checkNotNull(row.getString(0));
+                MutableGaugeValue gaugeValue = gaugeValues.get(gaugeName);
+                if (gaugeValue == null) {
+                    gaugeValue = new MutableGaugeValue();
+                    gaugeValues.put(gaugeName, gaugeValue);
+                }
+                gaugeValue.add(row.getDouble(1), row.getLong(2));
+            }
+        }
+        List<ListenableFuture<ResultSet>> insertFutures = Lists.newArrayList();
+        for (String gaugeName : childAgentRollupsByGaugeName.keySet()) {
+            MutableGaugeValue gaugeValue = gaugeValues.get(gaugeName);
+            if (gaugeValue == null) {
+                // this is unexpected since TTL for "needs rollup" records is shorter than TTL for
+                // data
+                logger.warn("no gauge value table records found for agentRollupIds={},"
+                        + " gaugeName={}, captureTime={}, level={}",
+                        childAgentRollupsByGaugeName.get(gaugeName), gaugeName, captureTime,
+                        rollupLevel);
+                continue;
+            }
+            insertFutures.add(insertRollup(rollupLevel, agentRollupId, gaugeName, captureTime,
+                    adjustedTTL, gaugeValue));
+        }
+        // wait for above async work to ensure rollup complete before proceeding
+        MoreFutures.waitForAll(insertFutures);
     }
 
     // from is non-inclusive
@@ -478,14 +494,16 @@ public class GaugeValueDao implements GaugeValueRepository {
 
     private ListenableFuture<ResultSet> rollupOneFromRows(int rollupLevel, String agentRollupId,
             String gaugeName, long to, int adjustedTTL, Iterable<Row> rows) throws Exception {
-        double totalWeightedValue = 0;
-        long totalWeight = 0;
+        MutableGaugeValue gaugeValue = new MutableGaugeValue();
         for (Row row : rows) {
-            double value = row.getDouble(0);
-            long weight = row.getLong(1);
-            totalWeightedValue += value * weight;
-            totalWeight += weight;
+            gaugeValue.add(row.getDouble(0), row.getLong(1));
         }
+        return insertRollup(rollupLevel, agentRollupId, gaugeName, to, adjustedTTL, gaugeValue);
+    }
+
+    private ListenableFuture<ResultSet> insertRollup(int rollupLevel, String agentRollupId,
+            String gaugeName, long to, int adjustedTTL, MutableGaugeValue gaugeValue)
+            throws Exception {
         BoundStatement boundStatement = insertValuePS.get(rollupLevel).bind();
         int i = 0;
         boundStatement.setString(i++, agentRollupId);
@@ -493,9 +511,9 @@ public class GaugeValueDao implements GaugeValueRepository {
         boundStatement.setTimestamp(i++, new Date(to));
         // individual gauge value weights cannot be zero, and rows is non-empty
         // (see callers of this method), so totalWeight is guaranteed non-zero
-        checkState(totalWeight != 0);
-        boundStatement.setDouble(i++, totalWeightedValue / totalWeight);
-        boundStatement.setLong(i++, totalWeight);
+        checkState(gaugeValue.totalWeight != 0);
+        boundStatement.setDouble(i++, gaugeValue.totalWeightedValue / gaugeValue.totalWeight);
+        boundStatement.setLong(i++, gaugeValue.totalWeight);
         boundStatement.setInt(i++, adjustedTTL);
         return session.executeAsync(boundStatement);
     }
@@ -522,4 +540,15 @@ public class GaugeValueDao implements GaugeValueRepository {
         session.execute("truncate gauge_name");
         session.execute("truncate gauge_needs_rollup_from_child");
     }
+
+    private static class MutableGaugeValue {
+
+        private double totalWeightedValue;
+        private long totalWeight;
+
+        private void add(double value, long weight) {
+            totalWeightedValue += value * weight;
+            totalWeight += weight;
+        }
+    }
 }
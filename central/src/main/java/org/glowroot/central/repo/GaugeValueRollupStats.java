@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.glowroot.common.util.Clock;
+
+public class GaugeValueRollupStats implements GaugeValueRollupStatsMXBean {
+
+    private final Clock clock;
+
+    // indexed by rollup level, where the value is the last rolled up capture time (or zero if no
+    // rollup has occurred yet at that level), so that the lag keeps growing while rollups are
+    // stalled, instead of only being updated when a rollup completes
+    private final AtomicLongArray lastRollupCaptureTimes;
+
+    GaugeValueRollupStats(int rollupLevelCount, Clock clock) {
+        this.clock = clock;
+        lastRollupCaptureTimes = new AtomicLongArray(rollupLevelCount + 1);
+    }
+
+    @Override
+    public long[] getRollupLagMillis() {
+        long now = clock.currentTimeMillis();
+        long[] values = new long[lastRollupCaptureTimes.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getRollupLagMillis(i, now);
+        }
+        return values;
+    }
+
+    @Override
+    public long getMaxRollupLagMillis() {
+        long now = clock.currentTimeMillis();
+        long max = 0;
+        for (int i = 0; i < lastRollupCaptureTimes.length(); i++) {
+            max = Math.max(max, getRollupLagMillis(i, now));
+        }
+        return max;
+    }
+
+    void recordRollup(int rollupLevel, long captureTime) {
+        lastRollupCaptureTimes.set(rollupLevel, captureTime);
+    }
+
+    private long getRollupLagMillis(int rollupLevel, long now) {
+        long lastRollupCaptureTime = lastRollupCaptureTimes.get(rollupLevel);
+        if (lastRollupCaptureTime == 0) {
+            return 0;
+        }
+        return Math.max(0, now - lastRollupCaptureTime);
+    }
+}
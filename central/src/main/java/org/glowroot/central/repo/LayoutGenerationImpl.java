@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.UUID;
+
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.ui.LayoutGeneration;
+
+// the generation is a random value that is only meaningful locally, invalidating it (which is
+// propagated to all cluster nodes) causes each node to generate a new value on next read
+public class LayoutGenerationImpl implements LayoutGeneration {
+
+    private static final String SINGLE_CACHE_KEY = "x";
+
+    private final Cache<String, UUID> layoutGenerationCache;
+
+    LayoutGenerationImpl(ClusterManager clusterManager) {
+        layoutGenerationCache =
+                clusterManager.createCache("layoutGenerationCache", key -> UUID.randomUUID());
+    }
+
+    @Override
+    public Object get() throws Exception {
+        return layoutGenerationCache.get(SINGLE_CACHE_KEY);
+    }
+
+    // callers must invalidate their own caches using Cache.invalidateAndWait() prior to calling
+    // this, since invalidations are otherwise not ordered across caches, and another cluster node
+    // that receives this invalidation first would cache a layout built from its stale caches under
+    // the new generation
+    void invalidate() {
+        layoutGenerationCache.invalidate(SINGLE_CACHE_KEY);
+    }
+}
@@ -57,9 +57,12 @@ class RoleDao {
     private final Cache<String, Optional<RoleConfig>> roleConfigCache;
     private final Cache<String, List<RoleConfig>> allRoleConfigsCache;
 
-    RoleDao(Session session, KeyspaceMetadata keyspaceMetadata, ClusterManager clusterManager)
-            throws Exception {
+    private final LayoutGenerationImpl layoutGeneration;
+
+    RoleDao(Session session, KeyspaceMetadata keyspaceMetadata, ClusterManager clusterManager,
+            LayoutGenerationImpl layoutGeneration) throws Exception {
         this.session = session;
+        this.layoutGeneration = layoutGeneration;
 
         boolean createAnonymousRole = keyspaceMetadata.getTable("role") == null;
 
@@ -104,17 +107,18 @@ class RoleDao {
         BoundStatement boundStatement = deletePS.bind();
         boundStatement.setString(0, name);
         session.execute(boundStatement);
-        roleConfigCache.invalidate(name);
-        allRoleConfigsCache.invalidate(ALL_ROLES_SINGLE_CACHE_KEY);
+        roleConfigCache.invalidateAndWait(name);
+        allRoleConfigsCache.invalidateAndWait(ALL_ROLES_SINGLE_CACHE_KEY);
+        layoutGeneration.invalidate();
     }
 
     void insert(RoleConfig userConfig) throws Exception {
         BoundStatement boundStatement = insertPS.bind();
         bindInsert(boundStatement, userConfig);
         session.execute(boundStatement);
-        roleConfigCache.invalidate(userConfig.name());
-        allRoleConfigsCache.invalidate(ALL_ROLES_SINGLE_CACHE_KEY);
-
+        roleConfigCache.invalidateAndWait(userConfig.name());
+        allRoleConfigsCache.invalidateAndWait(ALL_ROLES_SINGLE_CACHE_KEY);
+        layoutGeneration.invalidate();
     }
 
     void insertIfNotExists(RoleConfig userConfig) throws Exception {
@@ -124,8 +128,9 @@ class RoleDao {
         Row row = checkNotNull(results.one());
         boolean applied = row.getBool("[applied]");
         if (applied) {
-            roleConfigCache.invalidate(userConfig.name());
-            allRoleConfigsCache.invalidate(ALL_ROLES_SINGLE_CACHE_KEY);
+            roleConfigCache.invalidateAndWait(userConfig.name());
+            allRoleConfigsCache.invalidateAndWait(ALL_ROLES_SINGLE_CACHE_KEY);
+            layoutGeneration.invalidate();
         } else {
             throw new DuplicateRoleNameException();
         }
@@ -55,6 +55,7 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.central.util.Session;
 import org.glowroot.common.config.CentralStorageConfig;
 import org.glowroot.common.config.ConfigDefaults;
+import org.glowroot.common.config.ImmutableCentralStorageConfig;
 import org.glowroot.common.config.ImmutableCentralWebConfig;
 import org.glowroot.common.config.PermissionParser;
 import org.glowroot.common.config.StorageConfig;
@@ -84,7 +85,7 @@ public class SchemaUpgrade {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
-    private static final int CURR_SCHEMA_VERSION = 32;
+    private static final int CURR_SCHEMA_VERSION = 33;
 
     private static final String WITH_LCS =
             "with compaction = { 'class' : 'LeveledCompactionStrategy' }";
@@ -264,6 +265,10 @@ public class SchemaUpgrade {
             redoOnHeartbeatTable();
             updateSchemaVersion(32);
         }
+        if (initialSchemaVersion < 33) {
+            addAggregateBundleTables();
+            updateSchemaVersion(33);
+        }
 
         // when adding new schema upgrade, make sure to update CURR_SCHEMA_VERSION above
         startupLogger.info("upgraded glowroot central schema from version {} to version {}",
@@ -984,6 +989,18 @@ public class SchemaUpgrade {
         dropTable("heartbeat");
     }
 
+    private void addAggregateBundleTables() throws Exception {
+        // the compaction window is corrected (if needed) based on the actual central storage
+        // config inside updateToMoreRecentCassandraOptions()
+        int expirationHours =
+                ImmutableCentralStorageConfig.builder().build().rollupExpirationHours().get(0);
+        session.createTableWithTWCS(AggregateBundleDao.createTableQuery(false), expirationHours);
+        session.createTableWithTWCS(AggregateBundleDao.createTableQuery(true), expirationHours);
+        // existing aggregate data is not copied into the bundle tables, the bundle is only used for
+        // reading time ranges after the agent's first aggregate was stored in the bundle
+        session.execute(AggregateBundleDao.createSinceTableQuery());
+    }
+
     private void addColumnIfNotExists(String tableName, String columnName, String cqlType)
             throws Exception {
         if (!columnExists(tableName, columnName)) {
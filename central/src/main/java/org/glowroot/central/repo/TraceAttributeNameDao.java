@@ -60,10 +60,14 @@ class TraceAttributeNameDao implements TraceAttributeNameRepository {
 
     private final Cache<String, Map<String, Map<String, List<String>>>> traceAttributeNamesCache;
 
+    private final LayoutGenerationImpl layoutGeneration;
+
     TraceAttributeNameDao(Session session, ConfigRepositoryImpl configRepository,
-            ClusterManager clusterManager) throws Exception {
+            ClusterManager clusterManager, LayoutGenerationImpl layoutGeneration)
+            throws Exception {
         this.session = session;
         this.configRepository = configRepository;
+        this.layoutGeneration = layoutGeneration;
 
         session.execute("create table if not exists trace_attribute_name"
                 + " (agent_rollup varchar, transaction_type varchar, trace_attribute_name varchar,"
@@ -98,8 +102,10 @@ class TraceAttributeNameDao implements TraceAttributeNameRepository {
         boundStatement.setString(i++, traceAttributeName);
         boundStatement.setInt(i++, getTraceTTL());
         ListenableFuture<ResultSet> future = session.executeAsync(boundStatement);
-        CompletableFuture<?> chainedFuture = MoreFutures.onFailure(future,
-                () -> traceAttributeNamesCache.invalidate(SINGLE_CACHE_KEY));
+        CompletableFuture<?> chainedFuture = MoreFutures.onFailure(future, () -> {
+            traceAttributeNamesCache.invalidateAndWait(SINGLE_CACHE_KEY);
+            layoutGeneration.invalidate();
+        });
         futures.add(chainedFuture);
     }
 
@@ -16,6 +16,7 @@
 package org.glowroot.central.repo;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.Date;
@@ -23,6 +24,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
@@ -43,6 +45,9 @@ import com.google.common.hash.Hashing;
 import com.google.common.primitives.Ints;
 import org.immutables.value.Value;
 
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.Cache.CacheLoader;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.Messages;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.Session;
@@ -75,6 +80,10 @@ public class TraceDao implements TraceRepository {
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
+    // entries of traces above this are read directly (and not cached) in order to bound the memory
+    // retained by the trace entries cache
+    private static final int MAX_CACHED_ENTRY_COUNT = 2000;
+
     private final Session session;
     private final AgentRollupDao agentRollupDao;
     private final TransactionTypeDao transactionTypeDao;
@@ -133,9 +142,14 @@ public class TraceDao implements TraceRepository {
     private final PreparedStatement deletePartialOverallSlowCount;
     private final PreparedStatement deletePartialTransactionSlowCount;
 
+    // only completed traces are cached since their header and entries are immutable
+    private final Cache<TraceKey, Optional<Trace.Header>> traceHeaderCache;
+    private final Cache<TraceKey, Entries> traceEntriesCache;
+
     TraceDao(Session session, AgentRollupDao agentRollupDao, TransactionTypeDao transactionTypeDao,
             FullQueryTextDao fullQueryTextDao, TraceAttributeNameDao traceAttributeNameDao,
-            ConfigRepositoryImpl configRepository, Clock clock) throws Exception {
+            ConfigRepositoryImpl configRepository, ClusterManager clusterManager, Clock clock)
+            throws Exception {
         this.session = session;
         this.agentRollupDao = agentRollupDao;
         this.transactionTypeDao = transactionTypeDao;
@@ -388,6 +402,11 @@ public class TraceDao implements TraceRepository {
         deletePartialTransactionSlowCount = session.prepare("delete from trace_tn_slow_count"
                 + " where agent_rollup = ? and transaction_type = ? and transaction_name = ?"
                 + " and capture_time = ? and agent_id = ? and trace_id = ?");
+
+        traceHeaderCache = clusterManager.createSizeLimitedCache("traceHeaderCache", 10000,
+                new TraceHeaderCacheLoader());
+        traceEntriesCache = clusterManager.createSizeLimitedCache("traceEntriesCache", 100,
+                new TraceEntriesCacheLoader());
     }
 
     public void store(String agentId, Trace trace) throws Exception {
@@ -438,6 +457,11 @@ public class TraceDao implements TraceRepository {
         futures.clear();
 
         int adjustedTTL = AggregateDao.getAdjustedTTL(getTTL(), header.getCaptureTime(), clock);
+        // encoded once per trace, and shared via duplicate() across the slow and error point
+        // tables of each agent rollup (same as AggregateBlobs)
+        List<Trace.Attribute> attributeList = header.getAttributeList();
+        ByteBuffer attributes =
+                attributeList.isEmpty() ? null : Messages.toByteBuffer(attributeList);
         for (String agentRollupId : agentRollupIds) {
 
             if (!agentRollupId.equals(agentId)) {
@@ -452,13 +476,13 @@ public class TraceDao implements TraceRepository {
 
             if (header.getSlow()) {
                 BoundStatement boundStatement = insertOverallSlowPoint.bind();
-                bindSlowPoint(boundStatement, agentRollupId, agentId, traceId, header, adjustedTTL,
-                        true);
+                bindSlowPoint(boundStatement, agentRollupId, agentId, traceId, header, attributes,
+                        adjustedTTL, true);
                 futures.add(session.executeAsync(boundStatement));
 
                 boundStatement = insertTransactionSlowPoint.bind();
-                bindSlowPoint(boundStatement, agentRollupId, agentId, traceId, header, adjustedTTL,
-                        false);
+                bindSlowPoint(boundStatement, agentRollupId, agentId, traceId, header, attributes,
+                        adjustedTTL, false);
                 futures.add(session.executeAsync(boundStatement));
 
                 boundStatement = insertOverallSlowCount.bind();
@@ -503,13 +527,13 @@ public class TraceDao implements TraceRepository {
                 futures.add(session.executeAsync(boundStatement));
 
                 boundStatement = insertOverallErrorPoint.bind();
-                bindErrorPoint(boundStatement, agentRollupId, agentId, traceId, header, adjustedTTL,
-                        true);
+                bindErrorPoint(boundStatement, agentRollupId, agentId, traceId, header, attributes,
+                        adjustedTTL, true);
                 futures.add(session.executeAsync(boundStatement));
 
                 boundStatement = insertTransactionErrorPoint.bind();
-                bindErrorPoint(boundStatement, agentRollupId, agentId, traceId, header, adjustedTTL,
-                        false);
+                bindErrorPoint(boundStatement, agentRollupId, agentId, traceId, header, attributes,
+                        adjustedTTL, false);
                 futures.add(session.executeAsync(boundStatement));
 
                 boundStatement = insertOverallErrorCount.bind();
@@ -528,14 +552,8 @@ public class TraceDao implements TraceRepository {
             }
         }
 
-        BoundStatement boundStatement = insertHeader.bind();
-        int i = 0;
-        boundStatement.setString(i++, agentId);
-        boundStatement.setString(i++, traceId);
-        boundStatement.setBytes(i++, ByteBuffer.wrap(header.toByteArray()));
-        boundStatement.setInt(i++, adjustedTTL);
-        futures.add(session.executeAsync(boundStatement));
-
+        BoundStatement boundStatement;
+        int i;
         int index = 0;
         for (Trace.Entry entry : trace.getEntryList()) {
             boundStatement = insertEntry.bind();
@@ -616,8 +634,22 @@ public class TraceDao implements TraceRepository {
                     adjustedTTL);
             futures.add(session.executeAsync(boundStatement));
         }
+
+        boundStatement = insertHeader.bind();
+        i = 0;
+        boundStatement.setString(i++, agentId);
+        boundStatement.setString(i++, traceId);
+        boundStatement.setBytes(i++, ByteBuffer.wrap(header.toByteArray()));
+        boundStatement.setInt(i++, adjustedTTL);
+        futures.add(session.executeAsync(boundStatement));
+
         futures.addAll(transactionTypeDao.store(agentRollupIds, header.getTransactionType()));
         MoreFutures.waitForAll(futures);
+        if (trace.getUpdate()) {
+            // partial headers are not cached, but a completed trace can still be re-sent (e.g.
+            // when the agent retries after a timeout)
+            traceHeaderCache.invalidate(ImmutableTraceKey.of(agentId, traceId));
+        }
     }
 
     @Override
@@ -739,7 +771,7 @@ public class TraceDao implements TraceRepository {
     public @Nullable HeaderPlus readHeaderPlus(String agentRollupId, String agentId, String traceId)
             throws Exception {
         checkValidAgentIdForRequest(agentRollupId, agentId, traceId);
-        Trace.Header header = readHeader(agentId, traceId);
+        Trace.Header header = readCompletedOrPartialHeader(agentId, traceId);
         if (header == null) {
             return null;
         }
@@ -753,42 +785,56 @@ public class TraceDao implements TraceRepository {
     public Entries readEntries(String agentRollupId, String agentId, String traceId)
             throws Exception {
         checkValidAgentIdForRequest(agentRollupId, agentId, traceId);
-        return ImmutableEntries.builder()
-                .addAllEntries(readEntriesInternal(agentId, traceId))
-                .addAllSharedQueryTexts(readSharedQueryTexts(agentId, traceId))
-                .build();
+        Trace.Header header = readCompletedOrPartialHeader(agentId, traceId);
+        if (header != null && !header.getPartial()
+                && header.getEntryCount() <= MAX_CACHED_ENTRY_COUNT) {
+            return traceEntriesCache.get(ImmutableTraceKey.of(agentId, traceId));
+        }
+        return readEntriesUncached(agentId, traceId);
     }
 
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
-    // (never with truncatedText/truncatedEndText/fullTraceSha1) @Override
+    // (never with truncatedText/truncatedEndText/fullTraceSha1)
     @Override
-    public Entries readEntriesForExport(String agentRollupId, String agentId, String traceId)
-            throws Exception {
+    public @Nullable EntriesCursor readEntriesForExport(String agentRollupId,
+            String agentId, String traceId) throws Exception {
         checkValidAgentIdForRequest(agentRollupId, agentId, traceId);
-        ImmutableEntries.Builder entries = ImmutableEntries.builder()
-                .addAllEntries(readEntriesInternal(agentId, traceId));
-        List<Trace.SharedQueryText> sharedQueryTexts = Lists.newArrayList();
-        for (Trace.SharedQueryText sharedQueryText : readSharedQueryTexts(agentId, traceId)) {
-            String fullTextSha1 = sharedQueryText.getFullTextSha1();
-            if (fullTextSha1.isEmpty()) {
-                sharedQueryTexts.add(sharedQueryText);
-            } else {
-                String fullText = fullQueryTextDao.getFullText(agentId, fullTextSha1);
-                if (fullText == null) {
-                    sharedQueryTexts.add(Trace.SharedQueryText.newBuilder()
-                            .setFullText(sharedQueryText.getTruncatedText()
-                                    + " ... [full query text has expired] ... "
-                                    + sharedQueryText.getTruncatedEndText())
-                            .build());
-                } else {
-                    sharedQueryTexts.add(Trace.SharedQueryText.newBuilder()
-                            .setFullText(fullText)
-                            .build());
+        if (readCompletedOrPartialHeader(agentId, traceId) == null) {
+            return null;
+        }
+        BoundStatement boundStatement = readEntries.bind();
+        boundStatement.setString(0, agentId);
+        boundStatement.setString(1, traceId);
+        // rows are paged in from cassandra as the export is being written, instead of reading all
+        // entries into memory up front
+        //
+        // the trace was found, so an empty cursor is returned (instead of null) if it has no
+        // entries, so that the caller does not wait for it to be stored
+        ResultSet entryResults = session.execute(boundStatement);
+        return new EntriesCursor() {
+            private @Nullable ResultSet sharedQueryTextResults;
+            @Override
+            public @Nullable Trace.Entry readNextEntry() throws Exception {
+                Row row = entryResults.one();
+                return row == null ? null : readEntry(row);
+            }
+            @Override
+            public @Nullable Trace.SharedQueryText readNextSharedQueryText() throws Exception {
+                if (sharedQueryTextResults == null) {
+                    BoundStatement sharedQueryTextsBoundStatement = readSharedQueryTexts.bind();
+                    sharedQueryTextsBoundStatement.setString(0, agentId);
+                    sharedQueryTextsBoundStatement.setString(1, traceId);
+                    sharedQueryTextResults = session.execute(sharedQueryTextsBoundStatement);
+                }
+                Row row = sharedQueryTextResults.one();
+                if (row == null) {
+                    return null;
                 }
+                return getSharedQueryTextForExport(agentId, readSharedQueryText(row));
             }
-        }
-        return entries.addAllSharedQueryTexts(sharedQueryTexts)
-                .build();
+            @Override
+            public void close() {}
+        };
     }
 
     @Override
@@ -837,6 +883,14 @@ public class TraceDao implements TraceRepository {
         }
     }
 
+    private @Nullable Trace.Header readCompletedOrPartialHeader(String agentId, String traceId)
+            throws Exception {
+        TraceKey key = ImmutableTraceKey.of(agentId, traceId);
+        return traceHeaderCache.get(key).orElse(null);
+    }
+
+    // this is not cached since it is used when storing trace updates, and needs to see the latest
+    // partial header
     private @Nullable Trace.Header readHeader(String agentId, String traceId) throws Exception {
         BoundStatement boundStatement = readHeader.bind();
         boundStatement.setString(0, agentId);
@@ -849,6 +903,13 @@ public class TraceDao implements TraceRepository {
         return Trace.Header.parseFrom(checkNotNull(row.getBytes(0)));
     }
 
+    private Entries readEntriesUncached(String agentId, String traceId) throws Exception {
+        return ImmutableEntries.builder()
+                .addAllEntries(readEntriesInternal(agentId, traceId))
+                .addAllSharedQueryTexts(readSharedQueryTexts(agentId, traceId))
+                .build();
+    }
+
     private List<Trace.Entry> readEntriesInternal(String agentId, String traceId) throws Exception {
         BoundStatement boundStatement = readEntries.bind();
         boundStatement.setString(0, agentId);
@@ -856,43 +917,7 @@ public class TraceDao implements TraceRepository {
         ResultSet results = session.execute(boundStatement);
         List<Trace.Entry> entries = Lists.newArrayList();
         while (!results.isExhausted()) {
-            Row row = results.one();
-            int i = 0;
-            Trace.Entry.Builder entry = Trace.Entry.newBuilder()
-                    .setDepth(row.getInt(i++))
-                    .setStartOffsetNanos(row.getLong(i++))
-                    .setDurationNanos(row.getLong(i++))
-                    .setActive(row.getBool(i++));
-            if (row.isNull(i + 1)) { // shared_query_text_index
-                // message is null for trace entries added using addErrorEntry()
-                entry.setMessage(Strings.nullToEmpty(row.getString(i++)));
-                i++; // shared_query_text_index
-                i++; // query_message_prefix
-                i++; // query_message_suffix
-            } else {
-                i++; // message
-                Trace.QueryEntryMessage queryEntryMessage = Trace.QueryEntryMessage.newBuilder()
-                        .setSharedQueryTextIndex(row.getInt(i++))
-                        .setPrefix(Strings.nullToEmpty(row.getString(i++)))
-                        .setSuffix(Strings.nullToEmpty(row.getString(i++)))
-                        .build();
-                entry.setQueryEntryMessage(queryEntryMessage);
-            }
-            ByteBuffer detailBytes = row.getBytes(i++);
-            if (detailBytes != null) {
-                entry.addAllDetailEntry(
-                        Messages.parseDelimitedFrom(detailBytes, Trace.DetailEntry.parser()));
-            }
-            ByteBuffer locationBytes = row.getBytes(i++);
-            if (locationBytes != null) {
-                entry.addAllLocationStackTraceElement(Messages.parseDelimitedFrom(locationBytes,
-                        Proto.StackTraceElement.parser()));
-            }
-            ByteBuffer errorBytes = row.getBytes(i++);
-            if (errorBytes != null) {
-                entry.setError(Trace.Error.parseFrom(errorBytes));
-            }
-            entries.add(entry.build());
+            entries.add(readEntry(results.one()));
         }
         return entries;
     }
@@ -905,43 +930,104 @@ public class TraceDao implements TraceRepository {
         ResultSet results = session.execute(boundStatement);
         List<Trace.SharedQueryText> sharedQueryTexts = Lists.newArrayList();
         while (!results.isExhausted()) {
-            Row row = results.one();
-            int i = 0;
-            String truncatedText = checkNotNull(row.getString(i++));
-            String truncatedEndText = row.getString(i++);
-            String fullTextSha1 = row.getString(i++);
-            Trace.SharedQueryText.Builder sharedQueryText = Trace.SharedQueryText.newBuilder();
-            if (fullTextSha1 == null) {
-                sharedQueryText.setFullText(truncatedText);
-            } else {
-                sharedQueryText.setFullTextSha1(fullTextSha1)
-                        .setTruncatedText(truncatedText)
-                        .setTruncatedEndText(checkNotNull(truncatedEndText));
-            }
-            sharedQueryTexts.add(sharedQueryText.build());
+            sharedQueryTexts.add(readSharedQueryText(results.one()));
         }
         return sharedQueryTexts;
     }
 
+    private Trace.SharedQueryText getSharedQueryTextForExport(String agentId,
+            Trace.SharedQueryText sharedQueryText) throws Exception {
+        String fullTextSha1 = sharedQueryText.getFullTextSha1();
+        if (fullTextSha1.isEmpty()) {
+            return sharedQueryText;
+        }
+        String fullText = fullQueryTextDao.getFullText(agentId, fullTextSha1);
+        if (fullText == null) {
+            return Trace.SharedQueryText.newBuilder()
+                    .setFullText(sharedQueryText.getTruncatedText()
+                            + " ... [full query text has expired] ... "
+                            + sharedQueryText.getTruncatedEndText())
+                    .build();
+        } else {
+            return Trace.SharedQueryText.newBuilder()
+                    .setFullText(fullText)
+                    .build();
+        }
+    }
+
     private int getTTL() throws Exception {
         return Ints.saturatedCast(
                 HOURS.toSeconds(configRepository.getCentralStorageConfig().traceExpirationHours()));
     }
 
+    private static Trace.Entry readEntry(Row row) throws IOException {
+        int i = 0;
+        Trace.Entry.Builder entry = Trace.Entry.newBuilder()
+                .setDepth(row.getInt(i++))
+                .setStartOffsetNanos(row.getLong(i++))
+                .setDurationNanos(row.getLong(i++))
+                .setActive(row.getBool(i++));
+        if (row.isNull(i + 1)) { // shared_query_text_index
+            // message is null for trace entries added using addErrorEntry()
+            entry.setMessage(Strings.nullToEmpty(row.getString(i++)));
+            i++; // shared_query_text_index
+            i++; // query_message_prefix
+            i++; // query_message_suffix
+        } else {
+            i++; // message
+            Trace.QueryEntryMessage queryEntryMessage = Trace.QueryEntryMessage.newBuilder()
+                    .setSharedQueryTextIndex(row.getInt(i++))
+                    .setPrefix(Strings.nullToEmpty(row.getString(i++)))
+                    .setSuffix(Strings.nullToEmpty(row.getString(i++)))
+                    .build();
+            entry.setQueryEntryMessage(queryEntryMessage);
+        }
+        ByteBuffer detailBytes = row.getBytes(i++);
+        if (detailBytes != null) {
+            entry.addAllDetailEntry(
+                    Messages.parseDelimitedFrom(detailBytes, Trace.DetailEntry.parser()));
+        }
+        ByteBuffer locationBytes = row.getBytes(i++);
+        if (locationBytes != null) {
+            entry.addAllLocationStackTraceElement(Messages.parseDelimitedFrom(locationBytes,
+                    Proto.StackTraceElement.parser()));
+        }
+        ByteBuffer errorBytes = row.getBytes(i++);
+        if (errorBytes != null) {
+            entry.setError(Trace.Error.parseFrom(errorBytes));
+        }
+        return entry.build();
+    }
+
+    private static Trace.SharedQueryText readSharedQueryText(Row row) {
+        int i = 0;
+        String truncatedText = checkNotNull(row.getString(i++));
+        String truncatedEndText = row.getString(i++);
+        String fullTextSha1 = row.getString(i++);
+        Trace.SharedQueryText.Builder sharedQueryText = Trace.SharedQueryText.newBuilder();
+        if (fullTextSha1 == null) {
+            sharedQueryText.setFullText(truncatedText);
+        } else {
+            sharedQueryText.setFullTextSha1(fullTextSha1)
+                    .setTruncatedText(truncatedText)
+                    .setTruncatedEndText(checkNotNull(truncatedEndText));
+        }
+        return sharedQueryText.build();
+    }
+
     private static void bindSlowPoint(BoundStatement boundStatement, String agentRollupId,
-            String agentId, String traceId, Trace.Header header, int adjustedTTL, boolean overall)
-            throws IOException {
+            String agentId, String traceId, Trace.Header header, @Nullable ByteBuffer attributes,
+            int adjustedTTL, boolean overall) {
         int i = bind(boundStatement, agentRollupId, agentId, traceId, header, overall);
         boundStatement.setLong(i++, header.getDurationNanos());
         boundStatement.setBool(i++, header.getPartial());
         boundStatement.setBool(i++, header.hasError());
         boundStatement.setString(i++, header.getHeadline());
         boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
-        List<Trace.Attribute> attributes = header.getAttributeList();
-        if (attributes.isEmpty()) {
+        if (attributes == null) {
             boundStatement.setToNull(i++);
         } else {
-            boundStatement.setBytes(i++, Messages.toByteBuffer(attributes));
+            boundStatement.setBytes(i++, attributes.duplicate());
         }
         boundStatement.setInt(i++, adjustedTTL);
     }
@@ -960,19 +1046,18 @@ public class TraceDao implements TraceRepository {
     }
 
     private static void bindErrorPoint(BoundStatement boundStatement, String agentRollupId,
-            String agentId, String traceId, Trace.Header header, int adjustedTTL, boolean overall)
-            throws IOException {
+            String agentId, String traceId, Trace.Header header, @Nullable ByteBuffer attributes,
+            int adjustedTTL, boolean overall) {
         int i = bind(boundStatement, agentRollupId, agentId, traceId, header, overall);
         boundStatement.setLong(i++, header.getDurationNanos());
         boundStatement.setBool(i++, header.getPartial());
         boundStatement.setString(i++, header.getError().getMessage());
         boundStatement.setString(i++, header.getHeadline());
         boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
-        List<Trace.Attribute> attributes = header.getAttributeList();
-        if (attributes.isEmpty()) {
+        if (attributes == null) {
             boundStatement.setToNull(i++);
         } else {
-            boundStatement.setBytes(i++, Messages.toByteBuffer(attributes));
+            boundStatement.setBytes(i++, attributes.duplicate());
         }
         boundStatement.setInt(i++, adjustedTTL);
     }
@@ -1088,9 +1173,48 @@ public class TraceDao implements TraceRepository {
         return true;
     }
 
+    private class TraceHeaderCacheLoader
+            implements CacheLoader<TraceKey, Optional<Trace.Header>> {
+        @Override
+        public Optional<Trace.Header> load(TraceKey key) throws Exception {
+            return Optional.ofNullable(readHeader(key.agentId(), key.traceId()));
+        }
+        @Override
+        public boolean shouldCache(TraceKey key, Optional<Trace.Header> header) {
+            // not caching absence since the trace may be stored after this, and not caching
+            // partial traces since they are still being updated
+            return header.isPresent() && !header.get().getPartial();
+        }
+    }
+
+    private class TraceEntriesCacheLoader implements CacheLoader<TraceKey, Entries> {
+        @Override
+        public Entries load(TraceKey key) throws Exception {
+            return readEntriesUncached(key.agentId(), key.traceId());
+        }
+        @Override
+        public boolean shouldCache(TraceKey key, Entries entries) throws Exception {
+            // the header is written concurrently with the entries, so the entries may not all be
+            // visible yet even though the completed header is
+            Trace.Header header = readCompletedOrPartialHeader(key.agentId(), key.traceId());
+            if (header == null || header.getPartial()
+                    || entries.entries().size() != header.getEntryCount()) {
+                return false;
+            }
+            int sharedQueryTextCount = entries.sharedQueryTexts().size();
+            for (Trace.Entry entry : entries.entries()) {
+                if (entry.hasQueryEntryMessage() && entry.getQueryEntryMessage()
+                        .getSharedQueryTextIndex() >= sharedQueryTextCount) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
-    interface TraceKey {
+    interface TraceKey extends Serializable {
         String agentId();
         String traceId();
     }
@@ -58,10 +58,14 @@ class TransactionTypeDao implements TransactionTypeRepository {
 
     private final Cache<String, Map<String, List<String>>> transactionTypesCache;
 
+    private final LayoutGenerationImpl layoutGeneration;
+
     TransactionTypeDao(Session session, ConfigRepositoryImpl configRepository,
-            ClusterManager clusterManager) throws Exception {
+            ClusterManager clusterManager, LayoutGenerationImpl layoutGeneration)
+            throws Exception {
         this.session = session;
         this.configRepository = configRepository;
+        this.layoutGeneration = layoutGeneration;
 
         session.execute("create table if not exists transaction_type (one int,"
                 + " agent_rollup varchar, transaction_type varchar, primary key"
@@ -101,18 +105,22 @@ class TransactionTypeDao implements TransactionTypeRepository {
                 future = session.executeAsync(boundStatement);
             } catch (Exception e) {
                 rateLimiter.invalidate(rateLimiterKey);
-                transactionTypesCache.invalidate(SINGLE_CACHE_KEY);
+                invalidateCaches();
                 throw e;
             }
             CompletableFuture<?> chainedFuture =
                     MoreFutures.onFailure(future, () -> rateLimiter.invalidate(rateLimiterKey));
-            chainedFuture = chainedFuture.whenComplete(
-                    (result, t) -> transactionTypesCache.invalidate(SINGLE_CACHE_KEY));
+            chainedFuture = chainedFuture.whenComplete((result, t) -> invalidateCaches());
             futures.add(chainedFuture);
         }
         return futures;
     }
 
+    private void invalidateCaches() {
+        transactionTypesCache.invalidateAndWait(SINGLE_CACHE_KEY);
+        layoutGeneration.invalidate();
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface TransactionTypeKey {
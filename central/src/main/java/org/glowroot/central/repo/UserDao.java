@@ -53,9 +53,12 @@ class UserDao {
 
     private final Cache<String, List<UserConfig>> allUserConfigsCache;
 
-    UserDao(Session session, KeyspaceMetadata keyspaceMetadata,
-            ClusterManager clusterManager) throws Exception {
+    private final LayoutGenerationImpl layoutGeneration;
+
+    UserDao(Session session, KeyspaceMetadata keyspaceMetadata, ClusterManager clusterManager,
+            LayoutGenerationImpl layoutGeneration) throws Exception {
         this.session = session;
+        this.layoutGeneration = layoutGeneration;
 
         boolean createAnonymousUser = keyspaceMetadata.getTable("user") == null;
 
@@ -121,7 +124,8 @@ class UserDao {
         BoundStatement boundStatement = insertPS.bind();
         bindInsert(boundStatement, userConfig);
         session.execute(boundStatement);
-        allUserConfigsCache.invalidate(ALL_USERS_SINGLE_CACHE_KEY);
+        allUserConfigsCache.invalidateAndWait(ALL_USERS_SINGLE_CACHE_KEY);
+        layoutGeneration.invalidate();
     }
 
     void insertIfNotExists(UserConfig userConfig) throws Exception {
@@ -131,7 +135,8 @@ class UserDao {
         Row row = checkNotNull(results.one());
         boolean applied = row.getBool("[applied]");
         if (applied) {
-            allUserConfigsCache.invalidate(ALL_USERS_SINGLE_CACHE_KEY);
+            allUserConfigsCache.invalidateAndWait(ALL_USERS_SINGLE_CACHE_KEY);
+            layoutGeneration.invalidate();
         } else {
             throw new DuplicateUsernameException();
         }
@@ -141,7 +146,8 @@ class UserDao {
         BoundStatement boundStatement = deletePS.bind();
         boundStatement.setString(0, username);
         session.execute(boundStatement);
-        allUserConfigsCache.invalidate(ALL_USERS_SINGLE_CACHE_KEY);
+        allUserConfigsCache.invalidateAndWait(ALL_USERS_SINGLE_CACHE_KEY);
+        layoutGeneration.invalidate();
     }
 
     private static void bindInsert(BoundStatement boundStatement, UserConfig userConfig) {
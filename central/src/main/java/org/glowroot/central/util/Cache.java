@@ -24,7 +24,16 @@ public interface Cache<K extends /*@NonNull*/ Serializable, V extends /*@NonNull
     // invalidate globally
     void invalidate(K key);
 
+    // invalidate globally, and wait until the invalidation has been applied on all cluster nodes
+    void invalidateAndWait(K key);
+
     interface CacheLoader<K, V> {
+
         V load(K key) throws Exception;
+
+        // values that are rejected here are still returned from get(), but are not cached
+        default boolean shouldCache(K key, V value) throws Exception {
+            return true;
+        }
     }
 }
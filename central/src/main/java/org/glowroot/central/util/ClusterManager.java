@@ -27,12 +27,15 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
 import org.infinispan.configuration.global.GlobalConfiguration;
 import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.context.Flag;
 import org.infinispan.manager.DefaultCacheManager;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.remoting.transport.Address;
@@ -73,6 +76,18 @@ public abstract class ClusterManager {
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createCache(
             String cacheName, CacheLoader<K, V> loader);
 
+    // bounded by number of entries (per central node), least recently used entries are evicted
+    public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+            String cacheName, int maxSize, CacheLoader<K, V> loader);
+
+    // bounded by total weight (per central node), least recently used entries are evicted
+    //
+    // infinispan caches are bounded by number of entries (maxSize) instead, so callers should also
+    // avoid caching individual values that are very large
+    public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createWeightLimitedCache(
+            String cacheName, int maxSize, long maxWeight, Weigher<K, V> weigher,
+            CacheLoader<K, V> loader);
+
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Serializable> ConcurrentMap<K, V> createReplicatedMap(
             String mapName);
 
@@ -106,6 +121,39 @@ public abstract class ClusterManager {
             return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+            configurationBuilder.clustering()
+                    .cacheMode(CacheMode.INVALIDATION_ASYNC);
+            configurationBuilder.memory()
+                    .size(maxSize);
+            cacheManager.defineConfiguration(cacheName, configurationBuilder.build());
+            return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
+        }
+
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createWeightLimitedCache(
+                String cacheName, int maxSize, long maxWeight, Weigher<K, V> weigher,
+                CacheLoader<K, V> loader) {
+            // weight-based eviction would require storing the values in binary form, so instead
+            // values heavier than maxWeight / maxSize are not cached, which bounds the total
+            // weight by maxWeight
+            long maxValueWeight = maxWeight / maxSize;
+            return createSizeLimitedCache(cacheName, maxSize, new CacheLoader<K, V>() {
+                @Override
+                public V load(K key) throws Exception {
+                    return loader.load(key);
+                }
+                @Override
+                public boolean shouldCache(K key, V value) throws Exception {
+                    return loader.shouldCache(key, value)
+                            && weigher.weigh(key, value) <= maxValueWeight;
+                }
+            });
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Serializable> ConcurrentMap<K, V> createReplicatedMap(
                 String mapName) {
@@ -186,6 +234,28 @@ public abstract class ClusterManager {
             return new NonClusterCacheImpl<K, V>(Maps.newConcurrentMap(), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            ConcurrentMap<K, V> map = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .<K, V>build()
+                    .asMap();
+            return new NonClusterCacheImpl<K, V>(map, loader);
+        }
+
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createWeightLimitedCache(
+                String cacheName, int maxSize, long maxWeight, Weigher<K, V> weigher,
+                CacheLoader<K, V> loader) {
+            ConcurrentMap<K, V> map = CacheBuilder.newBuilder()
+                    .maximumWeight(maxWeight)
+                    .weigher(weigher)
+                    .<K, V>build()
+                    .asMap();
+            return new NonClusterCacheImpl<K, V>(map, loader);
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
                 String cacheName) {
@@ -218,7 +288,9 @@ public abstract class ClusterManager {
             V value = cache.get(key);
             if (value == null) {
                 value = loader.load(key);
-                cache.putForExternalRead(key, value);
+                if (loader.shouldCache(key, value)) {
+                    cache.putForExternalRead(key, value);
+                }
             }
             return value;
         }
@@ -227,6 +299,13 @@ public abstract class ClusterManager {
         public void invalidate(K key) {
             cache.remove(key);
         }
+
+        @Override
+        public void invalidateAndWait(K key) {
+            // caches are INVALIDATION_ASYNC, this forces the invalidation to wait for the
+            // acknowledgement from all cluster nodes
+            cache.getAdvancedCache().withFlags(Flag.FORCE_SYNCHRONOUS).remove(key);
+        }
     }
 
     private static class NonClusterCacheImpl<K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object>
@@ -245,7 +324,9 @@ public abstract class ClusterManager {
             V value = cache.get(key);
             if (value == null) {
                 value = loader.load(key);
-                cache.put(key, value);
+                if (loader.shouldCache(key, value)) {
+                    cache.put(key, value);
+                }
             }
             return value;
         }
@@ -254,6 +335,11 @@ public abstract class ClusterManager {
         public void invalidate(K key) {
             cache.remove(key);
         }
+
+        @Override
+        public void invalidateAndWait(K key) {
+            cache.remove(key);
+        }
     }
 
     private static class DistributedExecutionMapImpl<K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object>
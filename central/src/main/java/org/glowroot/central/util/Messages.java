@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,7 +15,6 @@
  */
 package org.glowroot.central.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -26,6 +25,7 @@ import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.protobuf.AbstractMessage;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Parser;
 
 import org.glowroot.common.util.SizeLimitBypassingParser;
@@ -36,12 +36,22 @@ public class Messages {
 
     public static ByteBuffer toByteBuffer(List<? extends AbstractMessage> messages)
             throws IOException {
-        // TODO optimize byte copying
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // sizing the array up front (the serialized sizes are memoized by the messages) so that
+        // the messages are written directly into the final array, instead of into a growing
+        // ByteArrayOutputStream and then copied again by toByteArray()
+        int totalSize = 0;
         for (AbstractMessage message : messages) {
-            message.writeDelimitedTo(output);
+            int size = message.getSerializedSize();
+            totalSize += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
         }
-        return ByteBuffer.wrap(output.toByteArray());
+        byte[] bytes = new byte[totalSize];
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        for (AbstractMessage message : messages) {
+            output.writeUInt32NoTag(message.getSerializedSize());
+            message.writeTo(output);
+        }
+        output.checkNoSpaceLeft();
+        return ByteBuffer.wrap(bytes);
     }
 
     public static <T extends /*@NonNull*/ AbstractMessage> List<T> parseDelimitedFrom(
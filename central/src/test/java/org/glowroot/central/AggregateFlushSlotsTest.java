@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.util.AggregateFlushOffsets;
+import org.glowroot.common.util.Clock;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AggregateFlushSlotsTest {
+
+    private static final int MIN_SLOT_COUNT =
+            AggregateFlushOffsets.MIN_WINDOW_MILLIS / AggregateFlushOffsets.SLOT_MILLIS;
+
+    private Clock clock;
+    private AggregateFlushSlots aggregateFlushSlots;
+
+    @Before
+    public void beforeEachTest() {
+        clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(MINUTES.toMillis(1000));
+        aggregateFlushSlots = new AggregateFlushSlots(new IngestionLoadStats(clock), clock);
+    }
+
+    @Test
+    public void shouldAssignLeastLoadedSlots() {
+        // when
+        Set<Integer> offsets = Sets.newHashSet();
+        for (int i = 0; i < MIN_SLOT_COUNT; i++) {
+            offsets.add(aggregateFlushSlots.getOffsetMillis("agent-" + i));
+        }
+        // then
+        // unlike the agent id hash, each agent is assigned its own slot
+        assertThat(offsets).hasSize(MIN_SLOT_COUNT);
+    }
+
+    @Test
+    public void shouldKeepSlotWhenWindowGrows() {
+        // given
+        int offset = aggregateFlushSlots.getOffsetMillis("a");
+        // when
+        for (int i = 0; i < 200; i++) {
+            aggregateFlushSlots.getOffsetMillis("agent-" + i);
+        }
+        // then
+        assertThat(aggregateFlushSlots.getOffsetMillis("a")).isEqualTo(offset);
+        // and the window has grown to give the additional agents their own slots
+        assertThat(aggregateFlushSlots.getOffsetMillis("agent-199"))
+                .isGreaterThanOrEqualTo(AggregateFlushOffsets.MIN_WINDOW_MILLIS);
+    }
+
+    @Test
+    public void shouldReleaseSlotOfAgentThatStoppedSendingAggregates() {
+        // given
+        for (int i = 0; i < MIN_SLOT_COUNT; i++) {
+            aggregateFlushSlots.getOffsetMillis("agent-" + i);
+        }
+        int offset = aggregateFlushSlots.getOffsetMillis("agent-0");
+        // when
+        when(clock.currentTimeMillis()).thenReturn(MINUTES.toMillis(1003));
+        for (int i = 1; i < MIN_SLOT_COUNT; i++) {
+            aggregateFlushSlots.getOffsetMillis("agent-" + i);
+        }
+        when(clock.currentTimeMillis()).thenReturn(MINUTES.toMillis(1006));
+        // then
+        assertThat(aggregateFlushSlots.getOffsetMillis("b")).isEqualTo(offset);
+    }
+}
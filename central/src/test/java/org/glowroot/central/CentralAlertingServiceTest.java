@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.central.repo.ConfigRepositoryImpl;
+import org.glowroot.central.repo.HeartbeatDao;
+import org.glowroot.common.repo.util.AlertingService;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CentralAlertingServiceTest {
+
+    private static final AlertConfig ALERT_CONFIG = AlertConfig.newBuilder()
+            .setCondition(AlertCondition.newBuilder()
+                    .setMetricCondition(MetricCondition.newBuilder()
+                            .setMetric("transaction:average")
+                            .setTransactionType("Web")
+                            .setThreshold(1)
+                            .setTimePeriodSeconds(60)))
+            .build();
+
+    @Test
+    public void shouldSerializeAndCoalesceOverlappingChecksOfSameAlert() throws Exception {
+        // given
+        ConfigRepositoryImpl configRepository = mock(ConfigRepositoryImpl.class);
+        AlertingService alertingService = mock(AlertingService.class);
+        when(configRepository.getAlertConfigs("a")).thenReturn(ImmutableList.of(ALERT_CONFIG));
+        CountDownLatch firstCheckStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCheck = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Long> endTimes = Collections.synchronizedList(Lists.<Long>newArrayList());
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            long endTime = invocation.getArgument(4);
+            if (endTime == 60000) {
+                firstCheckStarted.countDown();
+                releaseFirstCheck.await(10, SECONDS);
+            }
+            endTimes.add(endTime);
+            running.decrementAndGet();
+            return null;
+        }).when(alertingService).checkMetricAlert(anyString(), anyString(),
+                any(AlertConfig.class), any(MetricCondition.class), anyLong());
+        CentralAlertingService centralAlertingService = new CentralAlertingService(
+                configRepository, mock(HeartbeatDao.class), alertingService);
+
+        // when
+        centralAlertingService.checkAggregateAlertsAsync("a", "a", 60000);
+        assertThat(firstCheckStarted.await(10, SECONDS)).isTrue();
+        centralAlertingService.checkAggregateAlertsAsync("a", "a", 180000);
+        centralAlertingService.checkAggregateAlertsAsync("a", "a", 120000);
+        releaseFirstCheck.countDown();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (endTimes.size() < 2 && stopwatch.elapsed(SECONDS) < 10) {
+            Thread.sleep(10);
+        }
+        // give a (wrongly) deferred third check a chance to run
+        Thread.sleep(100);
+        centralAlertingService.close();
+
+        // then
+        assertThat(endTimes).containsExactly(60000L, 180000L);
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+}
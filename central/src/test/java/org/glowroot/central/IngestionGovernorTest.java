@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IngestionGovernorTest {
+
+    @Test
+    public void shouldNotLimitWhenDisabled() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(0, 0, 0, 0);
+        // then
+        assertThat(ingestionGovernor.isEnabled()).isFalse();
+        for (int i = 0; i < 100; i++) {
+            assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a"), 1000000, 1)).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldLimitPerAgent() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(1000, 0, 0, 0);
+        // then
+        // first large message is let through, but borrows against the future
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a"), 100000, 1)).isTrue();
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a"), 1, 1)).isFalse();
+        // other agents have their own budget
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("b"), 1, 1)).isTrue();
+    }
+
+    @Test
+    public void shouldLimitPerAgentRollup() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(0, 0, 0, 1);
+        // then
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a", "x"), 1, 1)).isTrue();
+        // agent rollup budget is shared by all of its agents
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("b", "x"), 1, 1)).isFalse();
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("c", "y"), 1, 1)).isTrue();
+    }
+
+    @Test
+    public void shouldNotUseUpAgentBudgetWhenRejectedByAgentRollupBudget() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(0, 1, 0, 1);
+        // then
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a", "x"), 1, 1)).isTrue();
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("b", "x"), 1, 1)).isFalse();
+        // agent budget was not used up by the rejected message
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("b", "y"), 1, 1)).isTrue();
+    }
+
+    @Test
+    public void shouldNotUseUpAgentRollupBudgetWhenRejectedByAgentBudget() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(1000, 0, 0, 1);
+        // then
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a"), 100000, 1)).isTrue();
+        // rejected by the agent bytes budget
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("a", "x"), 1, 1)).isFalse();
+        // agent rollup messages budget was not used up by the rejected message
+        assertThat(ingestionGovernor.tryAcquire(ImmutableList.of("b", "x"), 1, 1)).isTrue();
+    }
+
+    @Test
+    public void shouldShareAgentRollupBudgetAcrossConcurrentAgents() throws Exception {
+        // given
+        IngestionGovernor ingestionGovernor = new IngestionGovernor(0, 1, 0, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger acquiredCount = new AtomicInteger();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        // when
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            String agentId = "x::y::" + i;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    if (ingestionGovernor.tryAcquire(ImmutableList.of(agentId, "x::y", "x"), 1,
+                            1)) {
+                        acquiredCount.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            // would time out on deadlock
+            future.get(30, SECONDS);
+        }
+        long elapsedSeconds = stopwatch.elapsed(SECONDS);
+        executor.shutdown();
+        // then
+        // the shared agent rollup budgets allow one message per second across all of the agents
+        assertThat(acquiredCount.get()).isBetween(1, (int) elapsedSeconds + 1);
+    }
+}
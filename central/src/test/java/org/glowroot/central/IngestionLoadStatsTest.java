@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import org.junit.Test;
+
+import org.glowroot.common.util.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IngestionLoadStatsTest {
+
+    @Test
+    public void shouldReportLastMinute() {
+        // given
+        Clock clock = mock(Clock.class);
+        IngestionLoadStats stats = new IngestionLoadStats(clock);
+        // when
+        when(clock.currentTimeMillis()).thenReturn(600000L);
+        stats.recordAggregates(100);
+        stats.recordAggregates(200);
+        when(clock.currentTimeMillis()).thenReturn(605500L);
+        stats.recordAggregates(300);
+        // then
+        assertThat(stats.getLastMinuteAggregateCount()).isEqualTo(0);
+        when(clock.currentTimeMillis()).thenReturn(660000L);
+        assertThat(stats.getLastMinuteAggregateCount()).isEqualTo(3);
+        assertThat(stats.getLastMinutePeakAggregatesPerSecond()).isEqualTo(2);
+        long[] counts = stats.getLastMinuteAggregatesPerSecond();
+        assertThat(counts[0]).isEqualTo(2);
+        assertThat(counts[5]).isEqualTo(1);
+        long[] bytes = stats.getLastMinuteAggregateBytesPerSecond();
+        assertThat(bytes[0]).isEqualTo(300);
+        assertThat(bytes[5]).isEqualTo(300);
+        // and when nothing received for a full minute
+        when(clock.currentTimeMillis()).thenReturn(780000L);
+        assertThat(stats.getLastMinuteAggregateCount()).isEqualTo(0);
+    }
+}
@@ -34,6 +34,7 @@ public class AgentDaoIT {
     private static Cluster cluster;
     private static Session session;
     private static ClusterManager clusterManager;
+    private static LayoutGenerationImpl layoutGeneration;
     private static AgentRollupDao agentRollupDao;
 
     @BeforeClass
@@ -44,8 +45,9 @@ public class AgentDaoIT {
         session.createKeyspaceIfNotExists("glowroot_unit_tests");
         session.execute("use glowroot_unit_tests");
         clusterManager = ClusterManager.create();
+        layoutGeneration = new LayoutGenerationImpl(clusterManager);
 
-        agentRollupDao = new AgentRollupDao(session, clusterManager);
+        agentRollupDao = new AgentRollupDao(session, clusterManager, layoutGeneration);
     }
 
     @AfterClass
@@ -104,6 +106,22 @@ public class AgentDaoIT {
         assertThat(agentRollupIds).containsExactly("a", "x/y/z", "x/y", "x");
     }
 
+    @Test
+    public void shouldNotChangeLayoutGenerationWhenAgentRollupUnchanged() throws Exception {
+        // given
+        agentRollupDao.store("a", "x/y");
+        Object layoutGeneration1 = layoutGeneration.get();
+        // when
+        agentRollupDao.store("a", "x/y");
+        Object layoutGeneration2 = layoutGeneration.get();
+        agentRollupDao.store("a", "x/z");
+        Object layoutGeneration3 = layoutGeneration.get();
+        // then
+        assertThat(layoutGeneration2).isEqualTo(layoutGeneration1);
+        assertThat(layoutGeneration3).isNotEqualTo(layoutGeneration2);
+        assertThat(agentRollupDao.readAgentRollupIds("a")).containsExactly("a", "x/z", "x");
+    }
+
     @Test
     public void shouldNotInsertInvalidRow() throws Exception {
         // when
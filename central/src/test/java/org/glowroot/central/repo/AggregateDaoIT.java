@@ -75,6 +75,9 @@ public class AggregateDaoIT {
     private static ClusterManager clusterManager;
     private static AgentRollupDao agentRollupDao;
     private static AgentConfigDao agentConfigDao;
+    private static ConfigRepositoryImpl configRepository;
+    private static TransactionTypeDao transactionTypeDao;
+    private static FullQueryTextDao fullQueryTextDao;
     private static AggregateDao aggregateDao;
 
     @BeforeClass
@@ -88,18 +91,23 @@ public class AggregateDaoIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        agentRollupDao = new AgentRollupDao(session, clusterManager);
-        agentConfigDao = new AgentConfigDao(session, clusterManager);
-        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
-        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager);
-        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
-        ConfigRepositoryImpl configRepository = new ConfigRepositoryImpl(agentRollupDao,
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        agentRollupDao = new AgentRollupDao(session, clusterManager, layoutGeneration);
+        agentConfigDao = new AgentConfigDao(session, clusterManager, layoutGeneration);
+        CentralConfigDao centralConfigDao =
+                new CentralConfigDao(session, clusterManager, layoutGeneration);
+        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        configRepository = new ConfigRepositoryImpl(agentRollupDao,
                 agentConfigDao, centralConfigDao, userDao, roleDao, "");
-        TransactionTypeDao transactionTypeDao =
-                new TransactionTypeDao(session, configRepository, clusterManager);
-        FullQueryTextDao fullQueryTextDao = new FullQueryTextDao(session, configRepository);
+        transactionTypeDao =
+                new TransactionTypeDao(session, configRepository, clusterManager, layoutGeneration);
+        fullQueryTextDao =
+                new FullQueryTextDao(session, configRepository, clusterManager);
+        AggregateBundleDao aggregateBundleDao =
+                new AggregateBundleDao(session, configRepository, false);
         aggregateDao = new AggregateDao(session, agentRollupDao, transactionTypeDao,
-                fullQueryTextDao, configRepository, Clock.systemClock());
+                fullQueryTextDao, aggregateBundleDao, configRepository, Clock.systemClock());
     }
 
     @AfterClass
@@ -291,6 +299,79 @@ public class AggregateDaoIT {
         assertThat(query.getExecutionCount()).isEqualTo(4);
     }
 
+    @Test
+    public void shouldReadFromAggregateBundle() throws Exception {
+
+        agentRollupDao.store("one", null);
+        agentConfigDao.store("one", null, AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build());
+
+        aggregateDao.truncateAll();
+        AggregateBundleDao aggregateBundleDao =
+                new AggregateBundleDao(session, configRepository, true);
+        AggregateDao bundleAggregateDao = new AggregateDao(session, agentRollupDao,
+                transactionTypeDao, fullQueryTextDao, aggregateBundleDao, configRepository,
+                Clock.systemClock());
+        List<Aggregate.SharedQueryText> sharedQueryText = ImmutableList
+                .of(Aggregate.SharedQueryText.newBuilder().setFullText("select 1").build());
+        bundleAggregateDao.store("one", 60000, createData(), sharedQueryText);
+        bundleAggregateDao.store("one", 120000, createData(), sharedQueryText);
+        bundleAggregateDao.store("one", 360000, createData(), sharedQueryText);
+
+        // the bundle is only complete from the first capture time that was stored with it
+        TransactionQuery transactionQuery = ImmutableTransactionQuery.builder()
+                .transactionType("tt1")
+                .from(60000)
+                .to(300000)
+                .rollupLevel(0)
+                .build();
+        assertThat(aggregateBundleDao.canRead("one", transactionQuery)).isTrue();
+        assertThat(aggregateBundleDao.canRead("one", ImmutableTransactionQuery.builder()
+                .copyFrom(transactionQuery)
+                .from(0)
+                .build())).isFalse();
+
+        List<OverviewAggregate> overviewAggregates =
+                bundleAggregateDao.readOverviewAggregates("one", transactionQuery);
+        assertThat(overviewAggregates).hasSize(2);
+        assertThat(overviewAggregates.get(0).transactionCount()).isEqualTo(3);
+        assertThat(overviewAggregates.get(1).transactionCount()).isEqualTo(3);
+
+        List<PercentileAggregate> percentileAggregates =
+                bundleAggregateDao.readPercentileAggregates("one", transactionQuery);
+        assertThat(percentileAggregates).hasSize(2);
+        assertThat(percentileAggregates.get(0).transactionCount()).isEqualTo(3);
+        assertThat(percentileAggregates.get(1).transactionCount()).isEqualTo(3);
+
+        List<ThroughputAggregate> throughputAggregates =
+                bundleAggregateDao.readThroughputAggregates("one", transactionQuery);
+        assertThat(throughputAggregates).hasSize(2);
+        assertThat(throughputAggregates.get(0).transactionCount()).isEqualTo(3);
+        assertThat(throughputAggregates.get(1).transactionCount()).isEqualTo(3);
+
+        // from is non-inclusive for queries, so only the aggregate at 120000 is included
+        QueryCollector queryCollector = new QueryCollector(1000);
+        bundleAggregateDao.mergeQueriesInto("one", transactionQuery, queryCollector);
+        Map<String, List<MutableQuery>> queries = queryCollector.getSortedAndTruncatedQueries();
+        assertThat(queries).hasSize(1);
+        List<MutableQuery> queriesByType = queries.get("sqlo");
+        assertThat(queriesByType).hasSize(1);
+        MutableQuery query = queriesByType.get(0);
+        assertThat(query.getTruncatedText()).isEqualTo("select 1");
+        assertThat(query.getFullTextSha1()).isNull();
+        assertThat(query.getTotalDurationNanos()).isEqualTo(7);
+        assertThat(query.getExecutionCount()).isEqualTo(2);
+
+        // disabling the bundle clears the since marker, so the bundle is not read again (for the
+        // time range above) even if it is re-enabled later on
+        new AggregateBundleDao(session, configRepository, false);
+        assertThat(session.execute("select agent_rollup from aggregate_bundle_since").one())
+                .isNull();
+        aggregateBundleDao = new AggregateBundleDao(session, configRepository, true);
+        assertThat(aggregateBundleDao.canRead("one", transactionQuery)).isFalse();
+    }
+
     @Test
     public void shouldRollupFromChildren() throws Exception {
 
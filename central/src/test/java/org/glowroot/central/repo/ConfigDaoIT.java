@@ -42,8 +42,9 @@ public class ConfigDaoIT {
         session.createKeyspaceIfNotExists("glowroot_unit_tests");
         session.execute("use glowroot_unit_tests");
         clusterManager = ClusterManager.create();
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
 
-        agentConfigDao = new AgentConfigDao(session, clusterManager);
+        agentConfigDao = new AgentConfigDao(session, clusterManager, layoutGeneration);
     }
 
     @AfterClass
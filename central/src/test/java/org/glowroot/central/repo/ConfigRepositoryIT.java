@@ -87,11 +87,14 @@ public class ConfigRepositoryIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        agentConfigDao = new AgentConfigDao(session, clusterManager);
-        AgentRollupDao agentRollupDao = new AgentRollupDao(session, clusterManager);
-        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
-        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager);
-        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        agentConfigDao = new AgentConfigDao(session, clusterManager, layoutGeneration);
+        AgentRollupDao agentRollupDao =
+                new AgentRollupDao(session, clusterManager, layoutGeneration);
+        CentralConfigDao centralConfigDao =
+                new CentralConfigDao(session, clusterManager, layoutGeneration);
+        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
         configRepository = new ConfigRepositoryImpl(agentRollupDao, agentConfigDao,
                 centralConfigDao, userDao, roleDao, "");
     }
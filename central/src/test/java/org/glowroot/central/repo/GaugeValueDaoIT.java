@@ -51,11 +51,14 @@ public class GaugeValueDaoIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
-        agentRollupDao = new AgentRollupDao(session, clusterManager);
-        AgentConfigDao agentConfigDao = new AgentConfigDao(session, clusterManager);
-        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager);
-        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        CentralConfigDao centralConfigDao =
+                new CentralConfigDao(session, clusterManager, layoutGeneration);
+        agentRollupDao = new AgentRollupDao(session, clusterManager, layoutGeneration);
+        AgentConfigDao agentConfigDao =
+                new AgentConfigDao(session, clusterManager, layoutGeneration);
+        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
         ConfigRepositoryImpl configRepository = new ConfigRepositoryImpl(agentRollupDao,
                 agentConfigDao, centralConfigDao, userDao, roleDao, "");
         gaugeValueDao = new GaugeValueDao(session, agentRollupDao, configRepository, clusterManager,
@@ -146,6 +149,49 @@ public class GaugeValueDaoIT {
         assertThat(gaugeValues.get(0).getWeight()).isEqualTo(2);
     }
 
+    @Test
+    public void shouldRollupFromChildrenWithManyGaugeNames() throws Exception {
+
+        agentRollupDao.store("one", "the parent");
+        agentRollupDao.store("two", "the parent");
+
+        gaugeValueDao.truncateAll();
+        // more than MAX_GAUGE_NAMES_PER_CHILD_READ, so that each child read is split into batches
+        gaugeValueDao.store("one", createData(60013, 250, 500));
+        gaugeValueDao.store("one", createData(65009, 250, 500));
+        gaugeValueDao.store("one", createData(360000, 250, 500));
+        gaugeValueDao.store("two", createData(60013, 250, 700));
+        gaugeValueDao.store("two", createData(65009, 250, 700));
+        gaugeValueDao.store("two", createData(360000, 250, 700));
+
+        // rollup
+        gaugeValueDao.rollup("one", "the parent", true);
+        gaugeValueDao.rollup("two", "the parent", true);
+        gaugeValueDao.rollup("the parent", null, false);
+
+        // check rolled-up data after rollup
+        for (int i = 0; i < 250; i++) {
+            List<GaugeValue> gaugeValues = gaugeValueDao.readGaugeValues("the parent",
+                    "the gauge:attr" + i, 0, 300000, 1);
+            assertThat(gaugeValues).hasSize(1);
+            assertThat(gaugeValues.get(0).getValue()).isEqualTo(600);
+            assertThat(gaugeValues.get(0).getWeight()).isEqualTo(4);
+        }
+    }
+
+    private static List<GaugeValue> createData(int captureTime, int gaugeCount, int value) {
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (int i = 0; i < gaugeCount; i++) {
+            gaugeValues.add(GaugeValue.newBuilder()
+                    .setGaugeName("the gauge:attr" + i)
+                    .setCaptureTime(captureTime)
+                    .setValue(value)
+                    .setWeight(1)
+                    .build());
+        }
+        return gaugeValues;
+    }
+
     private static List<GaugeValue> createData(int captureTime) {
         List<GaugeValue> gaugeValues = Lists.newArrayList();
         gaugeValues.add(GaugeValue.newBuilder()
@@ -46,7 +46,8 @@ public class RoleDaoIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
     }
 
     @AfterClass
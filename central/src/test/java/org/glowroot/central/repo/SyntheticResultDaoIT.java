@@ -52,11 +52,14 @@ public class SyntheticResultDaoIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        CentralConfigDao centralConfigDao = new CentralConfigDao(session, clusterManager);
-        agentRollupDao = new AgentRollupDao(session, clusterManager);
-        AgentConfigDao agentConfigDao = new AgentConfigDao(session, clusterManager);
-        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager);
-        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager);
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        CentralConfigDao centralConfigDao =
+                new CentralConfigDao(session, clusterManager, layoutGeneration);
+        agentRollupDao = new AgentRollupDao(session, clusterManager, layoutGeneration);
+        AgentConfigDao agentConfigDao =
+                new AgentConfigDao(session, clusterManager, layoutGeneration);
+        UserDao userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
+        RoleDao roleDao = new RoleDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
         ConfigRepositoryImpl configRepository = new ConfigRepositoryImpl(agentRollupDao,
                 agentConfigDao, centralConfigDao, userDao, roleDao, "");
         syntheticResultDao = new SyntheticResultDao(session, configRepository, Clock.systemClock());
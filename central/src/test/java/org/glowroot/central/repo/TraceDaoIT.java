@@ -57,12 +57,15 @@ public class TraceDaoIT {
         session.execute("use glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
         ConfigRepositoryImpl configRepository = mock(ConfigRepositoryImpl.class);
         when(configRepository.getCentralStorageConfig())
                 .thenReturn(ImmutableCentralStorageConfig.builder().build());
-        traceDao = new TraceDao(session, new AgentRollupDao(session, clusterManager),
+        traceDao = new TraceDao(session,
+                new AgentRollupDao(session, clusterManager, layoutGeneration),
                 mock(TransactionTypeDao.class), mock(FullQueryTextDao.class),
-                mock(TraceAttributeNameDao.class), configRepository, Clock.systemClock());
+                mock(TraceAttributeNameDao.class), configRepository, clusterManager,
+                Clock.systemClock());
     }
 
     @AfterClass
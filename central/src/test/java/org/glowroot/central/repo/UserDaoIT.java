@@ -46,7 +46,8 @@ public class UserDaoIT {
                 cluster.getMetadata().getKeyspace("glowroot_unit_tests");
 
         clusterManager = ClusterManager.create();
-        userDao = new UserDao(session, keyspaceMetadata, clusterManager);
+        LayoutGenerationImpl layoutGeneration = new LayoutGenerationImpl(clusterManager);
+        userDao = new UserDao(session, keyspaceMetadata, clusterManager, layoutGeneration);
     }
 
     @AfterClass
@@ -40,6 +40,12 @@ public interface LiveJvmService {
 
     HeapHistogram heapHistogram(String agentId) throws Exception;
 
+    // takes a heap histogram and keeps it on the agent as the baseline for heapHistogramDiff()
+    void heapHistogramDiffBaseline(String agentId, String diffId) throws Exception;
+
+    // returns only the per-class change since the baseline, which is then discarded
+    HeapHistogram heapHistogramDiff(String agentId, String diffId) throws Exception;
+
     void gc(String agentId) throws Exception;
 
     MBeanDump getMBeanDump(String agentId, MBeanDumpKind mbeanDumpKind, List<String> objectNames)
@@ -68,4 +74,7 @@ public interface LiveJvmService {
 
     @SuppressWarnings("serial")
     public class DirectoryDoesNotExistException extends Exception {}
+
+    @SuppressWarnings("serial")
+    public class HeapHistogramDiffBaselineExpiredException extends Exception {}
 }
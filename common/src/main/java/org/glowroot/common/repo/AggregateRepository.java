@@ -19,6 +19,8 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Function;
+
 import org.glowroot.common.live.LiveAggregateRepository.OverallQuery;
 import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
@@ -72,6 +74,27 @@ public interface AggregateRepository {
     List<ThroughputAggregate> readThroughputAggregates(String agentRollupId, TransactionQuery query)
             throws Exception;
 
+    // query.from() is INCLUSIVE
+    // aggregates are rolled up into the intervals given by rollupCaptureTimeFn as they are read
+    // (see AggregateRollups), and each rolled up aggregate is passed to the consumer in capture
+    // time order, so that long time ranges (e.g. reports) can be rolled up without holding all of
+    // the non-rolled up aggregates in memory
+    void streamOverviewAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn, AggregateConsumer<OverviewAggregate> consumer)
+            throws Exception;
+
+    // query.from() is INCLUSIVE
+    // see comment above streamOverviewAggregates()
+    void streamPercentileAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<PercentileAggregate> consumer) throws Exception;
+
+    // query.from() is INCLUSIVE
+    // see comment above streamOverviewAggregates()
+    void streamThroughputAggregates(String agentRollupId, TransactionQuery query,
+            Function<Long, Long> rollupCaptureTimeFn,
+            AggregateConsumer<ThroughputAggregate> consumer) throws Exception;
+
     @Nullable
     String readFullQueryText(String agentRollupId, String fullQueryTextSha1) throws Exception;
 
@@ -110,4 +133,8 @@ public interface AggregateRepository {
     // query.from() is non-inclusive
     boolean shouldHaveAuxThreadProfile(String agentRollupId, TransactionQuery query)
             throws Exception;
+
+    interface AggregateConsumer<T> {
+        void accept(T aggregate) throws Exception;
+    }
 }
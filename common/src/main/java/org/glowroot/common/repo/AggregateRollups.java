@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.repo;
+
+import com.google.common.base.Function;
+
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
+
+// the rollup classes below merge ordered aggregates into the current rollup interval as they are
+// passed in (e.g. while streaming from the repository), and pass each rolled up aggregate on to the
+// rolled up consumer once its rollup interval is complete, so only the current rollup interval is
+// retained in memory, not the non-rolled up aggregates
+//
+// finish() must be called after the last aggregate in order to pass on the final rollup interval,
+// which (same as the rest of the ui) uses the capture time of its last aggregate instead of its
+// rollup capture time, since the final rollup interval may not be complete yet
+public class AggregateRollups {
+
+    private AggregateRollups() {}
+
+    public static class OverviewRollup implements AggregateConsumer<OverviewAggregate> {
+
+        private final Function<Long, Long> rollupCaptureTimeFn;
+        private final AggregateConsumer<OverviewAggregate> rolledUpConsumer;
+
+        private MutableAggregate currMergedAggregate = new MutableAggregate(0, 0);
+        private long currRollupCaptureTime = Long.MIN_VALUE;
+        private long maxCaptureTime = Long.MIN_VALUE;
+
+        public OverviewRollup(Function<Long, Long> rollupCaptureTimeFn,
+                AggregateConsumer<OverviewAggregate> rolledUpConsumer) {
+            this.rollupCaptureTimeFn = rollupCaptureTimeFn;
+            this.rolledUpConsumer = rolledUpConsumer;
+        }
+
+        @Override
+        public void accept(OverviewAggregate nonRolledUpOverviewAggregate) throws Exception {
+            maxCaptureTime = nonRolledUpOverviewAggregate.captureTime();
+            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
+            if (rollupCaptureTime != currRollupCaptureTime && !currMergedAggregate.isEmpty()) {
+                rolledUpConsumer
+                        .accept(currMergedAggregate.toOverviewAggregate(currRollupCaptureTime));
+                currMergedAggregate = new MutableAggregate(0, 0);
+            }
+            currRollupCaptureTime = rollupCaptureTime;
+            currMergedAggregate
+                    .addTotalDurationNanos(nonRolledUpOverviewAggregate.totalDurationNanos());
+            currMergedAggregate
+                    .addTransactionCount(nonRolledUpOverviewAggregate.transactionCount());
+            currMergedAggregate
+                    .mergeMainThreadRootTimers(nonRolledUpOverviewAggregate.mainThreadRootTimers());
+            currMergedAggregate
+                    .mergeAuxThreadRootTimers(nonRolledUpOverviewAggregate.auxThreadRootTimers());
+            currMergedAggregate
+                    .mergeAsyncTimers(nonRolledUpOverviewAggregate.asyncTimers());
+            currMergedAggregate
+                    .mergeMainThreadStats(nonRolledUpOverviewAggregate.mainThreadStats());
+            currMergedAggregate.mergeAuxThreadStats(nonRolledUpOverviewAggregate.auxThreadStats());
+        }
+
+        public void finish() throws Exception {
+            if (!currMergedAggregate.isEmpty()) {
+                // roll up final one
+                rolledUpConsumer.accept(currMergedAggregate.toOverviewAggregate(maxCaptureTime));
+                currMergedAggregate = new MutableAggregate(0, 0);
+            }
+        }
+    }
+
+    public static class PercentileRollup implements AggregateConsumer<PercentileAggregate> {
+
+        private final Function<Long, Long> rollupCaptureTimeFn;
+        private final AggregateConsumer<PercentileAggregate> rolledUpConsumer;
+
+        private MutableAggregate currMergedAggregate = new MutableAggregate(0, 0);
+        private long currRollupCaptureTime = Long.MIN_VALUE;
+        private long maxCaptureTime = Long.MIN_VALUE;
+
+        public PercentileRollup(Function<Long, Long> rollupCaptureTimeFn,
+                AggregateConsumer<PercentileAggregate> rolledUpConsumer) {
+            this.rollupCaptureTimeFn = rollupCaptureTimeFn;
+            this.rolledUpConsumer = rolledUpConsumer;
+        }
+
+        @Override
+        public void accept(PercentileAggregate nonRolledUpPercentileAggregate) throws Exception {
+            maxCaptureTime = nonRolledUpPercentileAggregate.captureTime();
+            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
+            if (rollupCaptureTime != currRollupCaptureTime && !currMergedAggregate.isEmpty()) {
+                rolledUpConsumer
+                        .accept(currMergedAggregate.toPercentileAggregate(currRollupCaptureTime));
+                currMergedAggregate = new MutableAggregate(0, 0);
+            }
+            currRollupCaptureTime = rollupCaptureTime;
+            currMergedAggregate
+                    .addTotalDurationNanos(nonRolledUpPercentileAggregate.totalDurationNanos());
+            currMergedAggregate
+                    .addTransactionCount(nonRolledUpPercentileAggregate.transactionCount());
+            currMergedAggregate.mergeDurationNanosHistogram(
+                    nonRolledUpPercentileAggregate.durationNanosHistogram());
+        }
+
+        public void finish() throws Exception {
+            if (!currMergedAggregate.isEmpty()) {
+                // roll up final one
+                rolledUpConsumer.accept(currMergedAggregate.toPercentileAggregate(maxCaptureTime));
+                currMergedAggregate = new MutableAggregate(0, 0);
+            }
+        }
+    }
+
+    public static class ThroughputRollup implements AggregateConsumer<ThroughputAggregate> {
+
+        private final Function<Long, Long> rollupCaptureTimeFn;
+        private final AggregateConsumer<ThroughputAggregate> rolledUpConsumer;
+
+        private long currTransactionCount;
+        // error_count is null for data inserted prior to glowroot central 0.9.18
+        // rolling up any interval with null error_count should result in null error_count
+        private boolean hasMissingErrorCount;
+        private long currErrorCount;
+        private long currRollupCaptureTime = Long.MIN_VALUE;
+        private long maxCaptureTime = Long.MIN_VALUE;
+
+        public ThroughputRollup(Function<Long, Long> rollupCaptureTimeFn,
+                AggregateConsumer<ThroughputAggregate> rolledUpConsumer) {
+            this.rollupCaptureTimeFn = rollupCaptureTimeFn;
+            this.rolledUpConsumer = rolledUpConsumer;
+        }
+
+        @Override
+        public void accept(ThroughputAggregate nonRolledUpThroughputAggregate) throws Exception {
+            maxCaptureTime = nonRolledUpThroughputAggregate.captureTime();
+            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
+            if (rollupCaptureTime != currRollupCaptureTime && currTransactionCount > 0) {
+                passOnRolledUpAggregate(currRollupCaptureTime);
+            }
+            currRollupCaptureTime = rollupCaptureTime;
+            currTransactionCount += nonRolledUpThroughputAggregate.transactionCount();
+            Long errorCount = nonRolledUpThroughputAggregate.errorCount();
+            if (errorCount == null) {
+                hasMissingErrorCount = true;
+            } else {
+                currErrorCount += errorCount;
+            }
+        }
+
+        public void finish() throws Exception {
+            if (currTransactionCount > 0) {
+                // roll up final one
+                passOnRolledUpAggregate(maxCaptureTime);
+            }
+        }
+
+        private void passOnRolledUpAggregate(long captureTime) throws Exception {
+            rolledUpConsumer.accept(ImmutableThroughputAggregate.builder()
+                    .captureTime(captureTime)
+                    .transactionCount(currTransactionCount)
+                    .errorCount(hasMissingErrorCount ? null : currErrorCount)
+                    .build());
+            currTransactionCount = 0;
+            hasMissingErrorCount = false;
+            currErrorCount = 0;
+        }
+    }
+}
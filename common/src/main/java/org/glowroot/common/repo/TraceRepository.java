@@ -15,6 +15,7 @@
  */
 package org.glowroot.common.repo;
 
+import java.io.Closeable;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -58,13 +59,17 @@ public interface TraceRepository {
     @Nullable
     Entries readEntries(String agentRollupId, String agentId, String traceId) throws Exception;
 
-    // null return value means trace not found or was found but had no entries (and therefore also
-    // no queries)
+    // null return value means trace not found (an empty cursor is returned if the trace was found
+    // but had no entries)
+    //
+    // entries and SharedQueryTexts are read lazily from the returned cursor, so that exporting a
+    // trace with a very large number of entries does not need to hold all of them in memory, and
+    // the returned cursor must be closed even if the export is abandoned before it is fully read
     //
     // since this is only used by export, SharedQueryTexts are always returned with fullTrace
     // (never with truncatedText/truncatedEndText/fullTraceSha1)
     @Nullable
-    Entries readEntriesForExport(String agentRollupId, String agentId, String traceId)
+    EntriesCursor readEntriesForExport(String agentRollupId, String agentId, String traceId)
             throws Exception;
 
     // null return value means trace not found or was found but had no main thread profile
@@ -77,6 +82,16 @@ public interface TraceRepository {
     Profile readAuxThreadProfile(String agentRollupId, String agentId, String traceId)
             throws Exception;
 
+    // all entries must be read before reading the shared query texts
+    interface EntriesCursor extends Closeable {
+        // null return value means there are no more entries
+        @Nullable
+        Trace.Entry readNextEntry() throws Exception;
+        // null return value means there are no more shared query texts
+        @Nullable
+        Trace.SharedQueryText readNextSharedQueryText() throws Exception;
+    }
+
     @Value.Immutable
     interface TraceQuery {
         String transactionType();
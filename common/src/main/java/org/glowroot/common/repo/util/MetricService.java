@@ -16,11 +16,19 @@
 package org.glowroot.common.repo.util;
 
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.immutables.value.Value;
 
 import org.glowroot.common.live.ImmutableTransactionQuery;
 import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
@@ -29,19 +37,44 @@ import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.repo.AggregateRepository;
 import org.glowroot.common.repo.GaugeValueRepository;
+import org.glowroot.common.util.AggregateFlushOffsets;
+import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.HOURS;
 
 class MetricService {
 
     private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
 
+    private static final int MAX_SLIDING_WINDOWS = 10000;
+
+    // aggregates (and gauge values) can be stored after their capture time has already been
+    // evaluated, since agents spread out their aggregate flushes over a window of up to
+    // AggregateFlushOffsets.MAX_WINDOW_MILLIS after each minute boundary (and retry on failure), so
+    // each evaluation re-reads this trailing overlap of the previous window (twice the max flush
+    // window to also cover transmission and retry delays)
+    private static final long REREAD_OVERLAP_MILLIS = 2L * AggregateFlushOffsets.MAX_WINDOW_MILLIS;
+
     private final AggregateRepository aggregateRepository;
     private final GaugeValueRepository gaugeValueRepository;
     private final RollupLevelService rollupLevelService;
 
+    // sliding window state per alert, so that each evaluation only needs to read the newest
+    // aggregates (or gauge values) from storage instead of re-reading the entire alert window
+    //
+    // the key includes the full metric condition, so any change to the alert condition starts a
+    // new window that is rebuilt from storage, and windows for deleted alerts just expire
+    //
+    // bounded by size since the number of windows is the number of alerts times the number of
+    // agents they apply to, and each window retains the values for its entire alert window
+    private final Cache<WindowKey, SlidingWindow<?>> slidingWindows = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SLIDING_WINDOWS)
+            .expireAfterAccess(1, HOURS)
+            .build();
+
     public MetricService(AggregateRepository aggregateRepository,
             GaugeValueRepository gaugeValueRepository, RollupLevelService rollupLevelService) {
         this.aggregateRepository = aggregateRepository;
@@ -52,46 +85,31 @@ class MetricService {
     @Nullable
     Number getMetricValue(String agentRollupId, MetricCondition metricCondition, long startTime,
             long endTime) throws Exception {
+        WindowKey windowKey = ImmutableWindowKey.of(agentRollupId, metricCondition);
         String metric = metricCondition.getMetric();
         if (metric.equals("transaction:x-percentile")) {
-            return getTransactionDurationPercentile(agentRollupId,
-                    metricCondition.getTransactionType(),
-                    Strings.emptyToNull(metricCondition.getTransactionName()),
+            return getTransactionDurationPercentile(windowKey,
                     metricCondition.getPercentile().getValue(), startTime, endTime);
         } else if (metric.equals("transaction:average")) {
-            return getTransactionAverage(agentRollupId, metricCondition.getTransactionType(),
-                    Strings.emptyToNull(metricCondition.getTransactionName()), startTime, endTime);
+            return getTransactionAverage(windowKey, startTime, endTime);
         } else if (metric.equals("transaction:count")) {
-            return getTransactionCount(agentRollupId, metricCondition.getTransactionType(),
-                    Strings.emptyToNull(metricCondition.getTransactionName()), startTime, endTime);
+            return getTransactionCount(windowKey, startTime, endTime);
         } else if (metric.equals("error:rate")) {
-            return getErrorRate(agentRollupId, metricCondition.getTransactionType(),
-                    Strings.emptyToNull(metricCondition.getTransactionName()), startTime, endTime);
+            return getErrorRate(windowKey, startTime, endTime);
         } else if (metric.equals("error:count")) {
-            return getErrorCount(agentRollupId, metricCondition.getTransactionType(),
-                    Strings.emptyToNull(metricCondition.getTransactionName()), startTime, endTime);
+            return getErrorCount(windowKey, startTime, endTime);
         } else if (metric.startsWith("gauge:")) {
-            return getGaugeValue(agentRollupId, metric.substring("gauge:".length()), startTime,
+            return getGaugeValue(windowKey, metric.substring("gauge:".length()), startTime,
                     endTime);
         } else {
             throw new IllegalStateException("Unexpected metric: " + metric);
         }
     }
 
-    private @Nullable Double getTransactionDurationPercentile(String agentRollupId,
-            String transactionType, @Nullable String transactionName, double percentile,
-            long startTime, long endTime) throws Exception {
-        int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
-        // startTime + 1 in order to not include the aggregate value at startTime
+    private @Nullable Double getTransactionDurationPercentile(WindowKey windowKey,
+            double percentile, long startTime, long endTime) throws Exception {
         List<PercentileAggregate> aggregates =
-                aggregateRepository.readPercentileAggregates(agentRollupId,
-                        ImmutableTransactionQuery.builder()
-                                .transactionType(transactionType)
-                                .transactionName(transactionName)
-                                .from(startTime + 1)
-                                .to(endTime)
-                                .rollupLevel(rollupLevel)
-                                .build());
+                getPercentileAggregates(windowKey, startTime, endTime);
         if (aggregates.isEmpty()) {
             return null;
         }
@@ -103,10 +121,9 @@ class MetricService {
                 / NANOSECONDS_PER_MILLISECOND;
     }
 
-    private @Nullable Double getTransactionAverage(String agentRollupId, String transactionType,
-            @Nullable String transactionName, long startTime, long endTime) throws Exception {
-        List<OverviewAggregate> aggregates = getOverviewAggregates(agentRollupId, transactionType,
-                transactionName, startTime, endTime);
+    private @Nullable Double getTransactionAverage(WindowKey windowKey, long startTime,
+            long endTime) throws Exception {
+        List<OverviewAggregate> aggregates = getOverviewAggregates(windowKey, startTime, endTime);
         if (aggregates.isEmpty()) {
             return null;
         }
@@ -122,10 +139,10 @@ class MetricService {
         return totalDurationNanos / (totalTransactionCount * NANOSECONDS_PER_MILLISECOND);
     }
 
-    private long getTransactionCount(String agentRollupId, String transactionType,
-            @Nullable String transactionName, long startTime, long endTime) throws Exception {
-        List<ThroughputAggregate> throughputAggregates = getThroughputAggregates(agentRollupId,
-                transactionType, transactionName, startTime, endTime);
+    private long getTransactionCount(WindowKey windowKey, long startTime, long endTime)
+            throws Exception {
+        List<ThroughputAggregate> throughputAggregates =
+                getThroughputAggregates(windowKey, startTime, endTime);
         long totalTransactionCount = 0;
         for (ThroughputAggregate throughputAggregate : throughputAggregates) {
             totalTransactionCount += throughputAggregate.transactionCount();
@@ -133,10 +150,10 @@ class MetricService {
         return totalTransactionCount;
     }
 
-    private @Nullable Double getErrorRate(String agentRollupId, String transactionType,
-            @Nullable String transactionName, long startTime, long endTime) throws Exception {
-        List<ThroughputAggregate> aggregates = getThroughputAggregates(agentRollupId,
-                transactionType, transactionName, startTime, endTime);
+    private @Nullable Double getErrorRate(WindowKey windowKey, long startTime, long endTime)
+            throws Exception {
+        List<ThroughputAggregate> aggregates =
+                getThroughputAggregates(windowKey, startTime, endTime);
         if (aggregates.isEmpty()) {
             return null;
         }
@@ -152,10 +169,10 @@ class MetricService {
         return (100.0 * totalErrorCount) / totalTransactionCount;
     }
 
-    private long getErrorCount(String agentRollupId, String transactionType,
-            @Nullable String transactionName, long startTime, long endTime) throws Exception {
-        List<ThroughputAggregate> aggregates = getThroughputAggregates(agentRollupId,
-                transactionType, transactionName, startTime, endTime);
+    private long getErrorCount(WindowKey windowKey, long startTime, long endTime)
+            throws Exception {
+        List<ThroughputAggregate> aggregates =
+                getThroughputAggregates(windowKey, startTime, endTime);
         long totalErrorCount = 0;
         for (ThroughputAggregate aggregate : aggregates) {
             totalErrorCount += MoreObjects.firstNonNull(aggregate.errorCount(), 0L);
@@ -163,12 +180,29 @@ class MetricService {
         return totalErrorCount;
     }
 
-    private @Nullable Double getGaugeValue(String agentRollupId, String gaugeName,
+    private @Nullable Double getGaugeValue(WindowKey windowKey, final String gaugeName,
             long startTime, long endTime) throws Exception {
+        final String agentRollupId = windowKey.agentRollupId();
         int rollupLevel = rollupLevelService.getGaugeRollupLevelForView(startTime, endTime);
-        // startTime + 1 in order to not include the gauge value at startTime
-        List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollupId,
-                gaugeName, startTime + 1, endTime, rollupLevel);
+        SlidingWindow<GaugeValue> slidingWindow =
+                getSlidingWindow(windowKey, new Callable<SlidingWindow<GaugeValue>>() {
+                    @Override
+                    public SlidingWindow<GaugeValue> call() {
+                        return new SlidingWindow<GaugeValue>() {
+                            @Override
+                            List<GaugeValue> read(long from, long to, int rollupLevel)
+                                    throws Exception {
+                                return gaugeValueRepository.readGaugeValues(agentRollupId,
+                                        gaugeName, from, to, rollupLevel);
+                            }
+                            @Override
+                            long getCaptureTime(GaugeValue gaugeValue) {
+                                return gaugeValue.getCaptureTime();
+                            }
+                        };
+                    }
+                });
+        List<GaugeValue> gaugeValues = slidingWindow.update(startTime, endTime, rollupLevel);
         if (gaugeValues.isEmpty()) {
             return null;
         }
@@ -184,33 +218,158 @@ class MetricService {
         return totalWeightedValue / totalWeight;
     }
 
-    private List<ThroughputAggregate> getThroughputAggregates(String agentRollupId,
-            String transactionType, @Nullable String transactionName, long startTime, long endTime)
-            throws Exception {
+    private List<PercentileAggregate> getPercentileAggregates(WindowKey windowKey,
+            long startTime, long endTime) throws Exception {
+        final String agentRollupId = windowKey.agentRollupId();
+        final MetricCondition metricCondition = windowKey.metricCondition();
         int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
-        // startTime + 1 in order to not include the aggregate at startTime
-        return aggregateRepository.readThroughputAggregates(agentRollupId,
-                ImmutableTransactionQuery.builder()
-                        .transactionType(transactionType)
-                        .transactionName(transactionName)
-                        .from(startTime + 1)
-                        .to(endTime)
-                        .rollupLevel(rollupLevel)
-                        .build());
+        SlidingWindow<PercentileAggregate> slidingWindow = getSlidingWindow(windowKey,
+                new Callable<SlidingWindow<PercentileAggregate>>() {
+                    @Override
+                    public SlidingWindow<PercentileAggregate> call() {
+                        return new SlidingWindow<PercentileAggregate>() {
+                            @Override
+                            List<PercentileAggregate> read(long from, long to, int rollupLevel)
+                                    throws Exception {
+                                return aggregateRepository.readPercentileAggregates(
+                                        agentRollupId, buildTransactionQuery(metricCondition,
+                                                from, to, rollupLevel));
+                            }
+                            @Override
+                            long getCaptureTime(PercentileAggregate aggregate) {
+                                return aggregate.captureTime();
+                            }
+                        };
+                    }
+                });
+        return slidingWindow.update(startTime, endTime, rollupLevel);
     }
 
-    private List<OverviewAggregate> getOverviewAggregates(String agentRollupId,
-            String transactionType, @Nullable String transactionName, long startTime, long endTime)
-            throws Exception {
+    private List<ThroughputAggregate> getThroughputAggregates(WindowKey windowKey,
+            long startTime, long endTime) throws Exception {
+        final String agentRollupId = windowKey.agentRollupId();
+        final MetricCondition metricCondition = windowKey.metricCondition();
+        int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
+        SlidingWindow<ThroughputAggregate> slidingWindow = getSlidingWindow(windowKey,
+                new Callable<SlidingWindow<ThroughputAggregate>>() {
+                    @Override
+                    public SlidingWindow<ThroughputAggregate> call() {
+                        return new SlidingWindow<ThroughputAggregate>() {
+                            @Override
+                            List<ThroughputAggregate> read(long from, long to, int rollupLevel)
+                                    throws Exception {
+                                return aggregateRepository.readThroughputAggregates(
+                                        agentRollupId, buildTransactionQuery(metricCondition,
+                                                from, to, rollupLevel));
+                            }
+                            @Override
+                            long getCaptureTime(ThroughputAggregate aggregate) {
+                                return aggregate.captureTime();
+                            }
+                        };
+                    }
+                });
+        return slidingWindow.update(startTime, endTime, rollupLevel);
+    }
+
+    private List<OverviewAggregate> getOverviewAggregates(WindowKey windowKey, long startTime,
+            long endTime) throws Exception {
+        final String agentRollupId = windowKey.agentRollupId();
+        final MetricCondition metricCondition = windowKey.metricCondition();
         int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
-        // startTime + 1 in order to not include the aggregate at startTime
-        return aggregateRepository.readOverviewAggregates(agentRollupId,
-                ImmutableTransactionQuery.builder()
-                        .transactionType(transactionType)
-                        .transactionName(transactionName)
-                        .from(startTime + 1)
-                        .to(endTime)
-                        .rollupLevel(rollupLevel)
-                        .build());
+        SlidingWindow<OverviewAggregate> slidingWindow = getSlidingWindow(windowKey,
+                new Callable<SlidingWindow<OverviewAggregate>>() {
+                    @Override
+                    public SlidingWindow<OverviewAggregate> call() {
+                        return new SlidingWindow<OverviewAggregate>() {
+                            @Override
+                            List<OverviewAggregate> read(long from, long to, int rollupLevel)
+                                    throws Exception {
+                                return aggregateRepository.readOverviewAggregates(
+                                        agentRollupId, buildTransactionQuery(metricCondition,
+                                                from, to, rollupLevel));
+                            }
+                            @Override
+                            long getCaptureTime(OverviewAggregate aggregate) {
+                                return aggregate.captureTime();
+                            }
+                        };
+                    }
+                });
+        return slidingWindow.update(startTime, endTime, rollupLevel);
+    }
+
+    // the window key determines the metric, so the cached window is always of the requested type
+    @SuppressWarnings("unchecked")
+    private <T> SlidingWindow<T> getSlidingWindow(WindowKey windowKey,
+            Callable<SlidingWindow<T>> loader) throws Exception {
+        return (SlidingWindow<T>) slidingWindows.get(windowKey, loader);
+    }
+
+    private static ImmutableTransactionQuery buildTransactionQuery(MetricCondition metricCondition,
+            long from, long to, int rollupLevel) {
+        return ImmutableTransactionQuery.builder()
+                .transactionType(metricCondition.getTransactionType())
+                .transactionName(Strings.emptyToNull(metricCondition.getTransactionName()))
+                .from(from)
+                .to(to)
+                .rollupLevel(rollupLevel)
+                .build();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface WindowKey {
+        String agentRollupId();
+        MetricCondition metricCondition();
+    }
+
+    // holds the values (keyed by capture time) inside the alert window from the last evaluation,
+    // so that the next evaluation only needs to read the values that are newer than that, and
+    // evict the values that have fallen out of the window
+    abstract static class SlidingWindow<T> {
+
+        @GuardedBy("this")
+        private final NavigableMap<Long, T> values = Maps.newTreeMap();
+        // -1 means the window needs to be rebuilt from storage
+        @GuardedBy("this")
+        private int rollupLevel = -1;
+        @GuardedBy("this")
+        private long startTime;
+        @GuardedBy("this")
+        private long endTime;
+
+        // returns the values with capture time in (startTime, endTime]
+        synchronized List<T> update(long startTime, long endTime, int rollupLevel)
+                throws Exception {
+            long from;
+            if (rollupLevel == this.rollupLevel && startTime >= this.startTime
+                    && endTime >= this.endTime) {
+                // values in the trailing overlap are re-read in case they arrived (or more data
+                // arrived for their capture times) after the previous evaluation
+                from = Math.max(startTime + 1, this.endTime - REREAD_OVERLAP_MILLIS);
+                values.tailMap(from, true).clear();
+            } else {
+                values.clear();
+                // startTime + 1 in order to not include the value at startTime
+                from = startTime + 1;
+            }
+            // in case the read below fails, rebuild from storage on next evaluation
+            this.rollupLevel = -1;
+            if (from <= endTime) {
+                for (T value : read(from, endTime, rollupLevel)) {
+                    values.put(getCaptureTime(value), value);
+                }
+            }
+            values.headMap(startTime, true).clear();
+            this.rollupLevel = rollupLevel;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            return ImmutableList.copyOf(values.values());
+        }
+
+        abstract List<T> read(long from, long to, int rollupLevel) throws Exception;
+
+        abstract long getCaptureTime(T value);
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+// all agents end their aggregate intervals on the same minute boundary, so the sending of aggregates
+// to the central collector is spread out over a window following the boundary, in slots that are
+// assigned by the central collector (least loaded first, and then sticky, see AggregateFlushSlots
+// in the central module)
+//
+// prior to receiving its slot from the central collector, the agent uses a slot derived from its
+// agent id (getOffsetMillis() below), so that it lands in the same slot every time it starts up
+public class AggregateFlushOffsets {
+
+    public static final int SLOT_MILLIS = 100;
+
+    // this is the window used by the agent prior to receiving its slot from the central collector
+    public static final int MIN_WINDOW_MILLIS = 10000;
+
+    // the agent caps delays from the central collector at 30 seconds
+    public static final int MAX_WINDOW_MILLIS = 30000;
+
+    private AggregateFlushOffsets() {}
+
+    // this is the slot used by the agent prior to receiving its slot from the central collector
+    public static int getOffsetMillis(String agentId, int windowMillis) {
+        int slotCount = Math.max(windowMillis / SLOT_MILLIS, 1);
+        int hash = Hashing.murmur3_32().hashString(agentId, Charsets.UTF_8).asInt();
+        // not using Math.floorMod() since this is used by the agent (java 6)
+        int slot = ((hash % slotCount) + slotCount) % slotCount;
+        return slot * SLOT_MILLIS;
+    }
+
+    // grows the window (one slot per agent) once there are more agents than slots in the minimum
+    // window
+    public static int getWindowMillis(int agentCount) {
+        long windowMillis = (long) agentCount * SLOT_MILLIS;
+        return (int) Math.min(Math.max(windowMillis, MIN_WINDOW_MILLIS), MAX_WINDOW_MILLIS);
+    }
+}
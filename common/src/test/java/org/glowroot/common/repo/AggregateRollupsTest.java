@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.repo;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import org.glowroot.common.live.ImmutableOverviewAggregate;
+import org.glowroot.common.live.ImmutablePercentileAggregate;
+import org.glowroot.common.live.ImmutableThroughputAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
+import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
+import org.glowroot.common.repo.AggregateRollups.OverviewRollup;
+import org.glowroot.common.repo.AggregateRollups.PercentileRollup;
+import org.glowroot.common.repo.AggregateRollups.ThroughputRollup;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateRollupsTest {
+
+    private static final Function<Long, Long> HOURLY = new Function<Long, Long>() {
+        @Override
+        public Long apply(Long captureTime) {
+            return Utils.getRollupCaptureTime(captureTime, HOURS.toMillis(1));
+        }
+    };
+
+    // every 5 minutes from 00:05 through 02:30, so the final hour is not complete
+    private static final int AGGREGATE_COUNT = 30;
+
+    @Test
+    public void shouldStreamOverviewRollupSameAsListBasedRollup() throws Exception {
+        // given
+        List<OverviewAggregate> aggregates = Lists.newArrayList();
+        for (int i = 1; i <= AGGREGATE_COUNT; i++) {
+            aggregates.add(ImmutableOverviewAggregate.builder()
+                    .captureTime(MINUTES.toMillis(5 * i))
+                    .totalDurationNanos(1000 * i)
+                    .transactionCount(i)
+                    .asyncTransactions(false)
+                    .addMainThreadRootTimers(Aggregate.Timer.newBuilder()
+                            .setName("mock")
+                            .setTotalNanos(1000 * i)
+                            .setCount(i)
+                            .build())
+                    .build());
+        }
+        Map<Long, MutableAggregate> listBasedRollup = Maps.newLinkedHashMap();
+        for (OverviewAggregate aggregate : aggregates) {
+            MutableAggregate mergedAggregate =
+                    getOrCreate(listBasedRollup, HOURLY.apply(aggregate.captureTime()));
+            mergedAggregate.addTotalDurationNanos(aggregate.totalDurationNanos());
+            mergedAggregate.addTransactionCount(aggregate.transactionCount());
+            mergedAggregate.mergeMainThreadRootTimers(aggregate.mainThreadRootTimers());
+        }
+        List<OverviewAggregate> expected = Lists.newArrayList();
+        for (Map.Entry<Long, MutableAggregate> entry : listBasedRollup.entrySet()) {
+            expected.add(entry.getValue().toOverviewAggregate(entry.getKey()));
+        }
+        // the final (incomplete) rollup interval uses the capture time of its last aggregate
+        expected.set(expected.size() - 1, ImmutableOverviewAggregate.builder()
+                .copyFrom(expected.get(expected.size() - 1))
+                .captureTime(MINUTES.toMillis(5 * AGGREGATE_COUNT))
+                .build());
+
+        // when
+        ListConsumer<OverviewAggregate> consumer = new ListConsumer<OverviewAggregate>();
+        OverviewRollup rollup = new OverviewRollup(HOURLY, consumer);
+        for (int i = 0; i < aggregates.size(); i++) {
+            rollup.accept(aggregates.get(i));
+            // each rolled up aggregate is passed on as soon as its rollup interval is complete
+            assertThat(consumer.aggregates).hasSize(getCompletedRollupCount(i));
+        }
+        rollup.finish();
+
+        // then
+        assertThat(consumer.aggregates).hasSize(3);
+        assertThat(consumer.aggregates).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldStreamPercentileRollupSameAsListBasedRollup() throws Exception {
+        // given
+        List<PercentileAggregate> aggregates = Lists.newArrayList();
+        for (int i = 1; i <= AGGREGATE_COUNT; i++) {
+            aggregates.add(ImmutablePercentileAggregate.builder()
+                    .captureTime(MINUTES.toMillis(5 * i))
+                    .totalDurationNanos(1000 * i)
+                    .transactionCount(2)
+                    .durationNanosHistogram(Aggregate.Histogram.newBuilder()
+                            .addOrderedRawValue(100 * i)
+                            .addOrderedRawValue(1000 * i)
+                            .build())
+                    .build());
+        }
+        Map<Long, MutableAggregate> listBasedRollup = Maps.newLinkedHashMap();
+        for (PercentileAggregate aggregate : aggregates) {
+            MutableAggregate mergedAggregate =
+                    getOrCreate(listBasedRollup, HOURLY.apply(aggregate.captureTime()));
+            mergedAggregate.addTotalDurationNanos(aggregate.totalDurationNanos());
+            mergedAggregate.addTransactionCount(aggregate.transactionCount());
+            mergedAggregate.mergeDurationNanosHistogram(aggregate.durationNanosHistogram());
+        }
+        List<PercentileAggregate> expected = Lists.newArrayList();
+        for (Map.Entry<Long, MutableAggregate> entry : listBasedRollup.entrySet()) {
+            expected.add(entry.getValue().toPercentileAggregate(entry.getKey()));
+        }
+        // the final (incomplete) rollup interval uses the capture time of its last aggregate
+        expected.set(expected.size() - 1, ImmutablePercentileAggregate.builder()
+                .copyFrom(expected.get(expected.size() - 1))
+                .captureTime(MINUTES.toMillis(5 * AGGREGATE_COUNT))
+                .build());
+
+        // when
+        ListConsumer<PercentileAggregate> consumer = new ListConsumer<PercentileAggregate>();
+        PercentileRollup rollup = new PercentileRollup(HOURLY, consumer);
+        for (int i = 0; i < aggregates.size(); i++) {
+            rollup.accept(aggregates.get(i));
+            // each rolled up aggregate is passed on as soon as its rollup interval is complete
+            assertThat(consumer.aggregates).hasSize(getCompletedRollupCount(i));
+        }
+        rollup.finish();
+
+        // then
+        assertThat(consumer.aggregates).hasSize(3);
+        assertThat(consumer.aggregates).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldStreamThroughputRollupSameAsListBasedRollup() throws Exception {
+        // given
+        List<ThroughputAggregate> aggregates = Lists.newArrayList();
+        for (int i = 1; i <= AGGREGATE_COUNT; i++) {
+            aggregates.add(ImmutableThroughputAggregate.builder()
+                    .captureTime(MINUTES.toMillis(5 * i))
+                    .transactionCount(i)
+                    // error count is missing from one of the aggregates in the second hour
+                    .errorCount(i == 15 ? null : (long) i % 3)
+                    .build());
+        }
+        Map<Long, long[]> listBasedRollup = Maps.newLinkedHashMap();
+        Map<Long, Boolean> hasMissingErrorCount = Maps.newHashMap();
+        for (ThroughputAggregate aggregate : aggregates) {
+            long rollupCaptureTime = HOURLY.apply(aggregate.captureTime());
+            long[] counts = listBasedRollup.get(rollupCaptureTime);
+            if (counts == null) {
+                counts = new long[2];
+                listBasedRollup.put(rollupCaptureTime, counts);
+            }
+            counts[0] += aggregate.transactionCount();
+            Long errorCount = aggregate.errorCount();
+            if (errorCount == null) {
+                hasMissingErrorCount.put(rollupCaptureTime, true);
+            } else {
+                counts[1] += errorCount;
+            }
+        }
+        List<ThroughputAggregate> expected = Lists.newArrayList();
+        for (Map.Entry<Long, long[]> entry : listBasedRollup.entrySet()) {
+            expected.add(ImmutableThroughputAggregate.builder()
+                    .captureTime(entry.getKey())
+                    .transactionCount(entry.getValue()[0])
+                    .errorCount(hasMissingErrorCount.containsKey(entry.getKey()) ? null
+                            : entry.getValue()[1])
+                    .build());
+        }
+        // the final (incomplete) rollup interval uses the capture time of its last aggregate
+        expected.set(expected.size() - 1, ImmutableThroughputAggregate.builder()
+                .copyFrom(expected.get(expected.size() - 1))
+                .captureTime(MINUTES.toMillis(5 * AGGREGATE_COUNT))
+                .build());
+
+        // when
+        ListConsumer<ThroughputAggregate> consumer = new ListConsumer<ThroughputAggregate>();
+        ThroughputRollup rollup = new ThroughputRollup(HOURLY, consumer);
+        for (int i = 0; i < aggregates.size(); i++) {
+            rollup.accept(aggregates.get(i));
+            // each rolled up aggregate is passed on as soon as its rollup interval is complete
+            assertThat(consumer.aggregates).hasSize(getCompletedRollupCount(i));
+        }
+        rollup.finish();
+
+        // then
+        assertThat(consumer.aggregates).hasSize(3);
+        assertThat(consumer.aggregates).isEqualTo(expected);
+        assertThat(consumer.aggregates.get(1).errorCount()).isNull();
+    }
+
+    private static MutableAggregate getOrCreate(Map<Long, MutableAggregate> mergedAggregates,
+            long rollupCaptureTime) {
+        MutableAggregate mergedAggregate = mergedAggregates.get(rollupCaptureTime);
+        if (mergedAggregate == null) {
+            mergedAggregate = new MutableAggregate(0, 0);
+            mergedAggregates.put(rollupCaptureTime, mergedAggregate);
+        }
+        return mergedAggregate;
+    }
+
+    // the aggregate at index i has capture time 5 * (i + 1) minutes, and the rollup interval
+    // ending at the top of the hour is only complete once an aggregate from the following hour is
+    // passed in
+    private static int getCompletedRollupCount(int i) {
+        return (5 * (i + 1) - 1) / 60;
+    }
+
+    private static class ListConsumer<T> implements AggregateConsumer<T> {
+
+        private final List<T> aggregates = Lists.newArrayList();
+
+        @Override
+        public void accept(T aggregate) {
+            aggregates.add(aggregate);
+        }
+    }
+}
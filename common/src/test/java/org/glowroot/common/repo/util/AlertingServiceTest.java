@@ -53,6 +53,8 @@ import org.glowroot.wire.api.model.Proto.OptionalDouble;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class AlertingServiceTest {
@@ -248,6 +250,70 @@ public class AlertingServiceTest {
         assertThat(mailService.getMessage()).isNull();
     }
 
+    @Test
+    public void shouldOnlyReadNewestGaugeValuesOnNextCheck() throws Exception {
+        // given
+        setupForGauge(500);
+        AlertingService alertingService = new AlertingService(configRepository,
+                incidentRepository, aggregateRepository, gaugeValueRepository,
+                rollupLevelService, mailService, httpClient, Clock.systemClock());
+        String gaugeName =
+                "java.lang:type=GarbageCollector,name=ConcurrentMarkSweep:CollectionTime[counter]";
+        GaugeValue gaugeValue = GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(180000)
+                .setValue(500.1)
+                .setWeight(1)
+                .build();
+        when(gaugeValueRepository.readGaugeValues(AGENT_ID, gaugeName, 120001, 180000, 0))
+                .thenReturn(ImmutableList.of(gaugeValue));
+        // when
+        alertingService.checkMetricAlert("", "", UPPER_BOUND_GAUGE_ALERT_CONFIG,
+                UPPER_BOUND_GAUGE_ALERT_CONFIG.getCondition().getMetricCondition(), 120000);
+        alertingService.checkMetricAlert("", "", UPPER_BOUND_GAUGE_ALERT_CONFIG,
+                UPPER_BOUND_GAUGE_ALERT_CONFIG.getCondition().getMetricCondition(), 180000);
+        // then
+        verify(gaugeValueRepository).readGaugeValues(AGENT_ID, gaugeName, 60001, 120000, 0);
+        verify(gaugeValueRepository).readGaugeValues(AGENT_ID, gaugeName, 120001, 180000, 0);
+        verifyNoMoreInteractions(gaugeValueRepository);
+        assertThat(mailService.getMessage()).isNotNull();
+    }
+
+    @Test
+    public void shouldRereadGaugeValuesThatArrivedLateOnNextCheck() throws Exception {
+        // given
+        setupForGauge(400);
+        AlertingService alertingService = new AlertingService(configRepository,
+                incidentRepository, aggregateRepository, gaugeValueRepository,
+                rollupLevelService, mailService, httpClient, Clock.systemClock());
+        String gaugeName =
+                "java.lang:type=GarbageCollector,name=ConcurrentMarkSweep:CollectionTime[counter]";
+        GaugeValue lateGaugeValue = GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(100000)
+                .setValue(700)
+                .setWeight(1)
+                .build();
+        GaugeValue gaugeValue = GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(120000)
+                .setValue(400)
+                .setWeight(1)
+                .build();
+        when(gaugeValueRepository.readGaugeValues(AGENT_ID, gaugeName, 70001, 130000, 0))
+                .thenReturn(ImmutableList.of(lateGaugeValue, gaugeValue));
+        // when
+        alertingService.checkMetricAlert("", "", UPPER_BOUND_GAUGE_ALERT_CONFIG,
+                UPPER_BOUND_GAUGE_ALERT_CONFIG.getCondition().getMetricCondition(), 120000);
+        alertingService.checkMetricAlert("", "", UPPER_BOUND_GAUGE_ALERT_CONFIG,
+                UPPER_BOUND_GAUGE_ALERT_CONFIG.getCondition().getMetricCondition(), 130000);
+        // then
+        verify(gaugeValueRepository).readGaugeValues(AGENT_ID, gaugeName, 60001, 120000, 0);
+        verify(gaugeValueRepository).readGaugeValues(AGENT_ID, gaugeName, 70001, 130000, 0);
+        verifyNoMoreInteractions(gaugeValueRepository);
+        assertThat(mailService.getMessage()).isNotNull();
+    }
+
     @Test
     public void shouldReturnCorrectPercentileName() {
         shouldReturnCorrectPercentileName(0, "th");
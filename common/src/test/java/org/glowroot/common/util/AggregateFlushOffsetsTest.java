@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.util;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateFlushOffsetsTest {
+
+    @Test
+    public void shouldBeDeterministic() {
+        assertThat(AggregateFlushOffsets.getOffsetMillis("abc", 10000))
+                .isEqualTo(AggregateFlushOffsets.getOffsetMillis("abc", 10000));
+    }
+
+    @Test
+    public void shouldStayWithinWindow() {
+        // when
+        Set<Integer> offsets = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            offsets.add(AggregateFlushOffsets.getOffsetMillis("agent-" + i, 10000));
+        }
+        // then
+        for (int offset : offsets) {
+            assertThat(offset).isBetween(0, 9900);
+            assertThat(offset % AggregateFlushOffsets.SLOT_MILLIS).isEqualTo(0);
+        }
+        // 1000 agents should hit nearly all of the 100 slots
+        assertThat(offsets.size()).isGreaterThan(90);
+    }
+
+    @Test
+    public void shouldGrowWindowWithAgentCount() {
+        assertThat(AggregateFlushOffsets.getWindowMillis(0)).isEqualTo(10000);
+        assertThat(AggregateFlushOffsets.getWindowMillis(100)).isEqualTo(10000);
+        assertThat(AggregateFlushOffsets.getWindowMillis(200)).isEqualTo(20000);
+        assertThat(AggregateFlushOffsets.getWindowMillis(100000)).isEqualTo(30000);
+    }
+}
@@ -159,6 +159,8 @@ glowroot.controller('JvmGaugeValuesCtrl', [
     function addToQuery(query) {
       // singular name is used since it is query string
       query.gaugeName = $scope.gaugeNames;
+      // two points per pixel is plenty, the server downsamples anything beyond that
+      query.maxPoints = 2 * (chartState.plot ? chartState.plot.width() : 1000);
     }
 
     function onRefreshData(data) {
@@ -20,10 +20,11 @@ glowroot.controller('JvmHeapHistogramCtrl', [
   '$scope',
   '$http',
   '$location',
+  '$timeout',
   'locationChanges',
   'queryStrings',
   'httpErrors',
-  function ($scope, $http, $location, locationChanges, queryStrings, httpErrors) {
+  function ($scope, $http, $location, $timeout, locationChanges, queryStrings, httpErrors) {
 
     $scope.$parent.heading = 'Heap histogram';
 
@@ -37,9 +38,12 @@ glowroot.controller('JvmHeapHistogramCtrl', [
     var maxBytes;
 
     $scope.classNameBarWidth = function (bytes) {
-      return (bytes / maxBytes) * 100 + '%';
+      // bytes can be negative when showing a diff
+      return (Math.max(bytes, 0) / maxBytes) * 100 + '%';
     };
 
+    $scope.page.diffIntervalSeconds = '30';
+
     $scope.$watch('page.filterComparator', function (newValue, oldValue) {
       if (oldValue !== newValue) {
         if (newValue === 'contains') {
@@ -150,8 +154,44 @@ glowroot.controller('JvmHeapHistogramCtrl', [
       appliedSortAsc = $scope.sortAsc;
     }
 
+    var diffTimer;
+
+    $scope.$on('$destroy', function () {
+      $timeout.cancel(diffTimer);
+    });
+
     $scope.refresh = function (deferred) {
-      $http.post('backend/jvm/heap-histogram?agent-id=' + encodeURIComponent($scope.agentId))
+      $timeout.cancel(diffTimer);
+      load('backend/jvm/heap-histogram', undefined, function (data) {
+        show(data);
+        if (deferred) {
+          deferred.resolve('Complete');
+        }
+      }, deferred);
+    };
+
+    // the agent keeps the baseline histogram and returns only the per-class change on the second request, which
+    // is sent from here after the interval (instead of the server holding the request open for the whole interval)
+    $scope.diff = function (deferred) {
+      $timeout.cancel(diffTimer);
+      var intervalSeconds = parseInt($scope.page.diffIntervalSeconds, 10);
+      load('backend/jvm/heap-histogram-diff-baseline', undefined, function (baseline) {
+        diffTimer = $timeout(function () {
+          load('backend/jvm/heap-histogram-diff', {diffId: baseline.diffId}, function (data) {
+            if (data.diffBaselineExpired) {
+              deferred.reject('The baseline heap histogram has expired on the agent');
+              return;
+            }
+            data.diffIntervalSeconds = intervalSeconds;
+            show(data);
+            deferred.resolve('Complete');
+          }, deferred);
+        }, intervalSeconds * 1000);
+      }, deferred);
+    };
+
+    function load(url, postData, callback, deferred) {
+      $http.post(url + '?agent-id=' + encodeURIComponent($scope.agentId), postData)
           .then(function (response) {
             $scope.loaded = true;
             var data = response.data;
@@ -161,20 +201,24 @@ glowroot.controller('JvmHeapHistogramCtrl', [
             $scope.unavailableDueToRunningInIbmJvm = data.unavailableDueToRunningInIbmJvm;
             if ($scope.agentNotConnected || $scope.agentUnsupportedOperation || $scope.unavailableDueToRunningInJre
                 || $scope.unavailableDueToRunningInIbmJvm) {
+              if (deferred) {
+                deferred.resolve('Complete');
+              }
               return;
             }
-            $scope.histogram = data;
-            appliedSortAttribute = 'bytes';
-            appliedSortAsc = false;
-            sortIfNeeded();
-            applyFilter();
-            if (deferred) {
-              deferred.resolve('Complete');
-            }
+            callback(data);
           }, function (response) {
             httpErrors.handle(response, $scope, deferred);
           });
-    };
+    }
+
+    function show(data) {
+      $scope.histogram = data;
+      appliedSortAttribute = undefined;
+      appliedSortAsc = undefined;
+      sortIfNeeded();
+      applyFilter();
+    }
 
     $scope.exportAsCsv = function () {
       var csv = '<strong>Class name,Bytes,Count</strong><br>';
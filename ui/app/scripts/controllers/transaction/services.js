@@ -102,11 +102,16 @@ glowroot.controller('TransactionServicesCtrl', [
             if (data.overwritten) {
               $scope.showOverwrittenMessage = true;
               $scope.showServiceCalls = false;
+              $scope.showLogEvents = false;
               $scope.serviceCalls = [];
+              $scope.logEvents = [];
               return;
             }
-            $scope.showServiceCalls = data.length;
-            $scope.serviceCalls = data;
+            $scope.showServiceCalls = data.serviceCalls.length;
+            $scope.serviceCalls = data.serviceCalls;
+            // aggregated log events are returned separately so that they do not skew the service calls
+            $scope.showLogEvents = data.logEvents.length;
+            $scope.logEvents = data.logEvents;
             var types = {};
             angular.forEach($scope.serviceCalls, function (serviceCall) {
               serviceCall.timePerExecution = serviceCall.totalDurationNanos / (1000000 * serviceCall.executionCount);
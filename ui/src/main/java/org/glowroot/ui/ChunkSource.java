@@ -15,6 +15,7 @@
  */
 package org.glowroot.ui;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -56,7 +57,18 @@ public abstract class ChunkSource {
         };
     }
 
-    public interface ChunkCopier {
+    // the closeable is closed when the copier is closed, which happens both when the copying
+    // completes and when it is abandoned (e.g. the client disconnects mid download)
+    static ChunkSource onClose(final ChunkSource chunkSource, final Closeable closeable) {
+        return new ChunkSource() {
+            @Override
+            public ChunkCopier getCopier(Writer writer) throws IOException {
+                return new ClosingChunkCopier(chunkSource.getCopier(writer), closeable);
+            }
+        };
+    }
+
+    public interface ChunkCopier extends Closeable {
 
         // returns false when nothing left to copy
         boolean copyNext() throws IOException;
@@ -86,6 +98,11 @@ public abstract class ChunkSource {
             return true;
         }
 
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
         private static int readFully(Reader reader, char[] buffer) throws IOException {
             int total = 0;
             while (true) {
@@ -130,9 +147,17 @@ public abstract class ChunkSource {
                 return false;
             }
             // advance to the next chunk source
+            currChunkCopier.close();
             currChunkCopier = chunkSources.next().getCopier(writer);
             return copyNext();
         }
+
+        @Override
+        public void close() throws IOException {
+            if (currChunkCopier != null) {
+                currChunkCopier.close();
+            }
+        }
     }
 
     private static class StringChunkCopier implements ChunkCopier {
@@ -156,5 +181,33 @@ public abstract class ChunkSource {
             closed = true;
             return true;
         }
+
+        @Override
+        public void close() {}
+    }
+
+    private static class ClosingChunkCopier implements ChunkCopier {
+
+        private final ChunkCopier delegate;
+        private final Closeable closeable;
+
+        private ClosingChunkCopier(ChunkCopier delegate, Closeable closeable) {
+            this.delegate = delegate;
+            this.closeable = closeable;
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            return delegate.copyNext();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                closeable.close();
+            }
+        }
     }
 }
@@ -25,8 +25,10 @@ import java.net.URL;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,13 +40,16 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
 import com.google.common.net.MediaType;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.immutables.value.Value;
@@ -97,6 +102,9 @@ public class CommonHandler {
                     .put("map", MediaType.JSON_UTF_8)
                     .build();
 
+    private static final ImmutableSet<String> COMPRESSIBLE_EXTENSIONS =
+            ImmutableSet.of("html", "js", "css", "ico", "map");
+
     // this constant is from org.h2.api.ErrorCode.STATEMENT_WAS_CANCELED
     // (but h2 jar is not a dependency of glowroot-ui)
     private static final int H2_STATEMENT_WAS_CANCELED = 57014;
@@ -120,6 +128,9 @@ public class CommonHandler {
     private final HttpSessionManager httpSessionManager;
     private final Clock clock;
 
+    private final ConcurrentMap<String, CompressedContent> staticContentCache =
+            Maps.newConcurrentMap();
+
     CommonHandler(boolean central, LayoutService layoutService,
             Map<Pattern, HttpService> httpServices, HttpSessionManager httpSessionManager,
             List<Object> jsonServices, Clock clock) {
@@ -376,7 +387,20 @@ public class CommonHandler {
         MediaType mediaType = mediaTypes.get(extension);
         checkNotNull(mediaType, "found extension under %s with no media type: %s", RESOURCE_BASE,
                 extension);
-        CommonResponse response = new CommonResponse(OK, mediaType, url);
+        CompressedContent content = staticContentCache.get(path);
+        if (content == null) {
+            byte[] bytes = Resources.toByteArray(url);
+            if (COMPRESSIBLE_EXTENSIONS.contains(extension)) {
+                content = CompressedContent.compress(bytes);
+            } else {
+                content = CompressedContent.uncompressed(bytes);
+            }
+            // static resources never change while the server is running, and the number of them
+            // is bounded since the url was already resolved above
+            staticContentCache.put(path, content);
+        }
+        CommonResponse response =
+                new CommonResponse(OK, mediaType, content, acceptsGzip(request), false);
         if (expires != null) {
             response.setHeader(HttpHeaderNames.EXPIRES, expires);
         } else {
@@ -453,6 +477,12 @@ public class CommonHandler {
         }
     }
 
+    static boolean acceptsGzip(CommonRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaderNames.ACCEPT_ENCODING);
+        return acceptEncoding != null
+                && acceptEncoding.toLowerCase(Locale.ENGLISH).contains("gzip");
+    }
+
     private static CommonResponse newHttpResponseWithMessage(HttpResponseStatus status,
             @Nullable String message) throws IOException {
         // this is an "expected" exception, no need to send back stack trace
@@ -619,9 +649,15 @@ public class CommonHandler {
             this(status, null, Unpooled.buffer(0), true);
         }
 
-        private CommonResponse(HttpResponseStatus status, MediaType mediaType, URL url)
-                throws IOException {
-            this(status, mediaType, Unpooled.copiedBuffer(Resources.toByteArray(url)), false);
+        CommonResponse(HttpResponseStatus status, MediaType mediaType, CompressedContent content,
+                boolean acceptsGzip, boolean preventCaching) {
+            this(status, mediaType, content.getContent(acceptsGzip), preventCaching);
+            if (content.isGzipped(acceptsGzip)) {
+                // ConditionalHttpContentCompressor passes through responses that already have a
+                // content encoding
+                headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
+            headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
         }
 
         private CommonResponse(HttpResponseStatus status, @Nullable MediaType mediaType,
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+// content that is served over and over (e.g. static resources) is compressed once up front,
+// instead of by ConditionalHttpContentCompressor on every request
+class CompressedContent {
+
+    private final byte[] bytes;
+    // null if compression does not reduce the size
+    private final @Nullable byte[] gzippedBytes;
+
+    private CompressedContent(byte[] bytes, @Nullable byte[] gzippedBytes) {
+        this.bytes = bytes;
+        this.gzippedBytes = gzippedBytes;
+    }
+
+    static CompressedContent compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(baos);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        byte[] gzippedBytes = baos.toByteArray();
+        if (gzippedBytes.length >= bytes.length) {
+            return new CompressedContent(bytes, null);
+        }
+        return new CompressedContent(bytes, gzippedBytes);
+    }
+
+    // for content that is already compressed (e.g. woff fonts)
+    static CompressedContent uncompressed(byte[] bytes) {
+        return new CompressedContent(bytes, null);
+    }
+
+    boolean isGzipped(boolean acceptsGzip) {
+        return acceptsGzip && gzippedBytes != null;
+    }
+
+    ByteBuf getContent(boolean acceptsGzip) {
+        // the underlying arrays are shared across responses and never modified
+        if (acceptsGzip && gzippedBytes != null) {
+            return Unpooled.wrappedBuffer(gzippedBytes);
+        }
+        return Unpooled.wrappedBuffer(bytes);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+// reduces a gauge value series to a point budget using largest-triangle-three-buckets (LTTB),
+// which keeps the visual shape of the series (including its peaks) far better than averaging
+//
+// the series is first split into segments wherever there is a gap in the data, and each segment is
+// downsampled separately, so that gaps are still shown even though the downsampled points are
+// further apart than the gap threshold
+//
+// the first and last points of each segment are always kept
+class GaugeValueDownsampler {
+
+    private GaugeValueDownsampler() {}
+
+    static List<List<GaugeValue>> downsample(List<GaugeValue> orderedGaugeValues, int maxPoints,
+            double gapMillis) {
+        List<List<GaugeValue>> segments = split(orderedGaugeValues, gapMillis);
+        if (orderedGaugeValues.size() <= maxPoints) {
+            return segments;
+        }
+        List<List<GaugeValue>> downsampledSegments = Lists.newArrayList();
+        for (List<GaugeValue> segment : segments) {
+            // budget is split proportionally to the number of points in each segment
+            int threshold = (int) ((long) maxPoints * segment.size() / orderedGaugeValues.size());
+            downsampledSegments.add(lttb(segment, threshold));
+        }
+        return downsampledSegments;
+    }
+
+    static List<List<GaugeValue>> split(List<GaugeValue> orderedGaugeValues, double gapMillis) {
+        List<List<GaugeValue>> segments = Lists.newArrayList();
+        List<GaugeValue> segment = null;
+        GaugeValue lastGaugeValue = null;
+        for (GaugeValue gaugeValue : orderedGaugeValues) {
+            if (segment == null || lastGaugeValue != null
+                    && gaugeValue.getCaptureTime() - lastGaugeValue.getCaptureTime() > gapMillis) {
+                segment = Lists.newArrayList();
+                segments.add(segment);
+            }
+            segment.add(gaugeValue);
+            lastGaugeValue = gaugeValue;
+        }
+        return segments;
+    }
+
+    private static List<GaugeValue> lttb(List<GaugeValue> points, int threshold) {
+        if (threshold >= points.size() || points.size() <= 2) {
+            return points;
+        }
+        if (threshold < 3) {
+            // not enough budget for anything other than the end points
+            return Lists.newArrayList(points.get(0), points.get(points.size() - 1));
+        }
+        List<GaugeValue> sampled = Lists.newArrayListWithCapacity(threshold);
+        // the first and last points are fixed, and the rest are split into threshold - 2 buckets
+        double bucketSize = (double) (points.size() - 2) / (threshold - 2);
+        int a = 0;
+        sampled.add(points.get(a));
+        for (int i = 0; i < threshold - 2; i++) {
+            // average of the next bucket is used as the third point of the triangle
+            int nextBucketStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+            int nextBucketEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, points.size());
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = nextBucketStart; j < nextBucketEnd; j++) {
+                avgX += points.get(j).getCaptureTime();
+                avgY += points.get(j).getValue();
+            }
+            int nextBucketLength = nextBucketEnd - nextBucketStart;
+            avgX /= nextBucketLength;
+            avgY /= nextBucketLength;
+
+            int bucketStart = (int) Math.floor(i * bucketSize) + 1;
+            int bucketEnd = (int) Math.floor((i + 1) * bucketSize) + 1;
+            double pointAX = points.get(a).getCaptureTime();
+            double pointAY = points.get(a).getValue();
+            double maxArea = -1;
+            int maxAreaIndex = bucketStart;
+            for (int j = bucketStart; j < bucketEnd; j++) {
+                GaugeValue point = points.get(j);
+                // twice the triangle area, which is fine since it is only used for comparison
+                double area = Math.abs((pointAX - avgX) * (point.getValue() - pointAY)
+                        - (pointAX - point.getCaptureTime()) * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxAreaIndex = j;
+                }
+            }
+            sampled.add(points.get(maxAreaIndex));
+            a = maxAreaIndex;
+        }
+        sampled.add(points.get(points.size() - 1));
+        return sampled;
+    }
+}
@@ -18,10 +18,15 @@ package org.glowroot.ui;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
+import javax.annotation.Nullable;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -35,28 +40,45 @@ import org.glowroot.common.repo.GaugeValueRepository;
 import org.glowroot.common.repo.GaugeValueRepository.Gauge;
 import org.glowroot.common.repo.Utils;
 import org.glowroot.common.repo.util.RollupLevelService;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.ObjectMappers;
+import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 @JsonService
 class GaugeValueJsonService {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
+    // downsampled chunks that end at least this long ago are not expected to change anymore
+    // (other than by data arriving very late, which is bounded by the cache expiration)
+    private static final long CACHEABLE_CHUNK_AGE_MILLIS = MINUTES.toMillis(5);
+
     private final GaugeValueRepository gaugeValueRepository;
     private final RollupLevelService rollupLevelService;
     private final AgentRollupRepository agentRollupRepository;
     private final ConfigRepository configRepository;
+    private final Clock clock;
+
+    // downsampled gauge values per fixed chunk of time, so that auto refresh (and other users
+    // viewing the same chart) only need to read and downsample the most recent chunks
+    private final Cache<ChunkKey, List<List<GaugeValue>>> downsampledChunkCache =
+            CacheBuilder.newBuilder()
+                    .expireAfterWrite(30, MINUTES)
+                    .maximumSize(10000)
+                    .build();
 
     GaugeValueJsonService(GaugeValueRepository gaugeValueRepository,
             RollupLevelService rollupLevelService, AgentRollupRepository agentRollupRepository,
-            ConfigRepository configRepository) {
+            ConfigRepository configRepository, Clock clock) {
         this.gaugeValueRepository = gaugeValueRepository;
         this.rollupLevelService = rollupLevelService;
         this.agentRollupRepository = agentRollupRepository;
         this.configRepository = configRepository;
+        this.clock = clock;
     }
 
     @GET(path = "/backend/jvm/gauges", permission = "agent:jvm:gauges")
@@ -79,18 +101,25 @@ class GaugeValueJsonService {
         long revisedFrom = request.from() - intervalMillis;
         long revisedTo = request.to() + intervalMillis;
 
-        Map<String, List<GaugeValue>> map = Maps.newLinkedHashMap();
-        for (String gaugeName : request.gaugeName()) {
-            map.put(gaugeName,
-                    getGaugeValues(agentRollupId, revisedFrom, revisedTo, gaugeName, rollupLevel));
-        }
-        if (rollupLevel != 0) {
-            syncManualRollupCaptureTimes(map, rollupLevel);
-        }
-        List<DataSeries> dataSeriesList = Lists.newArrayList();
-        for (Entry<String, List<GaugeValue>> entry : map.entrySet()) {
-            dataSeriesList
-                    .add(convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(), gapMillis));
+        Integer maxPoints = request.maxPoints();
+        List<DataSeries> dataSeriesList;
+        if (maxPoints == null) {
+            Map<String, List<GaugeValue>> map = Maps.newLinkedHashMap();
+            for (String gaugeName : request.gaugeName()) {
+                map.put(gaugeName, getGaugeValues(agentRollupId, revisedFrom, revisedTo, gaugeName,
+                        rollupLevel));
+            }
+            if (rollupLevel != 0) {
+                syncManualRollupCaptureTimes(map, rollupLevel);
+            }
+            dataSeriesList = Lists.newArrayList();
+            for (Entry<String, List<GaugeValue>> entry : map.entrySet()) {
+                dataSeriesList.add(
+                        convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(), gapMillis));
+            }
+        } else {
+            dataSeriesList = getDownsampledDataSeries(agentRollupId, request.gaugeName(),
+                    revisedFrom, revisedTo, rollupLevel, intervalMillis, maxPoints);
         }
         StringBuilder sb = new StringBuilder();
         JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
@@ -116,6 +145,64 @@ class GaugeValueJsonService {
                 .build());
     }
 
+    private List<DataSeries> getDownsampledDataSeries(final String agentRollupId,
+            List<String> gaugeNames, long from, long to, final int rollupLevel,
+            long intervalMillis, int maxPoints) throws Exception {
+        final double gapMillis = intervalMillis * 1.5;
+        // chunk size is a power of two multiple of the interval so that chunk boundaries stay the
+        // same as the chart range slides forward, and so that there are roughly 8 to 16 chunks
+        long rangeMillis = to - from;
+        final long chunkMillis =
+                intervalMillis * Long.highestOneBit(Math.max(1, rangeMillis / intervalMillis / 8));
+        final int chunkMaxPoints = (int) Math.max(2, maxPoints * chunkMillis / rangeMillis);
+        long firstChunkFrom = from - from % chunkMillis;
+        long cacheableTo = clock.currentTimeMillis() - CACHEABLE_CHUNK_AGE_MILLIS;
+
+        Map<String, List<List<GaugeValue>>> segmentsMap = Maps.newLinkedHashMap();
+        Map<String, List<GaugeValue>> remainderMap = Maps.newLinkedHashMap();
+        long remainderFrom = firstChunkFrom;
+        for (final String gaugeName : gaugeNames) {
+            List<List<GaugeValue>> segments = Lists.newArrayList();
+            remainderFrom = firstChunkFrom;
+            while (remainderFrom + chunkMillis <= Math.min(to, cacheableTo)) {
+                final long chunkFrom = remainderFrom;
+                ChunkKey key = ImmutableChunkKey.of(agentRollupId, gaugeName, rollupLevel,
+                        chunkFrom, chunkMillis, chunkMaxPoints);
+                appendSegments(segments, downsampledChunkCache.get(key,
+                        new Callable<List<List<GaugeValue>>>() {
+                            @Override
+                            public List<List<GaugeValue>> call() throws Exception {
+                                return GaugeValueDownsampler.downsample(
+                                        getGaugeValues(agentRollupId, chunkFrom,
+                                                chunkFrom + chunkMillis - 1, gaugeName,
+                                                rollupLevel),
+                                        chunkMaxPoints, gapMillis);
+                            }
+                        }), gapMillis);
+                remainderFrom += chunkMillis;
+            }
+            segmentsMap.put(gaugeName, segments);
+            remainderMap.put(gaugeName,
+                    getGaugeValues(agentRollupId, remainderFrom, to, gaugeName, rollupLevel));
+        }
+        if (rollupLevel != 0) {
+            // only the remainder (never cached) can end with a manual rollup capture time
+            syncManualRollupCaptureTimes(remainderMap, rollupLevel);
+        }
+        int remainderMaxPoints = (int) Math.max(2, maxPoints * (to - remainderFrom) / rangeMillis);
+        List<DataSeries> dataSeriesList = Lists.newArrayList();
+        for (Entry<String, List<List<GaugeValue>>> entry : segmentsMap.entrySet()) {
+            String gaugeName = entry.getKey();
+            List<List<GaugeValue>> segments = entry.getValue();
+            appendSegments(segments,
+                    GaugeValueDownsampler.downsample(checkNotNull(remainderMap.get(gaugeName)),
+                            remainderMaxPoints, gapMillis),
+                    gapMillis);
+            dataSeriesList.add(convertToDataSeries(gaugeName, segments, from));
+        }
+        return dataSeriesList;
+    }
+
     private List<GaugeValue> getGaugeValues(String agentRollupId, long from, long to,
             String gaugeName, int rollupLevel) throws Exception {
         List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollupId,
@@ -221,6 +308,47 @@ class GaugeValueJsonService {
         return rolledUpGaugeValues;
     }
 
+    // segments from adjacent chunks are joined back together unless there is a gap between them
+    private static void appendSegments(List<List<GaugeValue>> segments,
+            List<List<GaugeValue>> moreSegments, double gapMillis) {
+        for (List<GaugeValue> segment : moreSegments) {
+            if (!segments.isEmpty()) {
+                List<GaugeValue> lastSegment = segments.get(segments.size() - 1);
+                long lastCaptureTime = lastSegment.get(lastSegment.size() - 1).getCaptureTime();
+                if (segment.get(0).getCaptureTime() - lastCaptureTime <= gapMillis) {
+                    // make copy since segments can be shared with the cache
+                    List<GaugeValue> joinedSegment = Lists.newArrayList(lastSegment);
+                    joinedSegment.addAll(segment);
+                    segments.set(segments.size() - 1, joinedSegment);
+                    continue;
+                }
+            }
+            segments.add(segment);
+        }
+    }
+
+    private static DataSeries convertToDataSeries(String dataSeriesName,
+            List<List<GaugeValue>> segments, long from) {
+        DataSeries dataSeries = new DataSeries(dataSeriesName);
+        boolean first = true;
+        for (List<GaugeValue> segment : segments) {
+            boolean added = false;
+            for (GaugeValue gaugeValue : segment) {
+                // the first chunk can start before the requested range
+                if (gaugeValue.getCaptureTime() < from) {
+                    continue;
+                }
+                if (!added && !first) {
+                    dataSeries.addNull();
+                }
+                dataSeries.add(gaugeValue.getCaptureTime(), gaugeValue.getValue());
+                added = true;
+            }
+            first = first && !added;
+        }
+        return dataSeries;
+    }
+
     private static DataSeries convertToDataSeriesWithGaps(String dataSeriesName,
             List<GaugeValue> gaugeValues, double gapMillis) {
         DataSeries dataSeries = new DataSeries(dataSeriesName);
@@ -242,6 +370,20 @@ class GaugeValueJsonService {
         long to();
         // singular because this is used in query string
         ImmutableList<String> gaugeName();
+        // null means no downsampling
+        @Nullable
+        Integer maxPoints();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface ChunkKey {
+        String agentRollupId();
+        String gaugeName();
+        int rollupLevel();
+        long chunkFrom();
+        long chunkMillis();
+        int maxPoints();
     }
 
     @Value.Immutable
@@ -18,26 +18,41 @@ package org.glowroot.ui;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.InetSocketAddress;
+import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Slf4JLoggerFactory;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -54,6 +69,10 @@ class HttpServer {
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
+    // the native epoll transport is not a dependency of glowroot, but it is used when it is found
+    // on the class path (e.g. when added to the central collector's lib directory)
+    private static final String EPOLL_PACKAGE_PREFIX = "io.netty.channel.epoll.";
+
     private final ServerBootstrap bootstrap;
     private final HttpServerHandler handler;
     private final EventLoopGroup bossGroup;
@@ -81,22 +100,20 @@ class HttpServer {
                 .setDaemon(true)
                 .setNameFormat("Glowroot-Http-Worker-%d")
                 .build();
-        bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
-        workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
+        boolean epoll = isEpollAvailable();
+        bossGroup = newEventLoopGroup(epoll, 1, bossThreadFactory);
+        workerGroup = newEventLoopGroup(epoll, numWorkerThreads, workerThreadFactory);
 
         final HttpServerHandler handler = new HttpServerHandler(contextPathSupplier, commonHandler);
 
         if (https) {
-            sslContext = SslContextBuilder
-                    .forServer(getHttpsConfFile(confDir, sharedConfDir, "certificate.pem"),
-                            getHttpsConfFile(confDir, sharedConfDir, "private.pem"))
-                    .build();
+            sslContext = buildSslContext(confDir, sharedConfDir);
         }
         this.confDir = confDir;
         this.sharedConfDir = sharedConfDir;
 
         bootstrap = new ServerBootstrap();
-        bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+        bootstrap.group(bossGroup, workerGroup).channel(getServerChannelClass(epoll))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
@@ -104,17 +121,15 @@ class HttpServer {
                         SslContext sslContextLocal = sslContext;
                         if (sslContextLocal != null) {
                             p.addLast(sslContextLocal.newHandler(ch.alloc()));
+                            if (!sslContextLocal.applicationProtocolNegotiator().protocols()
+                                    .isEmpty()) {
+                                // the rest of the pipeline depends on whether the client
+                                // negotiates http/2 or http/1.1
+                                p.addLast(new Http2OrHttpHandler(handler));
+                                return;
+                            }
                         }
-                        // bumping maxInitialLineLength (first arg below) from default 4096 to 32768
-                        // in order to handle long urls on /jvm/gauges view
-                        // bumping maxHeaderSize (second arg below) from default 8192 to 32768 for
-                        // same reason due to "Referer" header once url becomes huge
-                        // leaving maxChunkSize (third arg below) at default 8192
-                        p.addLast(new HttpServerCodec(32768, 32768, 8192));
-                        p.addLast(new HttpObjectAggregator(1048576));
-                        p.addLast(new ConditionalHttpContentCompressor());
-                        p.addLast(new ChunkedWriteHandler());
-                        p.addLast(handler);
+                        addHttp1Handlers(p, handler);
                     }
                 });
         this.handler = handler;
@@ -183,10 +198,7 @@ class HttpServer {
 
     void changeProtocol(boolean https) throws Exception {
         if (https) {
-            sslContext = SslContextBuilder
-                    .forServer(getHttpsConfFile(confDir, sharedConfDir, "certificate.pem"),
-                            getHttpsConfFile(confDir, sharedConfDir, "private.pem"))
-                    .build();
+            sslContext = buildSslContext(confDir, sharedConfDir);
         } else {
             sslContext = null;
         }
@@ -201,6 +213,91 @@ class HttpServer {
         logger.debug("close(): http server stopped");
     }
 
+    private static void addHttp1Handlers(ChannelPipeline p, HttpServerHandler handler) {
+        // bumping maxInitialLineLength (first arg below) from default 4096 to 32768 in order to
+        // handle long urls on /jvm/gauges view
+        // bumping maxHeaderSize (second arg below) from default 8192 to 32768 for same reason due
+        // to "Referer" header once url becomes huge
+        // leaving maxChunkSize (third arg below) at default 8192
+        p.addLast(new HttpServerCodec(32768, 32768, 8192));
+        addHttpHandlers(p, handler);
+    }
+
+    // these handlers are shared by http/1.1 connections and by each http/2 stream, since http/2
+    // stream frames are converted to and from http/1.1 objects
+    private static void addHttpHandlers(ChannelPipeline p, HttpServerHandler handler) {
+        p.addLast(new HttpObjectAggregator(1048576));
+        p.addLast(new ConditionalHttpContentCompressor());
+        p.addLast(new ChunkedWriteHandler());
+        p.addLast(handler);
+    }
+
+    private static boolean isEpollAvailable() {
+        String osName = StandardSystemProperty.OS_NAME.value();
+        if (osName == null || !osName.toLowerCase(Locale.ENGLISH).startsWith("linux")) {
+            return false;
+        }
+        try {
+            Class<?> epollClass = Class.forName(EPOLL_PACKAGE_PREFIX + "Epoll", false,
+                    HttpServer.class.getClassLoader());
+            return (Boolean) epollClass.getMethod("isAvailable").invoke(null);
+        } catch (ClassNotFoundException e) {
+            // this is the common case
+            logger.debug(e.getMessage(), e);
+            return false;
+        } catch (Exception e) {
+            // e.g. native library could not be loaded
+            logger.debug(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static EventLoopGroup newEventLoopGroup(boolean epoll, int numThreads,
+            ThreadFactory threadFactory) throws Exception {
+        if (epoll) {
+            Class<?> eventLoopGroupClass = Class.forName(EPOLL_PACKAGE_PREFIX
+                    + "EpollEventLoopGroup", true, HttpServer.class.getClassLoader());
+            return (EventLoopGroup) eventLoopGroupClass
+                    .getConstructor(int.class, ThreadFactory.class)
+                    .newInstance(numThreads, threadFactory);
+        } else {
+            return new NioEventLoopGroup(numThreads, threadFactory);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends ServerChannel> getServerChannelClass(boolean epoll)
+            throws ClassNotFoundException {
+        if (epoll) {
+            return (Class<? extends ServerChannel>) Class.forName(
+                    EPOLL_PACKAGE_PREFIX + "EpollServerSocketChannel", true,
+                    HttpServer.class.getClassLoader());
+        } else {
+            return NioServerSocketChannel.class;
+        }
+    }
+
+    private static SslContext buildSslContext(File confDir, @Nullable File sharedConfDir)
+            throws Exception {
+        File certificateFile = getHttpsConfFile(confDir, sharedConfDir, "certificate.pem");
+        File privateKeyFile = getHttpsConfFile(confDir, sharedConfDir, "private.pem");
+        SslContext sslContext = SslContextBuilder.forServer(certificateFile, privateKeyFile)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+                        SelectorFailureBehavior.NO_ADVERTISE,
+                        SelectedListenerFailureBehavior.ACCEPT, ApplicationProtocolNames.HTTP_2,
+                        ApplicationProtocolNames.HTTP_1_1))
+                .build();
+        try {
+            // ALPN requires either java 9+, netty-tcnative or jetty-alpn, and netty does not
+            // check this until the first engine is created
+            ReferenceCountUtil.release(sslContext.newEngine(ByteBufAllocator.DEFAULT));
+            return sslContext;
+        } catch (RuntimeException e) {
+            logger.debug(e.getMessage(), e);
+            return SslContextBuilder.forServer(certificateFile, privateKeyFile).build();
+        }
+    }
+
     private static File getHttpsConfFile(File confDir, @Nullable File sharedConfDir,
             String fileName) throws FileNotFoundException {
         File confFile = new File(confDir, fileName);
@@ -256,6 +353,39 @@ class HttpServer {
         }
     }
 
+    private static class Http2OrHttpHandler extends ApplicationProtocolNegotiationHandler {
+
+        private final HttpServerHandler handler;
+
+        private Http2OrHttpHandler(HttpServerHandler handler) {
+            super(ApplicationProtocolNames.HTTP_1_1);
+            this.handler = handler;
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+            if (protocol.equals(ApplicationProtocolNames.HTTP_2)) {
+                // max header list size is bumped for the same reason as the http/1.1 limits in
+                // addHttp1Handlers()
+                ctx.pipeline().addLast(Http2MultiplexCodecBuilder
+                        .forServer(new ChannelInitializer<Channel>() {
+                            @Override
+                            protected void initChannel(Channel ch) {
+                                ChannelPipeline p = ch.pipeline();
+                                p.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                                addHttpHandlers(p, handler);
+                            }
+                        })
+                        .initialSettings(Http2Settings.defaultSettings().maxHeaderListSize(65536))
+                        .build());
+            } else if (protocol.equals(ApplicationProtocolNames.HTTP_1_1)) {
+                addHttp1Handlers(ctx.pipeline(), handler);
+            } else {
+                throw new IllegalStateException("Unexpected protocol: " + protocol);
+            }
+        }
+    }
+
     @SuppressWarnings("serial")
     static class PortChangeFailedException extends Exception {
         private PortChangeFailedException(Exception cause) {
@@ -47,6 +47,7 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http2.Http2StreamChannel;
 import io.netty.handler.stream.ChunkedInput;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.slf4j.Logger;
@@ -55,6 +56,7 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
@@ -83,7 +85,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        allChannels.add(ctx.channel());
+        allChannels.add(getConnectionChannel(ctx.channel()));
         super.channelActive(ctx);
     }
 
@@ -112,8 +114,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
         String uri = request.uri();
         logger.debug("channelRead(): request.uri={}", uri);
-        Channel channel = ctx.channel();
-        currentChannel.set(channel);
+        currentChannel.set(getConnectionChannel(ctx.channel()));
         try {
             String contextPath = contextPathSupplier.get();
             boolean keepAlive = HttpUtil.isKeepAlive(request);
@@ -192,6 +193,15 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         ctx.close();
     }
 
+    // with http/2, this handler is in the pipeline of each stream channel, whose parent is the
+    // connection channel (while with http/1.1, the parent is the server channel)
+    private static Channel getConnectionChannel(Channel channel) {
+        if (channel instanceof Http2StreamChannel) {
+            return checkNotNull(channel.parent());
+        }
+        return channel;
+    }
+
     @VisibleForTesting
     static String stripContextPath(String path, String contextPath) {
         if (contextPath.equals("/")) {
@@ -15,13 +15,17 @@
  */
 package org.glowroot.ui;
 
+import java.io.IOException;
 import java.net.URL;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.Resources;
 import com.google.common.net.MediaType;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
@@ -37,6 +41,13 @@ class IndexHtmlHttpService implements HttpService {
 
     private final LayoutService layoutService;
 
+    // rendered index.html only depends on the context path and the layout, and the number of
+    // distinct layouts is small (roughly one per distinct set of permissions)
+    private final Cache<String, CompressedContent> renderedCache =
+            CacheBuilder.newBuilder().maximumSize(100).build();
+
+    private volatile @MonotonicNonNull String indexHtmlTemplate;
+
     IndexHtmlHttpService(LayoutService layoutService) {
         this.layoutService = layoutService;
     }
@@ -50,10 +61,25 @@ class IndexHtmlHttpService implements HttpService {
     @Override
     public CommonResponse handleRequest(CommonRequest request, Authentication authentication)
             throws Exception {
-        URL url = IndexHtmlHttpService.class.getResource("/org/glowroot/ui/app-dist/index.html");
-        String indexHtml = Resources.toString(checkNotNull(url), Charsets.UTF_8);
         String layout = layoutService.getLayoutJson(authentication);
         String contextPath = request.getContextPath();
+        String cacheKey = contextPath + ':' + layout;
+        CompressedContent content = renderedCache.getIfPresent(cacheKey);
+        if (content == null) {
+            content = CompressedContent
+                    .compress(render(layout, contextPath).getBytes(Charsets.UTF_8));
+            renderedCache.put(cacheKey, content);
+        }
+        CommonResponse response = new CommonResponse(OK, MediaType.HTML_UTF_8, content,
+                CommonHandler.acceptsGzip(request), true);
+        // X-UA-Compatible must be set via header (as opposed to via meta tag)
+        // see https://github.com/h5bp/html5-boilerplate/blob/master/doc/html.md#x-ua-compatible
+        response.setHeader("X-UA-Compatible", "IE=edge");
+        return response;
+    }
+
+    private String render(String layout, String contextPath) throws IOException {
+        String indexHtml = getIndexHtmlTemplate();
         String baseHref = contextPath.equals("/") ? "/" : contextPath + "/";
         indexHtml = indexHtml.replace("<base href=\"/\">",
                 "<base href=\"" + baseHref + "\"><script>var layout=" + layout
@@ -80,10 +106,17 @@ class IndexHtmlHttpService implements HttpService {
                             + "'//www.google-analytics.com/analytics.js','ga');ga('create', '"
                             + GOOGLE_ANALYTICS_TRACKING_ID + "', 'auto')</script>\n</body>");
         }
-        CommonResponse response = new CommonResponse(OK, MediaType.HTML_UTF_8, indexHtml);
-        // X-UA-Compatible must be set via header (as opposed to via meta tag)
-        // see https://github.com/h5bp/html5-boilerplate/blob/master/doc/html.md#x-ua-compatible
-        response.setHeader("X-UA-Compatible", "IE=edge");
-        return response;
+        return indexHtml;
+    }
+
+    private String getIndexHtmlTemplate() throws IOException {
+        String template = indexHtmlTemplate;
+        if (template == null) {
+            URL url =
+                    IndexHtmlHttpService.class.getResource("/org/glowroot/ui/app-dist/index.html");
+            template = Resources.toString(checkNotNull(url), Charsets.UTF_8);
+            indexHtmlTemplate = template;
+        }
+        return template;
     }
 }
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.annotation.Nullable;
 import javax.management.ObjectName;
@@ -51,6 +52,7 @@ import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.common.live.LiveJvmService.AgentNotConnectedException;
 import org.glowroot.common.live.LiveJvmService.AgentUnsupportedOperationException;
 import org.glowroot.common.live.LiveJvmService.DirectoryDoesNotExistException;
+import org.glowroot.common.live.LiveJvmService.HeapHistogramDiffBaselineExpiredException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInIbmJvmException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInJreException;
 import org.glowroot.common.repo.EnvironmentRepository;
@@ -304,20 +306,72 @@ class JvmJsonService {
         HeapHistogram heapHistogram;
         try {
             heapHistogram = liveJvmService.heapHistogram(agentId);
-        } catch (AgentNotConnectedException e) {
+        } catch (Exception e) {
+            // this operation introduced in 0.9.2
+            return getHeapHistogramErrorResponse(agentId, e);
+        }
+        return toJson(heapHistogram);
+    }
+
+    // the histogram diff is computed on the agent, so that neither histogram needs to be sent in
+    // full, and no request is held open over the diff interval
+    @POST(path = "/backend/jvm/heap-histogram-diff-baseline",
+            permission = "agent:jvm:heapHistogram")
+    String heapHistogramDiffBaseline(@BindAgentId String agentId) throws Exception {
+        checkNotNull(liveJvmService);
+        String diffId = UUID.randomUUID().toString();
+        try {
+            liveJvmService.heapHistogramDiffBaseline(agentId, diffId);
+        } catch (Exception e) {
+            return getHeapHistogramErrorResponse(agentId, e);
+        }
+        StringWriter sw = new StringWriter();
+        JsonGenerator jg = mapper.getFactory().createGenerator(sw);
+        try {
+            jg.writeStartObject();
+            jg.writeStringField("diffId", diffId);
+            jg.writeEndObject();
+        } finally {
+            jg.close();
+        }
+        return sw.toString();
+    }
+
+    @POST(path = "/backend/jvm/heap-histogram-diff", permission = "agent:jvm:heapHistogram")
+    String heapHistogramDiff(@BindAgentId String agentId,
+            @BindRequest HeapHistogramDiffRequest request) throws Exception {
+        checkNotNull(liveJvmService);
+        HeapHistogram heapHistogram;
+        try {
+            heapHistogram = liveJvmService.heapHistogramDiff(agentId, request.diffId());
+        } catch (HeapHistogramDiffBaselineExpiredException e) {
+            logger.debug(e.getMessage(), e);
+            return "{\"diffBaselineExpired\":true}";
+        } catch (Exception e) {
+            return getHeapHistogramErrorResponse(agentId, e);
+        }
+        return toJson(heapHistogram);
+    }
+
+    private String getHeapHistogramErrorResponse(String agentId, Exception e) throws Exception {
+        if (e instanceof AgentNotConnectedException) {
             logger.debug(e.getMessage(), e);
             return "{\"agentNotConnected\":true}";
-        } catch (UnavailableDueToRunningInJreException e) {
+        } else if (e instanceof UnavailableDueToRunningInJreException) {
             logger.debug(e.getMessage(), e);
             return "{\"unavailableDueToRunningInJre\":true}";
-        } catch (UnavailableDueToRunningInIbmJvmException e) {
+        } else if (e instanceof UnavailableDueToRunningInIbmJvmException) {
             logger.debug(e.getMessage(), e);
             return "{\"unavailableDueToRunningInIbmJvm\":true}";
-        } catch (AgentUnsupportedOperationException e) {
-            // this operation introduced in 0.9.2
+        } else if (e instanceof AgentUnsupportedOperationException) {
             logger.debug(e.getMessage(), e);
             return getAgentUnsupportedOperationResponse(agentId);
+        } else {
+            throw e;
         }
+    }
+
+    private static String toJson(HeapHistogram heapHistogram) throws IOException {
         StringWriter sw = new StringWriter();
         JsonGenerator jg = mapper.getFactory().createGenerator(sw);
         try {
@@ -709,6 +763,11 @@ class JvmJsonService {
         String directory();
     }
 
+    @Value.Immutable
+    interface HeapHistogramDiffRequest {
+        String diffId();
+    }
+
     @Value.Immutable
     interface MBeanTreeRequest {
         List<String> expanded();
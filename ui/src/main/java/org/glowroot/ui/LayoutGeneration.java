@@ -0,0 +1,24 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+// the returned value must change (on every cluster node) whenever anything that the layout is built
+// from changes (agent rollups, agent rollup configs, ui configs, users, roles, transaction types,
+// etc), which allows the layout to be cached instead of being rebuilt for every request
+public interface LayoutGeneration {
+
+    Object get() throws Exception;
+}
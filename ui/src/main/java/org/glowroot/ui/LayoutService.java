@@ -20,7 +20,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
+import javax.annotation.Nullable;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -39,6 +43,7 @@ import org.glowroot.common.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common.repo.TraceAttributeNameRepository;
 import org.glowroot.common.repo.TransactionTypeRepository;
 import org.glowroot.common.util.ObjectMappers;
+import org.glowroot.common.util.Styles;
 import org.glowroot.common.util.Versions;
 import org.glowroot.ui.HttpSessionManager.Authentication;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UiConfig;
@@ -61,11 +66,19 @@ class LayoutService {
     private final AgentRollupRepository agentRollupRepository;
     private final TransactionTypeRepository transactionTypeRepository;
     private final TraceAttributeNameRepository traceAttributeNameRepository;
+    private final @Nullable LayoutGeneration layoutGeneration;
+
+    // only used when layoutGeneration is non-null, building the central layout requires reading and
+    // filtering every agent rollup, and this would otherwise be done on every request since the
+    // layout version is returned with every json response
+    private final Cache<LayoutCacheKey, Layout> layoutCache =
+            CacheBuilder.newBuilder().maximumSize(1000).build();
 
     LayoutService(boolean central, boolean servlet, boolean offline, String version,
             ConfigRepository configRepository, AgentRollupRepository agentRollupRepository,
             TransactionTypeRepository transactionTypeRepository,
-            TraceAttributeNameRepository traceAttributeNameRepository) {
+            TraceAttributeNameRepository traceAttributeNameRepository,
+            @Nullable LayoutGeneration layoutGeneration) {
         this.central = central;
         this.servlet = servlet;
         this.offline = offline;
@@ -74,18 +87,34 @@ class LayoutService {
         this.agentRollupRepository = agentRollupRepository;
         this.transactionTypeRepository = transactionTypeRepository;
         this.traceAttributeNameRepository = traceAttributeNameRepository;
+        this.layoutGeneration = layoutGeneration;
     }
 
     String getLayoutJson(Authentication authentication) throws Exception {
-        Layout layout = buildLayout(authentication);
+        Layout layout = getLayout(authentication);
         return mapper.writeValueAsString(layout);
     }
 
     String getLayoutVersion(Authentication authentication) throws Exception {
-        Layout layout = buildLayout(authentication);
+        Layout layout = getLayout(authentication);
         return layout.version();
     }
 
+    private Layout getLayout(Authentication authentication) throws Exception {
+        if (layoutGeneration == null) {
+            return buildLayout(authentication);
+        }
+        // generation is read prior to building the layout, so that a change that occurs while
+        // building the layout results in the layout being cached under the prior generation
+        LayoutCacheKey key = ImmutableLayoutCacheKey.of(authentication, layoutGeneration.get());
+        Layout layout = layoutCache.getIfPresent(key);
+        if (layout == null) {
+            layout = buildLayout(authentication);
+            layoutCache.put(key, layout);
+        }
+        return layout;
+    }
+
     private Layout buildLayout(Authentication authentication) throws Exception {
         if (central) {
             return buildLayoutCentral(authentication);
@@ -436,6 +465,13 @@ class LayoutService {
         List<FilteredAgentRollup> children();
     }
 
+    @Value.Immutable
+    @Styles.AllParameters
+    interface LayoutCacheKey {
+        Authentication authentication();
+        Object generation();
+    }
+
     @Value.Immutable
     abstract static class Layout {
 
@@ -22,6 +22,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -55,6 +59,7 @@ import org.glowroot.common.repo.util.RollupLevelService;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.ui.GaugeValueJsonService.GaugeOrdering;
 import org.glowroot.ui.HttpSessionManager.Authentication;
+import org.glowroot.ui.TransactionCommonService.RolledUpAggregates;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -67,20 +72,24 @@ class ReportJsonService {
 
     private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
 
+    private static final int MAX_IN_FLIGHT_PER_REQUEST = 4;
+
     private static final ObjectMapper mapper = ObjectMappers.create();
 
     private final AggregateRepository aggregateRepository;
     private final AgentRollupRepository agentRollupRepository;
     private final GaugeValueRepository gaugeValueRepository;
     private final RollupLevelService rollupLevelService;
+    private final ExecutorService executor;
 
     ReportJsonService(AggregateRepository aggregateRepository,
             AgentRollupRepository agentRollupRepository, GaugeValueRepository gaugeValueRepository,
-            RollupLevelService rollupLevelService) {
+            RollupLevelService rollupLevelService, ExecutorService executor) {
         this.aggregateRepository = aggregateRepository;
         this.agentRollupRepository = agentRollupRepository;
         this.gaugeValueRepository = gaugeValueRepository;
         this.rollupLevelService = rollupLevelService;
+        this.executor = executor;
     }
 
     // permission is checked based on agentRollupIds in the request
@@ -175,8 +184,9 @@ class ReportJsonService {
         return sb.toString();
     }
 
-    private List<DataSeries> getTransactionReport(ReportRequest request, TimeZone timeZone,
-            Date from, Date to, RollupCaptureTimeFn rollupCaptureTimeFn, double gapMillis)
+    private List<DataSeries> getTransactionReport(final ReportRequest request,
+            final TimeZone timeZone, Date from, Date to,
+            final RollupCaptureTimeFn rollupCaptureTimeFn, final double gapMillis)
             throws Exception {
         int rollupLevel = rollupLevelService.getRollupLevelForReport(from.getTime());
         // level 2 (30 min intervals) is the minimum level needed
@@ -184,7 +194,7 @@ class ReportJsonService {
         if (rollupLevel == 3) {
             verifyFourHourAggregateTimeZone(timeZone);
         }
-        TransactionQuery query = ImmutableTransactionQuery.builder()
+        final TransactionQuery query = ImmutableTransactionQuery.builder()
                 .transactionType(checkNotNull(request.transactionType()))
                 .transactionName(Strings.emptyToNull(checkNotNull(request.transactionName())))
                 // + 1 to make from non-inclusive, since data points are displayed as midpoint of
@@ -193,33 +203,88 @@ class ReportJsonService {
                 .to(to.getTime())
                 .rollupLevel(rollupLevel)
                 .build();
-        List<DataSeries> dataSeriesList = Lists.newArrayList();
-        String metric = request.metric();
-        for (String agentRollupId : request.agentRollupIds()) {
-            if (metric.equals("transaction:average")) {
-                dataSeriesList.add(getDataSeriesForAverage(agentRollupId, query,
-                        rollupCaptureTimeFn, request.rollup(), timeZone, gapMillis));
-            } else if (metric.equals("transaction:x-percentile")) {
-                dataSeriesList.add(getDataSeriesForPercentile(agentRollupId, query,
-                        checkNotNull(request.percentile()), rollupCaptureTimeFn,
-                        request.rollup(), timeZone, gapMillis));
-            } else if (metric.equals("transaction:count")) {
-                dataSeriesList.add(getDataSeriesForThroughput(agentRollupId, query,
-                        rollupCaptureTimeFn, request.rollup(), timeZone, gapMillis,
-                        new CountCalculator()));
-            } else if (metric.equals("error:rate")) {
-                dataSeriesList.add(getDataSeriesForThroughput(agentRollupId, query,
-                        rollupCaptureTimeFn, request.rollup(), timeZone, gapMillis,
-                        new ErrorRateCalculator()));
-            } else if (metric.equals("error:count")) {
-                dataSeriesList.add(getDataSeriesForThroughput(agentRollupId, query,
-                        rollupCaptureTimeFn, request.rollup(), timeZone, gapMillis,
-                        new ErrorCountCalculator()));
-            } else {
-                throw new IllegalStateException("Unexpected metric: " + metric);
+        List<String> agentRollupIds = request.agentRollupIds();
+        if (agentRollupIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<Callable<DataSeries>> callables = Lists.newArrayList();
+        for (final String agentRollupId : agentRollupIds) {
+            callables.add(new Callable<DataSeries>() {
+                @Override
+                public DataSeries call() throws Exception {
+                    return getDataSeriesForTransaction(agentRollupId, request, query, timeZone,
+                            rollupCaptureTimeFn, gapMillis);
+                }
+            });
+        }
+        return callInParallel(callables, executor);
+    }
+
+    // each agent rollup is read (and rolled up) independently, so they are read in parallel to keep
+    // report latency down when comparing many agents over long time ranges, using the executor
+    // shared by all report requests (which bounds the total number of parallel reads)
+    //
+    // each request only has MAX_IN_FLIGHT_PER_REQUEST reads submitted to the executor at a time
+    // (the next one is submitted as each result is collected), so that a request for many agents
+    // does not queue up all of its reads ahead of other report requests
+    @VisibleForTesting
+    static <T> List<T> callInParallel(List<Callable<T>> callables, ExecutorService executor)
+            throws Exception {
+        List<Future<T>> futures = Lists.newArrayList();
+        try {
+            for (int i = 0; i < Math.min(callables.size(), MAX_IN_FLIGHT_PER_REQUEST); i++) {
+                futures.add(executor.submit(callables.get(i)));
             }
+            // futures are in the same order as the callables
+            List<T> results = Lists.newArrayList();
+            for (int i = 0; i < callables.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+                int next = i + MAX_IN_FLIGHT_PER_REQUEST;
+                if (next < callables.size()) {
+                    futures.add(executor.submit(callables.get(next)));
+                }
+            }
+            return results;
+        } finally {
+            // no-op for futures that have completed, and otherwise stops the remaining reads after
+            // a failure
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private DataSeries getDataSeriesForTransaction(String agentRollupId, ReportRequest request,
+            TransactionQuery query, TimeZone timeZone, RollupCaptureTimeFn rollupCaptureTimeFn,
+            double gapMillis) throws Exception {
+        String metric = request.metric();
+        if (metric.equals("transaction:average")) {
+            return getDataSeriesForAverage(agentRollupId, query, rollupCaptureTimeFn,
+                    request.rollup(), timeZone, gapMillis);
+        } else if (metric.equals("transaction:x-percentile")) {
+            return getDataSeriesForPercentile(agentRollupId, query,
+                    checkNotNull(request.percentile()), rollupCaptureTimeFn, request.rollup(),
+                    timeZone, gapMillis);
+        } else if (metric.equals("transaction:count")) {
+            return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
+                    request.rollup(), timeZone, gapMillis, new CountCalculator());
+        } else if (metric.equals("error:rate")) {
+            return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
+                    request.rollup(), timeZone, gapMillis, new ErrorRateCalculator());
+        } else if (metric.equals("error:count")) {
+            return getDataSeriesForThroughput(agentRollupId, query, rollupCaptureTimeFn,
+                    request.rollup(), timeZone, gapMillis, new ErrorCountCalculator());
+        } else {
+            throw new IllegalStateException("Unexpected metric: " + metric);
         }
-        return dataSeriesList;
     }
 
     private DataSeries getDataSeriesForAverage(String agentRollupId, TransactionQuery query,
@@ -228,10 +293,11 @@ class ReportJsonService {
 
         DataSeries dataSeries =
                 new DataSeries(agentRollupRepository.readAgentRollupDisplay(agentRollupId));
-        List<OverviewAggregate> aggregates =
-                aggregateRepository.readOverviewAggregates(agentRollupId, query);
-        aggregates =
-                TransactionCommonService.rollUpOverviewAggregates(aggregates, rollupCaptureTimeFn);
+        RolledUpAggregates<OverviewAggregate> rolledUpAggregates =
+                new RolledUpAggregates<OverviewAggregate>();
+        aggregateRepository.streamOverviewAggregates(agentRollupId, query, rollupCaptureTimeFn,
+                rolledUpAggregates);
+        List<OverviewAggregate> aggregates = rolledUpAggregates.get();
         if (aggregates.isEmpty()) {
             return dataSeries;
         }
@@ -274,10 +340,11 @@ class ReportJsonService {
             TimeZone timeZone, double gapMillis) throws Exception {
         DataSeries dataSeries =
                 new DataSeries(agentRollupRepository.readAgentRollupDisplay(agentRollupId));
-        List<PercentileAggregate> aggregates =
-                aggregateRepository.readPercentileAggregates(agentRollupId, query);
-        aggregates = TransactionCommonService.rollUpPercentileAggregates(aggregates,
-                rollupCaptureTimeFn);
+        RolledUpAggregates<PercentileAggregate> rolledUpAggregates =
+                new RolledUpAggregates<PercentileAggregate>();
+        aggregateRepository.streamPercentileAggregates(agentRollupId, query, rollupCaptureTimeFn,
+                rolledUpAggregates);
+        List<PercentileAggregate> aggregates = rolledUpAggregates.get();
         if (aggregates.isEmpty()) {
             return dataSeries;
         }
@@ -317,10 +384,11 @@ class ReportJsonService {
             double gapMillis, ThroughputAggregateFn throughputAggregateFn) throws Exception {
         DataSeries dataSeries =
                 new DataSeries(agentRollupRepository.readAgentRollupDisplay(agentRollupId));
-        List<ThroughputAggregate> aggregates =
-                aggregateRepository.readThroughputAggregates(agentRollupId, query);
-        aggregates = TransactionCommonService.rollUpThroughputAggregates(aggregates,
-                rollupCaptureTimeFn);
+        RolledUpAggregates<ThroughputAggregate> rolledUpAggregates =
+                new RolledUpAggregates<ThroughputAggregate>();
+        aggregateRepository.streamThroughputAggregates(agentRollupId, query, rollupCaptureTimeFn,
+                rolledUpAggregates);
+        List<ThroughputAggregate> aggregates = rolledUpAggregates.get();
         if (aggregates.isEmpty()) {
             return dataSeries;
         }
@@ -16,7 +16,9 @@
 package org.glowroot.ui;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
@@ -37,8 +39,10 @@ import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.model.MutableProfile;
 import org.glowroot.common.repo.AgentRollupRepository;
 import org.glowroot.common.repo.TraceRepository;
+import org.glowroot.common.repo.TraceRepository.EntriesCursor;
 import org.glowroot.common.repo.TraceRepository.HeaderPlus;
 import org.glowroot.common.util.Styles;
+import org.glowroot.ui.ChunkSource.ChunkCopier;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.Proto;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
@@ -166,11 +170,10 @@ class TraceCommonService {
                 return ImmutableTraceExport.builder()
                         .fileName(getFileName(header))
                         .headerJson(toJsonLiveHeader(agentId, header))
-                        .entriesJson(entriesToJson(trace.getEntryList()))
                         // SharedQueryTexts are always returned from getFullTrace() above with
                         // fullTrace, so no need to resolve fullTraceSha1
-                        .sharedQueryTextsJson(
-                                sharedQueryTextsToJson(trace.getSharedQueryTextList()))
+                        .entries(new ListEntriesCursor(trace.getEntryList(),
+                                trace.getSharedQueryTextList()))
                         .mainThreadProfileJson(toJson(trace.getMainThreadProfile()))
                         .auxThreadProfileJson(toJson(trace.getAuxThreadProfile()))
                         .build();
@@ -184,19 +187,24 @@ class TraceCommonService {
         ImmutableTraceExport.Builder builder = ImmutableTraceExport.builder()
                 .fileName(getFileName(header.header()))
                 .headerJson(toJsonRepoHeader(agentId, header));
-        Entries entries =
+        // SharedQueryTexts are always returned from getStoredEntriesForExport() below with
+        // fullTrace, so no need to resolve fullTraceSha1
+        EntriesCursor entries =
                 getStoredEntriesForExport(agentRollupId, agentId, traceId, retryCountdown);
-        if (entries != null) {
-            builder.entriesJson(entriesToJson(entries.entries()));
-            // SharedQueryTexts are always returned from getStoredEntries() above with fullTrace,
-            // so no need to resolve fullTraceSha1
-            builder.sharedQueryTextsJson(sharedQueryTextsToJson(entries.sharedQueryTexts()));
-        }
-        builder.mainThreadProfileJson(
-                toJson(getStoredMainThreadProfile(agentRollupId, agentId, traceId,
-                        retryCountdown)));
-        builder.auxThreadProfileJson(
-                toJson(getStoredAuxThreadProfile(agentRollupId, agentId, traceId, retryCountdown)));
+        builder.entries(entries);
+        try {
+            builder.mainThreadProfileJson(
+                    toJson(getStoredMainThreadProfile(agentRollupId, agentId, traceId,
+                            retryCountdown)));
+            builder.auxThreadProfileJson(toJson(
+                    getStoredAuxThreadProfile(agentRollupId, agentId, traceId, retryCountdown)));
+        } catch (Exception e) {
+            // the export will not be written, so nothing else is going to close the cursor
+            if (entries != null) {
+                entries.close();
+            }
+            throw e;
+        }
         return builder.build();
     }
 
@@ -222,9 +230,10 @@ class TraceCommonService {
         return entries;
     }
 
-    private @Nullable Entries getStoredEntriesForExport(String agentRollupId, String agentId,
-            String traceId, RetryCountdown retryCountdown) throws Exception {
-        Entries entries = traceRepository.readEntriesForExport(agentRollupId, agentId, traceId);
+    private @Nullable EntriesCursor getStoredEntriesForExport(String agentRollupId,
+            String agentId, String traceId, RetryCountdown retryCountdown) throws Exception {
+        EntriesCursor entries =
+                traceRepository.readEntriesForExport(agentRollupId, agentId, traceId);
         while (entries == null && retryCountdown.remaining-- > 0) {
             // trace may be completed, but still in transit from agent to the central collector
             Thread.sleep(500);
@@ -289,19 +298,23 @@ class TraceCommonService {
         return sb.toString();
     }
 
-    private static @Nullable String sharedQueryTextsToJson(
-            List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
-        if (sharedQueryTexts.isEmpty()) {
-            return null;
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeSharedQueryTexts(jg, sharedQueryTexts);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+    static ChunkSource entriesJsonChunkSource(final @Nullable EntriesCursor entries) {
+        return new ChunkSource() {
+            @Override
+            public ChunkCopier getCopier(Writer writer) throws IOException {
+                return new EntriesJsonChunkCopier(entries, writer);
+            }
+        };
+    }
+
+    // must be copied after entriesJsonChunkSource() has been fully copied
+    static ChunkSource sharedQueryTextsJsonChunkSource(final @Nullable EntriesCursor entries) {
+        return new ChunkSource() {
+            @Override
+            public ChunkCopier getCopier(Writer writer) throws IOException {
+                return new SharedQueryTextsJsonChunkCopier(entries, writer);
+            }
+        };
     }
 
     private static void writeEntries(JsonGenerator jg, List<Trace.Entry> entries)
@@ -310,44 +323,55 @@ class TraceCommonService {
         PeekingIterator<Trace.Entry> i = Iterators.peekingIterator(entries.iterator());
         while (i.hasNext()) {
             Trace.Entry entry = i.next();
-            int depth = entry.getDepth();
-            jg.writeStartObject();
-            writeJson(entry, jg);
-            int nextDepth = i.hasNext() ? i.peek().getDepth() : 0;
-            if (nextDepth > depth) {
-                jg.writeArrayFieldStart("childEntries");
-            } else if (nextDepth < depth) {
-                jg.writeEndObject();
-                for (int j = depth; j > nextDepth; j--) {
-                    jg.writeEndArray();
-                    jg.writeEndObject();
-                }
-            } else {
+            writeEntry(jg, entry, i.hasNext() ? i.peek().getDepth() : 0);
+        }
+        jg.writeEndArray();
+    }
+
+    // the entry's childEntries array is left open if the next entry is a child, and the entry is
+    // closed together with any ancestors it is the last descendant of if the next entry is not
+    private static void writeEntry(JsonGenerator jg, Trace.Entry entry, int nextDepth)
+            throws IOException {
+        int depth = entry.getDepth();
+        jg.writeStartObject();
+        writeJson(entry, jg);
+        if (nextDepth > depth) {
+            jg.writeArrayFieldStart("childEntries");
+        } else if (nextDepth < depth) {
+            jg.writeEndObject();
+            for (int j = depth; j > nextDepth; j--) {
+                jg.writeEndArray();
                 jg.writeEndObject();
             }
+        } else {
+            jg.writeEndObject();
         }
-        jg.writeEndArray();
     }
 
     private static void writeSharedQueryTexts(JsonGenerator jg,
             List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
         jg.writeStartArray();
         for (Trace.SharedQueryText sharedQueryText : sharedQueryTexts) {
-            jg.writeStartObject();
-            String fullText = sharedQueryText.getFullText();
-            if (fullText.isEmpty()) {
-                // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
-                jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
-                jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
-                jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
-            } else {
-                jg.writeStringField("fullText", fullText);
-            }
-            jg.writeEndObject();
+            writeSharedQueryText(jg, sharedQueryText);
         }
         jg.writeEndArray();
     }
 
+    private static void writeSharedQueryText(JsonGenerator jg,
+            Trace.SharedQueryText sharedQueryText) throws IOException {
+        jg.writeStartObject();
+        String fullText = sharedQueryText.getFullText();
+        if (fullText.isEmpty()) {
+            // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
+            jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
+            jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
+            jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
+        } else {
+            jg.writeStringField("fullText", fullText);
+        }
+        jg.writeEndObject();
+    }
+
     private static @Nullable String toJson(@Nullable Profile profile) throws IOException {
         if (profile == null) {
             return null;
@@ -445,6 +469,10 @@ class TraceCommonService {
             if (entryLimitExceeded) {
                 jg.writeBooleanField("entryLimitExceeded", entryLimitExceeded);
             }
+            boolean entriesNotCaptured = header.getEntriesNotCaptured();
+            if (entriesNotCaptured) {
+                jg.writeBooleanField("entriesNotCaptured", entriesNotCaptured);
+            }
             jg.writeNumberField("mainThreadProfileSampleCount",
                     header.getMainThreadProfileSampleCount());
             boolean mainThreadProfileSampleLimitExceeded =
@@ -650,13 +678,160 @@ class TraceCommonService {
     interface TraceExport {
         String fileName();
         String headerJson();
+        // entries are streamed from the cursor while the export is being written
         @Nullable
-        String entriesJson();
-        @Nullable
-        String sharedQueryTextsJson();
+        EntriesCursor entries();
         @Nullable
         String mainThreadProfileJson();
         @Nullable
         String auxThreadProfileJson();
     }
+
+    private static class ListEntriesCursor implements EntriesCursor {
+
+        private final Iterator<Trace.Entry> entries;
+        private final Iterator<Trace.SharedQueryText> sharedQueryTexts;
+
+        private ListEntriesCursor(List<Trace.Entry> entries,
+                List<Trace.SharedQueryText> sharedQueryTexts) {
+            this.entries = entries.iterator();
+            this.sharedQueryTexts = sharedQueryTexts.iterator();
+        }
+
+        @Override
+        public @Nullable Trace.Entry readNextEntry() {
+            return entries.hasNext() ? entries.next() : null;
+        }
+
+        @Override
+        public @Nullable Trace.SharedQueryText readNextSharedQueryText() {
+            return sharedQueryTexts.hasNext() ? sharedQueryTexts.next() : null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // writes entries in batches so that the size of each chunk is bounded, and nothing at all (same
+    // as a null entriesJson) if there are no entries
+    private static class EntriesJsonChunkCopier implements ChunkCopier {
+
+        private static final int BATCH_SIZE = 1000;
+
+        private final @Nullable EntriesCursor entries;
+        private final JsonGenerator jg;
+
+        private @Nullable Trace.Entry nextEntry;
+        private boolean started;
+        private boolean done;
+
+        private EntriesJsonChunkCopier(@Nullable EntriesCursor entries, Writer writer)
+                throws IOException {
+            this.entries = entries;
+            jg = jsonFactory.createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            if (done || entries == null) {
+                return false;
+            }
+            if (!started) {
+                started = true;
+                nextEntry = readNextEntry(entries);
+                if (nextEntry == null) {
+                    done = true;
+                    return false;
+                }
+                jg.writeStartArray();
+            }
+            for (int i = 0; i < BATCH_SIZE && nextEntry != null; i++) {
+                Trace.Entry entry = nextEntry;
+                nextEntry = readNextEntry(entries);
+                writeEntry(jg, entry, nextEntry == null ? 0 : nextEntry.getDepth());
+            }
+            if (nextEntry == null) {
+                jg.writeEndArray();
+                done = true;
+            }
+            jg.flush();
+            return true;
+        }
+
+        // the cursor is closed by the export (see TraceExportHttpService), since it is shared with
+        // SharedQueryTextsJsonChunkCopier
+        @Override
+        public void close() {}
+
+        private static @Nullable Trace.Entry readNextEntry(EntriesCursor entries)
+                throws IOException {
+            try {
+                return entries.readNextEntry();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class SharedQueryTextsJsonChunkCopier implements ChunkCopier {
+
+        private static final int BATCH_SIZE = 100;
+
+        private final @Nullable EntriesCursor entries;
+        private final JsonGenerator jg;
+
+        private @Nullable Trace.SharedQueryText nextSharedQueryText;
+        private boolean started;
+        private boolean done;
+
+        private SharedQueryTextsJsonChunkCopier(@Nullable EntriesCursor entries, Writer writer)
+                throws IOException {
+            this.entries = entries;
+            jg = jsonFactory.createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            if (done || entries == null) {
+                return false;
+            }
+            if (!started) {
+                started = true;
+                nextSharedQueryText = readNextSharedQueryText(entries);
+                if (nextSharedQueryText == null) {
+                    done = true;
+                    return false;
+                }
+                jg.writeStartArray();
+            }
+            for (int i = 0; i < BATCH_SIZE && nextSharedQueryText != null; i++) {
+                writeSharedQueryText(jg, nextSharedQueryText);
+                nextSharedQueryText = readNextSharedQueryText(entries);
+            }
+            if (nextSharedQueryText == null) {
+                jg.writeEndArray();
+                done = true;
+            }
+            jg.flush();
+            return true;
+        }
+
+        @Override
+        public void close() {}
+
+        private static @Nullable Trace.SharedQueryText readNextSharedQueryText(
+                EntriesCursor entries) throws IOException {
+            try {
+                return entries.readNextSharedQueryText();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
 }
@@ -29,6 +29,7 @@ import com.google.common.net.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.common.repo.TraceRepository.EntriesCursor;
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
 import org.glowroot.ui.HttpSessionManager.Authentication;
@@ -86,7 +87,16 @@ class TraceExportHttpService implements HttpService {
             logger.warn("no trace found for id: {}", traceId);
             return new CommonResponse(NOT_FOUND);
         }
-        ChunkSource chunkSource = render(traceExport);
+        ChunkSource chunkSource;
+        try {
+            chunkSource = render(traceExport);
+        } catch (IOException e) {
+            EntriesCursor entries = traceExport.entries();
+            if (entries != null) {
+                entries.close();
+            }
+            throw e;
+        }
         CommonResponse response = new CommonResponse(OK, MediaType.ZIP, chunkSource);
         response.setZipFileName(traceExport.fileName());
         response.setHeader("Content-Disposition",
@@ -140,18 +150,14 @@ class TraceExportHttpService implements HttpService {
             } else if (match.equals(entriesPlaceholder)) {
                 chunkSources
                         .add(ChunkSource.wrap("<script type=\"text/json\" id=\"entriesJson\">"));
-                String entriesJson = traceExport.entriesJson();
-                if (entriesJson != null) {
-                    chunkSources.add(ChunkSource.wrap(entriesJson));
-                }
+                chunkSources.add(
+                        TraceCommonService.entriesJsonChunkSource(traceExport.entries()));
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(sharedQueryTextsPlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"sharedQueryTextsJson\">"));
-                String sharedQueryTextsJson = traceExport.sharedQueryTextsJson();
-                if (sharedQueryTextsJson != null) {
-                    chunkSources.add(ChunkSource.wrap(sharedQueryTextsJson));
-                }
+                chunkSources.add(
+                        TraceCommonService.sharedQueryTextsJsonChunkSource(traceExport.entries()));
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(mainThreadProfilePlaceholder)) {
                 chunkSources.add(ChunkSource
@@ -176,7 +182,12 @@ class TraceExportHttpService implements HttpService {
             }
         }
         chunkSources.add(ChunkSource.wrap(templateContent.substring(curr)));
-        return ChunkSource.concat(chunkSources);
+        ChunkSource chunkSource = ChunkSource.concat(chunkSources);
+        EntriesCursor entries = traceExport.entries();
+        if (entries != null) {
+            chunkSource = ChunkSource.onClose(chunkSource, entries);
+        }
+        return chunkSource;
     }
 
     private static ChunkSource asChunkSource(String exportResourceName) {
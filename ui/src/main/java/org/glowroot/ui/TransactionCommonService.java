@@ -25,7 +25,6 @@ import com.google.common.collect.Lists;
 
 import org.glowroot.common.config.ConfigDefaults;
 import org.glowroot.common.live.ImmutableOverallQuery;
-import org.glowroot.common.live.ImmutableThroughputAggregate;
 import org.glowroot.common.live.ImmutableTransactionQuery;
 import org.glowroot.common.live.LiveAggregateRepository;
 import org.glowroot.common.live.LiveAggregateRepository.LiveResult;
@@ -46,8 +45,11 @@ import org.glowroot.common.model.TransactionSummaryCollector;
 import org.glowroot.common.model.TransactionSummaryCollector.SummarySortOrder;
 import org.glowroot.common.model.TransactionSummaryCollector.TransactionSummary;
 import org.glowroot.common.repo.AggregateRepository;
+import org.glowroot.common.repo.AggregateRepository.AggregateConsumer;
+import org.glowroot.common.repo.AggregateRollups.OverviewRollup;
+import org.glowroot.common.repo.AggregateRollups.PercentileRollup;
+import org.glowroot.common.repo.AggregateRollups.ThroughputRollup;
 import org.glowroot.common.repo.ConfigRepository;
-import org.glowroot.common.repo.MutableAggregate;
 import org.glowroot.common.repo.Utils;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AdvancedConfig;
@@ -413,114 +415,41 @@ class TransactionCommonService {
 
     static List<OverviewAggregate> rollUpOverviewAggregates(
             List<OverviewAggregate> orderedNonRolledUpOverviewAggregates,
-            Function<Long, Long> rollupCaptureTimeFn) {
-        List<OverviewAggregate> rolledUpOverviewAggregates = Lists.newArrayList();
-        MutableAggregate currMergedAggregate = new MutableAggregate(0, 0);
-        long currRollupCaptureTime = Long.MIN_VALUE;
-        long maxCaptureTime = Long.MIN_VALUE;
-        for (OverviewAggregate nonRolledUpOverviewAggregate : orderedNonRolledUpOverviewAggregates) {
-            maxCaptureTime = nonRolledUpOverviewAggregate.captureTime();
-            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
-            if (rollupCaptureTime != currRollupCaptureTime && !currMergedAggregate.isEmpty()) {
-                rolledUpOverviewAggregates
-                        .add(currMergedAggregate.toOverviewAggregate(currRollupCaptureTime));
-                currMergedAggregate = new MutableAggregate(0, 0);
-            }
-            currRollupCaptureTime = rollupCaptureTime;
-            currMergedAggregate
-                    .addTotalDurationNanos(nonRolledUpOverviewAggregate.totalDurationNanos());
-            currMergedAggregate
-                    .addTransactionCount(nonRolledUpOverviewAggregate.transactionCount());
-            currMergedAggregate
-                    .mergeMainThreadRootTimers(nonRolledUpOverviewAggregate.mainThreadRootTimers());
-            currMergedAggregate
-                    .mergeAuxThreadRootTimers(nonRolledUpOverviewAggregate.auxThreadRootTimers());
-            currMergedAggregate
-                    .mergeAsyncTimers(nonRolledUpOverviewAggregate.asyncTimers());
-            currMergedAggregate
-                    .mergeMainThreadStats(nonRolledUpOverviewAggregate.mainThreadStats());
-            currMergedAggregate.mergeAuxThreadStats(nonRolledUpOverviewAggregate.auxThreadStats());
-        }
-        if (!currMergedAggregate.isEmpty()) {
-            // roll up final one
-            rolledUpOverviewAggregates.add(currMergedAggregate.toOverviewAggregate(maxCaptureTime));
-        }
-        return rolledUpOverviewAggregates;
+            Function<Long, Long> rollupCaptureTimeFn) throws Exception {
+        RolledUpAggregates<OverviewAggregate> rolledUpAggregates =
+                new RolledUpAggregates<OverviewAggregate>();
+        OverviewRollup rollup = new OverviewRollup(rollupCaptureTimeFn, rolledUpAggregates);
+        for (OverviewAggregate aggregate : orderedNonRolledUpOverviewAggregates) {
+            rollup.accept(aggregate);
+        }
+        rollup.finish();
+        return rolledUpAggregates.get();
     }
 
     static List<PercentileAggregate> rollUpPercentileAggregates(
             List<PercentileAggregate> orderedNonRolledUpPercentileAggregates,
-            Function<Long, Long> rollupCaptureTimeFn) {
-        List<PercentileAggregate> rolledUpPercentileAggregates = Lists.newArrayList();
-        MutableAggregate currMergedAggregate = new MutableAggregate(0, 0);
-        long currRollupCaptureTime = Long.MIN_VALUE;
-        long maxCaptureTime = Long.MIN_VALUE;
-        for (PercentileAggregate nonRolledUpPercentileAggregate : orderedNonRolledUpPercentileAggregates) {
-            maxCaptureTime = nonRolledUpPercentileAggregate.captureTime();
-            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
-            if (rollupCaptureTime != currRollupCaptureTime && !currMergedAggregate.isEmpty()) {
-                rolledUpPercentileAggregates
-                        .add(currMergedAggregate.toPercentileAggregate(currRollupCaptureTime));
-                currMergedAggregate = new MutableAggregate(0, 0);
-            }
-            currRollupCaptureTime = rollupCaptureTime;
-            currMergedAggregate
-                    .addTotalDurationNanos(nonRolledUpPercentileAggregate.totalDurationNanos());
-            currMergedAggregate
-                    .addTransactionCount(nonRolledUpPercentileAggregate.transactionCount());
-            currMergedAggregate.mergeDurationNanosHistogram(
-                    nonRolledUpPercentileAggregate.durationNanosHistogram());
-        }
-        if (!currMergedAggregate.isEmpty()) {
-            // roll up final one
-            rolledUpPercentileAggregates
-                    .add(currMergedAggregate.toPercentileAggregate(maxCaptureTime));
-        }
-        return rolledUpPercentileAggregates;
+            Function<Long, Long> rollupCaptureTimeFn) throws Exception {
+        RolledUpAggregates<PercentileAggregate> rolledUpAggregates =
+                new RolledUpAggregates<PercentileAggregate>();
+        PercentileRollup rollup = new PercentileRollup(rollupCaptureTimeFn, rolledUpAggregates);
+        for (PercentileAggregate aggregate : orderedNonRolledUpPercentileAggregates) {
+            rollup.accept(aggregate);
+        }
+        rollup.finish();
+        return rolledUpAggregates.get();
     }
 
     static List<ThroughputAggregate> rollUpThroughputAggregates(
             List<ThroughputAggregate> orderedNonRolledUpThroughputAggregates,
-            Function<Long, Long> rollupCaptureTimeFn) {
-        List<ThroughputAggregate> rolledUpThroughputAggregates = Lists.newArrayList();
-        long currTransactionCount = 0;
-        // error_count is null for data inserted prior to glowroot central 0.9.18
-        // rolling up any interval with null error_count should result in null error_count
-        boolean hasMissingErrorCount = false;
-        long currErrorCount = 0;
-        long currRollupCaptureTime = Long.MIN_VALUE;
-        long maxCaptureTime = Long.MIN_VALUE;
-        for (ThroughputAggregate nonRolledUpThroughputAggregate : orderedNonRolledUpThroughputAggregates) {
-            maxCaptureTime = nonRolledUpThroughputAggregate.captureTime();
-            long rollupCaptureTime = rollupCaptureTimeFn.apply(maxCaptureTime);
-            if (rollupCaptureTime != currRollupCaptureTime && currTransactionCount > 0) {
-                rolledUpThroughputAggregates.add(ImmutableThroughputAggregate.builder()
-                        .captureTime(currRollupCaptureTime)
-                        .transactionCount(currTransactionCount)
-                        .errorCount(hasMissingErrorCount ? null : currErrorCount)
-                        .build());
-                currTransactionCount = 0;
-                hasMissingErrorCount = false;
-                currErrorCount = 0;
-            }
-            currRollupCaptureTime = rollupCaptureTime;
-            currTransactionCount += nonRolledUpThroughputAggregate.transactionCount();
-            Long errorCount = nonRolledUpThroughputAggregate.errorCount();
-            if (errorCount == null) {
-                hasMissingErrorCount = true;
-            } else {
-                currErrorCount += errorCount;
-            }
-        }
-        if (currTransactionCount > 0) {
-            // roll up final one
-            rolledUpThroughputAggregates.add(ImmutableThroughputAggregate.builder()
-                    .captureTime(maxCaptureTime)
-                    .transactionCount(currTransactionCount)
-                    .errorCount(hasMissingErrorCount ? null : currErrorCount)
-                    .build());
-        }
-        return rolledUpThroughputAggregates;
+            Function<Long, Long> rollupCaptureTimeFn) throws Exception {
+        RolledUpAggregates<ThroughputAggregate> rolledUpAggregates =
+                new RolledUpAggregates<ThroughputAggregate>();
+        ThroughputRollup rollup = new ThroughputRollup(rollupCaptureTimeFn, rolledUpAggregates);
+        for (ThroughputAggregate aggregate : orderedNonRolledUpThroughputAggregates) {
+            rollup.accept(aggregate);
+        }
+        rollup.finish();
+        return rolledUpAggregates.get();
     }
 
     private MutableProfile getMergedProfile(String agentRollupId, TransactionQuery query,
@@ -590,4 +519,19 @@ class TransactionCommonService {
             return Utils.getRollupCaptureTime(captureTime, fixedIntervalMillis);
         }
     }
+
+    // collects the rolled up aggregates, e.g. from AggregateRepository.streamOverviewAggregates()
+    static class RolledUpAggregates<T> implements AggregateConsumer<T> {
+
+        private final List<T> aggregates = Lists.newArrayList();
+
+        @Override
+        public void accept(T aggregate) {
+            aggregates.add(aggregate);
+        }
+
+        List<T> get() {
+            return aggregates;
+        }
+    }
 }
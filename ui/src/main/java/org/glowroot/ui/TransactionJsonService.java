@@ -65,6 +65,10 @@ class TransactionJsonService {
 
     private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
 
+    // this service call type is used by the logger plugin for aggregated log events, which are
+    // returned separately so they do not skew the service calls
+    private static final String LOG_EVENTS_SERVICE_CALL_TYPE = "Log events";
+
     private static final ObjectMapper mapper = ObjectMappers.create();
 
     private final TransactionCommonService transactionCommonService;
@@ -239,31 +243,33 @@ class TransactionJsonService {
         List<Aggregate.ServiceCallsByType> queries =
                 transactionCommonService.getMergedServiceCalls(agentRollupId, query);
         List<ServiceCall> serviceCallList = Lists.newArrayList();
+        List<ServiceCall> logEventList = Lists.newArrayList();
         for (Aggregate.ServiceCallsByType queriesByType : queries) {
+            String type = queriesByType.getType();
+            List<ServiceCall> list =
+                    type.equals(LOG_EVENTS_SERVICE_CALL_TYPE) ? logEventList : serviceCallList;
             for (Aggregate.ServiceCall aggServiceCall : queriesByType.getServiceCallList()) {
-                serviceCallList.add(ImmutableServiceCall.builder()
-                        .type(queriesByType.getType())
+                list.add(ImmutableServiceCall.builder()
+                        .type(type)
                         .text(aggServiceCall.getText())
                         .totalDurationNanos(aggServiceCall.getTotalDurationNanos())
                         .executionCount(aggServiceCall.getExecutionCount())
                         .build());
             }
         }
-        Collections.sort(serviceCallList, new Comparator<ServiceCall>() {
-            @Override
-            public int compare(ServiceCall left, ServiceCall right) {
-                // sort descending
-                return Doubles.compare(right.totalDurationNanos(), left.totalDurationNanos());
-            }
-        });
-        if (serviceCallList.isEmpty()
+        sortByTotalDurationDescending(serviceCallList);
+        sortByTotalDurationDescending(logEventList);
+        if (serviceCallList.isEmpty() && logEventList.isEmpty()
                 && aggregateRepository.shouldHaveServiceCalls(agentRollupId, query)) {
             return "{\"overwritten\":true}";
         }
         StringBuilder sb = new StringBuilder();
         JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
         try {
-            jg.writeObject(serviceCallList);
+            jg.writeStartObject();
+            jg.writeObjectField("serviceCalls", serviceCallList);
+            jg.writeObjectField("logEvents", logEventList);
+            jg.writeEndObject();
         } finally {
             jg.close();
         }
@@ -590,6 +596,16 @@ class TransactionJsonService {
         return false;
     }
 
+    private static void sortByTotalDurationDescending(List<ServiceCall> serviceCalls) {
+        Collections.sort(serviceCalls, new Comparator<ServiceCall>() {
+            @Override
+            public int compare(ServiceCall left, ServiceCall right) {
+                // sort descending
+                return Doubles.compare(right.totalDurationNanos(), left.totalDurationNanos());
+            }
+        });
+    }
+
     // calculate top 5 timers
     private static List<String> getTopTimerNames(List<StackedPoint> stackedPoints, int topX) {
         MutableDoubleMap<String> timerTotals = new MutableDoubleMap<String>();
@@ -18,6 +18,8 @@ package org.glowroot.ui;
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -27,6 +29,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.immutables.builder.Builder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +59,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 public class UiModule {
 
+    // bounds the total number of agent rollups that are read in parallel across all report requests
+    // (each report request also only has a limited number of reads in flight at a time, see
+    // ReportJsonService.callInParallel())
+    private static final int REPORT_READER_THREADS = 4;
+
     private static final Logger logger = LoggerFactory.getLogger(UiModule.class);
 
     // non-null when using netty
@@ -64,6 +72,8 @@ public class UiModule {
     // CommonHandler is non-null when using servlet container (applies to central only)
     private final @Nullable CommonHandler commonHandler;
 
+    private final ExecutorService reportExecutor;
+
     @Builder.Factory
     public static UiModule createUiModule(
             boolean central,
@@ -96,6 +106,7 @@ public class UiModule {
             LiveAggregateRepository liveAggregateRepository,
             @Nullable LiveWeavingService liveWeavingService,
             SessionMapFactory sessionMapFactory,
+            @Nullable LayoutGeneration layoutGeneration, // null for embedded
             HttpClient httpClient,
             int numWorkerThreads,
             String version) throws Exception {
@@ -120,12 +131,17 @@ public class UiModule {
         jsonServices.add(new ErrorJsonService(errorCommonService, transactionCommonService,
                 traceRepository, rollupLevelService, clock));
         jsonServices.add(new GaugeValueJsonService(gaugeValueRepository, rollupLevelService,
-                agentRollupRepository, configRepository));
+                agentRollupRepository, configRepository, clock));
         jsonServices.add(new JvmJsonService(environmentRepository, liveJvmService));
         jsonServices.add(new IncidentJsonService(central, incidentRepository,
                 configRepository, clock));
+        ExecutorService reportExecutor = Executors.newFixedThreadPool(REPORT_READER_THREADS,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("Glowroot-Report-Reader-%d")
+                        .build());
         jsonServices.add(new ReportJsonService(aggregateRepository, agentRollupRepository,
-                gaugeValueRepository, rollupLevelService));
+                gaugeValueRepository, rollupLevelService, reportExecutor));
         jsonServices.add(new ConfigJsonService(agentRollupRepository, gaugeValueRepository,
                 configRepository));
         jsonServices
@@ -149,7 +165,7 @@ public class UiModule {
         LayoutService layoutService =
                 new LayoutService(central, servlet, offline, version, configRepository,
                         agentRollupRepository, transactionTypeRepository,
-                        traceAttributeNameRepository);
+                        traceAttributeNameRepository, layoutGeneration);
         HttpSessionManager httpSessionManager = new HttpSessionManager(central, offline,
                 configRepository, clock, layoutService, sessionMapFactory);
         IndexHtmlHttpService indexHtmlHttpService = new IndexHtmlHttpService(layoutService);
@@ -190,7 +206,7 @@ public class UiModule {
                 httpSessionManager, jsonServices, clock);
 
         if (servlet) {
-            return new UiModule(commonHandler);
+            return new UiModule(commonHandler, reportExecutor);
         } else {
             HttpServer httpServer;
             int initialPort;
@@ -219,17 +235,19 @@ public class UiModule {
             }
             adminJsonService.setHttpServer(httpServer);
             httpServer.bindEventually(initialPort);
-            return new UiModule(httpServer);
+            return new UiModule(httpServer, reportExecutor);
         }
     }
 
-    private UiModule(HttpServer httpServer) {
+    private UiModule(HttpServer httpServer, ExecutorService reportExecutor) {
         this.httpServer = httpServer;
+        this.reportExecutor = reportExecutor;
         commonHandler = null;
     }
 
-    private UiModule(CommonHandler commonHandler) {
+    private UiModule(CommonHandler commonHandler, ExecutorService reportExecutor) {
         this.commonHandler = commonHandler;
+        this.reportExecutor = reportExecutor;
         httpServer = null;
     }
 
@@ -243,5 +261,6 @@ public class UiModule {
         if (httpServer != null) {
             httpServer.close();
         }
+        reportExecutor.shutdownNow();
     }
 }
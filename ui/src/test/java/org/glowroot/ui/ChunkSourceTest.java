@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2016 the original author or authors.
+ * Copyright 2015-2017 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,8 +16,10 @@
 package org.glowroot.ui;
 
 import java.io.CharArrayWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
@@ -95,6 +97,28 @@ public class ChunkSourceTest {
         assertThat(writer.toString()).isEqualTo("123456789");
     }
 
+    @Test
+    public void shouldCloseWhenAbandoned() throws IOException {
+        // given
+        final AtomicBoolean closed = new AtomicBoolean();
+        ChunkSource chunkSource = ChunkSource.onClose(
+                ChunkSource.concat(ImmutableList.of(ChunkSource.wrap("1"), ChunkSource.wrap("2"))),
+                new Closeable() {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                });
+        CharArrayWriter writer = new CharArrayWriter();
+        ChunkCopier copier = chunkSource.getCopier(writer);
+        // when
+        copier.copyNext();
+        copier.close();
+        // then
+        assertThat(writer.toString()).isEqualTo("1");
+        assertThat(closed.get()).isTrue();
+    }
+
     private static class EmptyChunkSource extends ChunkSource {
 
         private static final EmptyChunkSource INSTANCE = new EmptyChunkSource();
@@ -106,6 +130,9 @@ public class ChunkSourceTest {
                 public boolean copyNext() throws IOException {
                     return false;
                 }
+
+                @Override
+                public void close() {}
             };
         }
     }
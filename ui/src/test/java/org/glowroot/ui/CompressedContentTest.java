@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedContentTest {
+
+    @Test
+    public void shouldCompress() throws Exception {
+        // given
+        byte[] bytes = Strings.repeat("abc", 1000).getBytes(Charsets.UTF_8);
+        // when
+        CompressedContent content = CompressedContent.compress(bytes);
+        // then
+        assertThat(content.isGzipped(true)).isTrue();
+        assertThat(content.isGzipped(false)).isFalse();
+        byte[] gzipped = toByteArray(content.getContent(true));
+        assertThat(gzipped.length).isLessThan(bytes.length);
+        assertThat(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped))))
+                .isEqualTo(bytes);
+        assertThat(toByteArray(content.getContent(false))).isEqualTo(bytes);
+    }
+
+    @Test
+    public void shouldNotCompressWhenNotSmaller() throws Exception {
+        // given
+        byte[] bytes = "a".getBytes(Charsets.UTF_8);
+        // when
+        CompressedContent content = CompressedContent.compress(bytes);
+        // then
+        assertThat(content.isGzipped(true)).isFalse();
+        assertThat(toByteArray(content.getContent(true))).isEqualTo(bytes);
+    }
+
+    private static byte[] toByteArray(ByteBuf byteBuf) {
+        try {
+            return ByteBufUtil.getBytes(byteBuf);
+        } finally {
+            byteBuf.release();
+        }
+    }
+}
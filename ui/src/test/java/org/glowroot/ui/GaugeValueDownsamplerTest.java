@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeValueDownsamplerTest {
+
+    @Test
+    public void shouldNotDownsampleWithinBudget() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(0, 100);
+        // when
+        List<List<GaugeValue>> segments = GaugeValueDownsampler.downsample(gaugeValues, 100, 1500);
+        // then
+        assertThat(segments).hasSize(1);
+        assertThat(segments.get(0)).isEqualTo(gaugeValues);
+    }
+
+    @Test
+    public void shouldDownsampleAndKeepPeakAndEndPoints() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(0, 1000);
+        gaugeValues.set(500, gaugeValue(500000, 1000));
+        // when
+        List<List<GaugeValue>> segments = GaugeValueDownsampler.downsample(gaugeValues, 50, 1500);
+        // then
+        assertThat(segments).hasSize(1);
+        List<GaugeValue> segment = segments.get(0);
+        assertThat(segment).hasSize(50);
+        assertThat(segment.get(0)).isEqualTo(gaugeValues.get(0));
+        assertThat(segment.get(49)).isEqualTo(gaugeValues.get(999));
+        assertThat(segment).contains(gaugeValues.get(500));
+    }
+
+    @Test
+    public void shouldKeepGapsBetweenSegments() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(0, 500);
+        gaugeValues.addAll(createGaugeValues(1000000, 500));
+        // when
+        List<List<GaugeValue>> segments = GaugeValueDownsampler.downsample(gaugeValues, 100, 1500);
+        // then
+        assertThat(segments).hasSize(2);
+        assertThat(segments.get(0)).hasSize(50);
+        assertThat(segments.get(1)).hasSize(50);
+        assertThat(segments.get(0).get(49).getCaptureTime()).isEqualTo(499000);
+        assertThat(segments.get(1).get(0).getCaptureTime()).isEqualTo(1000000);
+    }
+
+    private static List<GaugeValue> createGaugeValues(long startTime, int count) {
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            gaugeValues.add(gaugeValue(startTime + i * 1000, i % 10));
+        }
+        return gaugeValues;
+    }
+
+    private static GaugeValue gaugeValue(long captureTime, double value) {
+        return GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(captureTime)
+                .setValue(value)
+                .setWeight(1)
+                .build();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.google.common.net.MediaType;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.ui.CommonHandler.CommonRequest;
+import org.glowroot.ui.CommonHandler.CommonResponse;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpServerHttp2Test {
+
+    private File confDir;
+    private HttpServer httpServer;
+    private EventLoopGroup clientGroup;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        // ALPN (needed to negotiate http/2) requires either java 9+, netty-tcnative or jetty-alpn
+        Assume.assumeTrue(isAlpnAvailable());
+        confDir = Files.createTempDir();
+        // self-signed certificate for localhost (netty's SelfSignedCertificate needs bouncycastle
+        // on java 9+)
+        copyResource("certificate.pem", new File(confDir, "certificate.pem"));
+        copyResource("private.pem", new File(confDir, "private.pem"));
+        // not using a mockito mock, since this test only runs on java 9+ and the version of
+        // mockito (byte-buddy) used does not support java 11+
+        CommonHandler commonHandler = new CommonHandler(false, null,
+                ImmutableMap.<Pattern, HttpService>of(), null, ImmutableList.of(), null) {
+            @Override
+            public CommonResponse handle(CommonRequest request) {
+                return new CommonResponse(OK, MediaType.PLAIN_TEXT_UTF_8, "hello");
+            }
+        };
+        httpServer = new HttpServer("127.0.0.1", true, Suppliers.ofInstance("/"), 1,
+                commonHandler, confDir, null);
+        httpServer.bindEventually(0);
+        clientGroup = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        // need null checks in case assumption is false in beforeEachTest()
+        if (clientGroup != null) {
+            clientGroup.shutdownGracefully().await();
+        }
+        if (httpServer != null) {
+            httpServer.close();
+        }
+        if (confDir != null) {
+            for (File file : checkNotNull(confDir.listFiles())) {
+                file.delete();
+            }
+            confDir.delete();
+        }
+    }
+
+    @Test
+    public void shouldNegotiateHttp2() throws Exception {
+        // given
+        BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        // when
+        Channel channel = connect(results);
+        // then
+        assertThat(results.poll(10, SECONDS)).isEqualTo(ApplicationProtocolNames.HTTP_2);
+        assertThat(results.poll(10, SECONDS)).isEqualTo("200 hello");
+        channel.close();
+    }
+
+    @Test
+    public void shouldCloseHttp2ConnectionOnProtocolChange() throws Exception {
+        // given
+        BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        Channel channel = connect(results);
+        assertThat(results.poll(10, SECONDS)).isEqualTo(ApplicationProtocolNames.HTTP_2);
+        assertThat(results.poll(10, SECONDS)).isEqualTo("200 hello");
+        // when
+        httpServer.changeProtocol(true);
+        // then
+        // the http/2 connection is closed, not just its (already completed) stream
+        assertThat(channel.closeFuture().await(10, SECONDS)).isTrue();
+    }
+
+    private Channel connect(final BlockingQueue<Object> results) throws Exception {
+        final SslContext sslContext = createClientSslContext();
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(clientGroup).channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(sslContext.newHandler(ch.alloc()));
+                        ch.pipeline().addLast(new ClientNegotiationHandler(results));
+                    }
+                });
+        return bootstrap.connect("127.0.0.1", checkNotNull(httpServer.getPort())).sync()
+                .channel();
+    }
+
+    private static void copyResource(String name, File file) throws IOException {
+        Resources.asByteSource(Resources.getResource(HttpServerHttp2Test.class, name))
+                .copyTo(Files.asByteSink(file));
+    }
+
+    private static SslContext createClientSslContext() throws Exception {
+        return SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+                        SelectorFailureBehavior.NO_ADVERTISE,
+                        SelectedListenerFailureBehavior.ACCEPT, ApplicationProtocolNames.HTTP_2,
+                        ApplicationProtocolNames.HTTP_1_1))
+                .build();
+    }
+
+    private static boolean isAlpnAvailable() {
+        try {
+            // same check as HttpServer.buildSslContext()
+            ReferenceCountUtil
+                    .release(createClientSslContext().newEngine(ByteBufAllocator.DEFAULT));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static class ClientNegotiationHandler extends ApplicationProtocolNegotiationHandler {
+
+        private final BlockingQueue<Object> results;
+
+        private ClientNegotiationHandler(BlockingQueue<Object> results) {
+            super(ApplicationProtocolNames.HTTP_1_1);
+            this.results = results;
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+            results.add(protocol);
+            if (!protocol.equals(ApplicationProtocolNames.HTTP_2)) {
+                ctx.close();
+                return;
+            }
+            Http2Connection connection = new DefaultHttp2Connection(false);
+            ctx.pipeline().addLast(new HttpToHttp2ConnectionHandlerBuilder()
+                    .connection(connection)
+                    .frameListener(new InboundHttp2ToHttpAdapterBuilder(connection)
+                            .maxContentLength(1048576)
+                            .propagateSettings(false)
+                            .build())
+                    .build());
+            ctx.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                    results.add(msg.status().code() + " " + msg.content().toString(UTF_8));
+                }
+            });
+            FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, GET, "/");
+            request.headers().set(HttpHeaderNames.HOST, "127.0.0.1");
+            request.headers().set(ExtensionHeaderNames.SCHEME.text(), "https");
+            ctx.channel().writeAndFlush(request);
+        }
+    }
+}
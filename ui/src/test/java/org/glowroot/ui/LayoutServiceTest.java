@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import javax.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.repo.AgentRollupRepository;
+import org.glowroot.common.repo.ConfigRepository;
+import org.glowroot.common.repo.TraceAttributeNameRepository;
+import org.glowroot.common.repo.TransactionTypeRepository;
+import org.glowroot.ui.HttpSessionManager.Authentication;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LayoutServiceTest {
+
+    private AgentRollupRepository agentRollupRepository;
+    private LayoutGeneration layoutGeneration;
+
+    @Before
+    public void beforeEachTest() {
+        agentRollupRepository = mock(AgentRollupRepository.class);
+        layoutGeneration = mock(LayoutGeneration.class);
+    }
+
+    @Test
+    public void shouldCacheLayoutUntilGenerationChanges() throws Exception {
+        // given
+        when(layoutGeneration.get()).thenReturn("a", "a", "b", "b");
+        LayoutService layoutService = createLayoutService(layoutGeneration);
+        Authentication authentication = mock(Authentication.class);
+        // when
+        layoutService.getLayoutVersion(authentication);
+        layoutService.getLayoutJson(authentication);
+        layoutService.getLayoutVersion(authentication);
+        layoutService.getLayoutJson(authentication);
+        // then
+        verify(agentRollupRepository, times(2)).readAgentRollups();
+    }
+
+    @Test
+    public void shouldCacheLayoutPerAuthentication() throws Exception {
+        // given
+        when(layoutGeneration.get()).thenReturn("a");
+        LayoutService layoutService = createLayoutService(layoutGeneration);
+        Authentication authentication1 = mock(Authentication.class);
+        Authentication authentication2 = mock(Authentication.class);
+        // when
+        layoutService.getLayoutVersion(authentication1);
+        layoutService.getLayoutVersion(authentication2);
+        layoutService.getLayoutVersion(authentication1);
+        layoutService.getLayoutVersion(authentication2);
+        // then
+        verify(agentRollupRepository, times(2)).readAgentRollups();
+    }
+
+    @Test
+    public void shouldNotCacheLayoutWithoutGeneration() throws Exception {
+        // given
+        LayoutService layoutService = createLayoutService(null);
+        Authentication authentication = mock(Authentication.class);
+        // when
+        layoutService.getLayoutVersion(authentication);
+        layoutService.getLayoutVersion(authentication);
+        // then
+        verify(agentRollupRepository, times(2)).readAgentRollups();
+    }
+
+    private LayoutService createLayoutService(@Nullable LayoutGeneration layoutGeneration) {
+        return new LayoutService(true, false, false, "0.0.0", mock(ConfigRepository.class),
+                agentRollupRepository, mock(TransactionTypeRepository.class),
+                mock(TraceAttributeNameRepository.class), layoutGeneration);
+    }
+}
@@ -18,15 +18,24 @@ package org.glowroot.ui;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 import org.junit.Test;
 
 import org.glowroot.ui.ReportJsonService.ROLLUP;
 import org.glowroot.ui.ReportJsonService.RollupCaptureTimeFn;
 
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ReportJsonServiceTest {
@@ -89,6 +98,99 @@ public class ReportJsonServiceTest {
         testRollupCaptureTime(ROLLUP.MONTHLY, tz, "20161101T0001", "20161201T0000");
     }
 
+    @Test
+    public void shouldLimitInFlightReadsPerRequest() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        List<Callable<Integer>> callables = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int curr = inFlight.incrementAndGet();
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), curr));
+                    }
+                    Thread.sleep(10);
+                    inFlight.decrementAndGet();
+                    return value;
+                }
+            });
+        }
+
+        // when
+        List<Integer> results = ReportJsonService.callInParallel(callables, executor);
+
+        // then
+        assertThat(results).hasSize(20);
+        for (int i = 0; i < 20; i++) {
+            assertThat(results.get(i)).isEqualTo(i);
+        }
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(4);
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldCancelRemainingReadsOnFailure() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch othersStarted = new CountDownLatch(3);
+        final CountDownLatch othersInterrupted = new CountDownLatch(3);
+        final AtomicBoolean laterStarted = new AtomicBoolean();
+        List<Callable<Integer>> callables = Lists.newArrayList();
+        callables.add(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                othersStarted.await(10, SECONDS);
+                throw new IllegalStateException("read failed");
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    othersStarted.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        othersInterrupted.countDown();
+                        throw e;
+                    }
+                    return 0;
+                }
+            });
+        }
+        for (int i = 0; i < 4; i++) {
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    laterStarted.set(true);
+                    return 0;
+                }
+            });
+        }
+
+        // when
+        Exception exception = null;
+        try {
+            ReportJsonService.callInParallel(callables, executor);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        // then
+        assertThat(exception).isInstanceOf(IllegalStateException.class)
+                .hasMessage("read failed");
+        assertThat(othersInterrupted.await(10, SECONDS)).isTrue();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+        // reads beyond the in-flight window were never submitted
+        assertThat(laterStarted.get()).isFalse();
+    }
+
     private static void testRollupCaptureTime(ROLLUP rollup, String timeZoneId,
             String captureTimeText, String expectedRollupCaptureTime,
             String... optionalBaseCaptureTime) throws ParseException {
@@ -15,11 +15,17 @@
  */
 package org.glowroot.ui;
 
+import java.io.StringWriter;
+import java.util.Iterator;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import com.google.common.collect.Lists;
 import org.junit.Test;
 
+import org.glowroot.common.repo.TraceRepository.EntriesCursor;
+import org.glowroot.ui.ChunkSource.ChunkCopier;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -39,4 +45,75 @@ public class TraceCommonServiceTest {
                 + "\"childEntries\":[{\"startOffsetNanos\":0,\"durationNanos\":0,\"message\":\"\"}]"
                 + "}]");
     }
+
+    @Test
+    public void shouldStreamSameJsonAcrossBatches() throws Exception {
+        // given
+        List<Trace.Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < 2500; i++) {
+            entries.add(Trace.Entry.newBuilder().setDepth(i % 3).build());
+        }
+        List<Trace.SharedQueryText> sharedQueryTexts = Lists.newArrayList();
+        for (int i = 0; i < 150; i++) {
+            sharedQueryTexts.add(Trace.SharedQueryText.newBuilder().setFullText("q" + i).build());
+        }
+        EntriesCursor cursor = new TestEntriesCursor(entries, sharedQueryTexts);
+        // when
+        String entriesJson = copy(TraceCommonService.entriesJsonChunkSource(cursor));
+        String sharedQueryTextsJson =
+                copy(TraceCommonService.sharedQueryTextsJsonChunkSource(cursor));
+        // then
+        assertThat(entriesJson).isEqualTo(TraceCommonService.entriesToJson(entries));
+        assertThat(sharedQueryTextsJson).startsWith("[{\"fullText\":\"q0\"},");
+        assertThat(sharedQueryTextsJson).endsWith(",{\"fullText\":\"q149\"}]");
+    }
+
+    @Test
+    public void shouldStreamNothingForNoEntries() throws Exception {
+        // given
+        EntriesCursor cursor = new TestEntriesCursor(Lists.<Trace.Entry>newArrayList(),
+                Lists.<Trace.SharedQueryText>newArrayList());
+        // when
+        String entriesJson = copy(TraceCommonService.entriesJsonChunkSource(cursor));
+        String sharedQueryTextsJson =
+                copy(TraceCommonService.sharedQueryTextsJsonChunkSource(cursor));
+        // then
+        assertThat(entriesJson).isEmpty();
+        assertThat(sharedQueryTextsJson).isEmpty();
+    }
+
+    private static String copy(ChunkSource chunkSource) throws Exception {
+        StringWriter writer = new StringWriter();
+        ChunkCopier chunkCopier = chunkSource.getCopier(writer);
+        boolean more = true;
+        while (more) {
+            more = chunkCopier.copyNext();
+        }
+        return writer.toString();
+    }
+
+    private static class TestEntriesCursor implements EntriesCursor {
+
+        private final Iterator<Trace.Entry> entries;
+        private final Iterator<Trace.SharedQueryText> sharedQueryTexts;
+
+        private TestEntriesCursor(List<Trace.Entry> entries,
+                List<Trace.SharedQueryText> sharedQueryTexts) {
+            this.entries = entries.iterator();
+            this.sharedQueryTexts = sharedQueryTexts.iterator();
+        }
+
+        @Override
+        public @Nullable Trace.Entry readNextEntry() {
+            return entries.hasNext() ? entries.next() : null;
+        }
+
+        @Override
+        public @Nullable Trace.SharedQueryText readNextSharedQueryText() {
+            return sharedQueryTexts.hasNext() ? sharedQueryTexts.next() : null;
+        }
+
+        @Override
+        public void close() {}
+    }
 }